@@ -0,0 +1,125 @@
+package com.fevernova.opencvtestfacedetection;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.objdetect.HaarCascade;
+import org.opencv.objdetect.JavaCascadeClassifier;
+import org.opencv.objdetect.ParallelCascadeClassifier;
+import org.opencv.objdetect.RectBuffer;
+
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the face cascade sequentially and on pools of 1 to all cores, checks that the
+ * detections are the same, and logs the time per frame and the speed-up of every pool size.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ParallelCascadeBenchmark {
+
+    private static final String TAG = "ParallelCascadeBenchmark";
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 20;
+
+    private static HaarCascade cascade;
+
+    @BeforeClass
+    public static void loadCascade() throws Exception {
+        InputStream is = InstrumentationRegistry.getTargetContext().getResources().openRawResource(R.raw.frontal_cascade_alt);
+        try {
+            cascade = HaarCascade.load(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    // the downscaled plane FaceEyeDetector searches in a 800x600 preview
+    @Test
+    public void face_400x300_scale1_2() throws Exception {
+        benchmark(400, 300, 1.2);
+    }
+
+    // the scale step of the sample app
+    @Test
+    public void face_400x300_scale2() throws Exception {
+        benchmark(400, 300, 2);
+    }
+
+    @Test
+    public void face_640x480_scale1_1() throws Exception {
+        benchmark(640, 480, 1.1);
+    }
+
+    private void benchmark(int width, int height, double scaleFactor) {
+        byte[] gray = texture(width, height, new Random(width * 31 + height));
+        RectBuffer expected = new RectBuffer();
+        RectBuffer actual = new RectBuffer();
+
+        JavaCascadeClassifier sequential = new JavaCascadeClassifier(cascade);
+        long sequentialNanos = time(sequential, gray, width, height, scaleFactor, expected);
+        StringBuilder log = new StringBuilder();
+        log.append(width).append('x').append(height).append(" scale ").append(scaleFactor)
+                .append(": sequential ").append(sequentialNanos / 1000).append("us");
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads = threads < cores && threads * 2 > cores ? cores : threads * 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long nanos = time(new ParallelCascadeClassifier(cascade, pool), gray, width, height, scaleFactor, actual);
+            pool.shutdown();
+            assertRectsEqual(expected, actual);
+            log.append(" / ").append(threads).append(" threads ").append(nanos / 1000).append("us x")
+                    .append(Math.round(100.0 * sequentialNanos / nanos) / 100.0);
+        }
+        Log.i(TAG, log.toString());
+    }
+
+    private static long time(JavaCascadeClassifier classifier, byte[] gray, int width, int height,
+                             double scaleFactor, RectBuffer objects) {
+        for (int i = 0; i < WARMUP; i++)
+            classifier.detectMultiScale(gray, 0, width, width, height, scaleFactor, 0, 0, 0, 0, 0, objects);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            classifier.detectMultiScale(gray, 0, width, width, height, scaleFactor, 0, 0, 0, 0, 0, objects);
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    /** Smooth noise with some grain, which lets windows go deeper into the cascade than flat noise */
+    private static byte[] texture(int width, int height, Random random) {
+        int cell = 8;
+        int gridWidth = width / cell + 2;
+        int[] grid = new int[gridWidth * (height / cell + 2)];
+        for (int i = 0; i < grid.length; i++)
+            grid[i] = random.nextInt(256);
+        byte[] gray = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int gx = x / cell, gy = y / cell;
+                int fx = x % cell, fy = y % cell;
+                int top = grid[gy * gridWidth + gx] * (cell - fx) + grid[gy * gridWidth + gx + 1] * fx;
+                int bottom = grid[(gy + 1) * gridWidth + gx] * (cell - fx) + grid[(gy + 1) * gridWidth + gx + 1] * fx;
+                int value = (top * (cell - fy) + bottom * fy) / (cell * cell) + random.nextInt(16);
+                gray[y * width + x] = (byte) Math.min(value, 255);
+            }
+        }
+        return gray;
+    }
+
+    private static void assertRectsEqual(RectBuffer expected, RectBuffer actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            if (expected.x(i) != actual.x(i) || expected.y(i) != actual.y(i)
+                    || expected.width(i) != actual.width(i) || expected.height(i) != actual.height(i))
+                fail("Detection " + i + ": expected " + expected.x(i) + "," + expected.y(i) + " "
+                        + expected.width(i) + "x" + expected.height(i) + " but was " + actual.x(i) + ","
+                        + actual.y(i) + " " + actual.width(i) + "x" + actual.height(i));
+        }
+    }
+}
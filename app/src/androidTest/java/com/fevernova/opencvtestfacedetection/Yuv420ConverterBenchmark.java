@@ -0,0 +1,115 @@
+package com.fevernova.opencvtestfacedetection;
+
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.android.Yuv420Converter;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the JVM YUV to RGBA conversion with Imgproc.cvtColor on preview sized frames,
+ * and logs the time per frame of both.
+ */
+@RunWith(AndroidJUnit4.class)
+public class Yuv420ConverterBenchmark {
+
+    private static final String TAG = "Yuv420Benchmark";
+    private static final int WARMUP = 20;
+    private static final int ITERATIONS = 100;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        assertTrue(OpenCVLoader.initDebug());
+    }
+
+    @Test
+    public void nv21_640x480() throws Exception {
+        benchmark(640, 480, Imgproc.COLOR_YUV2RGBA_NV21);
+    }
+
+    @Test
+    public void nv21_1280x720() throws Exception {
+        benchmark(1280, 720, Imgproc.COLOR_YUV2RGBA_NV21);
+    }
+
+    @Test
+    public void i420_640x480() throws Exception {
+        benchmark(640, 480, Imgproc.COLOR_YUV2RGB_I420);
+    }
+
+    @Test
+    public void i420_1280x720() throws Exception {
+        benchmark(1280, 720, Imgproc.COLOR_YUV2RGB_I420);
+    }
+
+    private void benchmark(int width, int height, int code) {
+        byte[] yuv = new byte[width * height * 3 / 2];
+        new Random(width * 31 + height).nextBytes(yuv);
+
+        Mat yuvMat = new Mat(height + height / 2, width, CvType.CV_8UC1);
+        yuvMat.put(0, 0, yuv);
+        Mat rgbaMat = new Mat();
+        byte[] expected = new byte[width * height * 4];
+        ByteBuffer actual = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.nativeOrder());
+
+        Yuv420Converter sequential = new Yuv420Converter();
+        ForkJoinPool pool = new ForkJoinPool();
+        Yuv420Converter parallel = new Yuv420Converter(pool, 32);
+
+        // the native call as JavaCameraView makes it, plus the copy a JVM consumer needs
+        for (int i = 0; i < WARMUP; i++)
+            Imgproc.cvtColor(yuvMat, rgbaMat, code, 4);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            Imgproc.cvtColor(yuvMat, rgbaMat, code, 4);
+        long nativeNanos = (System.nanoTime() - start) / ITERATIONS;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            rgbaMat.get(0, 0, expected);
+        long copyNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        long sequentialNanos = time(sequential, yuv, width, height, code, actual);
+        assertBufferEquals(expected, actual);
+        long parallelNanos = time(parallel, yuv, width, height, code, actual);
+        assertBufferEquals(expected, actual);
+
+        Log.i(TAG, width + "x" + height + " code " + code
+                + ": cvtColor " + nativeNanos / 1000 + "us (+" + copyNanos / 1000 + "us get)"
+                + " / java " + sequentialNanos / 1000 + "us"
+                + " / java parallel " + parallelNanos / 1000 + "us");
+
+        pool.shutdown();
+        yuvMat.release();
+        rgbaMat.release();
+    }
+
+    private static long time(Yuv420Converter converter, byte[] yuv, int width, int height, int code, ByteBuffer rgba) {
+        for (int i = 0; i < WARMUP; i++)
+            converter.convert(yuv, width, height, code, rgba);
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++)
+            converter.convert(yuv, width, height, code, rgba);
+        return (System.nanoTime() - start) / ITERATIONS;
+    }
+
+    private static void assertBufferEquals(byte[] expected, ByteBuffer actual) {
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual.get(i))
+                fail("Pixel " + i / 4 + " channel " + i % 4 + ": expected " + (expected[i] & 0xFF)
+                        + " but was " + (actual.get(i) & 0xFF));
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.fevernova.opencvtestfacedetection;
 
 import android.content.Context;
+import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.os.Bundle;
@@ -14,45 +15,82 @@ import android.view.WindowManager;
 
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.DetectionExecutor;
+import org.opencv.android.FrameLatencyMonitor;
 import org.opencv.android.JavaCameraView;
 import org.opencv.android.LoaderCallbackInterface;
 import org.opencv.android.OpenCVLoader;
+import org.opencv.android.Sprite;
+import org.opencv.android.SpriteCache;
+import org.opencv.android.SpriteCompositor;
 import org.opencv.android.Utils;
-import org.opencv.core.CvException;
+import org.opencv.android.VideoRecorder;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfRect;
-import org.opencv.core.Rect;
+import org.opencv.core.NativeMemoryTracker;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
-import org.opencv.objdetect.CascadeClassifier;
+import org.opencv.objdetect.DetectionContext;
+import org.opencv.objdetect.DetectionTracker;
+import org.opencv.objdetect.FaceEyeDetector;
+import org.opencv.objdetect.HaarCascade;
+import org.opencv.objdetect.HaarCascadeFile;
+import org.opencv.objdetect.JavaCascadeClassifier;
+import org.opencv.objdetect.MotionMask;
+import org.opencv.objdetect.ParallelCascadeClassifier;
+import org.opencv.objdetect.RectBuffer;
+import org.opencv.videoio.PreRollBuffer;
 import org.opencv.videoio.VideoWriter;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.ForkJoinPool;
 
-import static org.opencv.core.CvType.CV_8UC3;
 import static org.opencv.core.CvType.CV_8UC4;
 
 public class MainActivity extends AppCompatActivity implements CameraBridgeViewBase.CvCameraViewListener2 {
 
     private static final String TAG = MainActivity.class.getSimpleName();
+    //detections older than this are not drawn anymore
+    private static final long MAX_DETECTION_AGE_NANOS = 500000000L;
+    //how often debug builds log the native memory held by OpenCV objects
+    private static final long NATIVE_SNAPSHOT_PERIOD_MS = 10000;
+    //frames waiting for the video encoder before new ones are dropped
+    private static final int RECORDER_QUEUE_SIZE = 4;
+    //threads compressing recorded frames to JPEG in parallel
+    private static final int RECORDER_ENCODER_THREADS = 2;
+    //recordings start this long before the record button is pressed
+    private static final long PRE_ROLL_NANOS = 5000000000L;
+    //native memory kept for the pre-roll frames, whatever fits in it is kept
+    private static final int PRE_ROLL_BYTES = 16 * 1024 * 1024;
+    //overlay sizes are rounded to this many pixels so that sprites are reused across frames
+    private static final int SPRITE_QUANTUM = 4;
+    //memory kept for the resized overlays
+    private static final long SPRITE_CACHE_BYTES = 4 * 1024 * 1024;
+    //the sprite cache statistics are logged every this many misses
+    private static final long SPRITE_LOG_MISSES = 50;
+    //threads scanning the face pyramid in parallel, the eye cascade runs on small regions and stays sequential
+    private static final int FACE_DETECTION_THREADS = Runtime.getRuntime().availableProcessors();
 
     private boolean toApplyLense = false;
     private boolean isRecording = false;
     private AppCompatButton btnApply;
     private AppCompatButton btnRecord;
-    private VideoWriter videoWriter;
+    private volatile VideoRecorder videoRecorder;
+    private PreRollBuffer preRollBuffer;
     private File externalStoragePublicDirectory;
     private Mat mainFrame;
     private Mat decorationMat;
-    private MatOfRect eyesDetections;
+    private SpriteCache spriteCache;
+    private long spriteMissesLogged;
+    private final SpriteCompositor spriteCompositor = new SpriteCompositor();
     private Bitmap decoration;
-    private CascadeClassifier eyesClassifier;
-    private CascadeClassifier faceClassfier;
-    private int absoluteFaceSize = 0;
+    private JavaCascadeClassifier eyesClassifier;
+    private JavaCascadeClassifier faceClassfier;
+    private FaceEyeDetector faceEyeDetector;
+    private ForkJoinPool faceDetectionPool;
+    private DetectionExecutor<Detections> detectionExecutor;
+    private volatile int absoluteFaceSize = 0;
     private JavaCameraView cameraView;
     private int frameWidth;
     private int frameHeight;
@@ -87,6 +125,16 @@ public class MainActivity extends AppCompatActivity implements CameraBridgeViewB
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        if (BuildConfig.DEBUG && !NativeMemoryTracker.isEnabled()) {
+            //log the native objects held by OpenCV wrappers and the Mats left to finalizers
+            NativeMemoryTracker.enable(false);
+            NativeMemoryTracker.startPeriodicSnapshots(NATIVE_SNAPSHOT_PERIOD_MS, new NativeMemoryTracker.Listener() {
+                @Override
+                public void onSnapshot(NativeMemoryTracker.Snapshot snapshot) {
+                    Log.d(TAG, "native memory: " + snapshot);
+                }
+            });
+        }
         getWindow().setFlags(WindowManager.LayoutParams.FLAG_FULLSCREEN,
                 WindowManager.LayoutParams.FLAG_FULLSCREEN);
         setContentView(R.layout.activity_main);
@@ -97,6 +145,8 @@ public class MainActivity extends AppCompatActivity implements CameraBridgeViewB
             @Override
             public void onClick(View v) {
                 toApplyLense = !toApplyLense;
+                //only spend cpu on detection while the overlay is shown
+                cameraView.setDetectionExecutor(toApplyLense ? detectionExecutor : null);
             }
         });
         btnRecord.setOnClickListener(new View.OnClickListener() {
@@ -104,69 +154,118 @@ public class MainActivity extends AppCompatActivity implements CameraBridgeViewB
             public void onClick(View v) {
                 isRecording = !isRecording;
                 if (isRecording) {
+                    //the file starts with the frames of the last seconds
+                    if (videoRecorder != null) {
+                        videoRecorder.trigger();
+                    }
                     btnRecord.setText("Recording...");
                 } else {
-                    btnRecord.setText("Record");
+                    //close this file and keep buffering for the next one
+                    if (videoRecorder != null) {
+                        startRecorder();
+                    } else {
+                        btnRecord.setText("Record");
+                    }
                 }
             }
         });
 
         externalStoragePublicDirectory = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES);
+        preRollBuffer = new PreRollBuffer(PRE_ROLL_BYTES, PRE_ROLL_NANOS);
         decoration = BitmapFactory.decodeResource(getResources(), R.drawable.hypno);
         decorationMat = bitmapToMat(decoration);
+        spriteCache = new SpriteCache(decorationMat, SPRITE_QUANTUM, SPRITE_CACHE_BYTES);
         cameraView = (JavaCameraView) findViewById(R.id.cameraView);
         cameraView.setCvCameraViewListener(this);
         frameWidth = 800;
         frameHeight = 600;
         cameraView.setMaxFrameSize(frameWidth, frameHeight);
-        videoWriter = new VideoWriter();
+        if (BuildConfig.DEBUG) {
+            //show the frame rate and the latency percentiles of every stage over the preview
+            cameraView.enableLatencyOverlay();
+        }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        if (cameraView != null && videoWriter != null) {
+        if (cameraView != null) {
             cameraView.disableView();
-            videoWriter.release();
+        }
+        stopRecorder();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        //the detection worker was stopped with the camera in onPause, nothing runs on the pool anymore
+        if (faceClassfier instanceof ParallelCascadeClassifier) {
+            ((ParallelCascadeClassifier) faceClassfier).release();
+        }
+        if (faceDetectionPool != null) {
+            faceDetectionPool.shutdown();
+            faceDetectionPool = null;
         }
     }
 
     private void initializeOpenCVDependencies() {
-        eyesClassifier = initCascadeClassifier(R.raw.eyes_cascade, "eyes_cascade");
-        faceClassfier = initCascadeClassifier(R.raw.frontal_cascade_alt, "face_cascade");
+        if (faceDetectionPool == null)
+            faceDetectionPool = new ForkJoinPool(FACE_DETECTION_THREADS);
+        //the classifiers are kept across resumes, the detector holds on to them
+        if (detectionExecutor == null) {
+            eyesClassifier = initCascadeClassifier(R.raw.eyes_cascade, "eyes_cascade", null);
+            faceClassfier = initCascadeClassifier(R.raw.frontal_cascade_alt, "face_cascade", faceDetectionPool);
+            if (eyesClassifier != null && faceClassfier != null) {
+                faceEyeDetector = new FaceEyeDetector(faceClassfier, eyesClassifier);
+                detectionExecutor = new DetectionExecutor<>(new FaceEyeDetection());
+            }
+        }
+        cameraView.setDetectionExecutor(toApplyLense ? detectionExecutor : null);
         cameraView.enableView();
+        startRecorder();
+    }
+
+    private void startRecorder() {
         int frameRate = 15;
-        videoWriter.open(externalStoragePublicDirectory.getAbsolutePath() + (System.currentTimeMillis() / 1000) + ".avi",
+        stopRecorder();
+        isRecording = false;
+        btnRecord.setText("Record");
+        videoRecorder = new VideoRecorder(externalStoragePublicDirectory.getAbsolutePath() + (System.currentTimeMillis() / 1000) + ".avi",
                 VideoWriter.fourcc('M', 'J', 'P', 'G'),
                 frameRate,
                 new Size(frameWidth, frameHeight),
-                true);
+                RECORDER_QUEUE_SIZE,
+                RECORDER_ENCODER_THREADS,
+                preRollBuffer);
     }
 
-    private CascadeClassifier initCascadeClassifier(@RawRes int res, String fileName) {
-        CascadeClassifier cascadeClassifier;
-        File cascadeDir = getDir(fileName, Context.MODE_PRIVATE);
-        File cascadeFile = new File(cascadeDir, fileName + ".xml");
-        try (InputStream is = getResources().openRawResource(res);
-             FileOutputStream os = new FileOutputStream(cascadeFile)) {
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-
-            while ((bytesRead = is.read(buffer)) != -1) {
-                os.write(buffer, 0, bytesRead);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        // Load the cascade classifier
-        cascadeClassifier = new CascadeClassifier();
-        cascadeClassifier.load(cascadeFile.getAbsolutePath());
-        if (cascadeClassifier.empty()) {
-            Log.e(TAG, "Failed to load cascade classifier");
-            cascadeClassifier = null;
+    private void stopRecorder() {
+        //the queued frames are written and the file is closed on the encoder thread;
+        //the next recorder only clears the pre-roll buffer once this one has let go of it
+        if (videoRecorder != null) {
+            videoRecorder.stop();
+            videoRecorder = null;
         }
+    }
 
-        return cascadeClassifier;
+    //with a pool the pyramid is scanned in parallel, otherwise on the calling thread
+    private JavaCascadeClassifier initCascadeClassifier(@RawRes int res, String fileName, ForkJoinPool pool) {
+        // the XML is only read when the app was installed or updated since the compiled copy was
+        // written, and only parsed when the compiled copy is missing or was built from another resource
+        File compiledFile = new File(getDir("cascades", Context.MODE_PRIVATE), fileName + ".bin");
+        long sourceKey;
+        try {
+            sourceKey = getPackageManager().getPackageInfo(getPackageName(), 0).lastUpdateTime * 31 + res;
+        } catch (PackageManager.NameNotFoundException e) {
+            sourceKey = HaarCascadeFile.NO_KEY;
+        }
+        try (InputStream is = getResources().openRawResource(res)) {
+            HaarCascade cascade = HaarCascadeFile.load(is, sourceKey, compiledFile);
+            return pool != null ? new ParallelCascadeClassifier(cascade, pool) : new JavaCascadeClassifier(cascade);
+        } catch (IOException | IllegalArgumentException e) {
+            Log.e(TAG, "Failed to load cascade classifier", e);
+            return null;
+        }
     }
 
     @Override
@@ -183,82 +282,165 @@ public class MainActivity extends AppCompatActivity implements CameraBridgeViewB
 
     @Override
     public void onCameraViewStarted(int width, int height) {
-        mainFrame = new Mat(height, width, CV_8UC3);
         Log.d(TAG, "onCameraViewStarted: cameraHeight = " + height + " / cameraWidth = " + width);
     }
 
     @Override
     public void onCameraViewStopped() {
-        if (mainFrame != null) {
-            mainFrame.release();
-        }
+        //mainFrame belongs to the camera frame, which releases it
+        mainFrame = null;
     }
 
     @Override
     public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
         mainFrame = inputFrame.rgba();
         int height = mainFrame.rows();
-        //use these to decrease/increase area of face detection -> impacts fps
+        //use this to decrease/increase area of face detection -> impacts detection rate
         double sizeFactor = 0.05;
-        int scaleFactor = 2;
 
         if (Math.round(height * sizeFactor) > 0) {
             absoluteFaceSize = (int) Math.round(height * sizeFactor);
         }
 
+        FrameLatencyMonitor latency = cameraView.getLatencyMonitor();
         if (toApplyLense) {
-            applyOverlay(scaleFactor);
+            long overlayStart = System.nanoTime();
+            applyOverlay();
+            latency.record(FrameLatencyMonitor.STAGE_OVERLAY, System.nanoTime() - overlayStart);
         }
 
-        //saved frame must match size set in video writer -> resize
-        Mat toSaveFrame = new Mat();
-        Imgproc.resize(mainFrame, toSaveFrame, new Size(frameWidth, frameHeight ));
-
-        if (videoWriter.isOpened() && isRecording) {
-            videoWriter.write(toSaveFrame);
+        //the recorder resizes the frame to the video size and encodes it on its own thread,
+        //into the pre-roll buffer until the record button is pressed
+        VideoRecorder recorder = videoRecorder;
+        if (recorder != null) {
+            long recordStart = System.nanoTime();
+            boolean written = recorder.write(mainFrame);
+            latency.record(FrameLatencyMonitor.STAGE_RECORD, System.nanoTime() - recordStart);
+            if (!written && recorder.hasFailed()) {
+                //the file cannot be written anymore: stop it rather than drop every frame
+                Log.e(TAG, "onCameraFrame: recording failed", recorder.getError());
+                if (videoRecorder == recorder) {
+                    videoRecorder = null;
+                    runOnUiThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            isRecording = false;
+                            btnRecord.setText("Record");
+                        }
+                    });
+                }
+            } else if (!written) {
+                Log.d(TAG, "onCameraFrame: recorder dropped frame, queue depth = " + recorder.getQueueDepth()
+                        + " / last convert = " + recorder.getLastConvertNanos() / 1000 + "us"
+                        + " / last encode = " + recorder.getLastEncodeNanos() / 1000 + "us"
+                        + " / dropped = " + recorder.getDroppedFrameCount()
+                        + " / pre-roll = " + preRollBuffer.getUsedBytes() / 1024 + " of "
+                        + preRollBuffer.getCapacityBytes() / 1024 + "KB");
+            }
         }
 
-        toSaveFrame.release();
         return mainFrame;
     }
 
-    private void applyOverlay(int scaleFactor) {
-        if (eyesDetections == null) {
-            eyesDetections = new MatOfRect();
+    private void applyOverlay() {
+        //detection runs on the executor thread, draw the newest result it has published
+        DetectionExecutor.Result<Detections> result = detectionExecutor != null ? detectionExecutor.latest() : null;
+        if (result == null) {
+            return;
+        }
+        if (result.getAgeNanos() > MAX_DETECTION_AGE_NANOS) {
+            Log.d(TAG, "applyOverlay: dropping result of frame " + result.getFrameId()
+                    + ", current frame is " + cameraView.getFrameId());
+            return;
         }
-        //detect eyes in frame
-        if (eyesClassifier != null) {
-            eyesClassifier.detectMultiScale(mainFrame, eyesDetections, scaleFactor, 1, 2,
-                    new Size(absoluteFaceSize, absoluteFaceSize), new Size());
+
+        //for each detection -> draw overlay, blended with its alpha and clipped to the frame
+        RectBuffer eyes = result.getValue().eyes;
+        spriteCompositor.begin(mainFrame);
+        for (int i = 0; i < eyes.size(); i++) {
+            //sprites are rendered once per quantized size, centre it on the eye rectangle
+            Sprite sprite = spriteCache.getSprite(eyes.width(i), eyes.height(i));
+            spriteCompositor.add(sprite,
+                    eyes.x(i) + (eyes.width(i) - sprite.getWidth()) / 2,
+                    eyes.y(i) + (eyes.height(i) - sprite.getHeight()) / 2);
         }
+        spriteCompositor.end();
+        if (spriteCache.getMissCount() >= spriteMissesLogged + SPRITE_LOG_MISSES) {
+            spriteMissesLogged = spriteCache.getMissCount();
+            Log.d(TAG, "applyOverlay: sprite cache hit rate = " + (int) (spriteCache.getHitRate() * 100)
+                    + "% / sprites = " + spriteCache.getSpriteCount() + " / " + spriteCache.getBytes() / 1024 + "KB");
+        }
+    }
 
-        //for each detection -> draw overlay
-        for (Rect eyesRect : eyesDetections.toArray()) {
-            try {
-                Log.d(TAG, "applyOverlay: width = " + eyesRect.width + " / height = " + eyesRect.height);
-                //resize mat to match eye detection rectangle
-                Mat toIncludeMat = new Mat();
-                Imgproc.resize(decorationMat, toIncludeMat, new Size(eyesRect.width, eyesRect.height));
-
-                // create submatrix where we insert our bitmap
-                Mat subMat = mainFrame.submat(new Rect((int) eyesRect.tl().x,
-                        (int) eyesRect.tl().y,
-                        toIncludeMat.cols(),
-                        toIncludeMat.rows()));
-                toIncludeMat.copyTo(subMat);
-
-                toIncludeMat.release();
-                subMat.release();
-            } catch (CvException e) {
-                e.printStackTrace();
+    private static class Detections {
+        final RectBuffer eyes = new RectBuffer();
+    }
+
+    /**
+     * Detects faces on a downscaled luma plane, then eyes in the upper half of each face, every
+     * few frames; the eyes are tracked in the frames in between.
+     * Runs on the detection executor thread.
+     */
+    private class FaceEyeDetection implements DetectionExecutor.Detector<Detections> {
+        //use this to decrease/increase the scale step of face detection -> impacts detection rate
+        private static final int SCALE_FACTOR = 2;
+        //frames between two runs of the cascades, eyes are tracked in between
+        private static final int DETECTION_INTERVAL = 4;
+
+        //mean luma difference above which a block of the frame counts as moving
+        private static final int MOTION_THRESHOLD = 6;
+        //pixels added around moving blocks before searching them again
+        private static final int MOTION_MARGIN = 32;
+
+        private final RectBuffer faces = new RectBuffer();
+        private final RectBuffer movingRegions = new RectBuffer();
+        private final MotionMask motion = new MotionMask();
+        private long skippedDetections;
+        private final DetectionTracker eyeTracker = new DetectionTracker(new DetectionTracker.Detector() {
+            @Override
+            public void detect(byte[] gray, int offset, int rowStride, int width, int height, RectBuffer eyes) {
+                //a still scene keeps the previous faces and eyes, otherwise only the moving parts are searched
+                if (motion.update(gray, offset, rowStride, width, height) == 0) {
+                    skippedDetections++;
+                    return;
+                }
+                motion.getChangedRegions(MOTION_MARGIN, movingRegions);
+                faceEyeDetector.setFaceParams(SCALE_FACTOR, 2, absoluteFaceSize);
+                faceEyeDetector.detect(gray, offset, rowStride, width, height, movingRegions, faces, eyes);
             }
+        });
+
+        FaceEyeDetection() {
+            eyeTracker.setDetectionInterval(DETECTION_INTERVAL);
+            motion.setThreshold(MOTION_THRESHOLD);
+        }
+
+        @Override
+        public Detections createResult() {
+            return new Detections();
+        }
+
+        @Override
+        public void detect(byte[] luma, int width, int height, Detections result) {
+            if (!eyeTracker.update(luma, 0, width, width, height, result.eyes))
+                return;
+            DetectionContext context = faceEyeDetector.getContext();
+            Log.d(TAG, "detect: faces = " + faceEyeDetector.getStageNanos(FaceEyeDetector.STAGE_FACES) / 1000
+                    + "us / eyes = " + faceEyeDetector.getStageNanos(FaceEyeDetector.STAGE_EYES) / 1000
+                    + "us / layers = " + context.getLayerCount()
+                    + " (" + context.getLayerBuildCount() + " built, " + context.getLayerHitCount() + " reused)"
+                    + " / tracked frames = " + eyeTracker.getTrackedFrameCount()
+                    + " / detected frames = " + eyeTracker.getDetectedFrameCount()
+                    + " (" + eyeTracker.getEarlyDetectionCount() + " early, " + skippedDetections + " still)"
+                    + " / moving blocks = " + motion.getChangedBlockCount() + "/" + motion.getBlockCount());
         }
     }
 
     private Mat bitmapToMat(Bitmap bitmap) {
         Mat mat = new Mat(bitmap.getWidth(), bitmap.getHeight(), CV_8UC4, new Scalar(0, 0, 0, 255));
         Bitmap bmp32 = bitmap.copy(Bitmap.Config.ARGB_8888, true);
-        Utils.bitmapToMat(bmp32, mat);
+        //Android keeps bitmaps premultiplied, sprites premultiply straight alpha themselves
+        Utils.bitmapToMat(bmp32, mat, true);
         return mat;
     }
 }
@@ -0,0 +1,12 @@
+#include <jni.h>
+
+// Direct buffer over native memory, see org.opencv.core.MatBuffer.
+extern "C"
+JNIEXPORT jobject JNICALL
+Java_org_opencv_core_MatBuffer_nNewBuffer(
+        JNIEnv *env,
+        jclass /* clazz */,
+        jlong address,
+        jlong capacity) {
+    return env->NewDirectByteBuffer(reinterpret_cast<void *>(address), capacity);
+}
@@ -1,10 +1,12 @@
 package org.opencv.android;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.opencv.BuildConfig;
 import org.opencv.R;
 import org.opencv.core.Mat;
+import org.opencv.core.MatPool;
 import org.opencv.core.Size;
 
 import android.app.Activity;
@@ -30,6 +32,8 @@ import android.view.SurfaceView;
 public abstract class CameraBridgeViewBase extends SurfaceView implements SurfaceHolder.Callback {
 
     private static final String TAG = "CameraBridge";
+    // idle Mats kept by the frame pool: a few full size RGBA frames at 1280x720
+    private static final long DEFAULT_MAT_POOL_BYTES = 16 * 1024 * 1024;
     private static final int MAX_UNSPECIFIED = -1;
     private static final int STOPPED = 0;
     private static final int STARTED = 1;
@@ -39,6 +43,14 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     private CvCameraViewListener2 mListener;
     private boolean mSurfaceExist;
     private final Object mSyncObject = new Object();
+    private volatile DetectionExecutor<?> mDetectionExecutor;
+    // executors replaced while started, whose workers may still be finishing
+    private final List<DetectionExecutor<?>> mRetiredExecutors = new ArrayList<DetectionExecutor<?>>();
+    private long mFrameId;
+    private MatPool mMatPool = new MatPool(DEFAULT_MAT_POOL_BYTES);
+    private MatPool.Scope mFrameScope;
+    private final FrameLatencyMonitor mLatencyMonitor = new FrameLatencyMonitor();
+    private boolean mLatencyOverlay;
 
     protected int mFrameWidth;
     protected int mFrameHeight;
@@ -176,6 +188,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     /**
      * This class interface is abstract representation of single frame from camera for onCameraFrame callback
      * Attention: Do not use objects, that represents this interface out of onCameraFrame callback!
+     * The returned Mats belong to the frame: conversions are done once per frame and cached,
+     * so they must not be released by the caller.
      */
     public interface CvCameraViewFrame {
 
@@ -188,6 +202,33 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
          * This method returns single channel gray scale Mat with frame
          */
         public Mat gray();
+
+        /**
+         * This method returns BGR Mat with frame, converted from rgba()
+         */
+        public Mat bgr();
+
+        /**
+         * This method returns RGBA Mat with frame resized by the given factor, resized from rgba()
+         */
+        public Mat rgba(double scale);
+
+        /**
+         * This method returns single channel gray scale Mat with frame resized by the given factor.
+         * Scale 1 is gray() itself, other scales are resized from it without any color conversion.
+         */
+        public Mat gray(double scale);
+
+        /**
+         * This method returns the sequence number of the frame. It grows by one for every frame
+         * captured by the camera, so a gap between two delivered frames means frames were dropped.
+         */
+        public long getSequenceNumber();
+
+        /**
+         * This method returns the {@link System#nanoTime()} at which the camera handed the frame over.
+         */
+        public long getTimestampNanos();
     };
 
     public void surfaceChanged(SurfaceHolder arg0, int arg1, int arg2, int arg3) {
@@ -255,6 +296,98 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             mFpsMeter = null;
     }
 
+    /**
+     * Latency of the stages of the frame pipeline, recorded for every frame. The listener
+     * adds the stages it runs itself.
+     */
+    public FrameLatencyMonitor getLatencyMonitor() {
+        return mLatencyMonitor;
+    }
+
+    /**
+     * Draws the frame rate and the latency percentiles of every stage over the frames.
+     */
+    public void enableLatencyOverlay() {
+        mLatencyOverlay = true;
+    }
+
+    public void disableLatencyOverlay() {
+        mLatencyOverlay = false;
+    }
+
+    /**
+     * Sets the executor that receives the gray plane of every frame before onCameraFrame()
+     * is called. Detection then runs on the executor thread while frames keep being delivered
+     * at the camera rate; the listener draws whatever {@link DetectionExecutor#latest()} returns.
+     * The executor is started and stopped together with the camera. An executor replaced
+     * while the camera runs is only asked to stop, so that this method never waits for a
+     * detection in progress; it is waited for when the camera is disconnected.
+     * @param executor the executor, or null to stop submitting frames
+     */
+    public void setDetectionExecutor(DetectionExecutor<?> executor) {
+        synchronized(mSyncObject) {
+            DetectionExecutor<?> previous = mDetectionExecutor;
+            if (previous == executor)
+                return;
+            mDetectionExecutor = executor;
+            if (executor != null)
+                executor.setLatencyMonitor(mLatencyMonitor);
+            if (mState == STARTED) {
+                if (previous != null) {
+                    previous.requestStop();
+                    if (!mRetiredExecutors.contains(previous))
+                        mRetiredExecutors.add(previous);
+                }
+                if (executor != null) {
+                    mRetiredExecutors.remove(executor);
+                    executor.start();
+                }
+            }
+        }
+    }
+
+    public DetectionExecutor<?> getDetectionExecutor() {
+        return mDetectionExecutor;
+    }
+
+    /**
+     * Pool of temporary Mats for frame processing. Mats acquired through
+     * {@link #getFrameScope()} go back to it once the frame is drawn.
+     */
+    public MatPool getMatPool() {
+        return mMatPool;
+    }
+
+    /**
+     * Replaces the pool, for example to change its idle size. Must not be called while
+     * frames are delivered.
+     */
+    public void setMatPool(MatPool pool) {
+        if (pool == null)
+            throw new IllegalArgumentException("Pool cannot be null");
+        mMatPool.clear();
+        mMatPool = pool;
+    }
+
+    /**
+     * Scope of the frame being delivered, only valid inside onCameraFrame(). Mats acquired
+     * from it, including the one onCameraFrame() returns, are given back to the pool after
+     * the frame is drawn, so a listener can use them as temporaries without creating new Mats.
+     */
+    public MatPool.Scope getFrameScope() {
+        if (mFrameScope == null)
+            throw new IllegalStateException("No frame is being delivered");
+        return mFrameScope;
+    }
+
+    /**
+     * Returns the id of the frame being delivered, as passed to the detection executor.
+     * This is the sequence number of the frame, see {@link CvCameraViewFrame#getSequenceNumber()}.
+     */
+    public long getFrameId() {
+        return mFrameId;
+    }
+
     /**
      *
      * @param listener
@@ -369,14 +502,23 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
             });
             ad.show();
 
+        } else if (mDetectionExecutor != null) {
+            mDetectionExecutor.start();
         }
     }
 
     private void onExitStartedState() {
         disconnectCamera();
+        if (mDetectionExecutor != null) {
+            mDetectionExecutor.stop();
+        }
+        for (int i = 0; i < mRetiredExecutors.size(); i++)
+            mRetiredExecutors.get(i).stop();
+        mRetiredExecutors.clear();
         if (mCacheBitmap != null) {
             mCacheBitmap.recycle();
         }
+        mMatPool.clear();
     }
 
     /**
@@ -388,12 +530,30 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
     protected void deliverAndDrawFrame(CvCameraViewFrame frame) {
         Mat modified;
 
-        if (mListener != null) {
-            modified = mListener.onCameraFrame(frame);
-        } else {
-            modified = frame.rgba();
+        mFrameId = frame.getSequenceNumber();
+        mLatencyMonitor.frameDelivered(mFrameId, frame.getTimestampNanos());
+        DetectionExecutor<?> executor = mDetectionExecutor;
+        if (executor != null) {
+            executor.submit(frame.gray(), mFrameId);
         }
 
+        mFrameScope = mMatPool.scope();
+        try {
+            if (mListener != null) {
+                modified = mListener.onCameraFrame(frame);
+            } else {
+                modified = frame.rgba();
+            }
+            long drawStart = System.nanoTime();
+            drawFrame(modified);
+            mLatencyMonitor.record(FrameLatencyMonitor.STAGE_DRAW, System.nanoTime() - drawStart);
+        } finally {
+            mFrameScope.close();
+            mFrameScope = null;
+        }
+    }
+
+    private void drawFrame(Mat modified) {
         boolean bmpValid = true;
         if (modified != null) {
             try {
@@ -431,6 +591,8 @@ public abstract class CameraBridgeViewBase extends SurfaceView implements Surfac
                     mFpsMeter.measure();
                     mFpsMeter.draw(canvas, 20, 30);
                 }
+                if (mLatencyOverlay)
+                    mLatencyMonitor.draw(canvas, 20, 60);
                 getHolder().unlockCanvasAndPost(canvas);
             }
         }
@@ -0,0 +1,309 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatBuffer;
+
+import android.util.Log;
+
+/**
+ * Runs a detector on its own thread, decoupled from the thread delivering camera frames.
+ * <p>
+ * {@link #submit} copies the luma plane of a frame into a latest-wins slot and returns
+ * immediately: when the detector is still busy with an older frame, the pending one is
+ * replaced and counted as skipped. The worker always picks up the newest frame. Finished
+ * results are published the same way, and {@link #latest()} hands the newest one to the
+ * render thread without locking. Every result carries the id and timestamp of the frame
+ * it was computed from, so the caller can tell how stale it is.
+ * <p>
+ * {@link #submit} and {@link #latest()} must each be called from a single thread, normally
+ * the camera worker thread that runs {@code onCameraFrame}. {@link #requestStop()} lets the
+ * worker finish in the background, for callers such as the UI thread that must not wait for
+ * a detection in progress; {@link #stop()} waits for it.
+ */
+public class DetectionExecutor<T> {
+
+    private static final String TAG = "DetectionExecutor";
+
+    /**
+     * The detection itself, called on the worker thread.
+     */
+    public interface Detector<T> {
+        /**
+         * Creates an empty result holder. Called three times, results are reused afterwards.
+         */
+        public T createResult();
+
+        /**
+         * Detects objects on a luma plane of {@code width} x {@code height} pixels,
+         * one byte per pixel without row padding, and stores them in {@code result}.
+         */
+        public void detect(byte[] luma, int width, int height, T result);
+    }
+
+    /**
+     * A detection result along with the frame it belongs to.
+     * Valid until the next call of {@link #latest()}.
+     */
+    public static final class Result<T> {
+        private final T mValue;
+        private long mFrameId;
+        private long mFrameTimeNanos;
+        private long mDetectNanos;
+
+        private Result(T value) {
+            mValue = value;
+        }
+
+        public T getValue() {
+            return mValue;
+        }
+
+        /** Id passed to {@link #submit} with the frame the result was computed from */
+        public long getFrameId() {
+            return mFrameId;
+        }
+
+        /** {@link System#nanoTime()} at which that frame was submitted */
+        public long getFrameTimeNanos() {
+            return mFrameTimeNanos;
+        }
+
+        /** Time spent in {@link Detector#detect} */
+        public long getDetectNanos() {
+            return mDetectNanos;
+        }
+
+        /** Time elapsed since the frame was submitted, in nanoseconds */
+        public long getAgeNanos() {
+            return System.nanoTime() - mFrameTimeNanos;
+        }
+    }
+
+    private static final class Frame {
+        byte[] mLuma = new byte[0];
+        int mWidth;
+        int mHeight;
+        long mFrameId;
+        long mTimeNanos;
+    }
+
+    private final Detector<T> mDetector;
+    private final TripleBuffer<Frame> mFrames;
+    private final TripleBuffer<Result<T>> mResults;
+    private final AtomicLong mProcessedCount = new AtomicLong();
+    private final Object mLock = new Object();
+    // the running worker; a worker exits once it is no longer this thread
+    private volatile Thread mThread;
+    // worker asked to stop that may still be running, guarded by mLock
+    private Thread mStoppingThread;
+    private volatile FrameLatencyMonitor mLatencyMonitor;
+    private Result<T> mLatest;
+    // written by the submitting thread only
+    private volatile long mSubmittedCount;
+    private volatile long mSkippedCount;
+
+    public DetectionExecutor(Detector<T> detector) {
+        mDetector = detector;
+        mFrames = new TripleBuffer<Frame>(new Frame(), new Frame(), new Frame());
+        mResults = new TripleBuffer<Result<T>>(new Result<T>(detector.createResult()),
+                new Result<T>(detector.createResult()), new Result<T>(detector.createResult()));
+    }
+
+    /**
+     * Starts the worker thread, if it is not running yet. Never blocks: when a worker asked
+     * to stop is still finishing a detection, the new one waits for it on its own thread.
+     */
+    public void start() {
+        synchronized (mLock) {
+            if (mThread != null)
+                return;
+            mThread = new Thread(new Worker(mStoppingThread), TAG);
+            mStoppingThread = null;
+            mThread.start();
+        }
+    }
+
+    /**
+     * Asks the worker thread to stop without waiting for it. The detection in progress is
+     * finished in the background and its result dropped; frames submitted but not processed
+     * yet are discarded.
+     */
+    public void requestStop() {
+        synchronized (mLock) {
+            Thread thread = mThread;
+            if (thread == null)
+                return;
+            mThread = null;
+            mStoppingThread = thread;
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Stops the worker thread and waits for the detection in progress to finish.
+     * Frames submitted but not processed yet are discarded.
+     */
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            requestStop();
+            thread = mStoppingThread;
+        }
+        if (thread == null)
+            return;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        synchronized (mLock) {
+            if (mStoppingThread == thread)
+                mStoppingThread = null;
+        }
+    }
+
+    /**
+     * Queues a frame for detection, replacing a queued frame that was not picked up yet.
+     * Never blocks.
+     * @param luma pixel data, one byte per pixel
+     * @param offset index of the top-left pixel
+     * @param rowStride distance in bytes between consecutive rows
+     * @param frameId caller defined id, reported back with the result
+     */
+    public void submit(byte[] luma, int offset, int rowStride, int width, int height, long frameId) {
+        Frame frame = prepareFrame(width, height);
+        if (rowStride == width) {
+            System.arraycopy(luma, offset, frame.mLuma, 0, width * height);
+        } else {
+            for (int y = 0; y < height; y++)
+                System.arraycopy(luma, offset + y * rowStride, frame.mLuma, y * width, width);
+        }
+        publishFrame(frame, frameId);
+    }
+
+    /**
+     * Queues a single channel 8-bit frame, for example {@link CameraBridgeViewBase.CvCameraViewFrame#gray()}.
+     */
+    public void submit(Mat gray, long frameId) {
+        if (gray.type() != CvType.CV_8UC1)
+            throw new IllegalArgumentException("Detection needs a single channel 8-bit frame");
+        int width = gray.cols();
+        int height = gray.rows();
+        Frame frame = prepareFrame(width, height);
+        if (MatBuffer.isSupported())
+            MatBuffer.wrap(gray).read(frame.mLuma, 0);
+        else
+            gray.get(0, 0, frame.mLuma);
+        publishFrame(frame, frameId);
+    }
+
+    /**
+     * Returns the newest finished result, or null if nothing was detected since {@link #start()}.
+     * The same result is returned until a newer one is published. Never blocks.
+     */
+    public Result<T> latest() {
+        if (mResults.acquire())
+            mLatest = mResults.front();
+        return mLatest;
+    }
+
+    /** Number of frames passed to {@link #submit} */
+    public long getSubmittedCount() {
+        return mSubmittedCount;
+    }
+
+    /** Number of submitted frames replaced by a newer one before the worker took them */
+    public long getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Sets the monitor receiving the duration of every detection, or null for none.
+     */
+    public void setLatencyMonitor(FrameLatencyMonitor monitor) {
+        mLatencyMonitor = monitor;
+    }
+
+    /** Number of frames the detector has processed */
+    public long getProcessedCount() {
+        return mProcessedCount.get();
+    }
+
+    private Frame prepareFrame(int width, int height) {
+        Frame frame = mFrames.back();
+        if (frame.mLuma.length < width * height)
+            frame.mLuma = new byte[width * height];
+        frame.mWidth = width;
+        frame.mHeight = height;
+        return frame;
+    }
+
+    private void publishFrame(Frame frame, long frameId) {
+        frame.mFrameId = frameId;
+        frame.mTimeNanos = System.nanoTime();
+        mSubmittedCount++;
+        if (mFrames.publish())
+            mSkippedCount++;
+        Thread thread = mThread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    private class Worker implements Runnable {
+        private final Thread mPrevious;
+
+        /**
+         * @param previous worker asked to stop that may still be using the buffers, or null
+         */
+        Worker(Thread previous) {
+            mPrevious = previous;
+        }
+
+        @Override
+        public void run() {
+            Thread self = Thread.currentThread();
+            if (mPrevious != null) {
+                try {
+                    mPrevious.join();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+            Log.d(TAG, "Starting detection thread");
+            while (mThread == self) {
+                if (!mFrames.acquire()) {
+                    LockSupport.park(this);
+                    continue;
+                }
+                Frame frame = mFrames.front();
+                Result<T> result = mResults.back();
+                long start = System.nanoTime();
+                try {
+                    mDetector.detect(frame.mLuma, frame.mWidth, frame.mHeight, result.mValue);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Detection failed on frame " + frame.mFrameId, e);
+                    continue;
+                }
+                // stopped during the detection, the result is dropped
+                if (mThread != self)
+                    break;
+                result.mFrameId = frame.mFrameId;
+                result.mFrameTimeNanos = frame.mTimeNanos;
+                result.mDetectNanos = System.nanoTime() - start;
+                FrameLatencyMonitor monitor = mLatencyMonitor;
+                if (monitor != null)
+                    monitor.record(FrameLatencyMonitor.STAGE_DETECT, result.mDetectNanos);
+                mResults.publish();
+                mProcessedCount.incrementAndGet();
+            }
+            // drop the pending frame so that a restart does not process it
+            mFrames.acquire();
+            Log.d(TAG, "Finishing detection thread");
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+/**
+ * Latency of every stage of the frame pipeline, as {@link LatencyHistogram}s, along with
+ * the frame rate and the number of frames the camera produced but that were never delivered.
+ * <p>
+ * {@link CameraBridgeViewBase} records the capture, conversion and drawing stages and the
+ * delivered frames, and its {@link DetectionExecutor} the detection stage; the listener
+ * records the stages it runs itself, such as the overlay or the recording, with
+ * {@link #record}. Durations come from {@link System#nanoTime()}; recording takes no lock and
+ * allocates nothing, from any thread.
+ * <p>
+ * {@link #draw} renders p50, p95, p99 and max of each stage that has data, refreshing
+ * the text twice a second; it is meant for the thread drawing the frames.
+ */
+public class FrameLatencyMonitor {
+
+    /** From the camera handing a frame over to its delivery to the listener */
+    public static final int STAGE_CAPTURE = 0;
+    /** YUV to RGBA conversion */
+    public static final int STAGE_CONVERT = 1;
+    /** Detection, on the executor thread */
+    public static final int STAGE_DETECT  = 2;
+    /** Drawing the detections onto the frame */
+    public static final int STAGE_OVERLAY = 3;
+    /** Copying the frame to the screen */
+    public static final int STAGE_DRAW    = 4;
+    /** Handing the frame to the recorder */
+    public static final int STAGE_RECORD  = 5;
+    /** Time between two delivered frames */
+    public static final int STAGE_FRAME   = 6;
+    public static final int STAGE_COUNT   = 7;
+
+    private static final String[] STAGE_NAMES = {
+            "capture", "convert", "detect", "overlay", "draw", "record", "frame"
+    };
+    private static final long OVERLAY_REFRESH_NANOS = 500 * 1000 * 1000L;
+    private static final int LINE_LENGTH = 64;
+
+    private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_COUNT];
+    private final AtomicLong mDeliveredFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private long mLastSequence = -1;
+    private long mLastDeliveryNanos;
+
+    // overlay text, one line per stage plus the frame rate, rebuilt in place
+    private Paint mPaint;
+    private final char[][] mLines = new char[STAGE_COUNT + 1][LINE_LENGTH];
+    private final int[] mLineLengths = new int[STAGE_COUNT + 1];
+    private int mLineCount;
+    private long mLastRefreshNanos;
+
+    public FrameLatencyMonitor() {
+        for (int i = 0; i < STAGE_COUNT; i++)
+            mStages[i] = new LatencyHistogram();
+    }
+
+    /**
+     * Adds the duration of one run of a stage.
+     */
+    public void record(int stage, long nanos) {
+        mStages[stage].record(nanos);
+    }
+
+    /**
+     * Counts a delivered frame, with the capture latency, the interval since the previous
+     * frame and the frames skipped in between. Called by the thread delivering the frames.
+     * @param sequence sequence number of the frame, see {@link CameraBridgeViewBase.CvCameraViewFrame#getSequenceNumber()}
+     * @param captureNanos {@link System#nanoTime()} when the camera handed the frame over
+     */
+    public void frameDelivered(long sequence, long captureNanos) {
+        long now = System.nanoTime();
+        mStages[STAGE_CAPTURE].record(now - captureNanos);
+        if (mLastSequence >= 0) {
+            mStages[STAGE_FRAME].record(now - mLastDeliveryNanos);
+            if (sequence > mLastSequence + 1)
+                mDroppedFrames.addAndGet(sequence - mLastSequence - 1);
+        }
+        mLastSequence = sequence;
+        mLastDeliveryNanos = now;
+        mDeliveredFrames.incrementAndGet();
+    }
+
+    public LatencyHistogram getStage(int stage) {
+        return mStages[stage];
+    }
+
+    public static String getStageName(int stage) {
+        return STAGE_NAMES[stage];
+    }
+
+    public long getDeliveredFrameCount() {
+        return mDeliveredFrames.get();
+    }
+
+    /** Number of frames captured but never delivered, because newer ones replaced them */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames.get();
+    }
+
+    /** Frames per second, from the mean interval between delivered frames */
+    public double getFps() {
+        long mean = mStages[STAGE_FRAME].getMeanNanos();
+        return mean > 0 ? 1e9 / mean : 0;
+    }
+
+    /**
+     * Forgets every measure; the next frame is not compared with the previous one.
+     * Called by the thread delivering the frames.
+     */
+    public void reset() {
+        for (int i = 0; i < STAGE_COUNT; i++)
+            mStages[i].reset();
+        mDeliveredFrames.set(0);
+        mDroppedFrames.set(0);
+        mLastSequence = -1;
+    }
+
+    /**
+     * Draws the frame rate and the percentiles of each stage, in milliseconds.
+     */
+    public void draw(Canvas canvas, float x, float y) {
+        if (mPaint == null) {
+            mPaint = new Paint();
+            mPaint.setColor(Color.YELLOW);
+            mPaint.setTextSize(20);
+            mPaint.setTypeface(android.graphics.Typeface.MONOSPACE);
+        }
+        long now = System.nanoTime();
+        if (mLineCount == 0 || now - mLastRefreshNanos >= OVERLAY_REFRESH_NANOS) {
+            refreshLines();
+            mLastRefreshNanos = now;
+        }
+        float lineHeight = mPaint.getTextSize() * 1.2f;
+        for (int i = 0; i < mLineCount; i++)
+            canvas.drawText(mLines[i], 0, mLineLengths[i], x, y + i * lineHeight, mPaint);
+    }
+
+    private void refreshLines() {
+        char[] line = mLines[0];
+        int n = append(line, 0, "fps ");
+        n = appendFixed(line, n, Math.round(getFps() * 10));
+        n = append(line, n, "  dropped ");
+        n = appendLong(line, n, getDroppedFrameCount());
+        mLineLengths[0] = n;
+        int count = 1;
+        for (int stage = 0; stage < STAGE_FRAME; stage++) {
+            LatencyHistogram histogram = mStages[stage];
+            if (histogram.getCount() == 0)
+                continue;
+            line = mLines[count];
+            n = append(line, 0, STAGE_NAMES[stage]);
+            while (n < 8)
+                line[n++] = ' ';
+            n = appendMillis(line, n, histogram.getPercentileNanos(50));
+            n = appendMillis(line, n, histogram.getPercentileNanos(95));
+            n = appendMillis(line, n, histogram.getPercentileNanos(99));
+            n = appendMillis(line, n, histogram.getMaxNanos());
+            n = append(line, n, " ms");
+            mLineLengths[count++] = n;
+        }
+        mLineCount = count;
+    }
+
+    private static int append(char[] line, int n, String s) {
+        s.getChars(0, s.length(), line, n);
+        return n + s.length();
+    }
+
+    private static int appendMillis(char[] line, int n, long nanos) {
+        line[n++] = ' ';
+        return appendFixed(line, n, (nanos + 50000) / 100000);
+    }
+
+    /** Appends {@code tenths / 10} with one decimal */
+    private static int appendFixed(char[] line, int n, long tenths) {
+        n = appendLong(line, n, tenths / 10);
+        line[n++] = '.';
+        line[n++] = (char) ('0' + tenths % 10);
+        return n;
+    }
+
+    private static int appendLong(char[] line, int n, long value) {
+        int start = n;
+        do {
+            line[n++] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0 && n < LINE_LENGTH - 8);
+        for (int i = start, j = n - 1; i < j; i++, j--) {
+            char c = line[i];
+            line[i] = line[j];
+            line[j] = c;
+        }
+        return n;
+    }
+}
@@ -0,0 +1,208 @@
+package org.opencv.android;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded single-producer/single-consumer queue of preallocated frame slots.
+ * <p>
+ * The producer fills the slot returned by {@link #writeSlot()} and queues it with
+ * {@link #offer()}; the consumer gets slots in order from {@link #take()}. Slots are never
+ * shared: a slot is either being written, queued, or being read, so frame data is copied
+ * exactly once and no lock is taken on either side. When the queue is full, the overflow
+ * policy decides whether the oldest queued frame is dropped, the new one is dropped, or the
+ * producer waits for the consumer.
+ * <p>
+ * A ring of capacity N uses N + 2 slots: N queued, one being written and one being read.
+ */
+public final class FrameRing<T> {
+
+    /** A full queue drops its oldest frame to make room for the new one */
+    public static final int DROP_OLDEST = 0;
+    /** A full queue rejects the new frame */
+    public static final int DROP_NEWEST = 1;
+    /** The producer waits until the consumer has taken a frame */
+    public static final int BLOCK = 2;
+
+    private final int mCapacity;
+    private final int mPolicy;
+
+    // queued slots; written by the producer, published by mHead
+    private final Object[] mCells;
+    private volatile long mHead;
+    // advanced by the consumer, and by the producer when it drops the oldest frame
+    private final AtomicLong mTail = new AtomicLong();
+
+    // slots given back by the consumer
+    private final Object[] mFree;
+    private volatile long mFreeHead;
+    private volatile long mFreeTail;
+
+    private Object mWriting;
+    private Object mReading;
+    private volatile long mDroppedCount;
+    private volatile boolean mClosed;
+    private volatile Thread mWaitingConsumer;
+    private volatile Thread mWaitingProducer;
+
+    /**
+     * @param capacity maximum number of queued frames, at least 1
+     * @param policy {@link #DROP_OLDEST}, {@link #DROP_NEWEST} or {@link #BLOCK}
+     * @param slots {@code capacity + 2} distinct slots
+     */
+    public FrameRing(int capacity, int policy, List<? extends T> slots) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Frame ring capacity must be at least 1");
+        if (policy != DROP_OLDEST && policy != DROP_NEWEST && policy != BLOCK)
+            throw new IllegalArgumentException("Unknown overflow policy " + policy);
+        if (slots.size() != capacity + 2)
+            throw new IllegalArgumentException("A frame ring of capacity " + capacity + " needs " + (capacity + 2) + " slots");
+        mCapacity = capacity;
+        mPolicy = policy;
+        mCells = new Object[capacity];
+        mFree = new Object[capacity + 2];
+        mWriting = slots.get(0);
+        for (int i = 1; i < slots.size(); i++)
+            mFree[i - 1] = slots.get(i);
+        mFreeHead = slots.size() - 1;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public int getPolicy() {
+        return mPolicy;
+    }
+
+    /** Number of frames dropped because the queue was full */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /** Number of frames currently queued */
+    public int size() {
+        return (int) (mHead - mTail.get());
+    }
+
+    /**
+     * Producer: returns the slot to fill with the next frame.
+     * The same slot is returned until it is queued by {@link #offer()}.
+     */
+    @SuppressWarnings("unchecked")
+    public T writeSlot() {
+        return (T) mWriting;
+    }
+
+    /**
+     * Producer: queues the slot returned by {@link #writeSlot()}.
+     * @return false if the frame was rejected, either by {@link #DROP_NEWEST}
+     *         or because the ring was closed while waiting
+     */
+    public boolean offer() {
+        Object recycled = null;
+        for (;;) {
+            long head = mHead;
+            long tail = mTail.get();
+            if (head - tail < mCapacity) {
+                mCells[(int) (head % mCapacity)] = mWriting;
+                mHead = head + 1;
+                mWriting = recycled != null ? recycled : pollFree();
+                Thread consumer = mWaitingConsumer;
+                if (consumer != null)
+                    LockSupport.unpark(consumer);
+                return true;
+            }
+
+            switch (mPolicy) {
+            case DROP_NEWEST:
+                mDroppedCount++;
+                return false;
+            case DROP_OLDEST:
+                // read before claiming: once the tail moves the cell may be reused
+                Object oldest = mCells[(int) (tail % mCapacity)];
+                if (mTail.compareAndSet(tail, tail + 1)) {
+                    recycled = oldest;
+                    mDroppedCount++;
+                }
+                break;
+            default:
+                if (mClosed)
+                    return false;
+                mWaitingProducer = Thread.currentThread();
+                if (mHead - mTail.get() >= mCapacity && !mClosed)
+                    LockSupport.park(this);
+                mWaitingProducer = null;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Consumer: gives back the slot returned by the previous call and waits for the next
+     * queued one.
+     * @return the oldest queued slot, or null once the ring is closed
+     */
+    @SuppressWarnings("unchecked")
+    public T take() {
+        release();
+        for (;;) {
+            long tail = mTail.get();
+            if (tail == mHead) {
+                if (mClosed)
+                    return null;
+                mWaitingConsumer = Thread.currentThread();
+                if (mTail.get() == mHead && !mClosed)
+                    LockSupport.park(this);
+                mWaitingConsumer = null;
+                continue;
+            }
+            Object slot = mCells[(int) (tail % mCapacity)];
+            if (mTail.compareAndSet(tail, tail + 1)) {
+                mReading = slot;
+                Thread producer = mWaitingProducer;
+                if (producer != null)
+                    LockSupport.unpark(producer);
+                return (T) slot;
+            }
+        }
+    }
+
+    /**
+     * Consumer: gives back the slot returned by the last {@link #take()} before waiting
+     * for another one is possible, for example when the consumer stops.
+     */
+    public void release() {
+        if (mReading == null)
+            return;
+        long head = mFreeHead;
+        mFree[(int) (head % mFree.length)] = mReading;
+        mFreeHead = head + 1;
+        mReading = null;
+    }
+
+    /**
+     * Wakes up a waiting consumer or producer. {@link #take()} returns null once the
+     * queue is drained and a blocked {@link #offer()} gives up.
+     */
+    public void close() {
+        mClosed = true;
+        Thread consumer = mWaitingConsumer;
+        if (consumer != null)
+            LockSupport.unpark(consumer);
+        Thread producer = mWaitingProducer;
+        if (producer != null)
+            LockSupport.unpark(producer);
+    }
+
+    private Object pollFree() {
+        long tail = mFreeTail;
+        if (tail == mFreeHead)
+            throw new IllegalStateException("Frame ring slot leaked");
+        Object slot = mFree[(int) (tail % mFree.length)];
+        mFree[(int) (tail % mFree.length)] = null;
+        mFreeTail = tail + 1;
+        return slot;
+    }
+}
@@ -13,9 +13,12 @@ import android.view.ViewGroup.LayoutParams;
 import org.opencv.BuildConfig;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatBuffer;
 import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -32,11 +35,15 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
 
-    private byte mBuffer[];
-    private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    private byte mBuffers[][];
+    private volatile FrameRing<JavaCameraFrame> mFrameRing;
+    private int mFrameQueueDepth = 2;
+    private int mOverflowPolicy = FrameRing.DROP_OLDEST;
+    private int mCallbackBufferCount = 3;
+    private long mDroppedFrames;
+    private long mFrameSequence;
     private Thread mThread;
-    private boolean mStopThread;
+    private volatile boolean mStopThread;
 
     protected Camera mCamera;
     protected JavaCameraFrame[] mCameraFrame;
@@ -66,6 +73,44 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         super(context, attrs);
     }
 
+    /**
+     * Sets how many preview frames may wait for the processing thread, and what happens
+     * to a frame arriving when that many are already waiting. Takes effect the next time
+     * the camera is connected.
+     * Note that {@link FrameRing#BLOCK} holds the thread delivering preview callbacks,
+     * which is the thread that enabled the view.
+     * @param depth number of queued frames, at least 1
+     * @param overflowPolicy {@link FrameRing#DROP_OLDEST}, {@link FrameRing#DROP_NEWEST} or {@link FrameRing#BLOCK}
+     */
+    public void setFrameQueue(int depth, int overflowPolicy) {
+        if (depth < 1)
+            throw new IllegalArgumentException("Frame queue depth must be at least 1");
+        if (overflowPolicy != FrameRing.DROP_OLDEST && overflowPolicy != FrameRing.DROP_NEWEST
+                && overflowPolicy != FrameRing.BLOCK)
+            throw new IllegalArgumentException("Unknown overflow policy " + overflowPolicy);
+        mFrameQueueDepth = depth;
+        mOverflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Sets how many preview buffers are handed to the camera, so that it can keep capturing
+     * while a frame is being copied. Takes effect the next time the camera is connected.
+     */
+    public void setCallbackBufferCount(int count) {
+        if (count < 1)
+            throw new IllegalArgumentException("At least one callback buffer is needed");
+        mCallbackBufferCount = count;
+    }
+
+    /**
+     * Returns the number of preview frames dropped because the processing thread was late,
+     * since the view was created.
+     */
+    public long getDroppedFrameCount() {
+        FrameRing<JavaCameraFrame> ring = mFrameRing;
+        return mDroppedFrames + (ring != null ? ring.getDroppedCount() : 0);
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
@@ -190,21 +235,24 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
+                    mBuffers = new byte[mCallbackBufferCount][size];
+
+                    /* One slot per queued frame, plus the one being filled and the one being processed */
+                    mCameraFrame = new JavaCameraFrame[mFrameQueueDepth + 2];
+                    List<JavaCameraFrame> slots = new ArrayList<JavaCameraFrame>(mCameraFrame.length);
+                    for (int i = 0; i < mCameraFrame.length; i++) {
+                        Mat yuv = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                        mCameraFrame[i] = new JavaCameraFrame(yuv, mFrameWidth, mFrameHeight);
+                        slots.add(mCameraFrame[i]);
+                    }
+                    mFrameRing = new FrameRing<JavaCameraFrame>(mFrameQueueDepth, mOverflowPolicy, slots);
 
-                    mCamera.addCallbackBuffer(mBuffer);
+                    for (byte[] buffer : mBuffers)
+                        mCamera.addCallbackBuffer(buffer);
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
-
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
                         mCamera.setPreviewTexture(mSurfaceTexture);
@@ -241,19 +289,19 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
-            if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+            if (mFrameRing != null) {
+                mDroppedFrames += mFrameRing.getDroppedCount();
+                mFrameRing = null;
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                for (JavaCameraFrame frame : mCameraFrame)
+                    frame.release();
+                mCameraFrame = null;
             }
+            mBuffers = null;
         }
     }
 
-    private boolean mCameraFrameReady = false;
-
     @Override
     protected boolean connectCamera(int width, int height) {
 
@@ -265,8 +313,6 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
-
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
         mStopThread = false;
@@ -285,9 +331,8 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         try {
             mStopThread = true;
             Log.d(TAG, "Notify thread");
-            synchronized (this) {
-                this.notify();
-            }
+            if (mFrameRing != null)
+                mFrameRing.close();
             Log.d(TAG, "Waiting for thread");
             if (mThread != null)
                 mThread.join();
@@ -299,86 +344,185 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
+        long receivedNanos = System.nanoTime();
         if (BuildConfig.DEBUG)
             Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
-        synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
-            this.notify();
+        FrameRing<JavaCameraFrame> ring = mFrameRing;
+        if (ring != null) {
+            JavaCameraFrame slot = ring.writeSlot();
+            slot.fill(frame);
+            slot.setSequenceNumber(++mFrameSequence, receivedNanos);
         }
+        /* The data is copied, the camera can fill this buffer again while the frame is queued */
         if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
+            mCamera.addCallbackBuffer(frame);
+        if (ring != null)
+            ring.offer();
     }
 
+    /**
+     * Frame slot. Conversions are done on first use and kept until the slot is filled with
+     * the next frame, which bumps the sequence number and thereby invalidates every cache.
+     */
     private class JavaCameraFrame implements CvCameraViewFrame {
         @Override
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mGray;
         }
 
         @Override
         public Mat rgba() {
-            if (mPreviewFormat == ImageFormat.NV21)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
-            else if (mPreviewFormat == ImageFormat.YV12)
-                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
-            else
-                throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
+            if (mRgbaSequence != mSequence) {
+                long start = System.nanoTime();
+                if (mPreviewFormat == ImageFormat.NV21)
+                    Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                else if (mPreviewFormat == ImageFormat.YV12)
+                    Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGB_I420, 4);  // COLOR_YUV2RGBA_YV12 produces inverted colors
+                else
+                    throw new IllegalArgumentException("Preview Format can be NV21 or YV12");
+                mRgbaSequence = mSequence;
+                getLatencyMonitor().record(FrameLatencyMonitor.STAGE_CONVERT, System.nanoTime() - start);
+            }
 
             return mRgba;
         }
 
+        @Override
+        public Mat bgr() {
+            if (mBgrSequence != mSequence) {
+                Imgproc.cvtColor(rgba(), mBgr, Imgproc.COLOR_RGBA2BGR);
+                mBgrSequence = mSequence;
+            }
+            return mBgr;
+        }
+
+        @Override
+        public Mat rgba(double scale) {
+            return scale == 1 ? rgba() : scaled(mScaledRgba, rgba(), scale);
+        }
+
+        @Override
+        public Mat gray(double scale) {
+            return scale == 1 ? mGray : scaled(mScaledGray, mGray, scale);
+        }
+
+        @Override
+        public long getSequenceNumber() {
+            return mSequence;
+        }
+
+        @Override
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+
         public JavaCameraFrame(Mat Yuv420sp, int width, int height) {
             super();
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
             mRgba = new Mat();
+            mBgr = new Mat();
+            mYuvBuffer = MatBuffer.isSupported() ? MatBuffer.wrapContinuous(mYuvFrameData, false).bytes() : null;
+        }
+
+        /**
+         * Copies a preview buffer into the slot, straight into the Mat memory when possible.
+         */
+        void fill(byte[] frame) {
+            if (mYuvBuffer != null) {
+                mYuvBuffer.clear();
+                mYuvBuffer.put(frame, 0, Math.min(frame.length, mYuvBuffer.capacity()));
+            } else {
+                mYuvFrameData.put(0, 0, frame);
+            }
+        }
+
+        /**
+         * Called by the producer once the slot holds a new frame.
+         */
+        void setSequenceNumber(long sequence, long timestampNanos) {
+            mSequence = sequence;
+            mTimestampNanos = timestampNanos;
         }
 
         public void release() {
+            for (ScaledMat scaled : mScaledRgba)
+                scaled.mMat.release();
+            for (ScaledMat scaled : mScaledGray)
+                scaled.mMat.release();
+            mGray.release();
+            mYuvFrameData.release();
             mRgba.release();
+            mBgr.release();
+        }
+
+        private Mat scaled(List<ScaledMat> cache, Mat source, double scale) {
+            if (scale <= 0)
+                throw new IllegalArgumentException("Scale must be positive");
+            ScaledMat scaled = null;
+            for (ScaledMat candidate : cache) {
+                if (candidate.mScale == scale) {
+                    scaled = candidate;
+                    break;
+                }
+            }
+            if (scaled == null) {
+                scaled = new ScaledMat(scale);
+                cache.add(scaled);
+            }
+            if (scaled.mSequence != mSequence) {
+                Size size = new Size(Math.max(Math.round(mWidth * scale), 1), Math.max(Math.round(mHeight * scale), 1));
+                Imgproc.resize(source, scaled.mMat, size, 0, 0, scale < 1 ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+                scaled.mSequence = mSequence;
+            }
+            return scaled.mMat;
         }
 
         private Mat mYuvFrameData;
+        private final ByteBuffer mYuvBuffer;
+        private Mat mGray;
         private Mat mRgba;
+        private Mat mBgr;
         private int mWidth;
         private int mHeight;
+        private long mSequence;
+        private long mTimestampNanos;
+        private long mRgbaSequence = -1;
+        private long mBgrSequence = -1;
+        private final List<ScaledMat> mScaledRgba = new ArrayList<ScaledMat>(2);
+        private final List<ScaledMat> mScaledGray = new ArrayList<ScaledMat>(2);
     };
 
+    private static class ScaledMat {
+        ScaledMat(double scale) {
+            mScale = scale;
+        }
+
+        final double mScale;
+        final Mat mMat = new Mat();
+        long mSequence = -1;
+    }
+
     private class CameraWorker implements Runnable {
 
         @Override
         public void run() {
+            FrameRing<JavaCameraFrame> ring = mFrameRing;
             do {
-                boolean hasFrame = false;
-                synchronized (JavaCameraView.this) {
-                    try {
-                        while (!mCameraFrameReady && !mStopThread) {
-                            JavaCameraView.this.wait();
-                        }
-                    } catch (InterruptedException e) {
-                        e.printStackTrace();
-                    }
-                    if (mCameraFrameReady)
-                    {
-                        mChainIdx = 1 - mChainIdx;
-                        mCameraFrameReady = false;
-                        hasFrame = true;
-                    }
-                }
+                JavaCameraFrame frame = ring.take();
+                if (frame == null)
+                    break;
 
-                if (!mStopThread && hasFrame) {
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
-                }
+                if (!mStopThread && !frame.mYuvFrameData.empty())
+                    deliverAndDrawFrame(frame);
             } while (!mStopThread);
+            ring.release();
             Log.d(TAG, "Finish processing thread");
         }
     }
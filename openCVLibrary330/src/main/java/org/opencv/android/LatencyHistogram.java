@@ -0,0 +1,100 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in fixed logarithmic buckets, recorded without locking or
+ * allocating.
+ * <p>
+ * Durations below 8 ns have a bucket each; above, every power of two is split into 8
+ * buckets, so a percentile is within 12.5% of the true value. Percentiles report the upper
+ * bound of their bucket, capped by the largest recorded duration.
+ * <p>
+ * {@link #record} may be called from any number of threads. Reads made while durations are
+ * recorded may not include the latest ones; {@link #reset()} racing with {@link #record}
+ * may lose a few.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Adds a duration; negative ones count as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        mBuckets.incrementAndGet(bucket(nanos));
+        mCount.incrementAndGet();
+        mSum.addAndGet(nanos);
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos))
+            max = mMax.get();
+    }
+
+    /** Number of recorded durations */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxNanos() {
+        return mMax.get();
+    }
+
+    public long getMeanNanos() {
+        long count = mCount.get();
+        return count > 0 ? mSum.get() / count : 0;
+    }
+
+    /**
+     * Duration that {@code percentile} percent of the recorded ones do not exceed, 0 when empty.
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++)
+            count += mBuckets.get(i);
+        if (count == 0)
+            return 0;
+        long rank = Math.max((long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100), 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank)
+                return Math.min(upperBound(i), mMax.get());
+        }
+        return mMax.get();
+    }
+
+    /** Forgets every recorded duration */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            mBuckets.set(i, 0);
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    static int bucket(long nanos) {
+        if (nanos < SUB_BUCKETS)
+            return (int) nanos;
+        int msb = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = msb - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((nanos >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
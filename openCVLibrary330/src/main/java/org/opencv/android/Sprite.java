@@ -0,0 +1,84 @@
+package org.opencv.android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Overlay pixels ready for {@link SpriteCompositor}: R, G, B, A bytes with the colour
+ * premultiplied by alpha, row by row without padding.
+ */
+public final class Sprite {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final byte[] mPixels;
+
+    /**
+     * Copies and premultiplies an 8-bit RGBA image; RGB images are taken as opaque.
+     * The colour must not be premultiplied yet: convert Android bitmaps with
+     * {@link Utils#bitmapToMat(android.graphics.Bitmap, Mat, boolean)} and
+     * {@code unPremultiplyAlpha} set, or alpha is applied twice and edges come out dark.
+     */
+    public Sprite(Mat image) {
+        int type = image.type();
+        if (type != CvType.CV_8UC4 && type != CvType.CV_8UC3)
+            throw new IllegalArgumentException("Sprite must be an 8-bit RGB or RGBA image");
+        mWidth = image.cols();
+        mHeight = image.rows();
+        mPixels = new byte[mWidth * mHeight * 4];
+
+        int channels = image.channels();
+        byte[] row = new byte[mWidth * channels];
+        for (int y = 0; y < mHeight; y++) {
+            image.get(y, 0, row);
+            premultiply(row, channels, mPixels, y * mWidth * 4);
+        }
+    }
+
+    /**
+     * Premultiplies R, G, B, A bytes with straight alpha, row by row without padding.
+     */
+    Sprite(int width, int height, byte[] rgba) {
+        if (width <= 0 || height <= 0 || rgba.length != width * height * 4)
+            throw new IllegalArgumentException("Sprite needs " + width + "x" + height + " RGBA pixels");
+        mWidth = width;
+        mHeight = height;
+        mPixels = new byte[rgba.length];
+        premultiply(rgba, 4, mPixels, 0);
+    }
+
+    private static void premultiply(byte[] src, int channels, byte[] dst, int dstOffset) {
+        for (int i = 0, o = dstOffset; i < src.length; i += channels, o += 4) {
+            int a = channels == 4 ? src[i + 3] & 0xFF : 255;
+            dst[o] = (byte) mul(src[i] & 0xFF, a);
+            dst[o + 1] = (byte) mul(src[i + 1] & 0xFF, a);
+            dst[o + 2] = (byte) mul(src[i + 2] & 0xFF, a);
+            dst[o + 3] = (byte) a;
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** Size of the pixels, in bytes */
+    public int getByteCount() {
+        return mPixels.length;
+    }
+
+    byte[] pixels() {
+        return mPixels;
+    }
+
+    /**
+     * Rounded {@code c * a / 255}, exact for 8-bit operands.
+     */
+    static int mul(int c, int a) {
+        int t = c * a + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+}
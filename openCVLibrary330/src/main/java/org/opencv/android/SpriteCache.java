@@ -0,0 +1,177 @@
+package org.opencv.android;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Resized copies of an overlay image, kept for reuse across frames.
+ * <p>
+ * Requested sizes are rounded to a multiple of a quantum, so boxes that move by a few pixels
+ * from one frame to the next share the same sprite. Sprites are rendered on the first request
+ * and kept until the total size of the cached pixels exceeds the byte budget, at which point the
+ * least recently used ones are released. Looking up a cached sprite allocates nothing.
+ * <p>
+ * {@link #get} hands out the resized Mats, {@link #getSprite} the premultiplied pixels
+ * drawn by {@link SpriteCompositor}; both count towards the budget.
+ * <p>
+ * The returned Mats belong to the cache: they must not be modified or released, and remain
+ * valid until the cache is released or evicts them. Not thread safe.
+ */
+public class SpriteCache {
+
+    private final Mat mSource;
+    private final int mQuantum;
+    private final long mByteBudget;
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+    private final Size mSize = new Size();
+    private long mBytes;
+    private long mTick;
+    private long mHits;
+    private long mMisses;
+
+    /**
+     * @param source overlay image, kept by reference and resized on demand
+     * @param quantum granularity of the cached sizes, in pixels
+     * @param byteBudget size of the cached pixels above which sprites are evicted
+     */
+    public SpriteCache(Mat source, int quantum, long byteBudget) {
+        if (source.empty())
+            throw new IllegalArgumentException("Sprite source is empty");
+        if (quantum < 1)
+            throw new IllegalArgumentException("Quantum must be at least 1");
+        if (byteBudget <= 0)
+            throw new IllegalArgumentException("Byte budget must be positive");
+        mSource = source;
+        mQuantum = quantum;
+        mByteBudget = byteBudget;
+    }
+
+    /**
+     * Returns the sprite of the quantized size closest to {@code width x height}.
+     * Its actual size is given by {@link Mat#cols()} and {@link Mat#rows()}.
+     */
+    public Mat get(int width, int height) {
+        return entry(width, height).mSprite;
+    }
+
+    /**
+     * Returns the premultiplied pixels of the sprite of the quantized size closest to
+     * {@code width x height}, created from the resized Mat on first use.
+     */
+    public Sprite getSprite(int width, int height) {
+        Entry entry = entry(width, height);
+        if (entry.mPixels == null) {
+            entry.mPixels = new Sprite(entry.mSprite);
+            entry.mBytes += entry.mPixels.getByteCount();
+            mBytes += entry.mPixels.getByteCount();
+            evict(entry);
+        }
+        return entry.mPixels;
+    }
+
+    private Entry entry(int width, int height) {
+        int w = quantize(width);
+        int h = quantize(height);
+        mTick++;
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            if (entry.mWidth == w && entry.mHeight == h) {
+                entry.mLastUse = mTick;
+                mHits++;
+                return entry;
+            }
+        }
+
+        mMisses++;
+        Entry entry = new Entry(w, h);
+        mSize.width = w;
+        mSize.height = h;
+        boolean shrink = w <= mSource.cols() && h <= mSource.rows();
+        Imgproc.resize(mSource, entry.mSprite, mSize, 0, 0, shrink ? Imgproc.INTER_AREA : Imgproc.INTER_LINEAR);
+        entry.mBytes = entry.mSprite.total() * entry.mSprite.elemSize();
+        entry.mLastUse = mTick;
+        mEntries.add(entry);
+        mBytes += entry.mBytes;
+        evict(entry);
+        return entry;
+    }
+
+    /** Size a requested dimension is rounded to */
+    public int quantize(int size) {
+        int q = (size + mQuantum / 2) / mQuantum * mQuantum;
+        return Math.max(q, mQuantum);
+    }
+
+    /** Number of lookups answered from the cache */
+    public long getHitCount() {
+        return mHits;
+    }
+
+    /** Number of lookups that rendered a sprite */
+    public long getMissCount() {
+        return mMisses;
+    }
+
+    /** Fraction of lookups answered from the cache */
+    public double getHitRate() {
+        long total = mHits + mMisses;
+        return total > 0 ? (double) mHits / total : 0;
+    }
+
+    /** Size of the cached pixels, in bytes */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    public long getByteBudget() {
+        return mByteBudget;
+    }
+
+    /** Number of cached sprites */
+    public int getSpriteCount() {
+        return mEntries.size();
+    }
+
+    /** Releases every cached sprite; the cache remains usable */
+    public void release() {
+        for (int i = 0; i < mEntries.size(); i++)
+            mEntries.get(i).mSprite.release();
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    /**
+     * Releases least recently used sprites until the budget is met, keeping {@code keep}.
+     */
+    private void evict(Entry keep) {
+        while (mBytes > mByteBudget && mEntries.size() > 1) {
+            int oldest = -1;
+            for (int i = 0; i < mEntries.size(); i++) {
+                Entry entry = mEntries.get(i);
+                if (entry != keep && (oldest < 0 || entry.mLastUse < mEntries.get(oldest).mLastUse))
+                    oldest = i;
+            }
+            Entry entry = mEntries.remove(oldest);
+            entry.mSprite.release();
+            mBytes -= entry.mBytes;
+        }
+    }
+
+    private static class Entry {
+        final int mWidth;
+        final int mHeight;
+        final Mat mSprite = new Mat();
+        Sprite mPixels;
+        long mBytes;
+        long mLastUse;
+
+        Entry(int width, int height) {
+            mWidth = width;
+            mHeight = height;
+        }
+    }
+}
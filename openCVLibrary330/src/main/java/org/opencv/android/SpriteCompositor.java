@@ -0,0 +1,154 @@
+package org.opencv.android;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Blends {@link Sprite}s onto an RGBA frame with their alpha channel.
+ * <p>
+ * Sprites are queued with {@link #add} between {@link #begin} and {@link #end}, and may lie
+ * partly or completely outside the frame: they are clipped to it. {@link #end} then walks the
+ * frame once, row by row: each row touched by a sprite is read as a single span covering all
+ * the sprites on it, every sprite is blended into the span in the order it was added, and the
+ * span is written back. Blending is the premultiplied {@code src + dst * (255 - srcAlpha) / 255}
+ * in integer arithmetic, applied to the four channels. Fully transparent pixels are skipped and
+ * opaque ones copied.
+ * <p>
+ * Buffers grow to the widest span and the largest number of sprites seen, then are reused,
+ * so compositing a frame allocates nothing. Not thread safe.
+ */
+public class SpriteCompositor {
+
+    private Mat mFrame;
+    private int mCount;
+    private Sprite[] mSprites = new Sprite[8];
+    // clipped rectangle in frame coordinates, as left, top, right, bottom
+    private int[] mBounds = new int[8 * 4];
+    // position of the sprite origin in frame coordinates
+    private int[] mOrigins = new int[8 * 2];
+    private byte[] mRow = new byte[0];
+    private int mTop;
+    private int mBottom;
+
+    /**
+     * Starts a frame.
+     * @param frame 8-bit RGBA image the sprites are blended into
+     */
+    public void begin(Mat frame) {
+        if (frame.type() != CvType.CV_8UC4)
+            throw new IllegalArgumentException("Frame must be an 8-bit RGBA image");
+        mFrame = frame;
+        mCount = 0;
+        mTop = Integer.MAX_VALUE;
+        mBottom = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Queues a sprite with its top left corner at {@code (x, y)}, which may be outside the frame.
+     * @return false if the sprite does not overlap the frame and was ignored
+     */
+    public boolean add(Sprite sprite, int x, int y) {
+        if (mFrame == null)
+            throw new IllegalStateException("begin() was not called");
+        int left = Math.max(x, 0);
+        int top = Math.max(y, 0);
+        int right = Math.min(x + sprite.getWidth(), mFrame.cols());
+        int bottom = Math.min(y + sprite.getHeight(), mFrame.rows());
+        if (left >= right || top >= bottom)
+            return false;
+
+        if (mCount == mSprites.length) {
+            Sprite[] sprites = new Sprite[mCount * 2];
+            System.arraycopy(mSprites, 0, sprites, 0, mCount);
+            mSprites = sprites;
+            int[] bounds = new int[mCount * 2 * 4];
+            System.arraycopy(mBounds, 0, bounds, 0, mCount * 4);
+            mBounds = bounds;
+            int[] origins = new int[mCount * 2 * 2];
+            System.arraycopy(mOrigins, 0, origins, 0, mCount * 2);
+            mOrigins = origins;
+        }
+        mSprites[mCount] = sprite;
+        mBounds[mCount * 4] = left;
+        mBounds[mCount * 4 + 1] = top;
+        mBounds[mCount * 4 + 2] = right;
+        mBounds[mCount * 4 + 3] = bottom;
+        mOrigins[mCount * 2] = x;
+        mOrigins[mCount * 2 + 1] = y;
+        mCount++;
+        mTop = Math.min(mTop, top);
+        mBottom = Math.max(mBottom, bottom);
+        return true;
+    }
+
+    /**
+     * Blends the queued sprites into the frame.
+     * @return number of sprites drawn
+     */
+    public int end() {
+        if (mFrame == null)
+            throw new IllegalStateException("begin() was not called");
+        Mat frame = mFrame;
+        int count = mCount;
+        for (int y = mTop; y < mBottom; y++) {
+            // span of the sprites crossing this row
+            int spanLeft = Integer.MAX_VALUE;
+            int spanRight = Integer.MIN_VALUE;
+            for (int s = 0; s < count; s++) {
+                int b = s * 4;
+                if (y >= mBounds[b + 1] && y < mBounds[b + 3]) {
+                    spanLeft = Math.min(spanLeft, mBounds[b]);
+                    spanRight = Math.max(spanRight, mBounds[b + 2]);
+                }
+            }
+            if (spanLeft >= spanRight)
+                continue;
+
+            int spanBytes = (spanRight - spanLeft) * 4;
+            if (mRow.length < spanBytes)
+                mRow = new byte[spanBytes];
+            byte[] row = mRow;
+            frame.get(y, spanLeft, row, spanBytes);
+            for (int s = 0; s < count; s++) {
+                int b = s * 4;
+                if (y < mBounds[b + 1] || y >= mBounds[b + 3])
+                    continue;
+                Sprite sprite = mSprites[s];
+                int left = mBounds[b];
+                int src = ((y - mOrigins[s * 2 + 1]) * sprite.getWidth() + left - mOrigins[s * 2]) * 4;
+                blend(sprite.pixels(), src, row, (left - spanLeft) * 4, (mBounds[b + 2] - left) * 4);
+            }
+            frame.put(y, spanLeft, row, spanBytes);
+        }
+
+        for (int s = 0; s < count; s++)
+            mSprites[s] = null;
+        mFrame = null;
+        mCount = 0;
+        return count;
+    }
+
+    /**
+     * Blends {@code length} bytes of premultiplied pixels over {@code dst}.
+     */
+    static void blend(byte[] src, int srcOffset, byte[] dst, int dstOffset, int length) {
+        int end = srcOffset + length;
+        for (int s = srcOffset, d = dstOffset; s < end; s += 4, d += 4) {
+            int a = src[s + 3] & 0xFF;
+            if (a == 0)
+                continue;
+            if (a == 255) {
+                dst[d] = src[s];
+                dst[d + 1] = src[s + 1];
+                dst[d + 2] = src[s + 2];
+                dst[d + 3] = src[s + 3];
+                continue;
+            }
+            int inv = 255 - a;
+            dst[d] = (byte) ((src[s] & 0xFF) + Sprite.mul(dst[d] & 0xFF, inv));
+            dst[d + 1] = (byte) ((src[s + 1] & 0xFF) + Sprite.mul(dst[d + 1] & 0xFF, inv));
+            dst[d + 2] = (byte) ((src[s + 2] & 0xFF) + Sprite.mul(dst[d + 2] & 0xFF, inv));
+            dst[d + 3] = (byte) (a + Sprite.mul(dst[d + 3] & 0xFF, inv));
+        }
+    }
+}
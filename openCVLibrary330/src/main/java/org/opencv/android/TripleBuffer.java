@@ -0,0 +1,59 @@
+package org.opencv.android;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free latest-wins handoff between one producer and one consumer thread.
+ * <p>
+ * Three preallocated slots rotate between the roles "back" (owned by the producer),
+ * "middle" (last published) and "front" (owned by the consumer). Publishing and acquiring
+ * are a single atomic exchange each, so neither side ever waits for the other; a slot
+ * published before the consumer picked it up is simply overwritten by the next one.
+ */
+final class TripleBuffer<T> {
+
+    private static final int INDEX_MASK = 3;
+    private static final int FRESH = 4;
+
+    private final Object[] mSlots;
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    private int mBack = 0;
+    private int mFront = 2;
+
+    TripleBuffer(T back, T middle, T front) {
+        mSlots = new Object[] { back, middle, front };
+    }
+
+    /** Producer: slot to fill before {@link #publish()} */
+    @SuppressWarnings("unchecked")
+    T back() {
+        return (T) mSlots[mBack];
+    }
+
+    /**
+     * Producer: makes the back slot the latest one.
+     * @return true if the previously published slot was never acquired and got dropped
+     */
+    boolean publish() {
+        int old = mMiddle.getAndSet(mBack | FRESH);
+        mBack = old & INDEX_MASK;
+        return (old & FRESH) != 0;
+    }
+
+    /**
+     * Consumer: takes the latest published slot, if any was published since the last call.
+     * @return true if {@link #front()} changed
+     */
+    boolean acquire() {
+        if ((mMiddle.get() & FRESH) == 0)
+            return false;
+        mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        return true;
+    }
+
+    /** Consumer: slot acquired last */
+    @SuppressWarnings("unchecked")
+    T front() {
+        return (T) mSlots[mFront];
+    }
+}
@@ -0,0 +1,460 @@
+package org.opencv.android;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+import org.opencv.core.OpGraph;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.MjpegWriter;
+import org.opencv.videoio.PreRollBuffer;
+import org.opencv.videoio.VideoWriter;
+
+import android.util.Log;
+
+/**
+ * Records frames with a {@link VideoWriter} running on its own encoder thread.
+ * <p>
+ * {@link #write(Mat)} converts the frame to BGR at the recording size into a pooled buffer
+ * and queues it; it never waits for the encoder. When the encoder falls behind and every
+ * buffer is queued, new frames are dropped and counted. The writer is opened and released on
+ * the encoder thread, so neither the constructor nor {@link #stop()} block the caller.
+ * <p>
+ * With encoding threads, Motion JPEG recordings go through a {@link MjpegWriter} instead,
+ * which compresses several frames at a time and is not limited to one core.
+ * <p>
+ * A recorder given a {@link PreRollBuffer} does not create its file right away: it keeps
+ * the last compressed frames in that buffer until {@link #trigger()}, so the recording
+ * starts a few seconds before the moment it was asked for. The same buffer can be given to
+ * the next recorder right after {@link #stop()}: its encoder waits for the previous one to
+ * finish with the buffer before clearing it.
+ */
+public class VideoRecorder {
+
+    private static final String TAG = "VideoRecorder";
+    // how long a new recorder waits for the previous one to give the pre-roll buffer up
+    private static final long PRE_ROLL_WAIT_MILLIS = 5000;
+
+    private final String mFilename;
+    private final int mFourcc;
+    private final double mFps;
+    private final Size mFrameSize;
+    private final int mEncoderThreads;
+    private final PreRollBuffer mPreRoll;
+    private final BlockingQueue<Mat> mFree;
+    private final BlockingQueue<Mat> mPending;
+    private final Mat mEndOfStream = new Mat();
+    private final Mat mTrigger = new Mat();
+    private final Object mLock = new Object();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+
+    private volatile boolean mStopped;
+    private volatile boolean mTriggered;
+    private volatile boolean mFinished;
+    private volatile long mWrittenFrames;
+    private volatile long mLastEncodeNanos;
+    private volatile long mMaxEncodeNanos;
+    private volatile long mTotalEncodeNanos;
+    private volatile IOException mError;
+
+    // conversion of the written frames, rebuilt when their size or channels change
+    private OpGraph mConvert;
+    private int mConvertCols;
+    private int mConvertRows;
+    private int mConvertChannels;
+
+    /**
+     * Starts a recording.
+     * @param filename output file
+     * @param fourcc codec, see {@link VideoWriter#fourcc}
+     * @param fps frame rate stored in the file
+     * @param frameSize size of the recorded frames, written frames are resized to it
+     * @param queueCapacity number of frames that may wait for the encoder
+     */
+    public VideoRecorder(String filename, int fourcc, double fps, Size frameSize, int queueCapacity) {
+        this(filename, fourcc, fps, frameSize, queueCapacity, 0);
+    }
+
+    /**
+     * Starts a recording.
+     * @param encoderThreads number of threads compressing frames in parallel, only used when
+     *                       {@code fourcc} is MJPG; 0 to use {@link VideoWriter}
+     * @see #VideoRecorder(String, int, double, Size, int)
+     */
+    public VideoRecorder(String filename, int fourcc, double fps, Size frameSize, int queueCapacity, int encoderThreads) {
+        this(filename, fourcc, fps, frameSize, queueCapacity, encoderThreads, null);
+    }
+
+    /**
+     * Starts compressing frames into a pre-roll buffer; the file is only created by {@link #trigger()}.
+     * @param preRoll buffer keeping the last frames before the trigger, emptied first;
+     *                null to record from the start. Needs the MJPG codec
+     * @see #VideoRecorder(String, int, double, Size, int, int)
+     */
+    public VideoRecorder(String filename, int fourcc, double fps, Size frameSize, int queueCapacity, int encoderThreads,
+                         PreRollBuffer preRoll) {
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("Queue capacity must be at least 1");
+        if (encoderThreads < 0)
+            throw new IllegalArgumentException("Number of encoder threads cannot be negative");
+        if (preRoll != null && fourcc != VideoWriter.fourcc('M', 'J', 'P', 'G'))
+            throw new IllegalArgumentException("Pre-roll recording needs the MJPG codec");
+        mFilename = filename;
+        mFourcc = fourcc;
+        mFps = fps;
+        mFrameSize = frameSize;
+        mEncoderThreads = fourcc != VideoWriter.fourcc('M', 'J', 'P', 'G') ? 0
+                : preRoll != null ? Math.max(encoderThreads, 1) : encoderThreads;
+        mPreRoll = preRoll;
+        mTriggered = preRoll == null;
+        // one more buffer than queue entries for the frame being encoded, and room
+        // in the queue for every buffer plus the trigger and end of stream markers
+        mFree = new ArrayBlockingQueue<Mat>(queueCapacity + 1);
+        mPending = new ArrayBlockingQueue<Mat>(queueCapacity + 3);
+        for (int i = 0; i <= queueCapacity; i++)
+            mFree.add(new Mat());
+
+        new Thread(new Encoder(), TAG).start();
+    }
+
+    /**
+     * Queues a frame for encoding. RGBA frames, as delivered by
+     * {@link CameraBridgeViewBase.CvCameraViewFrame#rgba()}, BGR and gray frames are accepted.
+     * @return false if the frame was dropped because the encoder is behind, or the recorder is
+     *         stopped or has {@link #hasFailed() failed}
+     */
+    public boolean write(Mat frame) {
+        if (mStopped) {
+            releaseConvert();
+            return false;
+        }
+        Mat buffer = mFree.poll();
+        if (buffer == null) {
+            mDroppedFrames.incrementAndGet();
+            return false;
+        }
+
+        convertGraph(frame).bind("frame", frame).bind("bgr", buffer).run();
+
+        synchronized (mLock) {
+            if (!mStopped) {
+                mPending.add(buffer);
+                return true;
+            }
+        }
+        // stopped while converting: the encoder no longer takes buffers back
+        buffer.release();
+        releaseConvert();
+        return false;
+    }
+
+    /**
+     * Releases the conversion once the recorder is stopped; only called by the writing thread,
+     * which owns it.
+     */
+    private void releaseConvert() {
+        if (mConvert == null)
+            return;
+        mConvert.release();
+        mConvert = null;
+    }
+
+    /**
+     * Returns the operations resizing a frame to the recording size and converting it to BGR.
+     */
+    private OpGraph convertGraph(Mat frame) {
+        int cols = frame.cols();
+        int rows = frame.rows();
+        int channels = frame.channels();
+        if (mConvert != null && cols == mConvertCols && rows == mConvertRows && channels == mConvertChannels)
+            return mConvert;
+        if (mConvert != null)
+            mConvert.release();
+
+        OpGraph graph = new OpGraph();
+        String source = "frame";
+        if (cols != (int) mFrameSize.width || rows != (int) mFrameSize.height) {
+            graph.resize(source, "resized", mFrameSize, Imgproc.INTER_LINEAR);
+            source = "resized";
+        }
+        switch (channels) {
+        case 4:
+            graph.cvtColor(source, "bgr", Imgproc.COLOR_RGBA2BGR);
+            break;
+        case 1:
+            graph.cvtColor(source, "bgr", Imgproc.COLOR_GRAY2BGR);
+            break;
+        default:
+            graph.copy(source, "bgr");
+            break;
+        }
+        mConvert = graph;
+        mConvertCols = cols;
+        mConvertRows = rows;
+        mConvertChannels = channels;
+        return graph;
+    }
+
+    /**
+     * Time spent in {@link #write(Mat)} resizing and converting the last frame, in nanoseconds;
+     * 0 once a write has found the recorder stopped.
+     */
+    public long getLastConvertNanos() {
+        OpGraph convert = mConvert;
+        return convert != null ? convert.getLastRunNanos() : 0;
+    }
+
+    /**
+     * Creates the file of a pre-roll recording: the buffered frames are written first, then the
+     * frames queued from now on. Does nothing for a recorder without pre-roll or already triggered.
+     */
+    public void trigger() {
+        synchronized (mLock) {
+            if (mStopped || mTriggered)
+                return;
+            mTriggered = true;
+            mPending.add(mTrigger);
+        }
+    }
+
+    /** Whether frames are going to the file, rather than to the pre-roll buffer */
+    public boolean isTriggered() {
+        return mTriggered;
+    }
+
+    /**
+     * Stops accepting frames. The encoder thread writes the frames already queued, then
+     * releases the writer and the buffers. Returns immediately. A pre-roll recording that was
+     * never triggered leaves no file.
+     */
+    public void stop() {
+        synchronized (mLock) {
+            if (mStopped)
+                return;
+            mStopped = true;
+            mPending.add(mEndOfStream);
+        }
+    }
+
+    /** Whether the encoder thread has released the writer after {@link #stop()} */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * Whether the file could not be created or written. The recorder then stops by itself
+     * and {@link #write(Mat)} refuses every frame.
+     */
+    public boolean hasFailed() {
+        return mError != null;
+    }
+
+    /**
+     * The error that stopped the recording, or null. Runtime exceptions thrown by the writer,
+     * such as a frame of the wrong size, are reported as the cause of an IOException.
+     */
+    public IOException getError() {
+        return mError;
+    }
+
+    /** Number of frames waiting for the encoder */
+    public int getQueueDepth() {
+        int depth = mPending.size();
+        if (mPending.contains(mTrigger))
+            depth--;
+        return mStopped && !mFinished ? Math.max(depth - 1, 0) : depth;
+    }
+
+    /** Number of frames dropped because every buffer was queued */
+    public long getDroppedFrameCount() {
+        return mDroppedFrames.get();
+    }
+
+    /** Number of frames passed to the writer */
+    public long getWrittenFrameCount() {
+        return mWrittenFrames;
+    }
+
+    /**
+     * Duration of the last {@link VideoWriter#write} call, in nanoseconds. With encoding
+     * threads, this is the time spent queuing the frame to the {@link MjpegWriter}.
+     */
+    public long getLastEncodeNanos() {
+        return mLastEncodeNanos;
+    }
+
+    /** Longest {@link VideoWriter#write} call so far, in nanoseconds */
+    public long getMaxEncodeNanos() {
+        return mMaxEncodeNanos;
+    }
+
+    /** Average duration of a {@link VideoWriter#write} call, in nanoseconds */
+    public long getAverageEncodeNanos() {
+        long written = mWrittenFrames;
+        return written > 0 ? mTotalEncodeNanos / written : 0;
+    }
+
+    /**
+     * Common interface of the two writers the encoder thread can drive.
+     */
+    private interface Sink {
+        boolean isOpened();
+        boolean trigger();
+        void write(Mat frame) throws IOException;
+        void release() throws IOException;
+    }
+
+    private Sink openSink() {
+        if (mEncoderThreads > 0) {
+            final MjpegWriter writer = new MjpegWriter(mEncoderThreads, MjpegWriter.DEFAULT_QUALITY);
+            if (mPreRoll != null)
+                openPreRoll(writer);
+            else
+                writer.open(mFilename, mFourcc, mFps, mFrameSize, true);
+            return new Sink() {
+                @Override
+                public boolean isOpened() {
+                    return writer.isOpened();
+                }
+
+                @Override
+                public boolean trigger() {
+                    int frames = mPreRoll.getFrameCount();
+                    long nanos = mPreRoll.getDurationNanos();
+                    if (!writer.startFile(mFilename))
+                        return false;
+                    Log.d(TAG, "Recording started with " + frames + " frames, " + nanos / 1000000 + " ms of pre-roll");
+                    return true;
+                }
+
+                @Override
+                public void write(Mat frame) throws IOException {
+                    writer.write(frame);
+                }
+
+                @Override
+                public void release() throws IOException {
+                    writer.release();
+                    Log.d(TAG, "JPEG encoding took " + writer.getAverageEncodeNanos() / 1000
+                            + " us on average, " + writer.getMaxEncodeNanos() / 1000 + " us at most");
+                }
+            };
+        }
+
+        final VideoWriter writer = new VideoWriter(mFilename, mFourcc, mFps, mFrameSize, true);
+        return new Sink() {
+            @Override
+            public boolean isOpened() {
+                return writer.isOpened();
+            }
+
+            @Override
+            public boolean trigger() {
+                return true;
+            }
+
+            @Override
+            public void write(Mat frame) {
+                writer.write(frame);
+            }
+
+            @Override
+            public void release() {
+                writer.release();
+            }
+        };
+    }
+
+    /**
+     * Opens the writer on the pre-roll buffer, once the writer of a stopped recorder still
+     * encoding its last frames has given it up.
+     */
+    private void openPreRoll(MjpegWriter writer) {
+        try {
+            while (!writer.open(mPreRoll, mFps, mFrameSize, true)) {
+                if (!mPreRoll.isAcquired())
+                    return;
+                if (!mPreRoll.awaitRelease(PRE_ROLL_WAIT_MILLIS)) {
+                    Log.e(TAG, "Pre-roll buffer is still used by another recording");
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class Encoder implements Runnable {
+        @Override
+        public void run() {
+            Sink writer = openSink();
+            try {
+                if (!writer.isOpened())
+                    throw new IOException("Cannot open " + mFilename + " for writing");
+                for (;;) {
+                    Mat frame = mPending.take();
+                    if (frame == mEndOfStream)
+                        break;
+                    if (frame == mTrigger) {
+                        if (!writer.trigger())
+                            throw new IOException("Cannot open " + mFilename + " for writing");
+                        continue;
+                    }
+                    try {
+                        long start = System.nanoTime();
+                        writer.write(frame);
+                        long nanos = System.nanoTime() - start;
+                        mLastEncodeNanos = nanos;
+                        mTotalEncodeNanos += nanos;
+                        if (nanos > mMaxEncodeNanos)
+                            mMaxEncodeNanos = nanos;
+                        mWrittenFrames++;
+                    } finally {
+                        mFree.add(frame);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "Encoder interrupted, queued frames are lost");
+            } catch (IOException e) {
+                Log.e(TAG, "Writing " + mFilename + " failed", e);
+                mError = e;
+            } catch (RuntimeException e) {
+                // a frame the sink rejects or a native failure must not kill the process
+                Log.e(TAG, "Encoding " + mFilename + " failed", e);
+                mError = new IOException("Encoding " + mFilename + " failed", e);
+            } finally {
+                // after a failure nothing consumes the queue anymore, so stop taking frames
+                synchronized (mLock) {
+                    mStopped = true;
+                }
+                try {
+                    writer.release();
+                } catch (IOException e) {
+                    Log.e(TAG, "Finishing " + mFilename + " failed", e);
+                    if (mError == null)
+                        mError = e;
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Finishing " + mFilename + " failed", e);
+                    if (mError == null)
+                        mError = new IOException("Finishing " + mFilename + " failed", e);
+                }
+                releaseBuffers();
+                mFinished = true;
+                Log.d(TAG, "Recorded " + mWrittenFrames + " frames, dropped " + mDroppedFrames.get());
+            }
+        }
+    }
+
+    private void releaseBuffers() {
+        Mat buffer;
+        while ((buffer = mFree.poll()) != null)
+            buffer.release();
+        while ((buffer = mPending.poll()) != null)
+            buffer.release();
+        mEndOfStream.release();
+        mTrigger.release();
+    }
+}
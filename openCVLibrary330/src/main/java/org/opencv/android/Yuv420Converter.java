@@ -0,0 +1,271 @@
+package org.opencv.android;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Converts YUV 4:2:0 camera frames to RGBA on the JVM.
+ * <p>
+ * The arithmetic is the one of the reference {@code cvtColor} implementation: BT.601
+ * coefficients with 20 fractional bits, luma clamped at 16, results rounded and saturated.
+ * All products are looked up in tables built once, and two rows are converted together so
+ * that every chroma sample is read and weighted only once.
+ * <p>
+ * Supported codes are {@link Imgproc#COLOR_YUV2RGBA_NV21}, {@link Imgproc#COLOR_YUV2RGBA_NV12},
+ * {@link Imgproc#COLOR_YUV2RGBA_I420} and {@link Imgproc#COLOR_YUV2RGBA_YV12}, and the matching
+ * {@code COLOR_YUV2RGB_*} codes of the planar layouts, which {@link JavaCameraView} uses with
+ * four destination channels. The frame is laid out as in the camera buffer: {@code height}
+ * rows of luma followed by {@code height / 2} rows of chroma, without row padding.
+ * <p>
+ * With a {@link ForkJoinPool}, rows are split into bands converted in parallel.
+ * A converter may be used by one thread at a time.
+ */
+public final class Yuv420Converter {
+
+    private static final int SHIFT = 20;
+    private static final int CY  = 1220542;
+    private static final int CUB = 2116026;
+    private static final int CUG = -409993;
+    private static final int CVG = -852492;
+    private static final int CVR = 1673527;
+    private static final int HALF = 1 << (SHIFT - 1);
+
+    private static final int[] Y_TAB = new int[256];
+    private static final int[] RV_TAB = new int[256];
+    private static final int[] GU_TAB = new int[256];
+    private static final int[] GV_TAB = new int[256];
+    private static final int[] BU_TAB = new int[256];
+    // saturation of (value >> SHIFT), which lies in [-259, 535], indexed with CLIP_OFFSET added
+    private static final int CLIP_OFFSET = 512;
+    private static final int[] CLIP = new int[1536];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int c = i - 128;
+            Y_TAB[i] = Math.max(0, i - 16) * CY;
+            RV_TAB[i] = HALF + CVR * c;
+            GU_TAB[i] = CUG * c;
+            GV_TAB[i] = HALF + CVG * c;
+            BU_TAB[i] = HALF + CUB * c;
+        }
+        for (int i = 0; i < CLIP.length; i++)
+            CLIP[i] = Math.min(Math.max(i - CLIP_OFFSET, 0), 255);
+    }
+
+    private static final int NV21 = 0;
+    private static final int NV12 = 1;
+    private static final int I420 = 2;
+    private static final int YV12 = 3;
+
+    private final ForkJoinPool mPool;
+    private final int mMinRowsPerTask;
+    private int[] mRow = new int[0];
+
+    /**
+     * Creates a converter running on the calling thread.
+     */
+    public Yuv420Converter() {
+        this(null, 0);
+    }
+
+    /**
+     * Creates a converter splitting frames across a pool.
+     * @param pool pool running the bands, null to convert on the calling thread
+     * @param minRowsPerTask smallest band worth a task; frames with fewer rows are not split
+     */
+    public Yuv420Converter(ForkJoinPool pool, int minRowsPerTask) {
+        mPool = pool;
+        mMinRowsPerTask = Math.max(minRowsPerTask, 2);
+    }
+
+    /**
+     * Converts a frame to packed {@code 0xAARRGGBB} pixels, the layout of
+     * {@code Bitmap.setPixels} and {@code Bitmap.createBitmap(int[], ...)}.
+     * @param argb receives {@code width * height} pixels, row by row
+     */
+    public void convert(byte[] yuv, int width, int height, int code, int[] argb) {
+        int layout = layout(code);
+        checkSize(yuv, width, height);
+        if (argb.length < width * height)
+            throw new IllegalArgumentException("Destination holds fewer than " + width * height + " pixels");
+        run(new Band(yuv, width, height, layout, argb, null, 0, height));
+    }
+
+    /**
+     * Converts a frame to R, G, B, A bytes, the layout of a CV_8UC4 RGBA Mat and of
+     * {@code Bitmap.copyPixelsFromBuffer} for ARGB_8888 bitmaps.
+     * @param rgba receives {@code width * height * 4} bytes starting at its position,
+     *             which is left unchanged; a direct buffer avoids any copy
+     */
+    public void convert(byte[] yuv, int width, int height, int code, ByteBuffer rgba) {
+        int layout = layout(code);
+        checkSize(yuv, width, height);
+        if (rgba.remaining() < width * height * 4)
+            throw new IllegalArgumentException("Destination holds fewer than " + width * height * 4 + " bytes");
+        run(new Band(yuv, width, height, layout, null, rgba, 0, height));
+    }
+
+    private void run(Band band) {
+        if (mPool != null && band.mRowEnd - band.mRowBegin >= 2 * mMinRowsPerTask) {
+            mPool.invoke(band);
+        } else {
+            if (mRow.length < 2 * band.mWidth)
+                mRow = new int[2 * band.mWidth];
+            band.convertRows(mRow);
+        }
+    }
+
+    private static int layout(int code) {
+        switch (code) {
+        case Imgproc.COLOR_YUV2RGBA_NV21:
+            return NV21;
+        case Imgproc.COLOR_YUV2RGBA_NV12:
+            return NV12;
+        case Imgproc.COLOR_YUV2RGB_I420:
+        case Imgproc.COLOR_YUV2RGBA_I420:
+            return I420;
+        case Imgproc.COLOR_YUV2RGB_YV12:
+        case Imgproc.COLOR_YUV2RGBA_YV12:
+            return YV12;
+        default:
+            throw new IllegalArgumentException("Unsupported color conversion code " + code);
+        }
+    }
+
+    private static void checkSize(byte[] yuv, int width, int height) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0)
+            throw new IllegalArgumentException("Frame size must be positive and even, got " + width + "x" + height);
+        if (yuv.length < width * height + width * height / 2)
+            throw new IllegalArgumentException("YUV buffer too small for a " + width + "x" + height + " frame");
+    }
+
+    /**
+     * Converts rows [mRowBegin, mRowEnd) of a frame, splitting itself when run in a pool.
+     */
+    private final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final byte[] mYuv;
+        final int mWidth;
+        final int mHeight;
+        final int mLayout;
+        final int[] mArgb;
+        final ByteBuffer mRgba;
+        final int mRowBegin;
+        final int mRowEnd;
+
+        Band(byte[] yuv, int width, int height, int layout, int[] argb, ByteBuffer rgba, int rowBegin, int rowEnd) {
+            mYuv = yuv;
+            mWidth = width;
+            mHeight = height;
+            mLayout = layout;
+            mArgb = argb;
+            mRgba = rgba;
+            mRowBegin = rowBegin;
+            mRowEnd = rowEnd;
+        }
+
+        @Override
+        protected void compute() {
+            int rows = mRowEnd - mRowBegin;
+            if (rows < 2 * mMinRowsPerTask) {
+                convertRows(mArgb != null ? null : new int[2 * mWidth]);
+                return;
+            }
+            int mid = mRowBegin + (rows / 2 & ~1);
+            invokeAll(new Band(mYuv, mWidth, mHeight, mLayout, mArgb, mRgba, mRowBegin, mid),
+                      new Band(mYuv, mWidth, mHeight, mLayout, mArgb, mRgba, mid, mRowEnd));
+        }
+
+        /**
+         * @param row scratch for two rows of pixels, used when writing to a buffer
+         */
+        void convertRows(int[] row) {
+            final byte[] yuv = mYuv;
+            final int width = mWidth;
+            final int frameSize = width * mHeight;
+            final boolean packed = mArgb != null;
+            final int[] out = packed ? mArgb : row;
+            final boolean rgbaOrder = !packed;
+            IntBuffer dst = null;
+            if (!packed) {
+                // little endian ints put R, G, B, A in memory order whatever the buffer order is
+                ByteBuffer view = mRgba.duplicate();
+                view.order(ByteOrder.LITTLE_ENDIAN);
+                dst = view.asIntBuffer();
+            }
+
+            final int[] yTab = Y_TAB, rvTab = RV_TAB, guTab = GU_TAB, gvTab = GV_TAB, buTab = BU_TAB, clip = CLIP;
+            for (int j = mRowBegin; j < mRowEnd; j += 2) {
+                int y1 = j * width;
+                int y2 = y1 + width;
+                int o1 = packed ? y1 : 0;
+                int o2 = o1 + width;
+
+                // chroma indices of the first pair of pixels and distance between samples
+                int uIdx, vIdx, cStep;
+                switch (mLayout) {
+                case NV21:
+                    vIdx = frameSize + (j / 2) * width;
+                    uIdx = vIdx + 1;
+                    cStep = 2;
+                    break;
+                case NV12:
+                    uIdx = frameSize + (j / 2) * width;
+                    vIdx = uIdx + 1;
+                    cStep = 2;
+                    break;
+                case I420:
+                    uIdx = frameSize + (j / 2) * (width / 2);
+                    vIdx = uIdx + frameSize / 4;
+                    cStep = 1;
+                    break;
+                default:
+                    vIdx = frameSize + (j / 2) * (width / 2);
+                    uIdx = vIdx + frameSize / 4;
+                    cStep = 1;
+                    break;
+                }
+
+                for (int i = 0; i < width; i += 2, uIdx += cStep, vIdx += cStep) {
+                    int u = yuv[uIdx] & 0xFF;
+                    int v = yuv[vIdx] & 0xFF;
+                    int ruv = rvTab[v];
+                    int guv = gvTab[v] + guTab[u];
+                    int buv = buTab[u];
+
+                    int y = yTab[yuv[y1 + i] & 0xFF];
+                    out[o1 + i] = pack(clip[((y + ruv) >> SHIFT) + CLIP_OFFSET],
+                            clip[((y + guv) >> SHIFT) + CLIP_OFFSET], clip[((y + buv) >> SHIFT) + CLIP_OFFSET], rgbaOrder);
+                    y = yTab[yuv[y1 + i + 1] & 0xFF];
+                    out[o1 + i + 1] = pack(clip[((y + ruv) >> SHIFT) + CLIP_OFFSET],
+                            clip[((y + guv) >> SHIFT) + CLIP_OFFSET], clip[((y + buv) >> SHIFT) + CLIP_OFFSET], rgbaOrder);
+                    y = yTab[yuv[y2 + i] & 0xFF];
+                    out[o2 + i] = pack(clip[((y + ruv) >> SHIFT) + CLIP_OFFSET],
+                            clip[((y + guv) >> SHIFT) + CLIP_OFFSET], clip[((y + buv) >> SHIFT) + CLIP_OFFSET], rgbaOrder);
+                    y = yTab[yuv[y2 + i + 1] & 0xFF];
+                    out[o2 + i + 1] = pack(clip[((y + ruv) >> SHIFT) + CLIP_OFFSET],
+                            clip[((y + guv) >> SHIFT) + CLIP_OFFSET], clip[((y + buv) >> SHIFT) + CLIP_OFFSET], rgbaOrder);
+                }
+
+                if (!packed) {
+                    dst.position(y1);
+                    dst.put(row, 0, 2 * width);
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs a pixel as 0xAARRGGBB, or as the int whose little endian bytes are R, G, B, A.
+     */
+    private static int pack(int r, int g, int b, boolean rgbaOrder) {
+        return rgbaOrder ? 0xFF000000 | (b << 16) | (g << 8) | r
+                         : 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+}
@@ -11,7 +11,12 @@ import java.lang.String;
 public class Algorithm {
 
     protected final long nativeObj;
-    protected Algorithm(long addr) { nativeObj = addr; }
+    protected Algorithm(long addr)
+    {
+        nativeObj = addr;
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
+    }
 
     public long getNativeObjAddr() { return nativeObj; }
 
@@ -59,6 +64,8 @@ public class Algorithm {
 
     @Override
     protected void finalize() throws Throwable {
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.finalized(nativeObj);
         delete(nativeObj);
     }
 
@@ -0,0 +1,567 @@
+package org.opencv.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Image held on the JVM, with the shape and type model of {@link Mat}, for processing and
+ * testing without the native library.
+ * <p>
+ * Pixels are stored in a primitive array matching the {@link CvType} depth ({@code byte[]}
+ * for CV_8U and CV_8S, {@code short[]} for CV_16U and CV_16S, then {@code int[]},
+ * {@code float[]} and {@code double[]}), or in a {@link ByteBuffer} in native byte order.
+ * Channels are interleaved. As with {@link Mat#step1()}, the {@link #offset()} of the first
+ * pixel and the {@link #step1()} between rows count values of one channel, not bytes, so that
+ * they index the array directly: channel {@code c} of pixel {@code (row, col)} is at
+ * {@code offset() + row * step1() + col * channels() + c}.
+ * <p>
+ * {@link #submat} makes views sharing the pixels, and the stages working on arrays take them
+ * with their offset and stride. {@link #copyFrom(Mat)} and {@link #copyTo(Mat)} move the
+ * pixels to and from a native Mat; nothing else in this class needs the native library.
+ * {@link #wrap(MatBuffer)} views the pixels of a Mat in place. Not thread safe.
+ */
+public class JavaMat {
+
+    private int mRows;
+    private int mCols;
+    private int mType;
+    // byte[], short[], int[], float[] or double[] according to the depth, or null
+    private Object mArray;
+    private ByteBuffer mBuffer;
+    private int mOffset;
+    private int mStep1;
+    private boolean mSubmatrix;
+    private Object mRow;
+
+    /** Creates an empty image */
+    public JavaMat() {
+    }
+
+    public JavaMat(int rows, int cols, int type) {
+        create(rows, cols, type);
+    }
+
+    public JavaMat(Size size, int type) {
+        create((int) size.height, (int) size.width, type);
+    }
+
+    /**
+     * Views pixels stored in an array of the depth of {@code type}.
+     * @param offset index of the first value of the top-left pixel
+     * @param step1 distance between the starts of two rows, in array elements
+     */
+    public static JavaMat wrap(byte[] data, int offset, int step1, int rows, int cols, int type) {
+        return wrapArray(data, data.length, offset, step1, rows, cols, type);
+    }
+
+    /** Same as {@link #wrap(byte[], int, int, int, int, int)}, for 16-bit depths */
+    public static JavaMat wrap(short[] data, int offset, int step1, int rows, int cols, int type) {
+        return wrapArray(data, data.length, offset, step1, rows, cols, type);
+    }
+
+    /** Same as {@link #wrap(byte[], int, int, int, int, int)}, for CV_32S */
+    public static JavaMat wrap(int[] data, int offset, int step1, int rows, int cols, int type) {
+        return wrapArray(data, data.length, offset, step1, rows, cols, type);
+    }
+
+    /** Same as {@link #wrap(byte[], int, int, int, int, int)}, for CV_32F */
+    public static JavaMat wrap(float[] data, int offset, int step1, int rows, int cols, int type) {
+        return wrapArray(data, data.length, offset, step1, rows, cols, type);
+    }
+
+    /** Same as {@link #wrap(byte[], int, int, int, int, int)}, for CV_64F */
+    public static JavaMat wrap(double[] data, int offset, int step1, int rows, int cols, int type) {
+        return wrapArray(data, data.length, offset, step1, rows, cols, type);
+    }
+
+    /**
+     * Views pixels stored in a buffer, from its position 0, in native byte order.
+     * @param offset index of the first value of the top-left pixel, in values of the depth
+     * @param step1 distance between the starts of two rows, in values of the depth
+     */
+    public static JavaMat wrap(ByteBuffer buffer, int offset, int step1, int rows, int cols, int type) {
+        checkType(type);
+        ByteBuffer b = buffer.duplicate().order(ByteOrder.nativeOrder());
+        b.clear();
+        JavaMat m = new JavaMat();
+        m.init(null, b, b.capacity() / CvType.ELEM_SIZE(CvType.makeType(CvType.depth(type), 1)),
+                offset, step1, rows, cols, type);
+        return m;
+    }
+
+    /**
+     * Views the pixels of a native Mat in place; valid as long as the buffer is.
+     */
+    public static JavaMat wrap(MatBuffer buffer) {
+        Mat mat = buffer.mat();
+        int elemSize1 = (int) mat.elemSize1();
+        if (buffer.rowStride() % elemSize1 != 0)
+            throw new IllegalArgumentException("Row stride is not a multiple of the value size");
+        return wrap(buffer.bytes(), 0, buffer.rowStride() / elemSize1, buffer.rows(), buffer.cols(), mat.type());
+    }
+
+    /**
+     * Copies a 2D native Mat into a new image.
+     */
+    public static JavaMat fromMat(Mat mat) {
+        JavaMat m = new JavaMat();
+        m.copyFrom(mat);
+        return m;
+    }
+
+    private static JavaMat wrapArray(Object data, int length, int offset, int step1, int rows, int cols, int type) {
+        checkType(type);
+        if (!arrayClass(CvType.depth(type)).isInstance(data))
+            throw new IllegalArgumentException("Array does not match the depth of " + CvType.typeToString(type));
+        JavaMat m = new JavaMat();
+        m.init(data, null, length, offset, step1, rows, cols, type);
+        return m;
+    }
+
+    private void init(Object array, ByteBuffer buffer, int length, int offset, int step1, int rows, int cols, int type) {
+        if (rows < 0 || cols < 0)
+            throw new IllegalArgumentException("Negative size " + cols + "x" + rows);
+        int rowLength = cols * CvType.channels(type);
+        if (offset < 0 || step1 < rowLength)
+            throw new IllegalArgumentException("Row stride " + step1 + " is shorter than a row of " + rowLength);
+        if (rows > 0 && cols > 0 && offset + (long) (rows - 1) * step1 + rowLength > length)
+            throw new IllegalArgumentException("Pixels exceed the storage of " + length + " values");
+        mArray = array;
+        mBuffer = buffer;
+        mOffset = offset;
+        mStep1 = step1;
+        mRows = rows;
+        mCols = cols;
+        mType = type;
+        mSubmatrix = false;
+        mRow = null;
+    }
+
+    /**
+     * Allocates a continuous array for the given size and type, unless the image already has them.
+     */
+    public void create(int rows, int cols, int type) {
+        checkType(type);
+        if (mRows == rows && mCols == cols && mType == type && (mArray != null || mBuffer != null))
+            return;
+        int length = rows * cols * CvType.channels(type);
+        init(newArray(CvType.depth(type), length), null, length, 0, cols * CvType.channels(type), rows, cols, type);
+    }
+
+    /**
+     * View of the rows {@code [rowStart, rowEnd)} and columns {@code [colStart, colEnd)},
+     * sharing the pixels.
+     */
+    public JavaMat submat(int rowStart, int rowEnd, int colStart, int colEnd) {
+        if (rowStart < 0 || rowEnd > mRows || rowStart > rowEnd || colStart < 0 || colEnd > mCols || colStart > colEnd)
+            throw new IllegalArgumentException("Region is outside the " + mCols + "x" + mRows + " image");
+        JavaMat m = new JavaMat();
+        m.mArray = mArray;
+        m.mBuffer = mBuffer;
+        m.mOffset = mOffset + rowStart * mStep1 + colStart * channels();
+        m.mStep1 = mStep1;
+        m.mRows = rowEnd - rowStart;
+        m.mCols = colEnd - colStart;
+        m.mType = mType;
+        m.mSubmatrix = true;
+        return m;
+    }
+
+    public JavaMat submat(Rect roi) {
+        return submat(roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
+    }
+
+    public JavaMat row(int y) {
+        return submat(y, y + 1, 0, mCols);
+    }
+
+    public int rows() {
+        return mRows;
+    }
+
+    public int cols() {
+        return mCols;
+    }
+
+    public Size size() {
+        return new Size(mCols, mRows);
+    }
+
+    public int type() {
+        return mType;
+    }
+
+    public int depth() {
+        return CvType.depth(mType);
+    }
+
+    public int channels() {
+        return CvType.channels(mType);
+    }
+
+    /** Size of a pixel, all channels included, in bytes */
+    public int elemSize() {
+        return CvType.ELEM_SIZE(mType);
+    }
+
+    /** Size of a value of one channel, in bytes */
+    public int elemSize1() {
+        return CvType.ELEM_SIZE(CvType.makeType(depth(), 1));
+    }
+
+    public long total() {
+        return (long) mRows * mCols;
+    }
+
+    public boolean empty() {
+        return mRows == 0 || mCols == 0;
+    }
+
+    /** Index of the first value of the top-left pixel, in values of the depth */
+    public int offset() {
+        return mOffset;
+    }
+
+    /** Distance between the starts of two rows, in values of the depth */
+    public int step1() {
+        return mStep1;
+    }
+
+    public boolean isContinuous() {
+        return mStep1 == mCols * channels() || mRows <= 1;
+    }
+
+    /** Whether the image is a view made by {@link #submat} */
+    public boolean isSubmatrix() {
+        return mSubmatrix;
+    }
+
+    /** Index of the first value of a pixel in the storage */
+    public int index(int row, int col) {
+        return mOffset + row * mStep1 + col * channels();
+    }
+
+    /** Backing array of a CV_8U or CV_8S image */
+    public byte[] bytes() {
+        return (byte[]) array(byte[].class);
+    }
+
+    /** Backing array of a CV_16U or CV_16S image */
+    public short[] shorts() {
+        return (short[]) array(short[].class);
+    }
+
+    /** Backing array of a CV_32S image */
+    public int[] ints() {
+        return (int[]) array(int[].class);
+    }
+
+    /** Backing array of a CV_32F image */
+    public float[] floats() {
+        return (float[]) array(float[].class);
+    }
+
+    /** Backing array of a CV_64F image */
+    public double[] doubles() {
+        return (double[]) array(double[].class);
+    }
+
+    /** Whether the pixels are in an array rather than a buffer */
+    public boolean hasArray() {
+        return mArray != null;
+    }
+
+    /** Buffer the pixels are stored in, or null when they are in an array */
+    public ByteBuffer buffer() {
+        return mBuffer;
+    }
+
+    /**
+     * Reads one value, as {@link Mat#get(int, int)} does for one channel.
+     */
+    public double get(int row, int col, int channel) {
+        int i = index(row, col) + channel;
+        switch (depth()) {
+        case CvType.CV_8U:
+            return (mArray != null ? ((byte[]) mArray)[i] : mBuffer.get(i)) & 0xFF;
+        case CvType.CV_8S:
+            return mArray != null ? ((byte[]) mArray)[i] : mBuffer.get(i);
+        case CvType.CV_16U:
+            return (mArray != null ? ((short[]) mArray)[i] : mBuffer.getShort(i * 2)) & 0xFFFF;
+        case CvType.CV_16S:
+            return mArray != null ? ((short[]) mArray)[i] : mBuffer.getShort(i * 2);
+        case CvType.CV_32S:
+            return mArray != null ? ((int[]) mArray)[i] : mBuffer.getInt(i * 4);
+        case CvType.CV_32F:
+            return mArray != null ? ((float[]) mArray)[i] : mBuffer.getFloat(i * 4);
+        default:
+            return mArray != null ? ((double[]) mArray)[i] : mBuffer.getDouble(i * 8);
+        }
+    }
+
+    /**
+     * Writes one value, rounded and saturated to integer depths as {@link Mat#put} does.
+     */
+    public void put(int row, int col, int channel, double value) {
+        int i = index(row, col) + channel;
+        switch (depth()) {
+        case CvType.CV_8U:
+            putByte(i, (byte) saturate(value, 0, 255));
+            break;
+        case CvType.CV_8S:
+            putByte(i, (byte) saturate(value, Byte.MIN_VALUE, Byte.MAX_VALUE));
+            break;
+        case CvType.CV_16U:
+            putShort(i, (short) saturate(value, 0, 65535));
+            break;
+        case CvType.CV_16S:
+            putShort(i, (short) saturate(value, Short.MIN_VALUE, Short.MAX_VALUE));
+            break;
+        case CvType.CV_32S: {
+            int v = (int) saturate(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            if (mArray != null)
+                ((int[]) mArray)[i] = v;
+            else
+                mBuffer.putInt(i * 4, v);
+        }
+            break;
+        case CvType.CV_32F:
+            if (mArray != null)
+                ((float[]) mArray)[i] = (float) value;
+            else
+                mBuffer.putFloat(i * 4, (float) value);
+            break;
+        default:
+            if (mArray != null)
+                ((double[]) mArray)[i] = value;
+            else
+                mBuffer.putDouble(i * 8, value);
+            break;
+        }
+    }
+
+    /**
+     * Copies the pixels into {@code dst}, reallocated unless it has the same size and type.
+     */
+    public void copyTo(JavaMat dst) {
+        if (dst == this)
+            return;
+        dst.create(mRows, mCols, mType);
+        int rowLength = mCols * channels();
+        for (int y = 0; y < mRows; y++) {
+            if (mArray != null && dst.mArray != null) {
+                System.arraycopy(mArray, index(y, 0), dst.mArray, dst.index(y, 0), rowLength);
+            } else {
+                Object row = rowArray(rowLength);
+                loadRow(y, row, rowLength);
+                dst.storeRow(y, row, rowLength);
+            }
+        }
+    }
+
+    /** Continuous copy of the pixels */
+    @Override
+    public JavaMat clone() {
+        JavaMat m = new JavaMat();
+        copyTo(m);
+        return m;
+    }
+
+    /**
+     * Copies the pixels of a 2D native Mat, reallocating unless the size and type are the same.
+     */
+    public void copyFrom(Mat mat) {
+        if (mat.dims() > 2)
+            throw new IllegalArgumentException("Only 2D Mats can be copied");
+        create(mat.rows(), mat.cols(), mat.type());
+        int rowLength = mCols * channels();
+        if (empty())
+            return;
+        if (mArray != null && mOffset == 0 && isContinuous()) {
+            get(mat, 0, mArray, mRows * rowLength);
+            return;
+        }
+        Object row = rowArray(rowLength);
+        for (int y = 0; y < mRows; y++) {
+            get(mat, y, row, rowLength);
+            storeRow(y, row, rowLength);
+        }
+    }
+
+    /**
+     * Copies the pixels into a native Mat, reallocated unless it has the same size and type.
+     */
+    public void copyTo(Mat mat) {
+        mat.create(mRows, mCols, mType);
+        int rowLength = mCols * channels();
+        if (empty())
+            return;
+        if (mArray != null && mOffset == 0 && isContinuous()) {
+            put(mat, 0, mArray, mRows * rowLength);
+            return;
+        }
+        Object row = rowArray(rowLength);
+        for (int y = 0; y < mRows; y++) {
+            loadRow(y, row, rowLength);
+            put(mat, y, row, rowLength);
+        }
+    }
+
+    /** New native Mat holding a copy of the pixels */
+    public Mat toMat() {
+        Mat mat = new Mat();
+        copyTo(mat);
+        return mat;
+    }
+
+    @Override
+    public String toString() {
+        return "JavaMat [ " + mRows + "*" + mCols + "*" + CvType.typeToString(mType)
+                + ", isCont=" + isContinuous() + ", isSubmat=" + mSubmatrix
+                + ", offset=" + mOffset + ", step1=" + mStep1 + " ]";
+    }
+
+    private Object array(Class<?> type) {
+        if (mArray == null)
+            throw new UnsupportedOperationException("Pixels are stored in a buffer");
+        if (!type.isInstance(mArray))
+            throw new UnsupportedOperationException("Image data type is not compatible: " + mType);
+        return mArray;
+    }
+
+    private void putByte(int i, byte v) {
+        if (mArray != null)
+            ((byte[]) mArray)[i] = v;
+        else
+            mBuffer.put(i, v);
+    }
+
+    private void putShort(int i, short v) {
+        if (mArray != null)
+            ((short[]) mArray)[i] = v;
+        else
+            mBuffer.putShort(i * 2, v);
+    }
+
+    private static long saturate(double value, long min, long max) {
+        long v = Math.round(value);
+        return v < min ? min : v > max ? max : v;
+    }
+
+    /** Row scratch array, of the class of the storage, kept between calls */
+    private Object rowArray(int length) {
+        if (mRow == null || java.lang.reflect.Array.getLength(mRow) < length)
+            mRow = newArray(depth(), length);
+        return mRow;
+    }
+
+    private void loadRow(int y, Object row, int length) {
+        int i = index(y, 0);
+        if (mArray != null) {
+            System.arraycopy(mArray, i, row, 0, length);
+            return;
+        }
+        ByteBuffer b = mBuffer.duplicate().order(ByteOrder.nativeOrder());
+        b.position(i * elemSize1());
+        switch (depth()) {
+        case CvType.CV_8U:
+        case CvType.CV_8S:
+            b.get((byte[]) row, 0, length);
+            break;
+        case CvType.CV_16U:
+        case CvType.CV_16S:
+            b.asShortBuffer().get((short[]) row, 0, length);
+            break;
+        case CvType.CV_32S:
+            b.asIntBuffer().get((int[]) row, 0, length);
+            break;
+        case CvType.CV_32F:
+            b.asFloatBuffer().get((float[]) row, 0, length);
+            break;
+        default:
+            b.asDoubleBuffer().get((double[]) row, 0, length);
+            break;
+        }
+    }
+
+    private void storeRow(int y, Object row, int length) {
+        int i = index(y, 0);
+        if (mArray != null) {
+            System.arraycopy(row, 0, mArray, i, length);
+            return;
+        }
+        ByteBuffer b = mBuffer.duplicate().order(ByteOrder.nativeOrder());
+        b.position(i * elemSize1());
+        switch (depth()) {
+        case CvType.CV_8U:
+        case CvType.CV_8S:
+            b.put((byte[]) row, 0, length);
+            break;
+        case CvType.CV_16U:
+        case CvType.CV_16S:
+            b.asShortBuffer().put((short[]) row, 0, length);
+            break;
+        case CvType.CV_32S:
+            b.asIntBuffer().put((int[]) row, 0, length);
+            break;
+        case CvType.CV_32F:
+            b.asFloatBuffer().put((float[]) row, 0, length);
+            break;
+        default:
+            b.asDoubleBuffer().put((double[]) row, 0, length);
+            break;
+        }
+    }
+
+    private static void get(Mat mat, int row, Object data, int count) {
+        if (data instanceof byte[])
+            mat.get(row, 0, (byte[]) data, count);
+        else if (data instanceof short[])
+            mat.get(row, 0, (short[]) data, count);
+        else if (data instanceof int[])
+            mat.get(row, 0, (int[]) data, count);
+        else if (data instanceof float[])
+            mat.get(row, 0, (float[]) data, count);
+        else
+            mat.get(row, 0, (double[]) data, count);
+    }
+
+    private static void put(Mat mat, int row, Object data, int count) {
+        if (data instanceof byte[])
+            mat.put(row, 0, (byte[]) data, count);
+        else if (data instanceof short[])
+            mat.put(row, 0, (short[]) data, count);
+        else if (data instanceof int[])
+            mat.put(row, 0, (int[]) data, count);
+        else if (data instanceof float[])
+            mat.put(row, 0, (float[]) data, count);
+        else
+            mat.put(row, 0, (double[]) data, count);
+    }
+
+    private static void checkType(int type) {
+        if (CvType.depth(type) > CvType.CV_64F)
+            throw new IllegalArgumentException("Unsupported type " + type);
+    }
+
+    private static Class<?> arrayClass(int depth) {
+        switch (depth) {
+        case CvType.CV_8U:
+        case CvType.CV_8S:
+            return byte[].class;
+        case CvType.CV_16U:
+        case CvType.CV_16S:
+            return short[].class;
+        case CvType.CV_32S:
+            return int[].class;
+        case CvType.CV_32F:
+            return float[].class;
+        default:
+            return double[].class;
+        }
+    }
+
+    private static Object newArray(int depth, int length) {
+        return java.lang.reflect.Array.newInstance(arrayClass(depth).getComponentType(), length);
+    }
+}
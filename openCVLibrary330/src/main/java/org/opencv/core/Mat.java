@@ -11,6 +11,8 @@ public class Mat {
         if (addr == 0)
             throw new java.lang.UnsupportedOperationException("Native object address is NULL");
         nativeObj = addr;
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
     }
 
     //
@@ -22,6 +24,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat();
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
 
         return;
     }
@@ -35,6 +39,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type);
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
 
         return;
     }
@@ -48,6 +54,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type);
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
 
         return;
     }
@@ -61,6 +69,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(rows, cols, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
 
         return;
     }
@@ -74,6 +84,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(size.width, size.height, type, s.val[0], s.val[1], s.val[2], s.val[3]);
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
 
         return;
     }
@@ -87,6 +99,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end, colRange.start, colRange.end);
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
 
         return;
     }
@@ -96,6 +110,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, rowRange.start, rowRange.end);
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
 
         return;
     }
@@ -109,6 +125,8 @@ public class Mat {
     {
 
         nativeObj = n_Mat(m.nativeObj, roi.y, roi.y + roi.height, roi.x, roi.x + roi.width);
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
 
         return;
     }
@@ -638,6 +656,8 @@ public class Mat {
     // javadoc: Mat::release()
     public void release()
     {
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.released(nativeObj);
 
         n_release(nativeObj);
 
@@ -908,6 +928,8 @@ public class Mat {
 
     @Override
     protected void finalize() throws Throwable {
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.finalized(nativeObj);
         n_delete(nativeObj);
         super.finalize();
     }
@@ -940,6 +962,17 @@ public class Mat {
         return nPutD(nativeObj, row, col, data.length, data);
     }
 
+    // javadoc:Mat::put(row,col,data,count)
+    public int put(int row, int col, double[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        return nPutD(nativeObj, row, col, count, data);
+    }
+
     // javadoc:Mat::put(row,col,data)
     public int put(int row, int col, float[] data) {
         int t = type();
@@ -955,6 +988,20 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::put(row,col,data,count)
+    public int put(int row, int col, float[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        if (CvType.depth(t) == CvType.CV_32F) {
+            return nPutF(nativeObj, row, col, count, data);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::put(row,col,data)
     public int put(int row, int col, int[] data) {
         int t = type();
@@ -970,6 +1017,20 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::put(row,col,data,count)
+    public int put(int row, int col, int[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        if (CvType.depth(t) == CvType.CV_32S) {
+            return nPutI(nativeObj, row, col, count, data);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::put(row,col,data)
     public int put(int row, int col, short[] data) {
         int t = type();
@@ -985,6 +1046,20 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::put(row,col,data,count)
+    public int put(int row, int col, short[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        if (CvType.depth(t) == CvType.CV_16U || CvType.depth(t) == CvType.CV_16S) {
+            return nPutS(nativeObj, row, col, count, data);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::put(row,col,data)
     public int put(int row, int col, byte[] data) {
         int t = type();
@@ -1000,6 +1075,20 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::put(row,col,data,count)
+    public int put(int row, int col, byte[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        if (CvType.depth(t) == CvType.CV_8U || CvType.depth(t) == CvType.CV_8S) {
+            return nPutB(nativeObj, row, col, count, data);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::get(row,col,data)
     public int get(int row, int col, byte[] data) {
         int t = type();
@@ -1015,6 +1104,20 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::get(row,col,data,count)
+    public int get(int row, int col, byte[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        if (CvType.depth(t) == CvType.CV_8U || CvType.depth(t) == CvType.CV_8S) {
+            return nGetB(nativeObj, row, col, count, data);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::get(row,col,data)
     public int get(int row, int col, short[] data) {
         int t = type();
@@ -1030,6 +1133,20 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::get(row,col,data,count)
+    public int get(int row, int col, short[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        if (CvType.depth(t) == CvType.CV_16U || CvType.depth(t) == CvType.CV_16S) {
+            return nGetS(nativeObj, row, col, count, data);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::get(row,col,data)
     public int get(int row, int col, int[] data) {
         int t = type();
@@ -1045,6 +1162,20 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::get(row,col,data,count)
+    public int get(int row, int col, int[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        if (CvType.depth(t) == CvType.CV_32S) {
+            return nGetI(nativeObj, row, col, count, data);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::get(row,col,data)
     public int get(int row, int col, float[] data) {
         int t = type();
@@ -1060,6 +1191,20 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::get(row,col,data,count)
+    public int get(int row, int col, float[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        if (CvType.depth(t) == CvType.CV_32F) {
+            return nGetF(nativeObj, row, col, count, data);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::get(row,col,data)
     public int get(int row, int col, double[] data) {
         int t = type();
@@ -1075,6 +1220,20 @@ public class Mat {
         throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
     }
 
+    // javadoc:Mat::get(row,col,data,count)
+    public int get(int row, int col, double[] data, int count) {
+        int t = type();
+        if (data == null || count < 0 || count > data.length || count % CvType.channels(t) != 0)
+            throw new java.lang.UnsupportedOperationException(
+                    "Provided data element number (" + count +
+                            ") should be multiple of the Mat channels count (" +
+                            CvType.channels(t) + ") and fit in the array");
+        if (CvType.depth(t) == CvType.CV_64F) {
+            return nGetD(nativeObj, row, col, count, data);
+        }
+        throw new java.lang.UnsupportedOperationException("Mat data type is not compatible: " + t);
+    }
+
     // javadoc:Mat::get(row,col)
     public double[] get(int row, int col) {
         return nGet(nativeObj, row, col);
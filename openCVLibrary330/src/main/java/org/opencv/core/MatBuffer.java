@@ -0,0 +1,247 @@
+package org.opencv.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Direct buffer over the pixels of a Mat, for reading and writing them from Java without
+ * copying them into arrays through JNI.
+ * <p>
+ * The buffer starts at the first pixel of the Mat and ends after its last one. Rows are
+ * {@link #rowStride()} bytes apart, which is more than {@link #rowBytes()} when the Mat is a
+ * region of a wider one; {@link #roiX()}, {@link #roiY()}, {@link #wholeCols()} and
+ * {@link #wholeRows()} place it in its parent. Multi-byte values are in native byte order.
+ * <p>
+ * {@link #wrap(Mat)} accepts any 2D Mat. {@link #wrapContinuous(Mat, boolean)} refuses Mats
+ * whose rows are not contiguous, or works on a continuous copy that {@link #writeBack()}
+ * stores into the original.
+ * <p>
+ * The buffer points into native memory owned by the Mat: it is only valid while the Mat is
+ * neither released nor reallocated (by {@code create}, or as the output of an operation with
+ * another size or type). Accessing it afterwards reads or corrupts freed memory.
+ * <p>
+ * The buffer is made by a small JNI helper library, see {@link #isSupported()}.
+ */
+public final class MatBuffer {
+
+    private static final String LIBRARY_NAME = "opencv_matbuffer";
+    private static final boolean SUPPORTED = loadLibrary();
+
+    private final Mat mMat;
+    private final Mat mSource;
+    private final ByteBuffer mBuffer;
+    private final int mRows;
+    private final int mCols;
+    private final int mElemSize;
+    private final int mRowStride;
+    private final int mRoiX;
+    private final int mRoiY;
+    private final int mWholeCols;
+    private final int mWholeRows;
+
+    private MatBuffer(Mat mat, Mat source) {
+        if (!SUPPORTED)
+            throw new UnsupportedOperationException("lib" + LIBRARY_NAME + " is not available");
+        if (mat.empty() || mat.dims() > 2)
+            throw new IllegalArgumentException("Buffers need a non-empty 2D Mat");
+        mMat = mat;
+        mSource = source;
+        mRows = mat.rows();
+        mCols = mat.cols();
+        mElemSize = (int) mat.elemSize();
+        mRowStride = (int) (mat.step1() * mat.elemSize1());
+
+        Size wholeSize = new Size();
+        Point offset = new Point();
+        mat.locateROI(wholeSize, offset);
+        mRoiX = (int) offset.x;
+        mRoiY = (int) offset.y;
+        mWholeCols = (int) wholeSize.width;
+        mWholeRows = (int) wholeSize.height;
+
+        long capacity = (long) (mRows - 1) * mRowStride + (long) mCols * mElemSize;
+        if (capacity > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Mat data exceeds 2 GB");
+        mBuffer = nNewBuffer(mat.dataAddr(), capacity);
+        mBuffer.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Whether the JNI helper library was found; when it was not, every factory method
+     * throws {@link UnsupportedOperationException} and callers should fall back to
+     * {@link Mat#get} and {@link Mat#put}.
+     */
+    public static boolean isSupported() {
+        return SUPPORTED;
+    }
+
+    /**
+     * Wraps the pixels of a 2D Mat in place, with its row stride.
+     */
+    public static MatBuffer wrap(Mat mat) {
+        return new MatBuffer(mat, null);
+    }
+
+    /**
+     * Wraps the pixels of a Mat whose rows follow each other without gaps.
+     * @param copy what to do with a non-continuous Mat: false to throw
+     *             {@link IllegalArgumentException}, true to wrap a continuous copy
+     */
+    public static MatBuffer wrapContinuous(Mat mat, boolean copy) {
+        if (mat.isContinuous())
+            return new MatBuffer(mat, null);
+        if (!copy)
+            throw new IllegalArgumentException("Mat is not continuous");
+        return new MatBuffer(mat.clone(), mat);
+    }
+
+    /**
+     * Buffer over all the pixels, from position 0 to its capacity. Each call returns the same
+     * buffer, so its position and limit are shared with other users of this instance.
+     */
+    public ByteBuffer bytes() {
+        return mBuffer;
+    }
+
+    /**
+     * New {@code int} view of the pixels of a {@link CvType#CV_32S} Mat; rows are
+     * {@code rowStride() / 4} ints apart.
+     */
+    public IntBuffer ints() {
+        checkDepth(CvType.CV_32S, 4);
+        return bytes().duplicate().order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * New {@code float} view of the pixels of a {@link CvType#CV_32F} Mat; rows are
+     * {@code rowStride() / 4} floats apart.
+     */
+    public FloatBuffer floats() {
+        checkDepth(CvType.CV_32F, 4);
+        return bytes().duplicate().order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * Copies the pixels to {@code dst} as rows of {@link #rowBytes()} without padding.
+     */
+    public void read(byte[] dst, int offset) {
+        int rowBytes = rowBytes();
+        checkArray(dst, offset);
+        ByteBuffer buffer = mBuffer.duplicate();
+        if (mRowStride == rowBytes) {
+            buffer.get(dst, offset, mRows * rowBytes);
+            return;
+        }
+        for (int y = 0; y < mRows; y++) {
+            buffer.position(y * mRowStride);
+            buffer.get(dst, offset + y * rowBytes, rowBytes);
+        }
+    }
+
+    /**
+     * Copies rows of {@link #rowBytes()} without padding from {@code src} into the pixels.
+     */
+    public void write(byte[] src, int offset) {
+        int rowBytes = rowBytes();
+        checkArray(src, offset);
+        ByteBuffer buffer = mBuffer.duplicate();
+        if (mRowStride == rowBytes) {
+            buffer.put(src, offset, mRows * rowBytes);
+            return;
+        }
+        for (int y = 0; y < mRows; y++) {
+            buffer.position(y * mRowStride);
+            buffer.put(src, offset + y * rowBytes, rowBytes);
+        }
+    }
+
+    /**
+     * Copies the pixels back to the original Mat when this buffer wraps a copy of it.
+     */
+    public void writeBack() {
+        if (mSource != null)
+            mMat.copyTo(mSource);
+    }
+
+    /** Mat the buffer points into: the wrapped Mat, or its copy */
+    public Mat mat() {
+        return mMat;
+    }
+
+    /** Whether the buffer points into a copy of the wrapped Mat */
+    public boolean isCopy() {
+        return mSource != null;
+    }
+
+    public boolean isContinuous() {
+        return mRowStride == rowBytes() || mRows == 1;
+    }
+
+    public int rows() {
+        return mRows;
+    }
+
+    public int cols() {
+        return mCols;
+    }
+
+    /** Size of a pixel, all channels included, in bytes */
+    public int elemSize() {
+        return mElemSize;
+    }
+
+    /** Size of the pixels of a row, in bytes */
+    public int rowBytes() {
+        return mCols * mElemSize;
+    }
+
+    /** Distance between the starts of two rows, in bytes */
+    public int rowStride() {
+        return mRowStride;
+    }
+
+    /** Column of the first pixel in the Mat this one is a region of */
+    public int roiX() {
+        return mRoiX;
+    }
+
+    /** Row of the first pixel in the Mat this one is a region of */
+    public int roiY() {
+        return mRoiY;
+    }
+
+    /** Number of columns of the Mat this one is a region of */
+    public int wholeCols() {
+        return mWholeCols;
+    }
+
+    /** Number of rows of the Mat this one is a region of */
+    public int wholeRows() {
+        return mWholeRows;
+    }
+
+    private void checkDepth(int depth, int size) {
+        if (CvType.depth(mMat.type()) != depth)
+            throw new IllegalArgumentException("Mat depth is not " + CvType.typeToString(CvType.makeType(depth, 1)));
+        if (mRowStride % size != 0)
+            throw new IllegalArgumentException("Row stride is not a multiple of " + size);
+    }
+
+    private void checkArray(byte[] array, int offset) {
+        if (offset < 0 || array.length - offset < mRows * rowBytes())
+            throw new IllegalArgumentException("Array holds fewer than " + mRows * rowBytes() + " bytes");
+    }
+
+    private static boolean loadLibrary() {
+        try {
+            System.loadLibrary(LIBRARY_NAME);
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            return false;
+        }
+    }
+
+    private static native ByteBuffer nNewBuffer(long address, long capacity);
+}
@@ -71,6 +71,35 @@ public class MatOfDMatch extends Mat {
         return a;
     }
 
+    /**
+     * Copies the matches into {@code buff} as queryIdx, trainIdx, imgIdx and distance of each one in turn, without
+     * allocating; only as many matches as fit in {@code buff} are copied.
+     * @return number of matches in this Mat
+     */
+    public int toArray(float[] buff) {
+        int num = (int) total();
+        int count = Math.min(num, buff.length / _channels);
+        if(count > 0)
+            get(0, 0, buff, count * _channels);
+        return num;
+    }
+
+    /**
+     * Replaces the content with the first {@code num} matches of {@code buff}, laid out
+     * as by {@link #toArray(float[])}. The native buffer is reused while {@code num} does not
+     * change; {@code num == 0} releases it.
+     */
+    public void fromArray(float[] buff, int num) {
+        if(num < 0 || num * _channels > buff.length)
+            throw new IllegalArgumentException("Array holds fewer than " + num + " elements");
+        if(num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        put(0, 0, buff, num * _channels);
+    }
+
     public void fromList(List<DMatch> ldm) {
         DMatch adm[] = ldm.toArray(new DMatch[0]);
         fromArray(adm);
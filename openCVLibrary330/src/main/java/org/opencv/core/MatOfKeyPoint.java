@@ -74,6 +74,35 @@ public class MatOfKeyPoint extends Mat {
         return a;
     }
 
+    /**
+     * Copies the key points into {@code buff} as x, y, size, angle, response, octave and class_id of each one in turn, without
+     * allocating; only as many key points as fit in {@code buff} are copied.
+     * @return number of key points in this Mat
+     */
+    public int toArray(float[] buff) {
+        int num = (int) total();
+        int count = Math.min(num, buff.length / _channels);
+        if(count > 0)
+            get(0, 0, buff, count * _channels);
+        return num;
+    }
+
+    /**
+     * Replaces the content with the first {@code num} key points of {@code buff}, laid out
+     * as by {@link #toArray(float[])}. The native buffer is reused while {@code num} does not
+     * change; {@code num == 0} releases it.
+     */
+    public void fromArray(float[] buff, int num) {
+        if(num < 0 || num * _channels > buff.length)
+            throw new IllegalArgumentException("Array holds fewer than " + num + " elements");
+        if(num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        put(0, 0, buff, num * _channels);
+    }
+
     public void fromList(List<KeyPoint> lkp) {
         KeyPoint akp[] = lkp.toArray(new KeyPoint[0]);
         fromArray(akp);
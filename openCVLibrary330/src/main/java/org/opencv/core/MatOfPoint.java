@@ -66,6 +66,35 @@ public class MatOfPoint extends Mat {
         return ap;
     }
 
+    /**
+     * Copies the points into {@code buff} as x and y of each one in turn, without
+     * allocating; only as many points as fit in {@code buff} are copied.
+     * @return number of points in this Mat
+     */
+    public int toArray(int[] buff) {
+        int num = (int) total();
+        int count = Math.min(num, buff.length / _channels);
+        if(count > 0)
+            get(0, 0, buff, count * _channels);
+        return num;
+    }
+
+    /**
+     * Replaces the content with the first {@code num} points of {@code buff}, laid out
+     * as by {@link #toArray(int[])}. The native buffer is reused while {@code num} does not
+     * change; {@code num == 0} releases it.
+     */
+    public void fromArray(int[] buff, int num) {
+        if(num < 0 || num * _channels > buff.length)
+            throw new IllegalArgumentException("Array holds fewer than " + num + " elements");
+        if(num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        put(0, 0, buff, num * _channels);
+    }
+
     public void fromList(List<Point> lp) {
         Point ap[] = lp.toArray(new Point[0]);
         fromArray(ap);
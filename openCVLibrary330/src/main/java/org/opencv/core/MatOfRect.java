@@ -69,6 +69,36 @@ public class MatOfRect extends Mat {
             a[i] = new Rect(buff[i*_channels], buff[i*_channels+1], buff[i*_channels+2], buff[i*_channels+3]);
         return a;
     }
+
+    /**
+     * Copies the rectangles into {@code buff} as x, y, width and height of each one in turn, without
+     * allocating; only as many rectangles as fit in {@code buff} are copied.
+     * @return number of rectangles in this Mat
+     */
+    public int toArray(int[] buff) {
+        int num = (int) total();
+        int count = Math.min(num, buff.length / _channels);
+        if(count > 0)
+            get(0, 0, buff, count * _channels);
+        return num;
+    }
+
+    /**
+     * Replaces the content with the first {@code num} rectangles of {@code buff}, laid out
+     * as by {@link #toArray(int[])}. The native buffer is reused while {@code num} does not
+     * change; {@code num == 0} releases it.
+     */
+    public void fromArray(int[] buff, int num) {
+        if(num < 0 || num * _channels > buff.length)
+            throw new IllegalArgumentException("Array holds fewer than " + num + " elements");
+        if(num == 0) {
+            release();
+            return;
+        }
+        alloc(num);
+        put(0, 0, buff, num * _channels);
+    }
+
     public void fromList(List<Rect> lr) {
         Rect ap[] = lr.toArray(new Rect[0]);
         fromArray(ap);
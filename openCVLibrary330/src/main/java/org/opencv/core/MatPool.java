@@ -0,0 +1,219 @@
+package org.opencv.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reuses native Mats instead of leaving their memory to finalizers.
+ * <p>
+ * {@link #acquire(int, int, int)} hands out an idle Mat of the requested rows, columns and
+ * type, or creates one, and {@link #release(Mat)} gives it back. Idle Mats are kept in buckets
+ * by shape and type; beyond {@code maxIdleBytes}, returned Mats are released at once instead.
+ * A Mat whose shape or type changed while it was out, for example by being the output of an
+ * operation, goes back into the bucket of its new shape.
+ * <p>
+ * A {@link Scope} returns every Mat acquired through it when closed, which suits
+ * try-with-resources:
+ * <pre>
+ * MatPool.Scope scope = pool.scope();
+ * try {
+ *     Mat small = scope.acquire(rows / 2, cols / 2, CvType.CV_8UC1);
+ *     ...
+ * } finally {
+ *     scope.close();
+ * }
+ * </pre>
+ * Once each shape has been seen, processing a frame creates no new native Mat.
+ * Acquired pixels are not cleared. All methods are synchronized.
+ */
+public class MatPool {
+
+    private final long mMaxIdleBytes;
+    private final List<Bucket> mBuckets = new ArrayList<Bucket>();
+    private final List<Scope> mFreeScopes = new ArrayList<Scope>();
+    private long mIdleBytes;
+    private int mIdleCount;
+    private int mLiveCount;
+    private int mHighWaterMark;
+    private long mCreatedCount;
+    private long mReusedCount;
+
+    /**
+     * @param maxIdleBytes size of the idle Mats kept for reuse, above which returned Mats are released
+     */
+    public MatPool(long maxIdleBytes) {
+        if (maxIdleBytes < 0)
+            throw new IllegalArgumentException("Idle size cannot be negative");
+        mMaxIdleBytes = maxIdleBytes;
+    }
+
+    /**
+     * Takes an idle Mat of the given shape and type, or creates one.
+     */
+    public synchronized Mat acquire(int rows, int cols, int type) {
+        Bucket bucket = bucket(rows, cols, type, false);
+        Mat mat;
+        if (bucket != null && !bucket.mMats.isEmpty()) {
+            mat = bucket.mMats.remove(bucket.mMats.size() - 1);
+            mIdleBytes -= bucket.mBytes;
+            mIdleCount--;
+            mReusedCount++;
+        } else {
+            mat = create(rows, cols, type);
+            mCreatedCount++;
+        }
+        mLiveCount++;
+        mHighWaterMark = Math.max(mHighWaterMark, mLiveCount);
+        return mat;
+    }
+
+    /**
+     * Gives back a Mat obtained from {@link #acquire}. It must not be used afterwards.
+     */
+    public synchronized void release(Mat mat) {
+        mLiveCount--;
+        if (mat.empty()) {
+            mat.release();
+            return;
+        }
+        Bucket bucket = bucket(mat.rows(), mat.cols(), mat.type(), true);
+        if (mat.dims() > 2 || mat.isSubmatrix() || mIdleBytes + bucket.mBytes > mMaxIdleBytes) {
+            mat.release();
+            return;
+        }
+        bucket.mMats.add(mat);
+        mIdleBytes += bucket.mBytes;
+        mIdleCount++;
+    }
+
+    /**
+     * Opens a scope; close it to give back the Mats acquired through it.
+     */
+    public synchronized Scope scope() {
+        if (mFreeScopes.isEmpty())
+            return new Scope();
+        Scope scope = mFreeScopes.remove(mFreeScopes.size() - 1);
+        scope.mClosed = false;
+        return scope;
+    }
+
+    /** Releases every idle Mat */
+    public synchronized void clear() {
+        for (int i = 0; i < mBuckets.size(); i++) {
+            List<Mat> mats = mBuckets.get(i).mMats;
+            for (int j = 0; j < mats.size(); j++)
+                mats.get(j).release();
+            mats.clear();
+        }
+        mIdleBytes = 0;
+        mIdleCount = 0;
+    }
+
+    /** Number of Mats acquired and not given back */
+    public synchronized int getLiveCount() {
+        return mLiveCount;
+    }
+
+    /** Largest number of Mats out at the same time */
+    public synchronized int getHighWaterMark() {
+        return mHighWaterMark;
+    }
+
+    /** Number of idle Mats kept for reuse */
+    public synchronized int getIdleCount() {
+        return mIdleCount;
+    }
+
+    /** Size of the pixels of the idle Mats, in bytes */
+    public synchronized long getIdleBytes() {
+        return mIdleBytes;
+    }
+
+    public long getMaxIdleBytes() {
+        return mMaxIdleBytes;
+    }
+
+    /** Number of Mats created because no idle one matched */
+    public synchronized long getCreatedCount() {
+        return mCreatedCount;
+    }
+
+    /** Number of acquisitions served by an idle Mat */
+    public synchronized long getReusedCount() {
+        return mReusedCount;
+    }
+
+    /**
+     * Allocates a Mat when no idle one matches.
+     */
+    Mat create(int rows, int cols, int type) {
+        return new Mat(rows, cols, type);
+    }
+
+    private Bucket bucket(int rows, int cols, int type, boolean create) {
+        for (int i = 0; i < mBuckets.size(); i++) {
+            Bucket bucket = mBuckets.get(i);
+            if (bucket.mRows == rows && bucket.mCols == cols && bucket.mType == type)
+                return bucket;
+        }
+        if (!create)
+            return null;
+        Bucket bucket = new Bucket(rows, cols, type);
+        mBuckets.add(bucket);
+        return bucket;
+    }
+
+    private static class Bucket {
+        final int mRows;
+        final int mCols;
+        final int mType;
+        final long mBytes;
+        final List<Mat> mMats = new ArrayList<Mat>(2);
+
+        Bucket(int rows, int cols, int type) {
+            mRows = rows;
+            mCols = cols;
+            mType = type;
+            mBytes = (long) rows * cols * CvType.ELEM_SIZE(type);
+        }
+    }
+
+    /**
+     * Mats acquired for a limited time, all given back by {@link #close()}.
+     * A scope is used by one thread and must not be used after being closed.
+     */
+    public final class Scope implements AutoCloseable {
+        private final List<Mat> mMats = new ArrayList<Mat>();
+        private boolean mClosed;
+
+        private Scope() {
+        }
+
+        /**
+         * Takes a Mat from the pool until this scope is closed.
+         */
+        public Mat acquire(int rows, int cols, int type) {
+            if (mClosed)
+                throw new IllegalStateException("Scope is closed");
+            Mat mat = MatPool.this.acquire(rows, cols, type);
+            mMats.add(mat);
+            return mat;
+        }
+
+        /**
+         * Gives back every Mat acquired through this scope.
+         */
+        @Override
+        public void close() {
+            synchronized (MatPool.this) {
+                if (mClosed)
+                    return;
+                mClosed = true;
+                for (int i = 0; i < mMats.size(); i++)
+                    release(mMats.get(i));
+                mMats.clear();
+                mFreeScopes.add(this);
+            }
+        }
+    }
+}
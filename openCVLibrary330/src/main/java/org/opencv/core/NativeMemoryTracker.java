@@ -0,0 +1,314 @@
+package org.opencv.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+/**
+ * Opt-in accounting of the native objects held by the Java wrappers.
+ * <p>
+ * Once {@link #enable(boolean)} is called, {@link Mat} (and its {@code MatOf*} subclasses),
+ * {@link Algorithm} subclasses and {@code CascadeClassifier} register every native object
+ * they create, with the stack of the allocation when requested. {@link #snapshot()} reports,
+ * per Java class, how many objects are alive and how many bytes of pixels the Mats among them
+ * hold. A Mat reclaimed by its finalizer without {@link Mat#release()} having been called is a
+ * leak: it is counted, and the allocation sites of the latest ones are kept.
+ * <p>
+ * While disabled, the wrappers only test {@link #isEnabled()}. Objects created before
+ * {@link #enable} are not tracked. All methods are thread safe.
+ */
+public final class NativeMemoryTracker {
+
+    private static final int MAX_LEAK_SITES = 16;
+
+    private static volatile boolean sEnabled;
+
+    private static final Object sLock = new Object();
+    private static final Map<Long, Record> sRecords = new HashMap<Long, Record>();
+    private static final Map<String, long[]> sLeaks = new HashMap<String, long[]>();
+    private static final ArrayDeque<Throwable> sLeakSites = new ArrayDeque<Throwable>();
+    private static boolean sCaptureSites;
+    private static Timer sTimer;
+
+    private NativeMemoryTracker() {
+    }
+
+    /**
+     * Receives periodic snapshots, on a background thread.
+     */
+    public interface Listener {
+        void onSnapshot(Snapshot snapshot);
+    }
+
+    /**
+     * Starts tracking the objects created from now on.
+     * @param captureSites whether to record the stack of each allocation, which is slow
+     */
+    public static void enable(boolean captureSites) {
+        synchronized (sLock) {
+            sCaptureSites = captureSites;
+            sEnabled = true;
+        }
+    }
+
+    /**
+     * Stops tracking and forgets every object and leak, and stops periodic snapshots.
+     */
+    public static void disable() {
+        synchronized (sLock) {
+            sEnabled = false;
+            sRecords.clear();
+            sLeaks.clear();
+            sLeakSites.clear();
+            if (sTimer != null) {
+                sTimer.cancel();
+                sTimer = null;
+            }
+        }
+    }
+
+    /** Tested by the wrappers before calling into the tracker */
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Calls {@code listener} with a snapshot every {@code periodMillis} until {@link #disable()}
+     * or another call replaces it.
+     */
+    public static void startPeriodicSnapshots(long periodMillis, final Listener listener) {
+        synchronized (sLock) {
+            if (sTimer != null)
+                sTimer.cancel();
+            sTimer = new Timer("NativeMemoryTracker", true);
+            sTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    listener.onSnapshot(snapshot());
+                }
+            }, periodMillis, periodMillis);
+        }
+    }
+
+    /**
+     * Counts the live tracked objects and the bytes held by live Mats.
+     */
+    public static Snapshot snapshot() {
+        List<Record> records;
+        Map<String, long[]> leaks = new HashMap<String, long[]>();
+        List<Throwable> leakSites;
+        synchronized (sLock) {
+            // wrappers without release() may override finalize() without notifying the tracker,
+            // forget them once collected; Mats are removed by their finalizer
+            Iterator<Record> it = sRecords.values().iterator();
+            while (it.hasNext()) {
+                Record record = it.next();
+                if (!record.mReleasable && record.get() == null)
+                    it.remove();
+            }
+            records = new ArrayList<Record>(sRecords.values());
+            for (Map.Entry<String, long[]> entry : sLeaks.entrySet())
+                leaks.put(entry.getKey(), new long[] { entry.getValue()[0] });
+            leakSites = new ArrayList<Throwable>(sLeakSites);
+        }
+
+        Map<String, TypeStats> types = new HashMap<String, TypeStats>();
+        for (Record record : records) {
+            Object owner = record.get();
+            if (owner == null)
+                continue;
+            TypeStats stats = stats(types, record.mType);
+            stats.mLiveCount++;
+            if (!record.mReleased)
+                stats.mUnreleasedCount++;
+            if (owner instanceof Mat) {
+                // the owner cannot be finalized while referenced here
+                Mat mat = (Mat) owner;
+                stats.mBytes += mat.total() * mat.elemSize();
+            }
+        }
+        for (Map.Entry<String, long[]> entry : leaks.entrySet())
+            stats(types, entry.getKey()).mLeakedCount = entry.getValue()[0];
+        return new Snapshot(System.currentTimeMillis(), new ArrayList<TypeStats>(types.values()), leakSites);
+    }
+
+    /**
+     * Registers a native object; called by the wrappers when {@link #isEnabled()}.
+     */
+    public static void register(Object owner, long nativeObj) {
+        Throwable site = null;
+        synchronized (sLock) {
+            if (!sEnabled)
+                return;
+            if (sCaptureSites)
+                site = new Throwable("Allocated here");
+            sRecords.put(nativeObj, new Record(owner, site));
+        }
+    }
+
+    /**
+     * Marks a native object as explicitly released.
+     */
+    public static void released(long nativeObj) {
+        synchronized (sLock) {
+            Record record = sRecords.get(nativeObj);
+            if (record != null)
+                record.mReleased = true;
+        }
+    }
+
+    /**
+     * Forgets a native object deleted by its finalizer, counting a leak when it is
+     * a Mat that was not released.
+     */
+    public static void finalized(long nativeObj) {
+        synchronized (sLock) {
+            Record record = sRecords.remove(nativeObj);
+            if (record == null || record.mReleased || !record.mReleasable)
+                return;
+            long[] count = sLeaks.get(record.mType);
+            if (count == null)
+                sLeaks.put(record.mType, count = new long[1]);
+            count[0]++;
+            if (record.mSite != null) {
+                if (sLeakSites.size() == MAX_LEAK_SITES)
+                    sLeakSites.removeFirst();
+                sLeakSites.addLast(record.mSite);
+            }
+        }
+    }
+
+    private static TypeStats stats(Map<String, TypeStats> types, String type) {
+        TypeStats stats = types.get(type);
+        if (stats == null)
+            types.put(type, stats = new TypeStats(type));
+        return stats;
+    }
+
+    private static final class Record extends WeakReference<Object> {
+        final String mType;
+        final Throwable mSite;
+        final boolean mReleasable;
+        boolean mReleased;
+
+        Record(Object owner, Throwable site) {
+            super(owner);
+            mType = owner.getClass().getSimpleName();
+            mSite = site;
+            mReleasable = owner instanceof Mat;
+        }
+    }
+
+    /**
+     * Tracked objects of one Java class.
+     */
+    public static final class TypeStats {
+        private final String mType;
+        private int mLiveCount;
+        private int mUnreleasedCount;
+        private long mBytes;
+        private long mLeakedCount;
+
+        TypeStats(String type) {
+            mType = type;
+        }
+
+        /** Simple name of the Java class */
+        public String getType() {
+            return mType;
+        }
+
+        /** Number of objects not finalized yet */
+        public int getLiveCount() {
+            return mLiveCount;
+        }
+
+        /** Number of live objects whose release() was never called */
+        public int getUnreleasedCount() {
+            return mUnreleasedCount;
+        }
+
+        /** Size of the pixels of the live Mats, in bytes; 0 for other classes */
+        public long getBytes() {
+            return mBytes;
+        }
+
+        /** Number of objects finalized without having been released */
+        public long getLeakedCount() {
+            return mLeakedCount;
+        }
+
+        @Override
+        public String toString() {
+            return mType + ": " + mLiveCount + " live (" + mUnreleasedCount + " unreleased), "
+                    + mBytes / 1024 + " KB, " + mLeakedCount + " leaked";
+        }
+    }
+
+    /**
+     * State of the tracked objects at one point in time.
+     */
+    public static final class Snapshot {
+        private final long mTimeMillis;
+        private final List<TypeStats> mTypes;
+        private final List<Throwable> mLeakSites;
+
+        Snapshot(long timeMillis, List<TypeStats> types, List<Throwable> leakSites) {
+            mTimeMillis = timeMillis;
+            mTypes = Collections.unmodifiableList(types);
+            mLeakSites = Collections.unmodifiableList(leakSites);
+        }
+
+        /** Wall clock time of the snapshot */
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        public List<TypeStats> getTypes() {
+            return mTypes;
+        }
+
+        /** Allocation stacks of the latest leaks, when sites are captured; oldest first */
+        public List<Throwable> getLeakSites() {
+            return mLeakSites;
+        }
+
+        public int getLiveCount() {
+            int count = 0;
+            for (TypeStats stats : mTypes)
+                count += stats.mLiveCount;
+            return count;
+        }
+
+        public long getBytes() {
+            long bytes = 0;
+            for (TypeStats stats : mTypes)
+                bytes += stats.mBytes;
+            return bytes;
+        }
+
+        public long getLeakedCount() {
+            long count = 0;
+            for (TypeStats stats : mTypes)
+                count += stats.mLeakedCount;
+            return count;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(getLiveCount()).append(" native objects, ").append(getBytes() / 1024)
+              .append(" KB of Mat data, ").append(getLeakedCount()).append(" leaked");
+            for (TypeStats stats : mTypes)
+                sb.append("\n  ").append(stats);
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package org.opencv.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Chain of image operations on named buffers, recorded once and run for every frame.
+ * <p>
+ * Each recording method appends an operation reading one buffer and writing another; a name
+ * seen for the first time makes a buffer. Buffers given by {@link #bind} belong to the caller
+ * and may be rebound between runs, for example to the camera frame; the others are
+ * intermediates owned by the graph, allocated by the first run and reused as long as their
+ * size and type do not change. Operation parameters, region views and sizes are prepared when
+ * recording, so {@link #run()} allocates nothing on the Java side and only calls into the
+ * library once per operation. The duration of each operation is measured on every run.
+ * <pre>
+ * OpGraph graph = new OpGraph()
+ *         .cvtColor("rgba", "gray", Imgproc.COLOR_RGBA2GRAY)
+ *         .resize("gray", "small", 0.5, 0.5, Imgproc.INTER_AREA)
+ *         .equalizeHist("small", "small");
+ * graph.bind("rgba", frame).run();
+ * </pre>
+ * Not thread safe.
+ */
+public class OpGraph {
+
+    private static final int CVT_COLOR = 0;
+    private static final int RESIZE = 1;
+    private static final int COPY = 2;
+    private static final int COPY_REGION = 3;
+    private static final int CONVERT_TO = 4;
+    private static final int FLIP = 5;
+    private static final int EQUALIZE_HIST = 6;
+    private static final int CUSTOM = 7;
+
+    private final List<Buffer> mBuffers = new ArrayList<Buffer>();
+    private final List<Node> mNodes = new ArrayList<Node>();
+    private long mRunCount;
+    private long mLastRunNanos;
+
+    /**
+     * Operation run by {@link #run()} in recording order, with access to the buffers.
+     */
+    public interface Op {
+        void run(OpGraph graph);
+    }
+
+    /**
+     * Makes {@code name} refer to a Mat of the caller, which the graph reads or writes but
+     * never releases.
+     */
+    public OpGraph bind(String name, Mat mat) {
+        if (mat == null)
+            throw new IllegalArgumentException("Bound Mat can't be null");
+        Buffer buffer = buffer(name);
+        if (buffer.mMat != null && !buffer.mBound)
+            buffer.mMat.release();
+        buffer.mMat = mat;
+        buffer.mBound = true;
+        return this;
+    }
+
+    /**
+     * Returns the Mat of a buffer; intermediates hold the output of the last run.
+     */
+    public Mat get(String name) {
+        Buffer buffer = find(name);
+        if (buffer == null)
+            throw new IllegalArgumentException("Unknown buffer " + name);
+        return mat(buffer);
+    }
+
+    public OpGraph cvtColor(String src, String dst, int code) {
+        Node node = add(CVT_COLOR, "cvtColor", src, dst);
+        node.mCode = code;
+        return this;
+    }
+
+    /** Resizes to a fixed size */
+    public OpGraph resize(String src, String dst, Size dsize, int interpolation) {
+        Node node = add(RESIZE, "resize", src, dst);
+        node.mSize = new Size(dsize.width, dsize.height);
+        node.mCode = interpolation;
+        return this;
+    }
+
+    /** Resizes by scale factors */
+    public OpGraph resize(String src, String dst, double fx, double fy, int interpolation) {
+        Node node = add(RESIZE, "resize", src, dst);
+        node.mSize = new Size();
+        node.mAlpha = fx;
+        node.mBeta = fy;
+        node.mCode = interpolation;
+        return this;
+    }
+
+    public OpGraph copy(String src, String dst) {
+        add(COPY, "copy", src, dst);
+        return this;
+    }
+
+    /** Copies a region of {@code src} into {@code dst} */
+    public OpGraph copyRegion(String src, Rect region, String dst) {
+        Node node = add(COPY_REGION, "copyRegion", src, dst);
+        node.mRegion = region.clone();
+        return this;
+    }
+
+    /** Same as {@link Mat#convertTo(Mat, int, double, double)} */
+    public OpGraph convertTo(String src, String dst, int rtype, double alpha, double beta) {
+        Node node = add(CONVERT_TO, "convertTo", src, dst);
+        node.mCode = rtype;
+        node.mAlpha = alpha;
+        node.mBeta = beta;
+        return this;
+    }
+
+    public OpGraph flip(String src, String dst, int flipCode) {
+        Node node = add(FLIP, "flip", src, dst);
+        node.mCode = flipCode;
+        return this;
+    }
+
+    public OpGraph equalizeHist(String src, String dst) {
+        add(EQUALIZE_HIST, "equalizeHist", src, dst);
+        return this;
+    }
+
+    /**
+     * Appends an operation of the caller, timed like the others under {@code name}.
+     */
+    public OpGraph add(String name, Op op) {
+        Node node = add(CUSTOM, name, null, null);
+        node.mOp = op;
+        return this;
+    }
+
+    /**
+     * Runs every operation in recording order.
+     */
+    public void run() {
+        long start = System.nanoTime();
+        long t0 = start;
+        for (int i = 0; i < mNodes.size(); i++) {
+            Node node = mNodes.get(i);
+            node.run(this);
+            long t1 = System.nanoTime();
+            node.mLastNanos = t1 - t0;
+            node.mTotalNanos += t1 - t0;
+            t0 = t1;
+        }
+        mLastRunNanos = t0 - start;
+        mRunCount++;
+    }
+
+    public int getOpCount() {
+        return mNodes.size();
+    }
+
+    /** Name of an operation and of the buffer it writes */
+    public String getOpName(int op) {
+        Node node = mNodes.get(op);
+        return node.mDst != null ? node.mName + " -> " + node.mDst.mName : node.mName;
+    }
+
+    /** Duration of an operation during the last run, in nanoseconds */
+    public long getOpNanos(int op) {
+        return mNodes.get(op).mLastNanos;
+    }
+
+    /** Average duration of an operation over all runs, in nanoseconds */
+    public long getAverageOpNanos(int op) {
+        return mRunCount > 0 ? mNodes.get(op).mTotalNanos / mRunCount : 0;
+    }
+
+    /** Duration of the last run, in nanoseconds */
+    public long getLastRunNanos() {
+        return mLastRunNanos;
+    }
+
+    public long getRunCount() {
+        return mRunCount;
+    }
+
+    /**
+     * Releases the intermediates; the graph may be run again.
+     */
+    public void release() {
+        for (int i = 0; i < mBuffers.size(); i++) {
+            Buffer buffer = mBuffers.get(i);
+            if (buffer.mMat != null && !buffer.mBound) {
+                buffer.mMat.release();
+                buffer.mMat = null;
+            }
+        }
+        for (int i = 0; i < mNodes.size(); i++)
+            mNodes.get(i).releaseView();
+    }
+
+    private Node add(int kind, String name, String src, String dst) {
+        Node node = new Node(kind, name, src != null ? buffer(src) : null, dst != null ? buffer(dst) : null);
+        mNodes.add(node);
+        return node;
+    }
+
+    private Buffer find(String name) {
+        for (int i = 0; i < mBuffers.size(); i++) {
+            Buffer buffer = mBuffers.get(i);
+            if (buffer.mName.equals(name))
+                return buffer;
+        }
+        return null;
+    }
+
+    private Buffer buffer(String name) {
+        Buffer buffer = find(name);
+        if (buffer == null) {
+            buffer = new Buffer(name);
+            mBuffers.add(buffer);
+        }
+        return buffer;
+    }
+
+    private static Mat mat(Buffer buffer) {
+        if (buffer.mMat == null)
+            buffer.mMat = new Mat();
+        return buffer.mMat;
+    }
+
+    private static class Buffer {
+        final String mName;
+        Mat mMat;
+        boolean mBound;
+
+        Buffer(String name) {
+            mName = name;
+        }
+    }
+
+    private static class Node {
+        final int mKind;
+        final String mName;
+        final Buffer mSrc;
+        final Buffer mDst;
+        int mCode;
+        double mAlpha;
+        double mBeta;
+        Size mSize;
+        Rect mRegion;
+        Op mOp;
+        // region view, remade when the source Mat or its pixels change
+        Mat mView;
+        Mat mViewSource;
+        long mViewData;
+        long mLastNanos;
+        long mTotalNanos;
+
+        Node(int kind, String name, Buffer src, Buffer dst) {
+            mKind = kind;
+            mName = name;
+            mSrc = src;
+            mDst = dst;
+        }
+
+        void run(OpGraph graph) {
+            Mat src = mSrc != null ? mat(mSrc) : null;
+            Mat dst = mDst != null ? mat(mDst) : null;
+            switch (mKind) {
+            case CVT_COLOR:
+                Imgproc.cvtColor(src, dst, mCode);
+                break;
+            case RESIZE:
+                Imgproc.resize(src, dst, mSize, mAlpha, mBeta, mCode);
+                break;
+            case COPY:
+                src.copyTo(dst);
+                break;
+            case COPY_REGION:
+                view(src).copyTo(dst);
+                break;
+            case CONVERT_TO:
+                src.convertTo(dst, mCode, mAlpha, mBeta);
+                break;
+            case FLIP:
+                Core.flip(src, dst, mCode);
+                break;
+            case EQUALIZE_HIST:
+                Imgproc.equalizeHist(src, dst);
+                break;
+            default:
+                mOp.run(graph);
+                break;
+            }
+        }
+
+        private Mat view(Mat src) {
+            long data = src.dataAddr();
+            if (mView == null || mViewSource != src || mViewData != data) {
+                releaseView();
+                mView = src.submat(mRegion);
+                mViewSource = src;
+                mViewData = data;
+            }
+            return mView;
+        }
+
+        void releaseView() {
+            if (mView != null) {
+                mView.release();
+                mView = null;
+                mViewSource = null;
+            }
+        }
+    }
+}
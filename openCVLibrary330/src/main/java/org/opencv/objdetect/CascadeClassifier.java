@@ -8,6 +8,7 @@ import java.lang.String;
 import java.util.ArrayList;
 import java.util.List;
 import org.opencv.core.Mat;
+import org.opencv.core.NativeMemoryTracker;
 import org.opencv.core.MatOfDouble;
 import org.opencv.core.MatOfInt;
 import org.opencv.core.MatOfRect;
@@ -19,7 +20,12 @@ import org.opencv.utils.Converters;
 public class CascadeClassifier {
 
     protected final long nativeObj;
-    protected CascadeClassifier(long addr) { nativeObj = addr; }
+    protected CascadeClassifier(long addr)
+    {
+        nativeObj = addr;
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
+    }
 
     public long getNativeObjAddr() { return nativeObj; }
 
@@ -32,6 +38,8 @@ public class CascadeClassifier {
     {
         
         nativeObj = CascadeClassifier_0(filename);
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
         
         return;
     }
@@ -46,6 +54,8 @@ public class CascadeClassifier {
     {
         
         nativeObj = CascadeClassifier_1();
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.register(this, nativeObj);
         
         return;
     }
@@ -219,6 +229,8 @@ public class CascadeClassifier {
 
     @Override
     protected void finalize() throws Throwable {
+        if (NativeMemoryTracker.isEnabled())
+            NativeMemoryTracker.finalized(nativeObj);
         delete(nativeObj);
     }
 
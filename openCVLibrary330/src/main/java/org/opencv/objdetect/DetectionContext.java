@@ -0,0 +1,178 @@
+package org.opencv.objdetect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Image pyramid and integral images of one frame, shared by every cascade run on it.
+ * <p>
+ * After {@link #setFrame}, nothing is computed until a classifier scans the context with
+ * {@link JavaCascadeClassifier#detectMultiScale(DetectionContext, int, int, int, int, double, double, int, int, int, int, int, RectBuffer)}.
+ * Each scale then gets a layer, identified by its size, holding the resized pixels and the
+ * integral and squared integral images (plus the tilted one, for cascades that need it) of
+ * the part of the layer that was asked for. A later request on the same layer is served as
+ * is when it falls inside that part, and otherwise extends it to the bounding rectangle of
+ * both; so several cascades, or one cascade on several regions, build each layer once.
+ * <p>
+ * Layer buffers are kept when the next frame is set and reused for its layers, so memory
+ * only grows when a frame needs more or larger layers than any before. The frame array is
+ * referenced, not copied, until the next {@link #setFrame}. Not thread safe.
+ */
+public class DetectionContext {
+
+    private final GrayResize mResize = new GrayResize();
+    private final GrayIntegral mIntegral = new GrayIntegral();
+    private final List<Layer> mLayers = new ArrayList<Layer>();
+    private int mLayerCount;
+    private long mLayerBuilds;
+    private long mLayerHits;
+
+    private byte[] mFrame;
+    private int mOffset;
+    private int mRowStride;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * Starts a new frame; the layers of the previous one are dropped.
+     */
+    public void setFrame(byte[] gray, int offset, int rowStride, int width, int height) {
+        mFrame = gray;
+        mOffset = offset;
+        mRowStride = rowStride;
+        mWidth = width;
+        mHeight = height;
+        mLayerCount = 0;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /** Number of layers built for the current frame */
+    public int getLayerCount() {
+        return mLayerCount;
+    }
+
+    /** Number of layer requests that had to compute pixels or integrals, over all frames */
+    public long getLayerBuildCount() {
+        return mLayerBuilds;
+    }
+
+    /** Number of layer requests served by what was already computed, over all frames */
+    public long getLayerHitCount() {
+        return mLayerHits;
+    }
+
+    /**
+     * Returns the layer of the given size, computed at least over [x0, x1) x [y0, y1) of
+     * its own coordinates, with the tilted table if {@code tilted}.
+     */
+    Layer layer(int width, int height, int x0, int y0, int x1, int y1, boolean tilted) {
+        Layer layer = null;
+        for (int i = 0; i < mLayerCount; i++) {
+            Layer l = mLayers.get(i);
+            if (l.mWidth == width && l.mHeight == height) {
+                layer = l;
+                break;
+            }
+        }
+        if (layer == null) {
+            if (mLayerCount == mLayers.size())
+                mLayers.add(new Layer());
+            layer = mLayers.get(mLayerCount++);
+            layer.mWidth = width;
+            layer.mHeight = height;
+            layer.mRegionWidth = 0;
+            layer.mRegionHeight = 0;
+        }
+
+        boolean inside = layer.mRegionWidth > 0
+                && x0 >= layer.mX && y0 >= layer.mY
+                && x1 <= layer.mX + layer.mRegionWidth && y1 <= layer.mY + layer.mRegionHeight;
+        if (inside && (layer.mHasTilted || !tilted)) {
+            mLayerHits++;
+            return layer;
+        }
+        mLayerBuilds++;
+        if (!inside) {
+            if (layer.mRegionWidth > 0) {
+                x0 = Math.min(x0, layer.mX);
+                y0 = Math.min(y0, layer.mY);
+                x1 = Math.max(x1, layer.mX + layer.mRegionWidth);
+                y1 = Math.max(y1, layer.mY + layer.mRegionHeight);
+                tilted |= layer.mHasTilted;
+            }
+            build(layer, x0, y0, x1, y1, tilted);
+        } else {
+            buildTilted(layer);
+        }
+        return layer;
+    }
+
+    private void build(Layer layer, int x0, int y0, int x1, int y1, boolean tilted) {
+        int w = x1 - x0;
+        int h = y1 - y0;
+        layer.mX = x0;
+        layer.mY = y0;
+        layer.mRegionWidth = w;
+        layer.mRegionHeight = h;
+        if (layer.mWidth == mWidth && layer.mHeight == mHeight) {
+            layer.mPixels = mFrame;
+            layer.mPixelsOffset = mOffset + y0 * mRowStride + x0;
+            layer.mPixelsStride = mRowStride;
+        } else {
+            if (layer.mOwnPixels.length < w * h)
+                layer.mOwnPixels = new byte[w * h];
+            mResize.resize(mFrame, mOffset, mRowStride, mWidth, mHeight, layer.mWidth, layer.mHeight,
+                    x0, y0, x1, y1, layer.mOwnPixels, 0, w);
+            layer.mPixels = layer.mOwnPixels;
+            layer.mPixelsOffset = 0;
+            layer.mPixelsStride = w;
+        }
+
+        int size = (w + 1) * (h + 1);
+        if (layer.mSum.length < size) {
+            layer.mSum = new int[size];
+            layer.mSqSum = new int[size];
+        }
+        GrayIntegral.integral(layer.mPixels, layer.mPixelsOffset, layer.mPixelsStride, w, h,
+                layer.mSum, layer.mSqSum, w + 1);
+        layer.mHasTilted = false;
+        if (tilted)
+            buildTilted(layer);
+    }
+
+    private void buildTilted(Layer layer) {
+        int w = layer.mRegionWidth;
+        int h = layer.mRegionHeight;
+        if (layer.mTilted.length < (w + 1) * (h + 1))
+            layer.mTilted = new int[layer.mSum.length];
+        mIntegral.tiltedIntegral(layer.mPixels, layer.mPixelsOffset, layer.mPixelsStride, w, h, layer.mTilted, w + 1);
+        layer.mHasTilted = true;
+    }
+
+    /**
+     * One scale of the pyramid, of which the region starting at (mX, mY) is computed.
+     */
+    static final class Layer {
+        int mWidth;
+        int mHeight;
+        int mX;
+        int mY;
+        int mRegionWidth;
+        int mRegionHeight;
+        boolean mHasTilted;
+        byte[] mPixels;
+        int mPixelsOffset;
+        int mPixelsStride;
+        byte[] mOwnPixels = new byte[0];
+        int[] mSum = new int[0];
+        int[] mSqSum = new int[0];
+        int[] mTilted = new int[0];
+    }
+}
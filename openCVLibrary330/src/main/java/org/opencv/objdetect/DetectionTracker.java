@@ -0,0 +1,388 @@
+package org.opencv.objdetect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a detector on a schedule and follows its detections in the frames in between.
+ * <p>
+ * Every {@link #setDetectionInterval(int) interval} frames, the detector runs on the whole
+ * frame and each detection becomes a track, matched to the existing tracks by overlap so that
+ * an object keeps its id. A track stores a small template of its box, at most 16x16 samples.
+ * In the frames in between, each track predicts its position from its velocity and searches
+ * for the template in a window around it, coarse then fine, by sum of absolute differences.
+ * The match quality gives the track confidence; when a track drops below
+ * {@link #setMinConfidence(double) the minimum}, or leaves the frame, the detector runs
+ * right away instead of waiting for the next scheduled frame.
+ * <p>
+ * Reported boxes are exponentially smoothed, so they do not jitter by a pixel from frame to
+ * frame. Images are 8-bit gray planes, given as an array with an offset and a row stride.
+ * Once the number of tracks has peaked, updating allocates nothing. Not thread safe.
+ */
+public class DetectionTracker {
+
+    /**
+     * The detector run on scheduled frames.
+     */
+    public interface Detector {
+        /**
+         * Detects objects in a gray image and stores them in {@code objects}, in image coordinates.
+         * {@code objects} holds the detections of the previous call, so that a detector may
+         * only update the parts of the image that changed.
+         */
+        void detect(byte[] gray, int offset, int rowStride, int width, int height, RectBuffer objects);
+    }
+
+    // samples per side of a track template
+    private static final int TEMPLATE_SIZE = 16;
+    // mean absolute difference, in gray levels, at which the confidence reaches 0
+    private static final float MAD_SCALE = 48;
+    // overlap above which a detection continues a track
+    private static final double MATCH_OVERLAP = 0.3;
+
+    private final Detector mDetector;
+    private final RectBuffer mDetections = new RectBuffer();
+    private final List<Track> mTracks = new ArrayList<Track>();
+    private final List<Track> mFreeTracks = new ArrayList<Track>();
+    private int mInterval = 5;
+    private double mMinConfidence = 0.5;
+    private double mSearchMargin = 0.3;
+    private float mSmoothing = 0.6f;
+    private int mNextId = 1;
+    private int mFramesSinceDetection = -1;
+    private long mDetectedFrames;
+    private long mTrackedFrames;
+    private long mEarlyDetections;
+
+    public DetectionTracker(Detector detector) {
+        mDetector = detector;
+    }
+
+    /**
+     * Sets the number of frames between scheduled detections; 1 detects on every frame.
+     */
+    public void setDetectionInterval(int frames) {
+        if (frames < 1)
+            throw new IllegalArgumentException("Detection interval must be at least 1");
+        mInterval = frames;
+    }
+
+    /**
+     * Sets the confidence, in [0, 1], below which a track triggers an early detection.
+     */
+    public void setMinConfidence(double confidence) {
+        if (confidence < 0 || confidence > 1)
+            throw new IllegalArgumentException("Confidence must be in [0, 1]");
+        mMinConfidence = confidence;
+    }
+
+    /**
+     * Sets how far from its predicted position a track is searched, as a fraction of its size.
+     */
+    public void setSearchMargin(double margin) {
+        if (margin <= 0)
+            throw new IllegalArgumentException("Search margin must be positive");
+        mSearchMargin = margin;
+    }
+
+    /**
+     * Sets the weight of the new position in the smoothed boxes, in (0, 1]; 1 disables smoothing.
+     */
+    public void setSmoothing(double weight) {
+        if (weight <= 0 || weight > 1)
+            throw new IllegalArgumentException("Smoothing weight must be in (0, 1]");
+        mSmoothing = (float) weight;
+    }
+
+    /**
+     * Processes a frame, by detection or by tracking.
+     * @param objects receives the smoothed box of every track, in the order of
+     *                {@link #getTrackId(int)}; previous content is discarded
+     * @return whether the detector ran on this frame
+     */
+    public boolean update(byte[] gray, int offset, int rowStride, int width, int height, RectBuffer objects) {
+        boolean detect = mFramesSinceDetection < 0 || mFramesSinceDetection + 1 >= mInterval;
+        boolean early = false;
+        if (!detect) {
+            for (int i = 0; i < mTracks.size(); i++) {
+                Track track = mTracks.get(i);
+                track(track, gray, offset, rowStride, width, height);
+                if (track.mConfidence < mMinConfidence)
+                    early = true;
+            }
+            detect = early;
+        }
+
+        if (detect) {
+            mDetector.detect(gray, offset, rowStride, width, height, mDetections);
+            associate(gray, offset, rowStride, width, height);
+            mFramesSinceDetection = 0;
+            mDetectedFrames++;
+            if (early)
+                mEarlyDetections++;
+        } else {
+            mFramesSinceDetection++;
+            mTrackedFrames++;
+        }
+
+        objects.clear();
+        for (int i = 0; i < mTracks.size(); i++) {
+            Track track = mTracks.get(i);
+            objects.add(Math.round(track.mSmoothX), Math.round(track.mSmoothY),
+                    Math.round(track.mSmoothWidth), Math.round(track.mSmoothHeight));
+        }
+        return detect;
+    }
+
+    /** Number of objects tracked after the last update */
+    public int getTrackCount() {
+        return mTracks.size();
+    }
+
+    /** Id of the i-th object, which stays the same as long as the object is tracked */
+    public int getTrackId(int i) {
+        return mTracks.get(i).mId;
+    }
+
+    /** Match quality of the i-th object in the last frame, 1 on detected frames */
+    public double getTrackConfidence(int i) {
+        return mTracks.get(i).mConfidence;
+    }
+
+    /** Number of frames processed by the detector */
+    public long getDetectedFrameCount() {
+        return mDetectedFrames;
+    }
+
+    /** Number of frames processed by tracking only */
+    public long getTrackedFrameCount() {
+        return mTrackedFrames;
+    }
+
+    /** Number of detections run before their scheduled frame, because tracking was lost */
+    public long getEarlyDetectionCount() {
+        return mEarlyDetections;
+    }
+
+    /**
+     * Drops every track; the next frame runs the detector.
+     */
+    public void reset() {
+        mFreeTracks.addAll(mTracks);
+        mTracks.clear();
+        mFramesSinceDetection = -1;
+    }
+
+    /**
+     * Matches the detections to the tracks by overlap; unmatched detections start new
+     * tracks and unmatched tracks end.
+     */
+    private void associate(byte[] gray, int offset, int rowStride, int width, int height) {
+        for (int i = 0; i < mTracks.size(); i++)
+            mTracks.get(i).mMatched = false;
+
+        int tracked = mTracks.size();
+        for (int d = 0; d < mDetections.size(); d++) {
+            int x = mDetections.x(d);
+            int y = mDetections.y(d);
+            int w = mDetections.width(d);
+            int h = mDetections.height(d);
+            Track best = null;
+            double bestOverlap = MATCH_OVERLAP;
+            for (int i = 0; i < tracked; i++) {
+                Track track = mTracks.get(i);
+                if (track.mMatched)
+                    continue;
+                double overlap = overlap(track.mX, track.mY, track.mWidth, track.mHeight, x, y, w, h);
+                if (overlap >= bestOverlap) {
+                    bestOverlap = overlap;
+                    best = track;
+                }
+            }
+
+            Track track = best;
+            if (track == null) {
+                track = mFreeTracks.isEmpty() ? new Track() : mFreeTracks.remove(mFreeTracks.size() - 1);
+                track.mId = mNextId++;
+                track.mVelocityX = 0;
+                track.mVelocityY = 0;
+                track.mSmoothX = x;
+                track.mSmoothY = y;
+                track.mSmoothWidth = w;
+                track.mSmoothHeight = h;
+                mTracks.add(track);
+            }
+            track.mMatched = true;
+            track.mX = x;
+            track.mY = y;
+            track.mWidth = w;
+            track.mHeight = h;
+            track.mConfidence = 1;
+            if (!track.capture(gray, offset, rowStride, width, height)) {
+                // a new track is the last one; an existing one is left to the sweep below,
+                // so that the indices of the tracks in [0, tracked) do not move
+                if (track == best) {
+                    track.mMatched = false;
+                } else {
+                    mTracks.remove(mTracks.size() - 1);
+                    mFreeTracks.add(track);
+                }
+                continue;
+            }
+            smooth(track);
+        }
+
+        for (int i = tracked - 1; i >= 0; i--) {
+            Track track = mTracks.get(i);
+            if (!track.mMatched) {
+                mTracks.remove(i);
+                mFreeTracks.add(track);
+            }
+        }
+    }
+
+    /**
+     * Moves a track to the best match of its template around its predicted position.
+     */
+    private void track(Track track, byte[] gray, int offset, int rowStride, int width, int height) {
+        int spanX = (track.mCols - 1) * track.mStep;
+        int spanY = (track.mRows - 1) * track.mStep;
+        // the search is over the position of the template, which may start inside the box
+        int px = Math.round(track.mX + track.mTemplateX + track.mVelocityX);
+        int py = Math.round(track.mY + track.mTemplateY + track.mVelocityY);
+        int radius = Math.max((int) Math.round(mSearchMargin * Math.max(track.mWidth, track.mHeight)), 2);
+        int minX = Math.max(px - radius, 0);
+        int minY = Math.max(py - radius, 0);
+        int maxX = Math.min(px + radius, width - 1 - spanX);
+        int maxY = Math.min(py + radius, height - 1 - spanY);
+        if (minX > maxX || minY > maxY) {
+            track.mConfidence = 0;
+            return;
+        }
+
+        // coarse grid over the window, then every position around the best coarse one
+        int coarse = Math.max(radius / 6, 1);
+        long best = Long.MAX_VALUE;
+        int bestX = minX, bestY = minY;
+        for (int y = minY; y <= maxY; y += coarse) {
+            for (int x = minX; x <= maxX; x += coarse) {
+                long sad = track.sad(gray, offset + y * rowStride + x, rowStride, best);
+                if (sad < best) {
+                    best = sad;
+                    bestX = x;
+                    bestY = y;
+                }
+            }
+        }
+        if (coarse > 1) {
+            int cx = bestX, cy = bestY;
+            for (int y = Math.max(cy - coarse + 1, minY); y <= Math.min(cy + coarse - 1, maxY); y++) {
+                for (int x = Math.max(cx - coarse + 1, minX); x <= Math.min(cx + coarse - 1, maxX); x++) {
+                    long sad = track.sad(gray, offset + y * rowStride + x, rowStride, best);
+                    if (sad < best) {
+                        best = sad;
+                        bestX = x;
+                        bestY = y;
+                    }
+                }
+            }
+        }
+
+        float mad = (float) best / (track.mCols * track.mRows);
+        track.mConfidence = Math.max(1 - mad / MAD_SCALE, 0);
+        int newX = bestX - track.mTemplateX;
+        int newY = bestY - track.mTemplateY;
+        track.mVelocityX = 0.5f * track.mVelocityX + 0.5f * (newX - track.mX);
+        track.mVelocityY = 0.5f * track.mVelocityY + 0.5f * (newY - track.mY);
+        track.mX = newX;
+        track.mY = newY;
+        smooth(track);
+    }
+
+    private void smooth(Track track) {
+        float a = mSmoothing;
+        track.mSmoothX += a * (track.mX - track.mSmoothX);
+        track.mSmoothY += a * (track.mY - track.mSmoothY);
+        track.mSmoothWidth += a * (track.mWidth - track.mSmoothWidth);
+        track.mSmoothHeight += a * (track.mHeight - track.mSmoothHeight);
+    }
+
+    /** Intersection over union of two rectangles */
+    private static double overlap(float x1, float y1, float w1, float h1, int x2, int y2, int w2, int h2) {
+        float iw = Math.min(x1 + w1, x2 + w2) - Math.max(x1, x2);
+        float ih = Math.min(y1 + h1, y2 + h2) - Math.max(y1, y2);
+        if (iw <= 0 || ih <= 0)
+            return 0;
+        float intersection = iw * ih;
+        return intersection / (w1 * h1 + (float) w2 * h2 - intersection);
+    }
+
+    private static final class Track {
+        final byte[] mTemplate = new byte[TEMPLATE_SIZE * TEMPLATE_SIZE];
+        int mId;
+        float mX;
+        float mY;
+        int mWidth;
+        int mHeight;
+        float mVelocityX;
+        float mVelocityY;
+        float mSmoothX;
+        float mSmoothY;
+        float mSmoothWidth;
+        float mSmoothHeight;
+        float mConfidence;
+        boolean mMatched;
+        // template grid: mCols x mRows samples mStep pixels apart, starting at
+        // (mTemplateX, mTemplateY) from the top left corner of the box
+        int mStep;
+        int mCols;
+        int mRows;
+        int mTemplateX;
+        int mTemplateY;
+
+        /**
+         * Samples the template from the part of the box inside the image.
+         * @return false if the box is outside the image
+         */
+        boolean capture(byte[] gray, int offset, int rowStride, int width, int height) {
+            int x0 = Math.max((int) mX, 0);
+            int y0 = Math.max((int) mY, 0);
+            int x1 = Math.min((int) mX + mWidth, width);
+            int y1 = Math.min((int) mY + mHeight, height);
+            if (x0 >= x1 || y0 >= y1)
+                return false;
+            int w = x1 - x0;
+            int h = y1 - y0;
+            mStep = Math.max((Math.max(w, h) + TEMPLATE_SIZE - 1) / TEMPLATE_SIZE, 1);
+            mCols = (w - 1) / mStep + 1;
+            mRows = (h - 1) / mStep + 1;
+            mTemplateX = x0 - (int) mX;
+            mTemplateY = y0 - (int) mY;
+            for (int j = 0; j < mRows; j++) {
+                int row = offset + (y0 + j * mStep) * rowStride + x0;
+                for (int i = 0; i < mCols; i++)
+                    mTemplate[j * mCols + i] = gray[row + i * mStep];
+            }
+            return true;
+        }
+
+        /**
+         * Sum of absolute differences between the template and the image at {@code start},
+         * abandoned once it exceeds {@code limit}.
+         */
+        long sad(byte[] gray, int start, int rowStride, long limit) {
+            long sum = 0;
+            for (int j = 0; j < mRows; j++) {
+                int row = start + j * mStep * rowStride;
+                int t = j * mCols;
+                for (int i = 0; i < mCols; i++) {
+                    int d = (gray[row + i * mStep] & 0xFF) - (mTemplate[t + i] & 0xFF);
+                    sum += d < 0 ? -d : d;
+                }
+                if (sum >= limit)
+                    return sum;
+            }
+            return sum;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package org.opencv.objdetect;
+
+import org.opencv.core.CvType;
+import org.opencv.core.JavaMat;
+
+/**
+ * Two-stage eye detector: faces are searched on a downscaled luma plane, then the eye
+ * cascade runs only inside the upper half of each face, at full resolution. All results
+ * are reported in frame coordinates.
+ * <p>
+ * Both stages scan the same {@link DetectionContext}, so the pyramid layers and integral
+ * images of a frame are computed once, and only over the parts the cascades look at: the
+ * eye stage reuses the full resolution integrals around every face instead of resizing and
+ * integrating each face again.
+ * <p>
+ * {@link #detect} runs the whole pipeline and records the duration of every stage.
+ * The stages are also public ({@link #prepare}, {@link #detectFaces}, {@link #detectEyes})
+ * so that callers can time or schedule them individually; they must be called in that order
+ * for the same frame.
+ * <p>
+ * Not thread safe: the classifiers and buffers are reused for every frame.
+ */
+public class FaceEyeDetector {
+
+    public static final int STAGE_DOWNSCALE = 0;
+    public static final int STAGE_FACES     = 1;
+    public static final int STAGE_EYES      = 2;
+    public static final int STAGE_COUNT     = 3;
+
+    private final JavaCascadeClassifier mFaceClassifier;
+    private final JavaCascadeClassifier mEyesClassifier;
+    private final DetectionContext mContext = new DetectionContext();
+    private final RectBuffer mRoiEyes = new RectBuffer();
+    private final RectBuffer mRoiFaces = new RectBuffer();
+    private final RectBuffer mRegions = new RectBuffer();
+    private final long[] mStageNanos = new long[STAGE_COUNT];
+
+    private double mFaceScale = 0.5;
+    private double mFaceScaleFactor = 1.2;
+    private int mFaceMinNeighbors = 3;
+    private int mMinFaceSize = 0;
+    private double mEyeScaleFactor = 1.1;
+    private int mEyeMinNeighbors = 2;
+    private double mMinEyeRatio = 0.15;
+    private double mMaxEyeRatio = 0.5;
+
+    private int mWidth;
+    private int mHeight;
+
+    public FaceEyeDetector(JavaCascadeClassifier faceClassifier, JavaCascadeClassifier eyesClassifier) {
+        mFaceClassifier = faceClassifier;
+        mEyesClassifier = eyesClassifier;
+    }
+
+    /**
+     * Sets the factor applied to the frame before face detection, in (0, 1].
+     */
+    public void setFaceScale(double scale) {
+        if (scale <= 0 || scale > 1)
+            throw new IllegalArgumentException("Face scale must be in (0, 1]");
+        mFaceScale = scale;
+    }
+
+    /**
+     * Face stage parameters.
+     * @param minFaceSize minimum face width and height in frame pixels
+     */
+    public void setFaceParams(double scaleFactor, int minNeighbors, int minFaceSize) {
+        mFaceScaleFactor = scaleFactor;
+        mFaceMinNeighbors = minNeighbors;
+        mMinFaceSize = minFaceSize;
+    }
+
+    /**
+     * Eye stage parameters. Eye sizes are searched between {@code minEyeRatio} and
+     * {@code maxEyeRatio} times the width of the face.
+     */
+    public void setEyeParams(double scaleFactor, int minNeighbors, double minEyeRatio, double maxEyeRatio) {
+        mEyeScaleFactor = scaleFactor;
+        mEyeMinNeighbors = minNeighbors;
+        mMinEyeRatio = minEyeRatio;
+        mMaxEyeRatio = maxEyeRatio;
+    }
+
+    /**
+     * Runs all stages on a luma plane.
+     * @param faces receives the faces, in frame coordinates
+     * @param eyes receives the eyes, in frame coordinates
+     */
+    public void detect(byte[] luma, int offset, int rowStride, int width, int height, RectBuffer faces, RectBuffer eyes) {
+        long t0 = System.nanoTime();
+        prepare(luma, offset, rowStride, width, height);
+        long t1 = System.nanoTime();
+        detectFaces(faces);
+        long t2 = System.nanoTime();
+        detectEyes(faces, eyes);
+        long t3 = System.nanoTime();
+        mStageNanos[STAGE_DOWNSCALE] = t1 - t0;
+        mStageNanos[STAGE_FACES] = t2 - t1;
+        mStageNanos[STAGE_EYES] = t3 - t2;
+    }
+
+    /**
+     * Updates the results of the previous call by running the stages only inside
+     * {@code regions}, typically the parts of the frame that changed (see {@link MotionMask}).
+     * A region touching a face is grown to contain it, and the faces it touches are searched
+     * again along with their eyes, an eye belonging to the face containing its center. Faces
+     * outside every region keep their eyes without running any cascade.
+     * @param faces faces of the previous frame, updated in place
+     * @param eyes eyes of the previous frame, updated in place
+     */
+    public void detect(byte[] luma, int offset, int rowStride, int width, int height, RectBuffer regions,
+                       RectBuffer faces, RectBuffer eyes) {
+        long t0 = System.nanoTime();
+        prepare(luma, offset, rowStride, width, height);
+        long t1 = System.nanoTime();
+
+        mRegions.clear();
+        for (int r = 0; r < regions.size(); r++)
+            mRegions.add(regions.x(r), regions.y(r), regions.width(r), regions.height(r));
+        boolean grown = true;
+        while (grown) {
+            grown = false;
+            for (int r = 0; r < mRegions.size(); r++) {
+                for (int i = 0; i < faces.size(); i++) {
+                    int x0 = mRegions.x(r), y0 = mRegions.y(r);
+                    int x1 = x0 + mRegions.width(r), y1 = y0 + mRegions.height(r);
+                    if (!MotionMask.overlaps(mRegions, r, faces.x(i), faces.y(i), faces.width(i), faces.height(i))
+                            || faces.x(i) >= x0 && faces.y(i) >= y0
+                            && faces.x(i) + faces.width(i) <= x1 && faces.y(i) + faces.height(i) <= y1)
+                        continue;
+                    x0 = Math.max(Math.min(x0, faces.x(i)), 0);
+                    y0 = Math.max(Math.min(y0, faces.y(i)), 0);
+                    x1 = Math.min(Math.max(x1, faces.x(i) + faces.width(i)), width);
+                    y1 = Math.min(Math.max(y1, faces.y(i) + faces.height(i)), height);
+                    mRegions.set(r, x0, y0, x1 - x0, y1 - y0);
+                    grown = true;
+                }
+            }
+            if (grown)
+                MotionMask.merge(mRegions);
+        }
+
+        for (int i = faces.size() - 1; i >= 0; i--) {
+            boolean touched = false;
+            for (int r = 0; r < mRegions.size() && !touched; r++)
+                touched = MotionMask.overlaps(mRegions, r, faces.x(i), faces.y(i), faces.width(i), faces.height(i));
+            if (!touched)
+                continue;
+            for (int j = eyes.size() - 1; j >= 0; j--) {
+                int cx = eyes.x(j) + eyes.width(j) / 2;
+                int cy = eyes.y(j) + eyes.height(j) / 2;
+                if (cx >= faces.x(i) && cx < faces.x(i) + faces.width(i)
+                        && cy >= faces.y(i) && cy < faces.y(i) + faces.height(i))
+                    eyes.remove(j);
+            }
+            faces.remove(i);
+        }
+
+        int kept = faces.size();
+        for (int r = 0; r < mRegions.size(); r++)
+            detectFaces(mRegions.x(r), mRegions.y(r), mRegions.width(r), mRegions.height(r), faces);
+        long t2 = System.nanoTime();
+        detectEyes(faces, kept, eyes);
+        long t3 = System.nanoTime();
+        mStageNanos[STAGE_DOWNSCALE] = t1 - t0;
+        mStageNanos[STAGE_FACES] = t2 - t1;
+        mStageNanos[STAGE_EYES] = t3 - t2;
+    }
+
+    /**
+     * Runs all stages on an 8-bit single channel image stored in an array.
+     */
+    public void detect(JavaMat luma, RectBuffer faces, RectBuffer eyes) {
+        if (luma.type() != CvType.CV_8UC1 || !luma.hasArray())
+            throw new IllegalArgumentException("Luma must be 8-bit single channel, stored in an array");
+        detect(luma.bytes(), luma.offset(), luma.step1(), luma.cols(), luma.rows(), faces, eyes);
+    }
+
+    /**
+     * Context holding the layers of the current frame, shared by both stages.
+     */
+    public DetectionContext getContext() {
+        return mContext;
+    }
+
+    /**
+     * Duration of a stage during the last {@link #detect} call, in nanoseconds.
+     * Layers are built by the stages that need them, so the downscale stage only
+     * accounts for starting the frame.
+     */
+    public long getStageNanos(int stage) {
+        return mStageNanos[stage];
+    }
+
+    /**
+     * Stage 1: starts the frame in the shared context.
+     * The luma array is referenced, not copied, until the eye stage has run.
+     */
+    public void prepare(byte[] luma, int offset, int rowStride, int width, int height) {
+        mContext.setFrame(luma, offset, rowStride, width, height);
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Stage 2: detects faces on the frame downscaled by the face scale, in frame coordinates.
+     */
+    public void detectFaces(RectBuffer faces) {
+        mFaceClassifier.detectMultiScale(mContext, 0, 0, mWidth, mHeight, 1 / mFaceScale,
+                mFaceScaleFactor, mFaceMinNeighbors, mMinFaceSize, mMinFaceSize, 0, 0, faces);
+    }
+
+    /**
+     * Stage 3: detects eyes in the upper half of every face at full resolution.
+     */
+    public void detectEyes(RectBuffer faces, RectBuffer eyes) {
+        eyes.clear();
+        detectEyes(faces, 0, eyes);
+    }
+
+    /**
+     * Detects faces inside a region of the frame, appending them to {@code faces}.
+     */
+    private void detectFaces(int rx, int ry, int rw, int rh, RectBuffer faces) {
+        mFaceClassifier.detectMultiScale(mContext, rx, ry, rw, rh, 1 / mFaceScale,
+                mFaceScaleFactor, mFaceMinNeighbors, mMinFaceSize, mMinFaceSize, 0, 0, mRoiFaces);
+        for (int i = 0; i < mRoiFaces.size(); i++)
+            faces.add(mRoiFaces.x(i), mRoiFaces.y(i), mRoiFaces.width(i), mRoiFaces.height(i));
+    }
+
+    /**
+     * Appends the eyes of the faces from {@code first} on.
+     */
+    private void detectEyes(RectBuffer faces, int first, RectBuffer eyes) {
+        int winWidth = mEyesClassifier.getCascade().getWindowWidth();
+        int winHeight = mEyesClassifier.getCascade().getWindowHeight();
+
+        for (int i = first; i < faces.size(); i++) {
+            int rx = Math.max(faces.x(i), 0);
+            int ry = Math.max(faces.y(i), 0);
+            int rw = Math.min(faces.x(i) + faces.width(i), mWidth) - rx;
+            int rh = Math.min(faces.y(i) + faces.height(i) / 2, mHeight) - ry;
+            if (rw < winWidth || rh < winHeight)
+                continue;
+
+            int minEye = (int) (faces.width(i) * mMinEyeRatio);
+            int maxEye = Math.max((int) (faces.width(i) * mMaxEyeRatio), winWidth);
+            mEyesClassifier.detectMultiScale(mContext, rx, ry, rw, rh, 1, mEyeScaleFactor,
+                    mEyeMinNeighbors, minEye, minEye, maxEye, maxEye, mRoiEyes);
+            for (int j = 0; j < mRoiEyes.size(); j++)
+                eyes.add(mRoiEyes.x(j), mRoiEyes.y(j), mRoiEyes.width(j), mRoiEyes.height(j));
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.opencv.objdetect;
+
+/**
+ * Integral images of 8-bit gray images, with the arithmetic of {@code cv::integral()}:
+ * 32-bit sums that may wrap, differences of which are exact. Scratch rows for the tilted
+ * table are kept between calls.
+ */
+final class GrayIntegral {
+
+    private int[] mRowPrefix = new int[0];
+    private int[] mDiagSum = new int[0];
+    private int[] mDiagDiff = new int[0];
+
+    /**
+     * Summed area and squared summed area tables, {@code (height + 1)} rows of {@code stride}
+     * values with a zero first row and column.
+     */
+    static void integral(byte[] gray, int offset, int rowStride, int width, int height,
+                         int[] sum, int[] sq, int stride) {
+        for (int x = 0; x < stride; x++) {
+            sum[x] = 0;
+            sq[x] = 0;
+        }
+        for (int y = 0; y < height; y++) {
+            int src = offset + y * rowStride;
+            int above = y * stride;
+            int row = above + stride;
+            int s = 0, q = 0;
+            sum[row] = 0;
+            sq[row] = 0;
+            for (int x = 0; x < width; x++) {
+                int v = gray[src + x] & 0xFF;
+                s += v;
+                q += v * v;
+                sum[row + x + 1] = sum[above + x + 1] + s;
+                sq[row + x + 1] = sq[above + x + 1] + q;
+            }
+        }
+    }
+
+    /**
+     * Rotated summed area table as defined by cv::integral():
+     * tilted(X, Y) = sum of image(x, y) over y < Y and |x - X + 1| <= Y - y - 1.
+     * <p>
+     * Every row of the triangle is a difference of two row prefix sums whose ends lie on
+     * the two diagonals through the apex, so the table is the difference of two running
+     * sums indexed by X + Y and X - Y, each updated once per image row.
+     */
+    void tiltedIntegral(byte[] gray, int offset, int rowStride, int width, int height, int[] tilted, int stride) {
+        int diagLength = width + height + 2;
+        if (mDiagSum.length < diagLength) {
+            mDiagSum = new int[diagLength];
+            mDiagDiff = new int[diagLength];
+        }
+        if (mRowPrefix.length < width + 1)
+            mRowPrefix = new int[width + 1];
+        final int[] prefix = mRowPrefix;
+        final int[] diagSum = mDiagSum;   // indexed by X + Y
+        final int[] diagDiff = mDiagDiff; // indexed by X - Y + height
+        for (int i = 0; i < diagLength; i++) {
+            diagSum[i] = 0;
+            diagDiff[i] = 0;
+        }
+        for (int x = 0; x < stride; x++)
+            tilted[x] = 0;
+
+        for (int y = 0; y < height; y++) {
+            int src = offset + y * rowStride;
+            int s = 0;
+            prefix[0] = 0;
+            for (int x = 0; x < width; x++) {
+                s += gray[src + x] & 0xFF;
+                prefix[x + 1] = s;
+            }
+
+            // add row y: diagSum[X + Y] covers x < X + Y - 1 - y, diagDiff[X - Y] covers x < X - Y + y
+            for (int i = y + 1; i < diagLength; i++) {
+                int k = i - 1 - y;
+                diagSum[i] += prefix[k < width ? k : width];
+            }
+            for (int i = 0; i < diagLength - 1; i++) {
+                int k = i - height + y;
+                if (k > 0)
+                    diagDiff[i] += prefix[k < width ? k : width];
+            }
+
+            int row = (y + 1) * stride;
+            int yy = y + 1;
+            for (int x = 0; x <= width; x++)
+                tilted[row + x] = diagSum[x + yy] - diagDiff[x - yy + height];
+        }
+    }
+}
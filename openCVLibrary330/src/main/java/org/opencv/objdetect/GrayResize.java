@@ -0,0 +1,136 @@
+package org.opencv.objdetect;
+
+/**
+ * Bilinear downscaling of 8-bit single channel images with the fixed-point arithmetic of
+ * {@code cv::resize(..., INTER_LINEAR)}: 11-bit coefficients, the vectorised vertical pass
+ * rounding and the 2x2 box filter used for exact halving. Coefficient tables and row
+ * buffers are kept between calls.
+ */
+final class GrayResize {
+
+    private static final int COEF_BITS = 11;
+    private static final int COEF_SCALE = 1 << COEF_BITS;
+
+    private int[] mXOfs = new int[0];
+    private int[] mAlpha = new int[0];
+    private int[] mRow0 = new int[0];
+    private int[] mRow1 = new int[0];
+    private int mSrcWidth = -1;
+    private int mDstWidth = -1;
+
+    void resize(byte[] src, int srcOffset, int srcStride, int srcWidth, int srcHeight,
+                byte[] dst, int dstOffset, int dstStride, int dstWidth, int dstHeight) {
+        resize(src, srcOffset, srcStride, srcWidth, srcHeight, dstWidth, dstHeight,
+                0, 0, dstWidth, dstHeight, dst, dstOffset, dstStride);
+    }
+
+    /**
+     * Computes the pixels [x0, x1) x [y0, y1) of the {@code dstWidth x dstHeight} resized
+     * image, exactly as a full resize would, and stores them with (x0, y0) at {@code dstOffset}.
+     */
+    void resize(byte[] src, int srcOffset, int srcStride, int srcWidth, int srcHeight, int dstWidth, int dstHeight,
+                int x0, int y0, int x1, int y1, byte[] dst, int dstOffset, int dstStride) {
+        if (srcWidth == dstWidth && srcHeight == dstHeight) {
+            for (int y = y0; y < y1; y++)
+                System.arraycopy(src, srcOffset + y * srcStride + x0, dst, dstOffset + (y - y0) * dstStride, x1 - x0);
+            return;
+        }
+        if (srcWidth == 2 * dstWidth && srcHeight == 2 * dstHeight) {
+            halve(src, srcOffset + 2 * y0 * srcStride + 2 * x0, srcStride, dst, dstOffset, dstStride, x1 - x0, y1 - y0);
+            return;
+        }
+
+        prepareColumns(srcWidth, dstWidth);
+        int[] xofs = mXOfs;
+        int[] alpha = mAlpha;
+        int[] row0 = mRow0;
+        int[] row1 = mRow1;
+        int prev0 = -1, prev1 = -1;
+
+        double scaleY = 1. / ((double) dstHeight / srcHeight);
+        for (int dy = y0; dy < y1; dy++) {
+            float fy = (float) ((dy + 0.5) * scaleY - 0.5);
+            int sy = (int) Math.floor(fy);
+            fy -= sy;
+            int beta0 = (int) Math.rint((1.f - fy) * COEF_SCALE);
+            int beta1 = (int) Math.rint(fy * COEF_SCALE);
+            int sy0 = Math.min(Math.max(sy, 0), srcHeight - 1);
+            int sy1 = Math.min(Math.max(sy + 1, 0), srcHeight - 1);
+
+            // horizontal pass, reusing rows already computed for the previous output row
+            if (sy0 == prev1) {
+                int[] t = row0; row0 = row1; row1 = t;
+            } else if (sy0 != prev0) {
+                hresize(src, srcOffset + sy0 * srcStride, srcWidth, xofs, alpha, row0, x0, x1);
+            }
+            if (sy1 == sy0) {
+                System.arraycopy(row0, x0, row1, x0, x1 - x0);
+            } else {
+                hresize(src, srcOffset + sy1 * srcStride, srcWidth, xofs, alpha, row1, x0, x1);
+            }
+            prev0 = sy0;
+            prev1 = sy1;
+
+            int d = dstOffset + (dy - y0) * dstStride - x0;
+            for (int dx = x0; dx < x1; dx++) {
+                int v = ((((row0[dx] >> 4) * beta0) >> 16) + (((row1[dx] >> 4) * beta1) >> 16) + 2) >> 2;
+                dst[d + dx] = (byte) (v < 0 ? 0 : v > 255 ? 255 : v);
+            }
+        }
+        mRow0 = row0;
+        mRow1 = row1;
+    }
+
+    private static void hresize(byte[] src, int rowOffset, int srcWidth, int[] xofs, int[] alpha, int[] dst, int x0, int x1) {
+        for (int dx = x0; dx < x1; dx++) {
+            int sx = xofs[dx];
+            int sx1 = sx + 1 < srcWidth ? sx + 1 : sx;
+            dst[dx] = (src[rowOffset + sx] & 0xFF) * alpha[2 * dx] + (src[rowOffset + sx1] & 0xFF) * alpha[2 * dx + 1];
+        }
+    }
+
+    private void prepareColumns(int srcWidth, int dstWidth) {
+        if (srcWidth == mSrcWidth && dstWidth == mDstWidth)
+            return;
+        if (mXOfs.length < dstWidth) {
+            mXOfs = new int[dstWidth];
+            mAlpha = new int[dstWidth * 2];
+            mRow0 = new int[dstWidth];
+            mRow1 = new int[dstWidth];
+        }
+        double scaleX = 1. / ((double) dstWidth / srcWidth);
+        for (int dx = 0; dx < dstWidth; dx++) {
+            float fx = (float) ((dx + 0.5) * scaleX - 0.5);
+            int sx = (int) Math.floor(fx);
+            fx -= sx;
+            if (sx < 0) {
+                fx = 0;
+                sx = 0;
+            }
+            if (sx >= srcWidth - 1) {
+                fx = 0;
+                sx = srcWidth - 1;
+            }
+            mXOfs[dx] = sx;
+            mAlpha[2 * dx] = (int) Math.rint((1.f - fx) * COEF_SCALE);
+            mAlpha[2 * dx + 1] = (int) Math.rint(fx * COEF_SCALE);
+        }
+        mSrcWidth = srcWidth;
+        mDstWidth = dstWidth;
+    }
+
+    private static void halve(byte[] src, int srcOffset, int srcStride,
+                              byte[] dst, int dstOffset, int dstStride, int dstWidth, int dstHeight) {
+        for (int dy = 0; dy < dstHeight; dy++) {
+            int s0 = srcOffset + 2 * dy * srcStride;
+            int s1 = s0 + srcStride;
+            int d = dstOffset + dy * dstStride;
+            for (int dx = 0; dx < dstWidth; dx++) {
+                int sx = 2 * dx;
+                int sum = (src[s0 + sx] & 0xFF) + (src[s0 + sx + 1] & 0xFF)
+                        + (src[s1 + sx] & 0xFF) + (src[s1 + sx + 1] & 0xFF);
+                dst[d + dx] = (byte) ((sum + 2) >> 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,384 @@
+package org.opencv.objdetect;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.opencv.core.Size;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Boosted Haar cascade stored as flat primitive arrays.
+ * <p>
+ * The model is read from the cascade XML written by {@code opencv_traincascade}
+ * (stageType BOOST, featureType HAAR), which is the format of the cascades bundled
+ * with the application. Stumps and deeper trees as well as tilted features are supported.
+ * Instances are immutable and may be shared by any number of {@link HaarEvaluator}s.
+ */
+public final class HaarCascade {
+
+    /** Maximum number of weighted rectangles in one Haar feature */
+    public static final int MAX_RECTS = 3;
+
+    /** Matches THRESHOLD_EPS of the native cascade reader */
+    static final float THRESHOLD_EPS = 1e-5f;
+
+    final int windowWidth;
+    final int windowHeight;
+
+    // stage table: trees [stageFirstTree[s], stageFirstTree[s] + stageTreeCount[s])
+    final float[] stageThreshold;
+    final int[] stageFirstTree;
+    final int[] stageTreeCount;
+
+    // tree table: nodes and leaves of tree t start at treeFirstNode[t] / treeFirstLeaf[t]
+    final int[] treeFirstNode;
+    final int[] treeFirstLeaf;
+
+    // node table: a positive child is a node index relative to the tree root,
+    // zero or negative child -k is leaf k of the tree
+    final int[] nodeFeature;
+    final float[] nodeThreshold;
+    final int[] nodeLeft;
+    final int[] nodeRight;
+    final float[] leafValues;
+
+    // feature pool: MAX_RECTS * 4 ints (x, y, width, height) and MAX_RECTS weights per feature,
+    // unused rectangles have zero weight
+    final int[] featureRects;
+    final float[] featureWeights;
+    final boolean[] featureTilted;
+
+    final boolean stumpsOnly;
+    final boolean hasTiltedFeatures;
+
+    HaarCascade(int windowWidth, int windowHeight,
+                float[] stageThreshold, int[] stageFirstTree, int[] stageTreeCount,
+                int[] treeFirstNode, int[] treeFirstLeaf,
+                int[] nodeFeature, float[] nodeThreshold, int[] nodeLeft, int[] nodeRight,
+                float[] leafValues,
+                int[] featureRects, float[] featureWeights, boolean[] featureTilted) {
+        this.windowWidth = windowWidth;
+        this.windowHeight = windowHeight;
+        this.stageThreshold = stageThreshold;
+        this.stageFirstTree = stageFirstTree;
+        this.stageTreeCount = stageTreeCount;
+        this.treeFirstNode = treeFirstNode;
+        this.treeFirstLeaf = treeFirstLeaf;
+        this.nodeFeature = nodeFeature;
+        this.nodeThreshold = nodeThreshold;
+        this.nodeLeft = nodeLeft;
+        this.nodeRight = nodeRight;
+        this.leafValues = leafValues;
+        this.featureRects = featureRects;
+        this.featureWeights = featureWeights;
+        this.featureTilted = featureTilted;
+
+        validate();
+
+        boolean stumps = true;
+        for (int t = 0; t < treeFirstNode.length; t++) {
+            int end = t + 1 < treeFirstNode.length ? treeFirstNode[t + 1] : nodeFeature.length;
+            if (end - treeFirstNode[t] != 1 || treeFirstLeaf[t] != 2 * t) {
+                stumps = false;
+                break;
+            }
+        }
+        stumpsOnly = stumps && leafValues.length == 2 * treeFirstNode.length;
+
+        boolean tilted = false;
+        for (boolean t : featureTilted)
+            tilted |= t;
+        hasTiltedFeatures = tilted;
+    }
+
+    /**
+     * Loads a cascade from an XML file.
+     */
+    public static HaarCascade load(String filename) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(filename));
+        try {
+            return load(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Loads a cascade from an XML stream, e.g. an Android raw resource.
+     * The stream is not closed.
+     * @throws IllegalArgumentException if the document is not a BOOST/HAAR cascade
+     */
+    public static HaarCascade load(InputStream is) throws IOException {
+        Handler handler = new Handler();
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(is, handler);
+        } catch (SAXException e) {
+            IOException ioe = new IOException("Malformed cascade: " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        } catch (ParserConfigurationException e) {
+            IOException ioe = new IOException("XML parser is not available");
+            ioe.initCause(e);
+            throw ioe;
+        }
+        return handler.build();
+    }
+
+    public Size getOriginalWindowSize() {
+        return new Size(windowWidth, windowHeight);
+    }
+
+    public int getWindowWidth() {
+        return windowWidth;
+    }
+
+    public int getWindowHeight() {
+        return windowHeight;
+    }
+
+    public int getStageCount() {
+        return stageThreshold.length;
+    }
+
+    public int getTreeCount() {
+        return treeFirstNode.length;
+    }
+
+    public int getFeatureCount() {
+        return featureTilted.length;
+    }
+
+    public boolean hasTiltedFeatures() {
+        return hasTiltedFeatures;
+    }
+
+    private void validate() {
+        int nfeatures = featureTilted.length;
+        if (windowWidth <= 2 || windowHeight <= 2 || stageThreshold.length == 0)
+            throw new IllegalArgumentException("Empty cascade");
+        for (int s = 0; s < stageThreshold.length; s++) {
+            if (stageTreeCount[s] <= 0 || stageFirstTree[s] + stageTreeCount[s] > treeFirstNode.length)
+                throw new IllegalArgumentException("Stage " + s + " has invalid tree range");
+        }
+        for (int t = 0; t < treeFirstNode.length; t++) {
+            int nodeEnd = t + 1 < treeFirstNode.length ? treeFirstNode[t + 1] : nodeFeature.length;
+            int leafEnd = t + 1 < treeFirstLeaf.length ? treeFirstLeaf[t + 1] : leafValues.length;
+            int nodes = nodeEnd - treeFirstNode[t];
+            int leaves = leafEnd - treeFirstLeaf[t];
+            for (int n = treeFirstNode[t]; n < nodeEnd; n++) {
+                if (nodeFeature[n] < 0 || nodeFeature[n] >= nfeatures)
+                    throw new IllegalArgumentException("Tree " + t + " references unknown feature " + nodeFeature[n]);
+                if (nodeLeft[n] >= nodes || -nodeLeft[n] >= leaves || nodeRight[n] >= nodes || -nodeRight[n] >= leaves)
+                    throw new IllegalArgumentException("Tree " + t + " has a child out of range");
+            }
+        }
+        for (int f = 0; f < nfeatures; f++) {
+            for (int r = 0; r < MAX_RECTS; r++) {
+                int i = (f * MAX_RECTS + r) * 4;
+                if (featureWeights[f * MAX_RECTS + r] == 0.0f)
+                    continue;
+                int x = featureRects[i], y = featureRects[i + 1], w = featureRects[i + 2], h = featureRects[i + 3];
+                boolean inside = featureTilted[f]
+                        ? x - h >= 0 && x + w <= windowWidth && y >= 0 && y + w + h <= windowHeight
+                        : x >= 0 && y >= 0 && x + w <= windowWidth && y + h <= windowHeight;
+                if (!inside)
+                    throw new IllegalArgumentException("Feature " + f + " does not fit the detection window");
+            }
+        }
+    }
+
+    /**
+     * SAX handler collecting the cascade into growable primitive arrays.
+     */
+    private static class Handler extends DefaultHandler {
+        private final ArrayList<String> mPath = new ArrayList<String>();
+        private final StringBuilder mText = new StringBuilder();
+
+        private int mWidth;
+        private int mHeight;
+        private String mStageType;
+        private String mFeatureType;
+
+        private final FloatList mStageThreshold = new FloatList();
+        private final IntList mStageFirstTree = new IntList();
+        private final IntList mTreeFirstNode = new IntList();
+        private final IntList mTreeFirstLeaf = new IntList();
+        private final IntList mNodeFeature = new IntList();
+        private final FloatList mNodeThreshold = new FloatList();
+        private final IntList mNodeLeft = new IntList();
+        private final IntList mNodeRight = new IntList();
+        private final FloatList mLeafValues = new FloatList();
+        private final IntList mFeatureRects = new IntList();
+        private final FloatList mFeatureWeights = new FloatList();
+        private final ArrayList<Boolean> mFeatureTilted = new ArrayList<Boolean>();
+        private int mFeatureRectCount;
+
+        private String parent(int level) {
+            int i = mPath.size() - 1 - level;
+            return i >= 0 ? mPath.get(i) : "";
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            if ("opencv-haar-classifier".equals(attributes.getValue("type_id")))
+                throw new IllegalArgumentException("Old format cascades are not supported, convert with CascadeClassifier.convert()");
+            mPath.add(qName);
+            mText.setLength(0);
+
+            if (!"_".equals(qName))
+                return;
+            String parent = parent(1);
+            if ("stages".equals(parent)) {
+                mStageFirstTree.add(mTreeFirstNode.size());
+            } else if ("weakClassifiers".equals(parent)) {
+                mTreeFirstNode.add(mNodeFeature.size());
+                mTreeFirstLeaf.add(mLeafValues.size());
+            } else if ("features".equals(parent)) {
+                mFeatureRectCount = 0;
+                mFeatureTilted.add(Boolean.FALSE);
+                for (int i = 0; i < MAX_RECTS; i++) {
+                    mFeatureRects.add(0).add(0).add(0).add(0);
+                    mFeatureWeights.add(0.0f);
+                }
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            mText.append(ch, start, length);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            String text = mText.toString().trim();
+            String parent = parent(1);
+
+            if ("cascade".equals(parent)) {
+                if ("width".equals(qName))
+                    mWidth = Integer.parseInt(text);
+                else if ("height".equals(qName))
+                    mHeight = Integer.parseInt(text);
+                else if ("stageType".equals(qName))
+                    mStageType = text;
+                else if ("featureType".equals(qName))
+                    mFeatureType = text;
+            } else if ("stageThreshold".equals(qName)) {
+                mStageThreshold.add((float) Double.parseDouble(text) - THRESHOLD_EPS);
+            } else if ("internalNodes".equals(qName)) {
+                String[] tokens = split(text);
+                if (tokens.length % 4 != 0)
+                    throw new IllegalArgumentException("internalNodes must hold 4 values per node");
+                for (int i = 0; i < tokens.length; i += 4) {
+                    mNodeLeft.add(Integer.parseInt(tokens[i]));
+                    mNodeRight.add(Integer.parseInt(tokens[i + 1]));
+                    mNodeFeature.add(Integer.parseInt(tokens[i + 2]));
+                    mNodeThreshold.add((float) Double.parseDouble(tokens[i + 3]));
+                }
+            } else if ("leafValues".equals(qName)) {
+                for (String token : split(text))
+                    mLeafValues.add((float) Double.parseDouble(token));
+            } else if ("_".equals(qName) && "rects".equals(parent)) {
+                String[] tokens = split(text);
+                if (tokens.length != 5 || mFeatureRectCount >= MAX_RECTS)
+                    throw new IllegalArgumentException("Malformed feature rectangle '" + text + "'");
+                int feature = mFeatureTilted.size() - 1;
+                int r = feature * MAX_RECTS + mFeatureRectCount++;
+                for (int i = 0; i < 4; i++)
+                    mFeatureRects.set(r * 4 + i, Integer.parseInt(tokens[i]));
+                mFeatureWeights.set(r, (float) Double.parseDouble(tokens[4]));
+            } else if ("tilted".equals(qName) && "features".equals(parent(2))) {
+                mFeatureTilted.set(mFeatureTilted.size() - 1, Integer.parseInt(text) != 0);
+            }
+
+            mPath.remove(mPath.size() - 1);
+            mText.setLength(0);
+        }
+
+        private static String[] split(String text) {
+            return text.length() == 0 ? new String[0] : text.split("\\s+");
+        }
+
+        HaarCascade build() {
+            if (mStageType == null || mFeatureType == null)
+                throw new IllegalArgumentException("Not an OpenCV cascade classifier");
+            if (!"BOOST".equals(mStageType) || !"HAAR".equals(mFeatureType))
+                throw new IllegalArgumentException("Only BOOST/HAAR cascades are supported, got "
+                        + mStageType + "/" + mFeatureType);
+
+            int nstages = mStageThreshold.size();
+            int[] stageFirstTree = mStageFirstTree.toArray();
+            int[] stageTreeCount = new int[nstages];
+            for (int s = 0; s < nstages; s++) {
+                int end = s + 1 < nstages ? stageFirstTree[s + 1] : mTreeFirstNode.size();
+                stageTreeCount[s] = end - stageFirstTree[s];
+            }
+            boolean[] tilted = new boolean[mFeatureTilted.size()];
+            for (int i = 0; i < tilted.length; i++)
+                tilted[i] = mFeatureTilted.get(i);
+
+            return new HaarCascade(mWidth, mHeight,
+                    mStageThreshold.toArray(), stageFirstTree, stageTreeCount,
+                    mTreeFirstNode.toArray(), mTreeFirstLeaf.toArray(),
+                    mNodeFeature.toArray(), mNodeThreshold.toArray(), mNodeLeft.toArray(), mNodeRight.toArray(),
+                    mLeafValues.toArray(),
+                    mFeatureRects.toArray(), mFeatureWeights.toArray(), tilted);
+        }
+    }
+
+    private static class IntList {
+        private int[] mData = new int[64];
+        private int mSize;
+
+        IntList add(int v) {
+            if (mSize == mData.length)
+                mData = Arrays.copyOf(mData, mSize * 2);
+            mData[mSize++] = v;
+            return this;
+        }
+
+        void set(int i, int v) {
+            mData[i] = v;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(mData, mSize);
+        }
+    }
+
+    private static class FloatList {
+        private float[] mData = new float[64];
+        private int mSize;
+
+        FloatList add(float v) {
+            if (mSize == mData.length)
+                mData = Arrays.copyOf(mData, mSize * 2);
+            mData[mSize++] = v;
+            return this;
+        }
+
+        void set(int i, float v) {
+            mData[i] = v;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        float[] toArray() {
+            return Arrays.copyOf(mData, mSize);
+        }
+    }
+}
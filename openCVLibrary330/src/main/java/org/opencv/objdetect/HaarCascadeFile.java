@@ -0,0 +1,335 @@
+package org.opencv.objdetect;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Compiled binary form of a {@link HaarCascade}.
+ * <p>
+ * The file is a little endian header followed by a 4-byte aligned payload:
+ * <pre>
+ *   header   magic, version, source CRC32, payload CRC32, payload length,
+ *            window width/height, stage/tree/node/leaf/feature counts, long source key
+ *   stages   float threshold, int first tree, int tree count
+ *   trees    int first node, int first leaf
+ *   nodes    int feature, float threshold, int left, int right
+ *   leaves   float value
+ *   features float weight[3], byte rect[3][4], byte tilted (padded to 4 bytes)
+ * </pre>
+ * Thresholds and leaf values are stored as the single precision values the evaluator
+ * compares against, rectangle coordinates as unsigned bytes. Loading maps the file
+ * read-only and bulk-copies each table, so no text is parsed at startup. The CRC32 of the
+ * source XML is recorded so that {@link #load(InputStream, File)} notices a stale file
+ * and recompiles it. A caller that can tell cheaply whether the XML changed, for instance
+ * from the install time of the app shipping it, records that as the source key instead:
+ * {@link #load(InputStream, long, File)} then only reads the XML when the key differs.
+ */
+public final class HaarCascadeFile {
+
+    private static final int MAGIC = 0x31434348; // "HCC1"
+    public static final int VERSION = 2;
+    /** Source key of files that are only checked against the CRC32 of their source */
+    public static final long NO_KEY = 0;
+    private static final int HEADER_SIZE = 14 * 4;
+    private static final int SOURCE_KEY_OFFSET = 12 * 4;
+
+    private HaarCascadeFile() {
+    }
+
+    /**
+     * Returns the cascade for an XML source, using {@code compiled} as a cache.
+     * The compiled file is used when it is intact and was built from the same XML,
+     * otherwise the XML is parsed and the file is rewritten.
+     * @param xml cascade XML, read to the end but not closed
+     */
+    public static HaarCascade load(InputStream xml, File compiled) throws IOException {
+        return load(xml, NO_KEY, compiled);
+    }
+
+    /**
+     * Returns the cascade for an XML source, using {@code compiled} as a cache.
+     * The compiled file is used without reading the XML when it is intact and was written
+     * with the same source key. Otherwise the XML is read and its CRC32 checked against the
+     * file, which is rewritten with the new key, and only parsed again when the CRC differs.
+     * @param xml cascade XML, read to the end but not closed when the key does not match
+     * @param sourceKey changes whenever the XML may have changed; {@link #NO_KEY} to always
+     *                  check the CRC32 of the XML
+     */
+    public static HaarCascade load(InputStream xml, long sourceKey, File compiled) throws IOException {
+        ByteBuffer mapped = null;
+        if (compiled.isFile()) {
+            try {
+                mapped = mapFile(compiled);
+                if (mapped.getInt(4) != VERSION)
+                    mapped = null;
+                else if (sourceKey != NO_KEY && mapped.getLong(SOURCE_KEY_OFFSET) == sourceKey)
+                    return read(mapped);
+            } catch (IOException e) {
+                // unreadable or corrupt, rebuild below
+                mapped = null;
+            } catch (IllegalArgumentException e) {
+                // inconsistent tables, rebuild below
+                mapped = null;
+            }
+        }
+
+        byte[] source = readFully(xml);
+        int sourceCrc = crc(source, 0, source.length);
+        if (mapped != null && mapped.getInt(8) == sourceCrc) {
+            try {
+                HaarCascade cascade = read(mapped);
+                if (mapped.getLong(SOURCE_KEY_OFFSET) != sourceKey)
+                    write(cascade, sourceCrc, sourceKey, compiled);
+                return cascade;
+            } catch (IOException e) {
+                // corrupt, rebuild below
+            } catch (IllegalArgumentException e) {
+                // inconsistent tables, rebuild below
+            }
+        }
+
+        HaarCascade cascade = HaarCascade.load(new ByteArrayInputStream(source));
+        write(cascade, sourceCrc, sourceKey, compiled);
+        return cascade;
+    }
+
+    /**
+     * Compiles a cascade XML file into the binary format.
+     */
+    public static void compile(File xml, File compiled) throws IOException {
+        InputStream is = new FileInputStream(xml);
+        byte[] source;
+        try {
+            source = readFully(is);
+        } finally {
+            is.close();
+        }
+        write(HaarCascade.load(new ByteArrayInputStream(source)), crc(source, 0, source.length), compiled);
+    }
+
+    /**
+     * Writes a compiled cascade without a source key.
+     * @see #write(HaarCascade, int, long, File)
+     */
+    public static void write(HaarCascade c, int sourceCrc, File file) throws IOException {
+        write(c, sourceCrc, NO_KEY, file);
+    }
+
+    /**
+     * Writes a compiled cascade. The file is written next to the target and renamed,
+     * so a concurrent reader never sees a partial file.
+     * @param sourceCrc CRC32 of the XML the cascade was parsed from
+     * @param sourceKey key of that XML, see {@link #load(InputStream, long, File)}
+     */
+    public static void write(HaarCascade c, int sourceCrc, long sourceKey, File file) throws IOException {
+        int ns = c.stageThreshold.length;
+        int nt = c.treeFirstNode.length;
+        int nn = c.nodeFeature.length;
+        int nl = c.leafValues.length;
+        int nf = c.featureTilted.length;
+        if (c.windowWidth > 255 || c.windowHeight > 255)
+            throw new IllegalArgumentException("Window too large for the compiled format");
+
+        int payloadSize = ns * 12 + nt * 8 + nn * 16 + nl * 4 + nf * 12 + align4(nf * 13);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + payloadSize).order(ByteOrder.LITTLE_ENDIAN);
+        buf.position(HEADER_SIZE);
+
+        for (int i = 0; i < ns; i++) buf.putFloat(c.stageThreshold[i]);
+        for (int i = 0; i < ns; i++) buf.putInt(c.stageFirstTree[i]);
+        for (int i = 0; i < ns; i++) buf.putInt(c.stageTreeCount[i]);
+        for (int i = 0; i < nt; i++) buf.putInt(c.treeFirstNode[i]);
+        for (int i = 0; i < nt; i++) buf.putInt(c.treeFirstLeaf[i]);
+        for (int i = 0; i < nn; i++) buf.putInt(c.nodeFeature[i]);
+        for (int i = 0; i < nn; i++) buf.putFloat(c.nodeThreshold[i]);
+        for (int i = 0; i < nn; i++) buf.putInt(c.nodeLeft[i]);
+        for (int i = 0; i < nn; i++) buf.putInt(c.nodeRight[i]);
+        for (int i = 0; i < nl; i++) buf.putFloat(c.leafValues[i]);
+        for (int i = 0; i < nf * HaarCascade.MAX_RECTS; i++) buf.putFloat(c.featureWeights[i]);
+        for (int i = 0; i < nf * HaarCascade.MAX_RECTS * 4; i++) {
+            int v = c.featureRects[i];
+            if (v < 0 || v > 255)
+                throw new IllegalArgumentException("Feature rectangle out of range");
+            buf.put((byte) v);
+        }
+        for (int i = 0; i < nf; i++) buf.put((byte) (c.featureTilted[i] ? 1 : 0));
+        while (buf.position() % 4 != 0) buf.put((byte) 0);
+
+        byte[] bytes = buf.array();
+        buf.position(0);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(sourceCrc)
+                .putInt(crc(bytes, HEADER_SIZE, payloadSize)).putInt(payloadSize)
+                .putInt(c.windowWidth).putInt(c.windowHeight)
+                .putInt(ns).putInt(nt).putInt(nn).putInt(nl).putInt(nf).putLong(sourceKey);
+
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+        try {
+            raf.setLength(0);
+            raf.write(bytes);
+            raf.getFD().sync();
+        } finally {
+            raf.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("Cannot replace " + file);
+        }
+    }
+
+    /**
+     * Maps a compiled cascade.
+     * @param sourceCrc expected CRC32 of the source XML
+     * @return the cascade, or null if the file is of another version or was built from another source
+     * @throws IOException if the file cannot be read or its payload is corrupt
+     */
+    public static HaarCascade map(File file, int sourceCrc) throws IOException {
+        ByteBuffer mapped = mapFile(file);
+        if (mapped.getInt(4) != VERSION || mapped.getInt(8) != sourceCrc)
+            return null;
+        return read(mapped);
+    }
+
+    /**
+     * Maps a compiled cascade without checking which source it was built from.
+     */
+    public static HaarCascade map(File file) throws IOException {
+        ByteBuffer mapped = mapFile(file);
+        if (mapped.getInt(4) != VERSION)
+            throw new IOException("Not a version " + VERSION + " compiled cascade: " + file);
+        return read(mapped);
+    }
+
+    private static ByteBuffer mapFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            if (channel.size() < HEADER_SIZE)
+                throw new IOException("Truncated cascade file " + file);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (mapped.getInt(0) != MAGIC)
+                throw new IOException("Not a compiled cascade: " + file);
+            return mapped;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static HaarCascade read(ByteBuffer buf) throws IOException {
+        int payloadCrc = buf.getInt(12);
+        int payloadSize = buf.getInt(16);
+        if (payloadSize < 0 || HEADER_SIZE + payloadSize > buf.capacity())
+            throw new IOException("Truncated cascade payload");
+        if (crc(buf, HEADER_SIZE, payloadSize) != payloadCrc)
+            throw new IOException("Cascade payload checksum mismatch");
+
+        int windowWidth = buf.getInt(20);
+        int windowHeight = buf.getInt(24);
+        int ns = buf.getInt(28);
+        int nt = buf.getInt(32);
+        int nn = buf.getInt(36);
+        int nl = buf.getInt(40);
+        int nf = buf.getInt(44);
+        int expected = ns * 12 + nt * 8 + nn * 16 + nl * 4 + nf * 12 + align4(nf * 13);
+        if (ns < 0 || nt < 0 || nn < 0 || nl < 0 || nf < 0 || expected != payloadSize)
+            throw new IOException("Inconsistent cascade header");
+
+        buf.position(HEADER_SIZE);
+        float[] stageThreshold = floats(buf, ns);
+        int[] stageFirstTree = ints(buf, ns);
+        int[] stageTreeCount = ints(buf, ns);
+        int[] treeFirstNode = ints(buf, nt);
+        int[] treeFirstLeaf = ints(buf, nt);
+        int[] nodeFeature = ints(buf, nn);
+        float[] nodeThreshold = floats(buf, nn);
+        int[] nodeLeft = ints(buf, nn);
+        int[] nodeRight = ints(buf, nn);
+        float[] leafValues = floats(buf, nl);
+        float[] featureWeights = floats(buf, nf * HaarCascade.MAX_RECTS);
+
+        byte[] packed = new byte[nf * HaarCascade.MAX_RECTS * 4 + nf];
+        buf.get(packed);
+        int[] featureRects = new int[nf * HaarCascade.MAX_RECTS * 4];
+        for (int i = 0; i < featureRects.length; i++)
+            featureRects[i] = packed[i] & 0xFF;
+        boolean[] featureTilted = new boolean[nf];
+        for (int i = 0; i < nf; i++)
+            featureTilted[i] = packed[featureRects.length + i] != 0;
+
+        return new HaarCascade(windowWidth, windowHeight,
+                stageThreshold, stageFirstTree, stageTreeCount,
+                treeFirstNode, treeFirstLeaf,
+                nodeFeature, nodeThreshold, nodeLeft, nodeRight,
+                leafValues, featureRects, featureWeights, featureTilted);
+    }
+
+    private static int[] ints(ByteBuffer buf, int n) {
+        int[] a = new int[n];
+        buf.asIntBuffer().get(a);
+        buf.position(buf.position() + n * 4);
+        return a;
+    }
+
+    private static float[] floats(ByteBuffer buf, int n) {
+        float[] a = new float[n];
+        buf.asFloatBuffer().get(a);
+        buf.position(buf.position() + n * 4);
+        return a;
+    }
+
+    private static int align4(int n) {
+        return (n + 3) & ~3;
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static int crc(ByteBuffer buf, int offset, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer view = buf.duplicate();
+        view.position(offset);
+        byte[] chunk = new byte[8192];
+        int remaining = length;
+        while (remaining > 0) {
+            int n = Math.min(remaining, chunk.length);
+            view.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+            remaining -= n;
+        }
+        return (int) crc.getValue();
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(Math.max(is.available(), 4096));
+        byte[] buffer = new byte[16384];
+        int bytesRead;
+        while ((bytesRead = is.read(buffer)) != -1)
+            os.write(buffer, 0, bytesRead);
+        return os.toByteArray();
+    }
+
+    /**
+     * Offline compiler: {@code HaarCascadeFile <cascade.xml> <compiled.bin>}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: HaarCascadeFile <cascade.xml> <compiled.bin>");
+            System.exit(2);
+        }
+        compile(new File(args[0]), new File(args[1]));
+    }
+}
@@ -0,0 +1,220 @@
+package org.opencv.objdetect;
+
+/**
+ * Evaluates a {@link HaarCascade} on detection windows of one 8-bit gray image.
+ * <p>
+ * {@link #setImage} computes the integral, squared integral and (when the cascade needs it)
+ * tilted integral images into buffers owned by the evaluator, while {@link #setTables} reads
+ * tables computed elsewhere, such as the layers of a {@link DetectionContext}; {@link #runAt}
+ * then classifies a single window without any allocation. The arithmetic follows the native HaarEvaluator:
+ * 32-bit integrals, variance normalisation over the window shrunk by one pixel, float
+ * feature responses and double stage sums.
+ * <p>
+ * An evaluator holds per-image state and must not be shared between threads.
+ */
+public final class HaarEvaluator {
+
+    private final HaarCascade mCascade;
+    private final int[] mFeatureOfs;
+    private final int mWindowWidth;
+    private final int mWindowHeight;
+    private final double mNormArea;
+
+    private int mWidth;
+    private int mHeight;
+    private int mStride = -1;
+    // tables of the current image, either the evaluator's own or those of a DetectionContext layer
+    private int[] mSum;
+    private int[] mSqSum;
+    private int[] mTilted;
+    private int[] mOwnSum = new int[0];
+    private int[] mOwnSqSum = new int[0];
+    private int[] mOwnTilted = new int[0];
+    private final GrayIntegral mIntegral = new GrayIntegral();
+    private int mNorm0, mNorm1, mNorm2, mNorm3;
+
+    public HaarEvaluator(HaarCascade cascade) {
+        mCascade = cascade;
+        mFeatureOfs = new int[cascade.getFeatureCount() * HaarCascade.MAX_RECTS * 4];
+        mWindowWidth = cascade.windowWidth;
+        mWindowHeight = cascade.windowHeight;
+        mNormArea = (mWindowWidth - 2) * (mWindowHeight - 2);
+    }
+
+    public HaarCascade getCascade() {
+        return mCascade;
+    }
+
+    /** Width of the current image */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /** Height of the current image */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Computes the integral images of a gray image.
+     * @param gray pixel data, one byte per pixel
+     * @param offset index of the top-left pixel
+     * @param rowStride distance in bytes between consecutive rows
+     */
+    public void setImage(byte[] gray, int offset, int rowStride, int width, int height) {
+        int stride = width + 1;
+        int size = stride * (height + 1);
+        if (mOwnSum.length < size) {
+            mOwnSum = new int[size];
+            mOwnSqSum = new int[size];
+            if (mCascade.hasTiltedFeatures)
+                mOwnTilted = new int[size];
+        }
+        setTables(mOwnSum, mOwnSqSum, mOwnTilted, width, height);
+
+        GrayIntegral.integral(gray, offset, rowStride, width, height, mSum, mSqSum, stride);
+        if (mCascade.hasTiltedFeatures)
+            mIntegral.tiltedIntegral(gray, offset, rowStride, width, height, mTilted, stride);
+    }
+
+    /**
+     * Uses integral images computed elsewhere, of {@code (height + 1)} rows of
+     * {@code width + 1} values; {@code tilted} is only read by cascades with tilted features.
+     */
+    void setTables(int[] sum, int[] sqSum, int[] tilted, int width, int height) {
+        mSum = sum;
+        mSqSum = sqSum;
+        mTilted = tilted;
+        mWidth = width;
+        mHeight = height;
+        int stride = width + 1;
+        if (stride != mStride) {
+            mStride = stride;
+            computeOffsets(stride);
+        }
+    }
+
+    /**
+     * Classifies the window with top-left corner (x, y) of the current image.
+     * @return 1 if the window passed every stage, {@code -s} if it was rejected by stage s,
+     *         -1 if the window is out of the image or has no contrast
+     */
+    public int runAt(int x, int y) {
+        if (x < 0 || y < 0 || x + mWindowWidth > mWidth || y + mWindowHeight > mHeight)
+            return -1;
+
+        final int[] sum = mSum;
+        final int p = y * mStride + x;
+
+        int valsum = sum[p + mNorm0] - sum[p + mNorm1] - sum[p + mNorm2] + sum[p + mNorm3];
+        final int[] sq = mSqSum;
+        long valsqsum = (sq[p + mNorm0] - sq[p + mNorm1] - sq[p + mNorm2] + sq[p + mNorm3]) & 0xFFFFFFFFL;
+        double nf = mNormArea * valsqsum - (double) valsum * valsum;
+        if (!(nf > 0.))
+            return -1;
+        float normFactor = (float) (1. / Math.sqrt(nf));
+        if (!(mNormArea * normFactor < 1e-1))
+            return -1;
+
+        return mCascade.stumpsOnly ? predictStumps(p, normFactor) : predictTrees(p, normFactor);
+    }
+
+    private int predictStumps(int p, float normFactor) {
+        final HaarCascade c = mCascade;
+        final float[] stageThreshold = c.stageThreshold;
+        final int[] stageFirstTree = c.stageFirstTree;
+        final int[] stageTreeCount = c.stageTreeCount;
+        final int[] nodeFeature = c.nodeFeature;
+        final float[] nodeThreshold = c.nodeThreshold;
+        final int[] nodeLeft = c.nodeLeft;
+        final int[] nodeRight = c.nodeRight;
+        final float[] leaves = c.leafValues;
+
+        // with one node per tree, tree t is node t and owns leaves 2t and 2t + 1
+        for (int s = 0; s < stageThreshold.length; s++) {
+            double stageSum = 0;
+            int t = stageFirstTree[s];
+            int end = t + stageTreeCount[s];
+            for (; t < end; t++) {
+                double val = feature(nodeFeature[t], p) * normFactor;
+                stageSum += leaves[2 * t - (val < nodeThreshold[t] ? nodeLeft[t] : nodeRight[t])];
+            }
+            if (stageSum < stageThreshold[s])
+                return -s;
+        }
+        return 1;
+    }
+
+    private int predictTrees(int p, float normFactor) {
+        final HaarCascade c = mCascade;
+        final float[] stageThreshold = c.stageThreshold;
+        final int[] stageFirstTree = c.stageFirstTree;
+        final int[] stageTreeCount = c.stageTreeCount;
+        final int[] treeFirstNode = c.treeFirstNode;
+        final int[] treeFirstLeaf = c.treeFirstLeaf;
+        final int[] nodeFeature = c.nodeFeature;
+        final float[] nodeThreshold = c.nodeThreshold;
+        final int[] nodeLeft = c.nodeLeft;
+        final int[] nodeRight = c.nodeRight;
+        final float[] leaves = c.leafValues;
+
+        for (int s = 0; s < stageThreshold.length; s++) {
+            double stageSum = 0;
+            int t = stageFirstTree[s];
+            int end = t + stageTreeCount[s];
+            for (; t < end; t++) {
+                int root = treeFirstNode[t];
+                int idx = 0;
+                do {
+                    int n = root + idx;
+                    double val = feature(nodeFeature[n], p) * normFactor;
+                    idx = val < nodeThreshold[n] ? nodeLeft[n] : nodeRight[n];
+                } while (idx > 0);
+                stageSum += leaves[treeFirstLeaf[t] - idx];
+            }
+            if (stageSum < stageThreshold[s])
+                return -s;
+        }
+        return 1;
+    }
+
+    private float feature(int f, int p) {
+        final int[] buf = mCascade.featureTilted[f] ? mTilted : mSum;
+        final int[] ofs = mFeatureOfs;
+        final float[] weights = mCascade.featureWeights;
+        int o = f * 12;
+        int w = f * 3;
+        float ret = weights[w] * (buf[p + ofs[o]] - buf[p + ofs[o + 1]] - buf[p + ofs[o + 2]] + buf[p + ofs[o + 3]])
+                + weights[w + 1] * (buf[p + ofs[o + 4]] - buf[p + ofs[o + 5]] - buf[p + ofs[o + 6]] + buf[p + ofs[o + 7]]);
+        if (weights[w + 2] != 0.0f)
+            ret += weights[w + 2] * (buf[p + ofs[o + 8]] - buf[p + ofs[o + 9]] - buf[p + ofs[o + 10]] + buf[p + ofs[o + 11]]);
+        return ret;
+    }
+
+    private void computeOffsets(int stride) {
+        final int[] rects = mCascade.featureRects;
+        final boolean[] tilted = mCascade.featureTilted;
+        for (int f = 0; f < tilted.length; f++) {
+            for (int r = 0; r < HaarCascade.MAX_RECTS; r++) {
+                int i = (f * HaarCascade.MAX_RECTS + r) * 4;
+                int x = rects[i], y = rects[i + 1], w = rects[i + 2], h = rects[i + 3];
+                if (tilted[f]) {
+                    mFeatureOfs[i] = x + stride * y;
+                    mFeatureOfs[i + 1] = x - h + stride * (y + h);
+                    mFeatureOfs[i + 2] = x + w + stride * (y + w);
+                    mFeatureOfs[i + 3] = x + w - h + stride * (y + w + h);
+                } else {
+                    mFeatureOfs[i] = x + stride * y;
+                    mFeatureOfs[i + 1] = x + w + stride * y;
+                    mFeatureOfs[i + 2] = x + stride * (y + h);
+                    mFeatureOfs[i + 3] = x + w + stride * (y + h);
+                }
+            }
+        }
+        int nx = 1, ny = 1, nw = mWindowWidth - 2, nh = mWindowHeight - 2;
+        mNorm0 = nx + stride * ny;
+        mNorm1 = nx + nw + stride * ny;
+        mNorm2 = nx + stride * (ny + nh);
+        mNorm3 = nx + nw + stride * (ny + nh);
+    }
+}
@@ -0,0 +1,297 @@
+package org.opencv.objdetect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.JavaMat;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Multi-scale object detector running a {@link HaarCascade} on the JVM.
+ * <p>
+ * This is a drop-in counterpart of {@link CascadeClassifier#detectMultiScale} for BOOST/HAAR
+ * cascades: the same scale schedule, window stepping, early skip after a first stage
+ * rejection and {@code groupRectangles} post-processing. The primitive entry point takes
+ * the gray plane as a byte array (for example the Y plane of an NV21 preview frame), so
+ * no pixel data crosses JNI.
+ * <p>
+ * An instance keeps its pyramid, integral images and result buffers between calls and
+ * must be used from one thread at a time.
+ */
+public class JavaCascadeClassifier {
+
+    private final HaarCascade mCascade;
+    private final HaarEvaluator mEvaluator;
+    private final GrayResize mResize = new GrayResize();
+    private final RectGrouping mGrouping = new RectGrouping();
+    private final RectBuffer mObjects = new RectBuffer();
+    private byte[] mLayer = new byte[0];
+    private byte[] mGray = new byte[0];
+    private Mat mGrayMat;
+    private float[] mScales = new float[16];
+    private final int[] mRange = new int[4];
+
+    public JavaCascadeClassifier(HaarCascade cascade) {
+        mCascade = cascade;
+        mEvaluator = new HaarEvaluator(cascade);
+    }
+
+    public static JavaCascadeClassifier load(String filename) throws IOException {
+        return new JavaCascadeClassifier(HaarCascade.load(filename));
+    }
+
+    public static JavaCascadeClassifier load(InputStream is) throws IOException {
+        return new JavaCascadeClassifier(HaarCascade.load(is));
+    }
+
+    public HaarCascade getCascade() {
+        return mCascade;
+    }
+
+    public Size getOriginalWindowSize() {
+        return mCascade.getOriginalWindowSize();
+    }
+
+    /**
+     * Detects objects of different sizes in a gray image.
+     * @param gray 8-bit pixels, one byte per pixel
+     * @param offset index of the top-left pixel
+     * @param rowStride distance in bytes between consecutive rows
+     * @param scaleFactor how much the image size is reduced at each image scale, must be greater than 1
+     * @param minNeighbors how many neighbors each candidate rectangle should have to retain it, 0 disables grouping
+     * @param minWidth minimum object width, smaller objects are ignored
+     * @param minHeight minimum object height
+     * @param maxWidth maximum object width, 0 means the image width
+     * @param maxHeight maximum object height, 0 means the image height
+     * @param objects receives the detections, previous content is discarded
+     */
+    public void detectMultiScale(byte[] gray, int offset, int rowStride, int width, int height,
+                                 double scaleFactor, int minNeighbors,
+                                 int minWidth, int minHeight, int maxWidth, int maxHeight,
+                                 RectBuffer objects) {
+        if (scaleFactor <= 1)
+            throw new IllegalArgumentException("scaleFactor must be greater than 1");
+        objects.clear();
+        if (width <= 0 || height <= 0)
+            return;
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            maxWidth = width;
+            maxHeight = height;
+        }
+
+        int count = scales(1, width, height, scaleFactor, minWidth, minHeight, maxWidth, maxHeight);
+        detectAtScales(gray, offset, rowStride, width, height, mScales, count, objects);
+
+        if (minNeighbors > 0)
+            mGrouping.groupRectangles(objects, minNeighbors, RectGrouping.GROUP_EPS);
+    }
+
+    /**
+     * Detects objects inside a region of the frame of a {@link DetectionContext}, building the
+     * pyramid layers in the context so that other scans of the same frame reuse them.
+     * <p>
+     * Scales start at {@code startScale}, with the window step of a pyramid built on the frame
+     * downscaled by that factor: a start of 2 finds the same sizes as scanning the halved frame.
+     * Only windows inside the region are scanned; since they are aligned on the layers of the
+     * whole frame, results may differ slightly from those of a copy of the region.
+     * @param x left of the region, in frame pixels
+     * @param y top of the region
+     * @param startScale smallest scale, at least 1
+     * @param minWidth minimum object width, in frame pixels
+     * @param maxWidth maximum object width, 0 means the region width
+     * @param objects receives the detections in frame coordinates, previous content is discarded
+     */
+    public void detectMultiScale(DetectionContext context, int x, int y, int width, int height,
+                                 double startScale, double scaleFactor, int minNeighbors,
+                                 int minWidth, int minHeight, int maxWidth, int maxHeight,
+                                 RectBuffer objects) {
+        if (scaleFactor <= 1)
+            throw new IllegalArgumentException("scaleFactor must be greater than 1");
+        if (startScale < 1)
+            throw new IllegalArgumentException("startScale must be at least 1");
+        objects.clear();
+        int x0 = Math.max(x, 0);
+        int y0 = Math.max(y, 0);
+        int x1 = Math.min(x + width, context.getWidth());
+        int y1 = Math.min(y + height, context.getHeight());
+        if (x1 <= x0 || y1 <= y0)
+            return;
+        if (maxWidth <= 0 || maxHeight <= 0) {
+            maxWidth = x1 - x0;
+            maxHeight = y1 - y0;
+        }
+
+        int count = scales(startScale, x1 - x0, y1 - y0, scaleFactor, minWidth, minHeight, maxWidth, maxHeight);
+        detectAtScales(context, x0, y0, x1, y1, mScales, count, startScale, objects);
+
+        if (minNeighbors > 0)
+            mGrouping.groupRectangles(objects, minNeighbors, RectGrouping.GROUP_EPS);
+    }
+
+    /**
+     * Same as {@link #detectMultiScale(byte[], int, int, int, int, double, int, int, int, int, int, RectBuffer)}
+     * for an 8-bit single channel image stored in an array, which may be a region of a larger one.
+     */
+    public void detectMultiScale(JavaMat gray, double scaleFactor, int minNeighbors,
+                                 int minWidth, int minHeight, int maxWidth, int maxHeight,
+                                 RectBuffer objects) {
+        if (gray.type() != CvType.CV_8UC1 || !gray.hasArray())
+            throw new IllegalArgumentException("Image must be 8-bit single channel, stored in an array");
+        detectMultiScale(gray.bytes(), gray.offset(), gray.step1(), gray.cols(), gray.rows(), scaleFactor,
+                minNeighbors, minWidth, minHeight, maxWidth, maxHeight, objects);
+    }
+
+    /**
+     * Same as {@link CascadeClassifier#detectMultiScale(Mat, MatOfRect, double, int, int, Size, Size)}.
+     * Three and four channel images are treated as BGR(A), like the native classifier does.
+     * The flags are ignored, as they are for new format cascades.
+     */
+    public void detectMultiScale(Mat image, MatOfRect objects, double scaleFactor, int minNeighbors,
+                                 int flags, Size minSize, Size maxSize) {
+        Mat gray = image;
+        if (image.channels() == 3 || image.channels() == 4) {
+            if (mGrayMat == null)
+                mGrayMat = new Mat();
+            Imgproc.cvtColor(image, mGrayMat, image.channels() == 3 ? Imgproc.COLOR_BGR2GRAY : Imgproc.COLOR_BGRA2GRAY);
+            gray = mGrayMat;
+        } else if (image.type() != CvType.CV_8UC1) {
+            throw new IllegalArgumentException("Image must be 8-bit with 1, 3 or 4 channels");
+        }
+
+        int width = gray.cols();
+        int height = gray.rows();
+        if (mGray.length < width * height)
+            mGray = new byte[width * height];
+        gray.get(0, 0, mGray);
+
+        detectMultiScale(mGray, 0, width, width, height, scaleFactor, minNeighbors,
+                (int) minSize.width, (int) minSize.height, (int) maxSize.width, (int) maxSize.height, mObjects);
+        mObjects.copyTo(objects);
+    }
+
+    public void detectMultiScale(Mat image, MatOfRect objects) {
+        detectMultiScale(image, objects, 1.1, 3, 0, new Size(), new Size());
+    }
+
+    /**
+     * Stores the scales to scan into {@code mScales}, smallest first, and returns their number.
+     */
+    private int scales(double start, int width, int height, double scaleFactor,
+                       int minWidth, int minHeight, int maxWidth, int maxHeight) {
+        int winWidth = mCascade.windowWidth;
+        int winHeight = mCascade.windowHeight;
+        int count = 0;
+        for (double factor = start; ; factor *= scaleFactor) {
+            int windowWidth = (int) Math.rint(winWidth * factor);
+            int windowHeight = (int) Math.rint(winHeight * factor);
+            int scaledWidth = (int) Math.rint(width / factor);
+            int scaledHeight = (int) Math.rint(height / factor);
+            if (scaledWidth < winWidth || scaledHeight < winHeight)
+                break;
+            if (windowWidth > maxWidth || windowHeight > maxHeight)
+                break;
+            if (windowWidth < minWidth || windowHeight < minHeight)
+                continue;
+            if (count == mScales.length)
+                mScales = Arrays.copyOf(mScales, Math.max(2 * count, 16));
+            mScales[count++] = (float) factor;
+        }
+        return count;
+    }
+
+    /**
+     * Appends the raw detections of every scale, before grouping.
+     */
+    void detectAtScales(byte[] gray, int offset, int rowStride, int width, int height,
+                        float[] scales, int count, RectBuffer objects) {
+        for (int i = 0; i < count; i++)
+            detectAtScale(gray, offset, rowStride, width, height, scales[i], objects);
+    }
+
+    /**
+     * Appends the raw detections of every scale in a region of a context, before grouping.
+     */
+    void detectAtScales(DetectionContext context, int x0, int y0, int x1, int y1,
+                        float[] scales, int count, double startScale, RectBuffer objects) {
+        int[] range = mRange;
+        for (int i = 0; i < count; i++) {
+            DetectionContext.Layer layer = layer(context, x0, y0, x1, y1, scales[i], range);
+            if (layer == null)
+                continue;
+            mEvaluator.setTables(layer.mSum, layer.mSqSum, layer.mTilted, layer.mRegionWidth, layer.mRegionHeight);
+            scan(mEvaluator, layer.mX, layer.mY, range[0], range[1], range[2], range[3],
+                    scales[i] >= 2 * startScale ? 1 : 2, scales[i], objects);
+        }
+    }
+
+    /**
+     * Gets the context layer of a scale, computed over the region [x0, x1) x [y0, y1) of the
+     * frame, and stores the top left corners of the windows inside the region into
+     * {@code range}, as [range[0], range[2]) x [range[1], range[3]) in layer coordinates.
+     * @return null if no window fits in the region at this scale
+     */
+    DetectionContext.Layer layer(DetectionContext context, int x0, int y0, int x1, int y1, float scale, int[] range) {
+        int layerWidth = Math.max((int) Math.rint(context.getWidth() / scale), 0);
+        int layerHeight = Math.max((int) Math.rint(context.getHeight() / scale), 0);
+        int lx0 = (int) Math.ceil(x0 / scale);
+        int ly0 = (int) Math.ceil(y0 / scale);
+        int lx1 = Math.min((int) Math.floor(x1 / scale), layerWidth);
+        int ly1 = Math.min((int) Math.floor(y1 / scale), layerHeight);
+        if (lx1 - lx0 < mCascade.windowWidth || ly1 - ly0 < mCascade.windowHeight)
+            return null;
+        range[0] = lx0;
+        range[1] = ly0;
+        range[2] = lx1 + 1 - mCascade.windowWidth;
+        range[3] = ly1 + 1 - mCascade.windowHeight;
+        return context.layer(layerWidth, layerHeight, lx0, ly0, lx1, ly1, mCascade.hasTiltedFeatures);
+    }
+
+    /**
+     * Scans one pyramid layer. Layer sizes, window sizes and output coordinates are
+     * rounded from the single precision scale, as in the native scale data.
+     */
+    private void detectAtScale(byte[] gray, int offset, int rowStride, int width, int height,
+                               float scale, RectBuffer objects) {
+        int layerWidth = Math.max((int) Math.rint(width / scale), 0);
+        int layerHeight = Math.max((int) Math.rint(height / scale), 0);
+
+        if (layerWidth == width && layerHeight == height) {
+            mEvaluator.setImage(gray, offset, rowStride, width, height);
+        } else {
+            if (mLayer.length < layerWidth * layerHeight)
+                mLayer = new byte[layerWidth * layerHeight];
+            mResize.resize(gray, offset, rowStride, width, height, mLayer, 0, layerWidth, layerWidth, layerHeight);
+            mEvaluator.setImage(mLayer, 0, layerWidth, layerWidth, layerHeight);
+        }
+
+        scan(mEvaluator, 0, 0, 0, 0, layerWidth + 1 - mCascade.windowWidth, layerHeight + 1 - mCascade.windowHeight,
+                scale >= 2 ? 1 : 2, scale, objects);
+    }
+
+    /**
+     * Scans the windows with a top left corner in [x0, endX) x [y0, endY) of a layer.
+     * @param left layer column of the first column of the evaluator image
+     * @param top layer row of the first row of the evaluator image
+     */
+    static void scan(HaarEvaluator evaluator, int left, int top, int x0, int y0, int endX, int endY,
+                     int step, float scale, RectBuffer objects) {
+        HaarCascade cascade = evaluator.getCascade();
+        int windowWidth = (int) Math.rint(cascade.windowWidth * scale);
+        int windowHeight = (int) Math.rint(cascade.windowHeight * scale);
+
+        for (int y = y0; y < endY; y += step) {
+            for (int x = x0; x < endX; x += step) {
+                int result = evaluator.runAt(x - left, y - top);
+                if (result > 0)
+                    objects.add((int) Math.rint(x * scale), (int) Math.rint(y * scale), windowWidth, windowHeight);
+                if (result == 0)
+                    x += step;
+            }
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package org.opencv.objdetect;
+
+/**
+ * Block-wise change detection on a luma plane, to restrict detection to the parts of the
+ * frame that moved.
+ * <p>
+ * The frame is divided into square blocks. {@link #update} compares each block with a
+ * reference on a decimated grid, one sample every few pixels in both directions, and marks
+ * the block as changed when the mean absolute difference exceeds a threshold. The reference
+ * of a block is only refreshed when it changes, so slow drift also ends up being reported.
+ * The first frame, or a frame of a new size, marks every block. {@link #getChangedRegions}
+ * then merges the changed blocks into rectangles.
+ * <p>
+ * Buffers are reused as long as the frame size does not change. Not thread safe.
+ */
+public final class MotionMask {
+
+    private final int mBlockSize;
+    private final int mSampleStep;
+    private int mThreshold = 8;
+
+    private int mWidth = -1;
+    private int mHeight = -1;
+    private int mSamplesX;
+    private int mSamplesY;
+    private int mGridCols;
+    private int mGridRows;
+    private byte[] mReference = new byte[0];
+    private boolean[] mChanged = new boolean[0];
+    private boolean[] mVisited = new boolean[0];
+    private int[] mStack = new int[0];
+    private int mChangedCount;
+
+    public MotionMask() {
+        this(16, 4);
+    }
+
+    /**
+     * @param blockSize side of the blocks, in pixels
+     * @param sampleStep distance between two compared pixels, dividing {@code blockSize}
+     */
+    public MotionMask(int blockSize, int sampleStep) {
+        if (sampleStep < 1 || blockSize < sampleStep || blockSize % sampleStep != 0)
+            throw new IllegalArgumentException("Block size must be a multiple of the sample step");
+        mBlockSize = blockSize;
+        mSampleStep = sampleStep;
+    }
+
+    /**
+     * Sets the mean absolute difference, in gray levels, above which a block has changed.
+     */
+    public void setThreshold(int threshold) {
+        if (threshold < 0)
+            throw new IllegalArgumentException("Threshold can't be negative");
+        mThreshold = threshold;
+    }
+
+    /**
+     * Compares a frame with the reference.
+     * @return the number of changed blocks
+     */
+    public int update(byte[] luma, int offset, int rowStride, int width, int height) {
+        int step = mSampleStep;
+        if (width != mWidth || height != mHeight) {
+            mWidth = width;
+            mHeight = height;
+            mSamplesX = (width + step - 1) / step;
+            mSamplesY = (height + step - 1) / step;
+            mGridCols = (width + mBlockSize - 1) / mBlockSize;
+            mGridRows = (height + mBlockSize - 1) / mBlockSize;
+            int blocks = mGridCols * mGridRows;
+            if (mReference.length < mSamplesX * mSamplesY)
+                mReference = new byte[mSamplesX * mSamplesY];
+            if (mChanged.length < blocks) {
+                mChanged = new boolean[blocks];
+                mVisited = new boolean[blocks];
+                mStack = new int[blocks];
+            }
+            for (int sy = 0; sy < mSamplesY; sy++) {
+                int src = offset + sy * step * rowStride;
+                int dst = sy * mSamplesX;
+                for (int sx = 0; sx < mSamplesX; sx++)
+                    mReference[dst + sx] = luma[src + sx * step];
+            }
+            for (int i = 0; i < blocks; i++)
+                mChanged[i] = true;
+            mChangedCount = blocks;
+            return mChangedCount;
+        }
+
+        int perBlock = mBlockSize / step;
+        byte[] ref = mReference;
+        mChangedCount = 0;
+        for (int row = 0; row < mGridRows; row++) {
+            int sy0 = row * perBlock;
+            int sy1 = Math.min(sy0 + perBlock, mSamplesY);
+            for (int col = 0; col < mGridCols; col++) {
+                int sx0 = col * perBlock;
+                int sx1 = Math.min(sx0 + perBlock, mSamplesX);
+                int sad = 0;
+                for (int sy = sy0; sy < sy1; sy++) {
+                    int src = offset + sy * step * rowStride;
+                    int r = sy * mSamplesX;
+                    for (int sx = sx0; sx < sx1; sx++) {
+                        int d = (luma[src + sx * step] & 0xFF) - (ref[r + sx] & 0xFF);
+                        sad += d < 0 ? -d : d;
+                    }
+                }
+                boolean changed = sad > mThreshold * (sy1 - sy0) * (sx1 - sx0);
+                mChanged[row * mGridCols + col] = changed;
+                if (!changed)
+                    continue;
+                mChangedCount++;
+                for (int sy = sy0; sy < sy1; sy++) {
+                    int src = offset + sy * step * rowStride;
+                    int r = sy * mSamplesX;
+                    for (int sx = sx0; sx < sx1; sx++)
+                        ref[r + sx] = luma[src + sx * step];
+                }
+            }
+        }
+        return mChangedCount;
+    }
+
+    /** Number of blocks changed by the last update */
+    public int getChangedBlockCount() {
+        return mChangedCount;
+    }
+
+    public int getBlockCount() {
+        return mGridCols * mGridRows;
+    }
+
+    public int getBlockSize() {
+        return mBlockSize;
+    }
+
+    public int getGridCols() {
+        return mGridCols;
+    }
+
+    public int getGridRows() {
+        return mGridRows;
+    }
+
+    public boolean isChanged(int col, int row) {
+        return mChanged[row * mGridCols + col];
+    }
+
+    /**
+     * Stores the bounding rectangles of the groups of touching changed blocks, grown by
+     * {@code margin} pixels on every side and clipped to the frame. Rectangles that overlap
+     * once grown are merged.
+     */
+    public void getChangedRegions(int margin, RectBuffer regions) {
+        regions.clear();
+        if (mChangedCount == 0)
+            return;
+        int blocks = mGridCols * mGridRows;
+        for (int i = 0; i < blocks; i++)
+            mVisited[i] = false;
+
+        for (int start = 0; start < blocks; start++) {
+            if (!mChanged[start] || mVisited[start])
+                continue;
+            int minCol = mGridCols, minRow = mGridRows, maxCol = -1, maxRow = -1;
+            int top = 0;
+            mStack[top++] = start;
+            mVisited[start] = true;
+            while (top > 0) {
+                int block = mStack[--top];
+                int col = block % mGridCols;
+                int row = block / mGridCols;
+                minCol = Math.min(minCol, col);
+                maxCol = Math.max(maxCol, col);
+                minRow = Math.min(minRow, row);
+                maxRow = Math.max(maxRow, row);
+                for (int r = Math.max(row - 1, 0); r <= Math.min(row + 1, mGridRows - 1); r++) {
+                    for (int c = Math.max(col - 1, 0); c <= Math.min(col + 1, mGridCols - 1); c++) {
+                        int next = r * mGridCols + c;
+                        if (mChanged[next] && !mVisited[next]) {
+                            mVisited[next] = true;
+                            mStack[top++] = next;
+                        }
+                    }
+                }
+            }
+            int x0 = Math.max(minCol * mBlockSize - margin, 0);
+            int y0 = Math.max(minRow * mBlockSize - margin, 0);
+            int x1 = Math.min((maxCol + 1) * mBlockSize + margin, mWidth);
+            int y1 = Math.min((maxRow + 1) * mBlockSize + margin, mHeight);
+            regions.add(x0, y0, x1 - x0, y1 - y0);
+        }
+        merge(regions);
+    }
+
+    /**
+     * Forgets the reference; the next update marks every block.
+     */
+    public void reset() {
+        mWidth = -1;
+        mHeight = -1;
+    }
+
+    /**
+     * Replaces overlapping rectangles by their union until none overlap.
+     */
+    static void merge(RectBuffer rects) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < rects.size() && !merged; i++) {
+                for (int j = i + 1; j < rects.size(); j++) {
+                    if (!overlaps(rects, i, rects.x(j), rects.y(j), rects.width(j), rects.height(j)))
+                        continue;
+                    int x0 = Math.min(rects.x(i), rects.x(j));
+                    int y0 = Math.min(rects.y(i), rects.y(j));
+                    int x1 = Math.max(rects.x(i) + rects.width(i), rects.x(j) + rects.width(j));
+                    int y1 = Math.max(rects.y(i) + rects.height(i), rects.y(j) + rects.height(j));
+                    rects.set(i, x0, y0, x1 - x0, y1 - y0);
+                    rects.remove(j);
+                    merged = true;
+                    break;
+                }
+            }
+        }
+    }
+
+    static boolean overlaps(RectBuffer rects, int i, int x, int y, int width, int height) {
+        return rects.x(i) < x + width && x < rects.x(i) + rects.width(i)
+                && rects.y(i) < y + height && y < rects.y(i) + rects.height(i);
+    }
+}
@@ -0,0 +1,289 @@
+package org.opencv.objdetect;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * {@link JavaCascadeClassifier} spreading the scan of the pyramid over a {@link ForkJoinPool}.
+ * <p>
+ * Every layer of the pyramid is resized by its own task, and its window rows are split into
+ * bands, up to one per pool thread, scanned in parallel. A band computes the integral images
+ * of its rows plus the height of a window, so bands overlap in pixels but every window
+ * position is evaluated by exactly one of them: no detection is lost or duplicated at the
+ * seams. The raw detections are then concatenated in scale and row order and grouped as in
+ * {@link JavaCascadeClassifier}, so the results are the same as those of the sequential
+ * classifier. The number of threads is the parallelism of the pool.
+ * <p>
+ * When scanning a {@link DetectionContext}, the layers are built by the calling thread and
+ * only the bands are scanned in parallel, all reading the integral images of the context.
+ * <p>
+ * Layer buffers, tasks and evaluators are kept between calls, by the classifier rather than by
+ * the pool threads, so they go away with it even when the pool is shared; {@link #release()}
+ * frees them earlier. A band borrows an evaluator, with its integral images, for the time of
+ * its scan, so there are at most as many evaluators as bands ever ran at once.
+ * An instance must be used from one thread at a time; the pool may be shared.
+ */
+public class ParallelCascadeClassifier extends JavaCascadeClassifier {
+
+    // fewest window rows worth a band of their own
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    private final ForkJoinPool mPool;
+    private final ConcurrentLinkedQueue<HaarEvaluator> mEvaluators = new ConcurrentLinkedQueue<HaarEvaluator>();
+    private final List<Layer> mLayers = new ArrayList<Layer>();
+    private final List<Layer> mActiveLayers = new ArrayList<Layer>();
+    private final Pyramid mPyramid = new Pyramid();
+    private final List<ContextBand> mContextBands = new ArrayList<ContextBand>();
+    private final List<ContextBand> mActiveContextBands = new ArrayList<ContextBand>();
+    private final ContextScan mContextScan = new ContextScan();
+    private final int[] mRange = new int[4];
+
+    public ParallelCascadeClassifier(HaarCascade cascade, ForkJoinPool pool) {
+        super(cascade);
+        mPool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return mPool;
+    }
+
+    /**
+     * Frees the layer buffers and evaluators kept between calls. The classifier can still be
+     * used; they are allocated again by the next detection.
+     */
+    public void release() {
+        mEvaluators.clear();
+        mLayers.clear();
+        mActiveLayers.clear();
+        mContextBands.clear();
+        mActiveContextBands.clear();
+    }
+
+    private HaarEvaluator borrowEvaluator() {
+        HaarEvaluator evaluator = mEvaluators.poll();
+        return evaluator != null ? evaluator : new HaarEvaluator(getCascade());
+    }
+
+    @Override
+    void detectAtScales(byte[] gray, int offset, int rowStride, int width, int height,
+                        float[] scales, int count, RectBuffer objects) {
+        while (mLayers.size() < count)
+            mLayers.add(new Layer());
+        mActiveLayers.clear();
+        for (int i = 0; i < count; i++) {
+            Layer layer = mLayers.get(i);
+            layer.prepare(gray, offset, rowStride, width, height, scales[i]);
+            mActiveLayers.add(layer);
+        }
+
+        mPyramid.reinitialize();
+        mPool.invoke(mPyramid);
+
+        for (int i = 0; i < count; i++) {
+            Layer layer = mLayers.get(i);
+            for (int b = 0; b < layer.mActiveBands.size(); b++) {
+                RectBuffer found = layer.mActiveBands.get(b).mObjects;
+                for (int j = 0; j < found.size(); j++)
+                    objects.add(found.x(j), found.y(j), found.width(j), found.height(j));
+            }
+        }
+    }
+
+    @Override
+    void detectAtScales(DetectionContext context, int x0, int y0, int x1, int y1,
+                        float[] scales, int count, double startScale, RectBuffer objects) {
+        mActiveContextBands.clear();
+        int[] range = mRange;
+        for (int i = 0; i < count; i++) {
+            DetectionContext.Layer layer = layer(context, x0, y0, x1, y1, scales[i], range);
+            if (layer == null)
+                continue;
+            int step = scales[i] >= 2 * startScale ? 1 : 2;
+            int rows = (range[3] - range[1] + step - 1) / step;
+            int bands = Math.max(Math.min(mPool.getParallelism(), rows / MIN_ROWS_PER_BAND), 1);
+            for (int b = 0; b < bands; b++) {
+                if (mActiveContextBands.size() == mContextBands.size())
+                    mContextBands.add(new ContextBand());
+                ContextBand band = mContextBands.get(mActiveContextBands.size());
+                band.reinitialize();
+                band.mLayer = layer;
+                band.mScale = scales[i];
+                band.mStep = step;
+                band.mBeginX = range[0];
+                band.mEndX = range[2];
+                band.mBegin = range[1] + rows * b / bands * step;
+                band.mEnd = Math.min(range[1] + rows * (b + 1) / bands * step, range[3]);
+                mActiveContextBands.add(band);
+            }
+        }
+
+        mContextScan.reinitialize();
+        mPool.invoke(mContextScan);
+
+        for (int b = 0; b < mActiveContextBands.size(); b++) {
+            ContextBand band = mActiveContextBands.get(b);
+            RectBuffer found = band.mObjects;
+            for (int j = 0; j < found.size(); j++)
+                objects.add(found.x(j), found.y(j), found.width(j), found.height(j));
+            band.mLayer = null;
+        }
+    }
+
+    private final class Pyramid extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            invokeAll(mActiveLayers);
+        }
+    }
+
+    /**
+     * Resizes the frame to one scale, then scans the layer by bands.
+     */
+    private final class Layer extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final GrayResize mResize = new GrayResize();
+        private final List<Band> mBands = new ArrayList<Band>();
+        private final List<Band> mActiveBands = new ArrayList<Band>();
+        private byte[] mPixels = new byte[0];
+        private byte[] mGray;
+        private int mOffset;
+        private int mRowStride;
+        private int mWidth;
+        private int mHeight;
+        private float mScale;
+        // the layer image: the frame itself at scale 1, mPixels otherwise
+        private byte[] mImage;
+        private int mImageOffset;
+        private int mImageStride;
+        private int mLayerWidth;
+        private int mLayerHeight;
+
+        void prepare(byte[] gray, int offset, int rowStride, int width, int height, float scale) {
+            reinitialize();
+            mGray = gray;
+            mOffset = offset;
+            mRowStride = rowStride;
+            mWidth = width;
+            mHeight = height;
+            mScale = scale;
+            mLayerWidth = Math.max((int) Math.rint(width / scale), 0);
+            mLayerHeight = Math.max((int) Math.rint(height / scale), 0);
+
+            HaarCascade cascade = getCascade();
+            int endY = mLayerHeight + 1 - cascade.windowHeight;
+            int step = scale >= 2 ? 1 : 2;
+            int rows = (endY + step - 1) / step;
+            int bands = Math.max(Math.min(mPool.getParallelism(), rows / MIN_ROWS_PER_BAND), 1);
+            while (mBands.size() < bands)
+                mBands.add(new Band(this));
+            mActiveBands.clear();
+            for (int i = 0; i < bands; i++) {
+                Band band = mBands.get(i);
+                band.reinitialize();
+                band.mBegin = rows * i / bands * step;
+                band.mEnd = Math.min(rows * (i + 1) / bands * step, endY);
+                mActiveBands.add(band);
+            }
+        }
+
+        @Override
+        protected void compute() {
+            if (mLayerWidth == mWidth && mLayerHeight == mHeight) {
+                mImage = mGray;
+                mImageOffset = mOffset;
+                mImageStride = mRowStride;
+            } else {
+                if (mPixels.length < mLayerWidth * mLayerHeight)
+                    mPixels = new byte[mLayerWidth * mLayerHeight];
+                mResize.resize(mGray, mOffset, mRowStride, mWidth, mHeight,
+                        mPixels, 0, mLayerWidth, mLayerWidth, mLayerHeight);
+                mImage = mPixels;
+                mImageOffset = 0;
+                mImageStride = mLayerWidth;
+            }
+            invokeAll(mActiveBands);
+        }
+    }
+
+    /**
+     * Scans the windows of a layer whose top row is in [mBegin, mEnd).
+     */
+    private final class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Layer mLayer;
+        private final RectBuffer mObjects = new RectBuffer();
+        private int mBegin;
+        private int mEnd;
+
+        Band(Layer layer) {
+            mLayer = layer;
+        }
+
+        @Override
+        protected void compute() {
+            mObjects.clear();
+            if (mBegin >= mEnd)
+                return;
+            Layer layer = mLayer;
+            int rows = Math.min(mEnd - 1 + getCascade().windowHeight, layer.mLayerHeight) - mBegin;
+            HaarEvaluator evaluator = borrowEvaluator();
+            try {
+                evaluator.setImage(layer.mImage, layer.mImageOffset + mBegin * layer.mImageStride, layer.mImageStride,
+                        layer.mLayerWidth, rows);
+                scan(evaluator, 0, mBegin, 0, mBegin, layer.mLayerWidth + 1 - getCascade().windowWidth, mEnd,
+                        layer.mScale >= 2 ? 1 : 2, layer.mScale, mObjects);
+            } finally {
+                mEvaluators.add(evaluator);
+            }
+        }
+    }
+
+    private final class ContextScan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void compute() {
+            invokeAll(mActiveContextBands);
+        }
+    }
+
+    /**
+     * Scans the windows of a context layer with a top left corner in
+     * [mBeginX, mEndX) x [mBegin, mEnd).
+     */
+    private final class ContextBand extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RectBuffer mObjects = new RectBuffer();
+        private DetectionContext.Layer mLayer;
+        private float mScale;
+        private int mStep;
+        private int mBeginX;
+        private int mEndX;
+        private int mBegin;
+        private int mEnd;
+
+        @Override
+        protected void compute() {
+            mObjects.clear();
+            if (mBegin >= mEnd)
+                return;
+            // the layer may have grown for a later scale of the same size, so it is read only now
+            DetectionContext.Layer layer = mLayer;
+            HaarEvaluator evaluator = borrowEvaluator();
+            try {
+                evaluator.setTables(layer.mSum, layer.mSqSum, layer.mTilted, layer.mRegionWidth, layer.mRegionHeight);
+                scan(evaluator, layer.mX, layer.mY, mBeginX, mBegin, mEndX, mEnd, mStep, mScale, mObjects);
+            } finally {
+                mEvaluators.add(evaluator);
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package org.opencv.objdetect;
+
+import java.util.Arrays;
+
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+
+/**
+ * Growable list of rectangles stored as consecutive (x, y, width, height) ints.
+ * Detectors fill a caller-owned buffer so that steady-state frame processing
+ * does not create any Rect objects.
+ */
+public final class RectBuffer {
+
+    private int[] mData;
+    private int mSize;
+
+    public RectBuffer() {
+        this(16);
+    }
+
+    public RectBuffer(int capacity) {
+        mData = new int[Math.max(capacity, 1) * 4];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    public int x(int i) {
+        return mData[i * 4];
+    }
+
+    public int y(int i) {
+        return mData[i * 4 + 1];
+    }
+
+    public int width(int i) {
+        return mData[i * 4 + 2];
+    }
+
+    public int height(int i) {
+        return mData[i * 4 + 3];
+    }
+
+    public void add(int x, int y, int width, int height) {
+        if ((mSize + 1) * 4 > mData.length)
+            mData = Arrays.copyOf(mData, mData.length * 2);
+        int i = mSize * 4;
+        mData[i] = x;
+        mData[i + 1] = y;
+        mData[i + 2] = width;
+        mData[i + 3] = height;
+        mSize++;
+    }
+
+    public void set(int i, int x, int y, int width, int height) {
+        int j = i * 4;
+        mData[j] = x;
+        mData[j + 1] = y;
+        mData[j + 2] = width;
+        mData[j + 3] = height;
+    }
+
+    /**
+     * Removes the i-th rectangle, keeping the order of the others.
+     */
+    public void remove(int i) {
+        System.arraycopy(mData, (i + 1) * 4, mData, i * 4, (mSize - i - 1) * 4);
+        mSize--;
+    }
+
+    /**
+     * Drops every rectangle past the first {@code size}.
+     */
+    public void truncate(int size) {
+        if (size < mSize)
+            mSize = Math.max(size, 0);
+    }
+
+    /**
+     * Returns the backing array; valid entries are the first {@code 4 * size()} ints.
+     * The array is replaced when the buffer grows.
+     */
+    public int[] array() {
+        return mData;
+    }
+
+    public Rect[] toArray() {
+        Rect[] a = new Rect[mSize];
+        for (int i = 0; i < mSize; i++)
+            a[i] = new Rect(mData[i * 4], mData[i * 4 + 1], mData[i * 4 + 2], mData[i * 4 + 3]);
+        return a;
+    }
+
+    /**
+     * Stores the rectangles into {@code m}, reusing its native buffer when the count is unchanged.
+     */
+    public void copyTo(MatOfRect m) {
+        m.fromArray(mData, mSize);
+    }
+
+    /**
+     * Replaces the content with the rectangles of {@code m}, without creating Rect objects.
+     */
+    public void copyFrom(MatOfRect m) {
+        int n = (int) m.total();
+        if (n * 4 > mData.length)
+            mData = new int[n * 4];
+        mSize = m.toArray(mData);
+    }
+}
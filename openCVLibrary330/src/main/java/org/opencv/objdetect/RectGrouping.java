@@ -0,0 +1,348 @@
+package org.opencv.objdetect;
+
+import java.util.Arrays;
+
+/**
+ * Java implementation of {@code cv::groupRectangles()}: clusters similar rectangles,
+ * averages each cluster, drops clusters with too few members and clusters nested
+ * inside a stronger one. Also provides greedy non-maximum suppression of scored boxes.
+ * <p>
+ * Both only compare rectangles whose top left corners are close enough to match: corners
+ * are bucketed into a grid of square cells, and each rectangle is compared with those of
+ * the cells within its reach, so thousands of candidates spread over a frame cost far less
+ * than comparing every pair. Results are the same as with the exhaustive comparison.
+ * Scratch memory is kept between calls, so nothing is allocated once it has grown to the
+ * largest input. An instance must be used from one thread at a time.
+ */
+public final class RectGrouping {
+
+    /** Grouping epsilon used by CascadeClassifier::detectMultiScale */
+    public static final double GROUP_EPS = 0.2;
+
+    private int[] mParent = new int[0];
+    private int[] mLabel = new int[0];
+    private int[] mSums = new int[0];
+    private int[] mWeights = new int[0];
+    // grid of top left corners: the rectangles of cell c are mCellItems[mCellStart[c] .. mCellStart[c + 1])
+    private int[] mCellStart = new int[0];
+    private int[] mCellItems = new int[0];
+    private int mGridX;
+    private int mGridY;
+    private int mGridCols;
+    private int mGridRows;
+    private int mCellSize;
+    // non-maximum suppression
+    private long[] mHeap = new long[0];
+    private boolean[] mSuppressed = new boolean[0];
+    private int[] mKeep = new int[0];
+    private int[] mBoxes = new int[0];
+    private float[] mScores = new float[0];
+
+    /**
+     * Groups the rectangles of {@code rects} in place.
+     * @param groupThreshold minimum number of neighbours minus one a cluster needs to be kept
+     * @param eps relative difference between sides of rectangles to merge them into a group
+     */
+    public void groupRectangles(RectBuffer rects, int groupThreshold, double eps) {
+        int n = rects.size();
+        if (groupThreshold <= 0 || n == 0)
+            return;
+        ensureCapacity(n);
+        int[] r = rects.array();
+
+        int nclasses = partition(r, n, eps);
+
+        int[] sums = mSums;
+        int[] weights = mWeights;
+        Arrays.fill(sums, 0, nclasses * 4, 0);
+        Arrays.fill(weights, 0, nclasses, 0);
+        for (int i = 0; i < n; i++) {
+            int c = mLabel[i];
+            sums[c * 4] += r[i * 4];
+            sums[c * 4 + 1] += r[i * 4 + 1];
+            sums[c * 4 + 2] += r[i * 4 + 2];
+            sums[c * 4 + 3] += r[i * 4 + 3];
+            weights[c]++;
+        }
+        for (int c = 0; c < nclasses; c++) {
+            float s = 1.f / weights[c];
+            sums[c * 4] = (int) Math.rint(sums[c * 4] * s);
+            sums[c * 4 + 1] = (int) Math.rint(sums[c * 4 + 1] * s);
+            sums[c * 4 + 2] = (int) Math.rint(sums[c * 4 + 2] * s);
+            sums[c * 4 + 3] = (int) Math.rint(sums[c * 4 + 3] * s);
+        }
+
+        int out = 0;
+        for (int i = 0; i < nclasses; i++) {
+            int n1 = weights[i];
+            if (n1 <= groupThreshold)
+                continue;
+            int x1 = sums[i * 4], y1 = sums[i * 4 + 1], w1 = sums[i * 4 + 2], h1 = sums[i * 4 + 3];
+            boolean nested = false;
+            for (int j = 0; j < nclasses && !nested; j++) {
+                int n2 = weights[j];
+                if (j == i || n2 <= groupThreshold)
+                    continue;
+                int x2 = sums[j * 4], y2 = sums[j * 4 + 1], w2 = sums[j * 4 + 2], h2 = sums[j * 4 + 3];
+                int dx = (int) Math.rint(w2 * eps);
+                int dy = (int) Math.rint(h2 * eps);
+                nested = x1 >= x2 - dx && y1 >= y2 - dy
+                        && x1 + w1 <= x2 + w2 + dx && y1 + h1 <= y2 + h2 + dy
+                        && (n2 > Math.max(3, n1) || n1 < 3);
+            }
+            if (!nested)
+                rects.set(out++, x1, y1, w1, h1);
+        }
+        rects.truncate(out);
+    }
+
+    /**
+     * Greedy non-maximum suppression: boxes are visited by decreasing score, and a box is
+     * kept unless its intersection over union with a box kept before exceeds the threshold.
+     * Boxes of equal score are visited in index order.
+     * @param boxes (x, y, width, height) of every box, consecutively
+     * @param scores score of every box
+     * @param count number of boxes
+     * @param iouThreshold intersection over union above which a box is suppressed, in (0, 1]
+     * @param keep receives the indices of the kept boxes, by decreasing score; at least {@code count} long
+     * @return the number of kept boxes
+     */
+    public int suppress(int[] boxes, float[] scores, int count, double iouThreshold, int[] keep) {
+        if (iouThreshold <= 0 || iouThreshold > 1)
+            throw new IllegalArgumentException("IoU threshold must be in (0, 1]");
+        if (count == 0)
+            return 0;
+        ensureCapacity(count);
+        if (mHeap.length < count) {
+            mHeap = new long[mParent.length];
+            mSuppressed = new boolean[mParent.length];
+        }
+
+        // boxes with an IoU of t differ by at most (1 - t) / t of their own size at the corner
+        double reach = (1 - iouThreshold) / iouThreshold;
+        long meanReach = 0;
+        for (int i = 0; i < count; i++)
+            meanReach += (long) Math.ceil(reach * Math.max(boxes[i * 4 + 2], boxes[i * 4 + 3]));
+        buildGrid(boxes, count, (int) (meanReach / count));
+
+        // max-heap of the sortable score bits, ties broken by lowest index
+        long[] heap = mHeap;
+        for (int i = 0; i < count; i++) {
+            int bits = Float.floatToIntBits(scores[i]);
+            bits ^= (bits >> 31) & 0x7fffffff;
+            heap[i] = (long) bits << 32 | (count - 1 - i);
+            mSuppressed[i] = false;
+        }
+        for (int i = count / 2 - 1; i >= 0; i--)
+            siftDown(heap, i, count);
+
+        int kept = 0;
+        for (int size = count; size > 0; ) {
+            int i = count - 1 - (int) (heap[0] & 0xffffffffL);
+            heap[0] = heap[--size];
+            siftDown(heap, 0, size);
+            if (mSuppressed[i])
+                continue;
+            mSuppressed[i] = true;
+            keep[kept++] = i;
+
+            int x = boxes[i * 4], y = boxes[i * 4 + 1], w = boxes[i * 4 + 2], h = boxes[i * 4 + 3];
+            int rx = (int) Math.ceil(reach * w);
+            int ry = (int) Math.ceil(reach * h);
+            int c0 = cellCol(x - rx), c1 = cellCol(x + rx);
+            int r1 = cellRow(y + ry);
+            for (int row = cellRow(y - ry); row <= r1; row++) {
+                for (int cell = row * mGridCols + c0; cell <= row * mGridCols + c1; cell++) {
+                    for (int k = mCellStart[cell]; k < mCellStart[cell + 1]; k++) {
+                        int j = mCellItems[k];
+                        if (!mSuppressed[j] && iou(boxes, i, j) > iouThreshold)
+                            mSuppressed[j] = true;
+                    }
+                }
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Same as {@link #suppress(int[], float[], int, double, int[])} on the rectangles of
+     * {@code rects}, which keeps only the surviving ones, by decreasing score, along with their
+     * scores at the start of {@code scores}.
+     */
+    public void suppress(RectBuffer rects, float[] scores, double iouThreshold) {
+        int n = rects.size();
+        if (mKeep.length < n)
+            mKeep = new int[Math.max(n, mKeep.length * 2)];
+        int kept = suppress(rects.array(), scores, n, iouThreshold, mKeep);
+        if (mBoxes.length < kept * 4) {
+            mBoxes = new int[mKeep.length * 4];
+            mScores = new float[mKeep.length];
+        }
+        int[] r = rects.array();
+        for (int k = 0; k < kept; k++) {
+            int i = mKeep[k];
+            System.arraycopy(r, i * 4, mBoxes, k * 4, 4);
+            mScores[k] = scores[i];
+        }
+        System.arraycopy(mBoxes, 0, r, 0, kept * 4);
+        System.arraycopy(mScores, 0, scores, 0, kept);
+        rects.truncate(kept);
+    }
+
+    /**
+     * Union-find over the similarity relation. Class labels are numbered in order of
+     * first appearance, like cv::partition().
+     */
+    private int partition(int[] r, int n, double eps) {
+        int[] parent = mParent;
+        for (int i = 0; i < n; i++)
+            parent[i] = i;
+
+        // similar rectangles have corners at most eps * (w + h) / 2 of the smaller one apart
+        long meanReach = 0;
+        for (int i = 0; i < n; i++)
+            meanReach += (long) Math.ceil(eps * (r[i * 4 + 2] + r[i * 4 + 3]) * 0.5);
+        buildGrid(r, n, (int) (meanReach / n));
+
+        for (int i = 0; i < n; i++) {
+            int x = r[i * 4], y = r[i * 4 + 1];
+            int reach = (int) Math.ceil(eps * (r[i * 4 + 2] + r[i * 4 + 3]) * 0.5);
+            int c0 = cellCol(x - reach), c1 = cellCol(x + reach);
+            int r1 = cellRow(y + reach);
+            for (int row = cellRow(y - reach); row <= r1; row++) {
+                for (int cell = row * mGridCols + c0; cell <= row * mGridCols + c1; cell++) {
+                    for (int k = mCellStart[cell]; k < mCellStart[cell + 1]; k++) {
+                        int j = mCellItems[k];
+                        if (j <= i)
+                            continue;
+                        int a = find(parent, i);
+                        int b = find(parent, j);
+                        if (a != b && similar(r, i, j, eps))
+                            parent[Math.max(a, b)] = Math.min(a, b);
+                    }
+                }
+            }
+        }
+
+        int nclasses = 0;
+        for (int i = 0; i < n; i++) {
+            int root = find(parent, i);
+            mLabel[i] = root == i ? nclasses++ : mLabel[root];
+        }
+        return nclasses;
+    }
+
+    /**
+     * Buckets the top left corners of the rectangles into cells of {@code cellSize} pixels,
+     * doubled until there are at most about 4 cells per rectangle.
+     */
+    private void buildGrid(int[] r, int n, int cellSize) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < n; i++) {
+            minX = Math.min(minX, r[i * 4]);
+            maxX = Math.max(maxX, r[i * 4]);
+            minY = Math.min(minY, r[i * 4 + 1]);
+            maxY = Math.max(maxY, r[i * 4 + 1]);
+        }
+        int cell = Math.max(cellSize, 1);
+        long cols, rows;
+        while (true) {
+            cols = ((long) maxX - minX) / cell + 1;
+            rows = ((long) maxY - minY) / cell + 1;
+            if (cols * rows <= 4L * n + 16)
+                break;
+            cell *= 2;
+        }
+        mGridX = minX;
+        mGridY = minY;
+        mGridCols = (int) cols;
+        mGridRows = (int) rows;
+        mCellSize = cell;
+
+        int cells = mGridCols * mGridRows;
+        if (mCellStart.length < cells + 1)
+            mCellStart = new int[Math.max(cells + 1, mCellStart.length * 2)];
+        if (mCellItems.length < n)
+            mCellItems = new int[mParent.length];
+        int[] start = mCellStart;
+        Arrays.fill(start, 0, cells + 1, 0);
+        for (int i = 0; i < n; i++)
+            start[cellOf(r, i) + 1]++;
+        for (int c = 0; c < cells; c++)
+            start[c + 1] += start[c];
+        // fill each cell from its start, which leaves start[c] at the end of cell c
+        for (int i = 0; i < n; i++)
+            mCellItems[start[cellOf(r, i)]++] = i;
+        for (int c = cells; c > 0; c--)
+            start[c] = start[c - 1];
+        start[0] = 0;
+    }
+
+    private int cellOf(int[] r, int i) {
+        return (r[i * 4 + 1] - mGridY) / mCellSize * mGridCols + (r[i * 4] - mGridX) / mCellSize;
+    }
+
+    /** Grid column of an abscissa, clamped to the grid */
+    private int cellCol(int x) {
+        return x <= mGridX ? 0 : (int) Math.min(((long) x - mGridX) / mCellSize, mGridCols - 1);
+    }
+
+    /** Grid row of an ordinate, clamped to the grid */
+    private int cellRow(int y) {
+        return y <= mGridY ? 0 : (int) Math.min(((long) y - mGridY) / mCellSize, mGridRows - 1);
+    }
+
+    private static void siftDown(long[] heap, int i, int size) {
+        long v = heap[i];
+        while (true) {
+            int c = 2 * i + 1;
+            if (c >= size)
+                break;
+            if (c + 1 < size && heap[c + 1] > heap[c])
+                c++;
+            if (heap[c] <= v)
+                break;
+            heap[i] = heap[c];
+            i = c;
+        }
+        heap[i] = v;
+    }
+
+    static double iou(int[] r, int i, int j) {
+        int x1 = r[i * 4], y1 = r[i * 4 + 1], w1 = r[i * 4 + 2], h1 = r[i * 4 + 3];
+        int x2 = r[j * 4], y2 = r[j * 4 + 1], w2 = r[j * 4 + 2], h2 = r[j * 4 + 3];
+        long iw = Math.min((long) x1 + w1, (long) x2 + w2) - Math.max(x1, x2);
+        long ih = Math.min((long) y1 + h1, (long) y2 + h2) - Math.max(y1, y2);
+        if (iw <= 0 || ih <= 0)
+            return 0;
+        double intersection = (double) iw * ih;
+        return intersection / ((double) w1 * h1 + (double) w2 * h2 - intersection);
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    static boolean similar(int[] r, int i, int j, double eps) {
+        int x1 = r[i * 4], y1 = r[i * 4 + 1], w1 = r[i * 4 + 2], h1 = r[i * 4 + 3];
+        int x2 = r[j * 4], y2 = r[j * 4 + 1], w2 = r[j * 4 + 2], h2 = r[j * 4 + 3];
+        double delta = eps * (Math.min(w1, w2) + Math.min(h1, h2)) * 0.5;
+        return Math.abs(x1 - x2) <= delta && Math.abs(y1 - y2) <= delta
+                && Math.abs(x1 + w1 - x2 - w2) <= delta && Math.abs(y1 + h1 - y2 - h2) <= delta;
+    }
+
+    private void ensureCapacity(int n) {
+        if (mParent.length < n) {
+            int capacity = Math.max(n, mParent.length * 2);
+            mParent = new int[capacity];
+            mLabel = new int[capacity];
+            mSums = new int[capacity * 4];
+            mWeights = new int[capacity];
+        }
+    }
+}
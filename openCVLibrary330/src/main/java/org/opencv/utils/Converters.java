@@ -770,4 +770,352 @@ public class Converters {
         }
         mats.clear();
     }
+
+    // Flat buffers: the conversions below reuse the arrays of the buffers and create no Java
+    // object per element. The vector_vector forms still create one Mat per inner vector: reading
+    // wraps each inner Mat in a header whose pixels are released at once, but whose native
+    // header is only freed by its finalizer; writing puts all the elements into one Mat and
+    // hands a row range of it per list, plus the vector_Mat_to_Mat result, to the native side.
+
+    /**
+     * Appends the points of a CV_32SC2, CV_32FC2 or CV_64FC2 Mat to {@code pts} as one list.
+     * Coordinates are stored as floats: CV_64FC2 points lose precision, unlike with
+     * {@link #Mat_to_vector_Point(Mat, List)}, and so do integers beyond 2^24.
+     */
+    public static void Mat_to_PointBuffer(Mat m, PointBuffer pts) {
+        if (pts == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        appendPoints(m, pts);
+        pts.endList();
+    }
+
+    /**
+     * Stores every point of {@code pts} into {@code res}, reallocated only when the count or
+     * the type changes, as a vector_Point_to_Mat would.
+     */
+    public static Mat PointBuffer_to_Mat(PointBuffer pts, int typeDepth, Mat res) {
+        putPoints(pts, pts.size(), typeDepth, res);
+        return res;
+    }
+
+    /**
+     * Appends each inner vector of a vector_vector_Point Mat to {@code pts} as a list, with
+     * the precision of {@link #Mat_to_PointBuffer(Mat, PointBuffer)}. Each inner vector is
+     * read through a temporary Mat header.
+     */
+    public static void Mat_to_vector_vector_Point(Mat m, PointBuffer pts) {
+        if (pts == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        int count = innerAddresses(m, pts);
+        int[] addrs = pts.addresses(0);
+        for (int i = 0; i < count; i++) {
+            Mat mi = new Mat(address(addrs, i));
+            appendPoints(mi, pts);
+            pts.endList();
+            mi.release();
+        }
+    }
+
+    /**
+     * Builds a vector_vector_Point Mat from the lists of {@code pts}: all the points are
+     * stored into {@code data} with one put, and a row range of it per list is added to
+     * {@code mats}. Both must be kept until the returned Mat has been used; then release the
+     * Mats added to {@code mats} and the returned one, or their native headers wait for
+     * finalizers.
+     */
+    public static Mat vector_vector_Point_to_Mat(PointBuffer pts, int typeDepth, Mat data, List<Mat> mats) {
+        int lCount = (pts != null) ? pts.listCount() : 0;
+        if (lCount == 0)
+            return new Mat();
+        putPoints(pts, pts.listEnd(lCount - 1), typeDepth, data);
+        return listsToMat(pts, data, mats);
+    }
+
+    /**
+     * Appends the key points of a CV_32FC(7) Mat, as in MatOfKeyPoint, or a CV_64FC(7) one,
+     * as made by vector_KeyPoint_to_Mat, to {@code kps} as one list.
+     */
+    public static void Mat_to_KeyPointBuffer(Mat m, KeyPointBuffer kps) {
+        if (kps == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        appendKeyPoints(m, kps);
+        kps.endList();
+    }
+
+    /**
+     * Stores every key point of {@code kps} into {@code res} as a CV_32FC(7) Mat, the layout
+     * of MatOfKeyPoint; reallocated only when the count changes.
+     */
+    public static Mat KeyPointBuffer_to_Mat(KeyPointBuffer kps, Mat res) {
+        putKeyPoints(kps, kps.size(), res);
+        return res;
+    }
+
+    /**
+     * Appends each inner vector of a vector_vector_KeyPoint Mat to {@code kps} as a list.
+     * Each inner vector is read through a temporary Mat header.
+     */
+    public static void Mat_to_vector_vector_KeyPoint(Mat m, KeyPointBuffer kps) {
+        if (kps == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        int count = innerAddresses(m, kps);
+        int[] addrs = kps.addresses(0);
+        for (int i = 0; i < count; i++) {
+            Mat mi = new Mat(address(addrs, i));
+            appendKeyPoints(mi, kps);
+            kps.endList();
+            mi.release();
+        }
+    }
+
+    /**
+     * Builds a vector_vector_KeyPoint Mat from the lists of {@code kps}, like
+     * {@link #vector_vector_Point_to_Mat(PointBuffer, int, Mat, List)}.
+     */
+    public static Mat vector_vector_KeyPoint_to_Mat(KeyPointBuffer kps, Mat data, List<Mat> mats) {
+        int lCount = (kps != null) ? kps.listCount() : 0;
+        if (lCount == 0)
+            return new Mat();
+        putKeyPoints(kps, kps.listEnd(lCount - 1), data);
+        return listsToMat(kps, data, mats);
+    }
+
+    /**
+     * Appends the matches of a CV_32FC4 Mat, as in MatOfDMatch, or a CV_64FC4 one, as made
+     * by vector_DMatch_to_Mat, to {@code matches} as one list.
+     */
+    public static void Mat_to_DMatchBuffer(Mat m, DMatchBuffer matches) {
+        if (matches == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        appendMatches(m, matches);
+        matches.endList();
+    }
+
+    /**
+     * Stores every match of {@code matches} into {@code res} as a CV_32FC4 Mat, the layout
+     * of MatOfDMatch; reallocated only when the count changes.
+     */
+    public static Mat DMatchBuffer_to_Mat(DMatchBuffer matches, Mat res) {
+        putMatches(matches, matches.size(), res);
+        return res;
+    }
+
+    /**
+     * Appends each inner vector of a vector_vector_DMatch Mat, such as the k nearest matches
+     * of each query descriptor, to {@code matches} as a list. Each inner vector is read
+     * through a temporary Mat header.
+     */
+    public static void Mat_to_vector_vector_DMatch(Mat m, DMatchBuffer matches) {
+        if (matches == null)
+            throw new java.lang.IllegalArgumentException("Output buffer can't be null");
+        int count = innerAddresses(m, matches);
+        int[] addrs = matches.addresses(0);
+        for (int i = 0; i < count; i++) {
+            Mat mi = new Mat(address(addrs, i));
+            appendMatches(mi, matches);
+            matches.endList();
+            mi.release();
+        }
+    }
+
+    /**
+     * Builds a vector_vector_DMatch Mat from the lists of {@code matches}, like
+     * {@link #vector_vector_Point_to_Mat(PointBuffer, int, Mat, List)}.
+     */
+    public static Mat vector_vector_DMatch_to_Mat(DMatchBuffer matches, Mat data, List<Mat> mats) {
+        int lCount = (matches != null) ? matches.listCount() : 0;
+        if (lCount == 0)
+            return new Mat();
+        putMatches(matches, matches.listEnd(lCount - 1), data);
+        return listsToMat(matches, data, mats);
+    }
+
+    private static void appendPoints(Mat m, PointBuffer pts) {
+        if (m.empty())
+            return;
+        int count = m.rows();
+        int type = m.type();
+        if (m.cols() != 1)
+            throw new java.lang.IllegalArgumentException("Input Mat should have one column\n" + m);
+
+        int n = count * 2;
+        pts.ensureCapacity(pts.size() + count);
+        float[] xy = pts.array();
+        int base = pts.size() * 2;
+        if (type == CvType.CV_32SC2) {
+            int[] buff = pts.ints(n);
+            m.get(0, 0, buff, n);
+            for (int i = 0; i < n; i++)
+                xy[base + i] = buff[i];
+        } else if (type == CvType.CV_32FC2) {
+            float[] buff = pts.floats(n);
+            m.get(0, 0, buff, n);
+            System.arraycopy(buff, 0, xy, base, n);
+        } else if (type == CvType.CV_64FC2) {
+            double[] buff = pts.doubles(n);
+            m.get(0, 0, buff, n);
+            for (int i = 0; i < n; i++)
+                xy[base + i] = (float) buff[i];
+        } else {
+            throw new java.lang.IllegalArgumentException(
+                    "Input Mat should be of CV_32SC2, CV_32FC2 or CV_64FC2 type\n" + m);
+        }
+        pts.mSize += count;
+    }
+
+    private static void putPoints(PointBuffer pts, int count, int typeDepth, Mat res) {
+        float[] xy = pts.array();
+        int n = count * 2;
+        switch (typeDepth) {
+        case CvType.CV_32S: {
+            res.create(count, 1, CvType.CV_32SC2);
+            int[] buff = pts.ints(n);
+            for (int i = 0; i < n; i++)
+                buff[i] = (int) xy[i];
+            if (count > 0)
+                res.put(0, 0, buff, n);
+        }
+            break;
+
+        case CvType.CV_32F:
+            res.create(count, 1, CvType.CV_32FC2);
+            if (count > 0)
+                res.put(0, 0, xy, n);
+            break;
+
+        case CvType.CV_64F: {
+            res.create(count, 1, CvType.CV_64FC2);
+            double[] buff = pts.doubles(n);
+            for (int i = 0; i < n; i++)
+                buff[i] = xy[i];
+            if (count > 0)
+                res.put(0, 0, buff, n);
+        }
+            break;
+
+        default:
+            throw new IllegalArgumentException("'typeDepth' can be CV_32S, CV_32F or CV_64F");
+        }
+    }
+
+    private static void appendKeyPoints(Mat m, KeyPointBuffer kps) {
+        if (m.empty())
+            return;
+        int count = m.rows();
+        int type = m.type();
+        if (m.cols() != 1)
+            throw new java.lang.IllegalArgumentException("Input Mat should have one column\n" + m);
+
+        int n = count * 7;
+        kps.ensureCapacity(kps.size() + count);
+        int base = kps.size();
+        if (type == CvType.CV_32FC(7)) {
+            float[] buff = kps.floats(n);
+            m.get(0, 0, buff, n);
+            for (int i = 0; i < count; i++)
+                kps.set(base + i, buff[7 * i], buff[7 * i + 1], buff[7 * i + 2], buff[7 * i + 3],
+                        buff[7 * i + 4], (int) buff[7 * i + 5], (int) buff[7 * i + 6]);
+        } else if (type == CvType.CV_64FC(7)) {
+            double[] buff = kps.doubles(n);
+            m.get(0, 0, buff, n);
+            for (int i = 0; i < count; i++)
+                kps.set(base + i, (float) buff[7 * i], (float) buff[7 * i + 1], (float) buff[7 * i + 2], (float) buff[7 * i + 3],
+                        (float) buff[7 * i + 4], (int) buff[7 * i + 5], (int) buff[7 * i + 6]);
+        } else {
+            throw new java.lang.IllegalArgumentException(
+                    "Input Mat should be of CV_32FC(7) or CV_64FC(7) type\n" + m);
+        }
+        kps.mSize += count;
+    }
+
+    private static void putKeyPoints(KeyPointBuffer kps, int count, Mat res) {
+        res.create(count, 1, CvType.CV_32FC(7));
+        if (count == 0)
+            return;
+        int n = count * 7;
+        float[] buff = kps.floats(n);
+        float[] x = kps.xs(), y = kps.ys(), size = kps.sizes(), angle = kps.angles(), response = kps.responses();
+        int[] octave = kps.octaves(), classId = kps.classIds();
+        for (int i = 0; i < count; i++) {
+            buff[7 * i] = x[i];
+            buff[7 * i + 1] = y[i];
+            buff[7 * i + 2] = size[i];
+            buff[7 * i + 3] = angle[i];
+            buff[7 * i + 4] = response[i];
+            buff[7 * i + 5] = octave[i];
+            buff[7 * i + 6] = classId[i];
+        }
+        res.put(0, 0, buff, n);
+    }
+
+    private static void appendMatches(Mat m, DMatchBuffer matches) {
+        if (m.empty())
+            return;
+        int count = m.rows();
+        int type = m.type();
+        if (m.cols() != 1)
+            throw new java.lang.IllegalArgumentException("Input Mat should have one column\n" + m);
+
+        int n = count * 4;
+        matches.ensureCapacity(matches.size() + count);
+        int base = matches.size();
+        if (type == CvType.CV_32FC4) {
+            float[] buff = matches.floats(n);
+            m.get(0, 0, buff, n);
+            for (int i = 0; i < count; i++)
+                matches.set(base + i, (int) buff[4 * i], (int) buff[4 * i + 1], (int) buff[4 * i + 2], buff[4 * i + 3]);
+        } else if (type == CvType.CV_64FC4) {
+            double[] buff = matches.doubles(n);
+            m.get(0, 0, buff, n);
+            for (int i = 0; i < count; i++)
+                matches.set(base + i, (int) buff[4 * i], (int) buff[4 * i + 1], (int) buff[4 * i + 2], (float) buff[4 * i + 3]);
+        } else {
+            throw new java.lang.IllegalArgumentException(
+                    "Input Mat should be of CV_32FC4 or CV_64FC4 type\n" + m);
+        }
+        matches.mSize += count;
+    }
+
+    private static void putMatches(DMatchBuffer matches, int count, Mat res) {
+        res.create(count, 1, CvType.CV_32FC4);
+        if (count == 0)
+            return;
+        int n = count * 4;
+        float[] buff = matches.floats(n);
+        int[] queryIdx = matches.queryIdx(), trainIdx = matches.trainIdx(), imgIdx = matches.imgIdx();
+        float[] distance = matches.distances();
+        for (int i = 0; i < count; i++) {
+            buff[4 * i] = queryIdx[i];
+            buff[4 * i + 1] = trainIdx[i];
+            buff[4 * i + 2] = imgIdx[i];
+            buff[4 * i + 3] = distance[i];
+        }
+        res.put(0, 0, buff, n);
+    }
+
+    /**
+     * Reads the addresses of the inner Mats of a vector_vector Mat into the address scratch
+     * array of {@code buffer}, and returns their count.
+     */
+    private static int innerAddresses(Mat m, VectorBuffer buffer) {
+        if (m == null)
+            throw new java.lang.IllegalArgumentException("Input Mat can't be null");
+        int count = m.rows();
+        if (CvType.CV_32SC2 != m.type() || m.cols() != 1)
+            throw new java.lang.IllegalArgumentException(
+                    "CvType.CV_32SC2 != m.type() ||  m.cols()!=1\n" + m);
+        if (count > 0)
+            m.get(0, 0, buffer.addresses(count * 2), count * 2);
+        return count;
+    }
+
+    private static long address(int[] addrs, int i) {
+        return (((long) addrs[i * 2]) << 32) | (((long) addrs[i * 2 + 1]) & 0xffffffffL);
+    }
+
+    private static Mat listsToMat(VectorBuffer buffer, Mat data, List<Mat> mats) {
+        for (int l = 0; l < buffer.listCount(); l++)
+            mats.add(data.rowRange(buffer.listStart(l), buffer.listEnd(l)));
+        return vector_Mat_to_Mat(mats);
+    }
 }
@@ -0,0 +1,68 @@
+package org.opencv.utils;
+
+import java.util.Arrays;
+
+/**
+ * Descriptor matches stored as one array per field of {@link org.opencv.core.DMatch}, in lists;
+ * see {@link VectorBuffer}. The k nearest matches of each query descriptor make one list.
+ */
+public final class DMatchBuffer extends VectorBuffer {
+
+    private int[] mQueryIdx;
+    private int[] mTrainIdx;
+    private int[] mImgIdx;
+    private float[] mDistances;
+
+    public DMatchBuffer() {
+        this(256);
+    }
+
+    public DMatchBuffer(int capacity) {
+        int n = Math.max(capacity, 1);
+        mQueryIdx = new int[n];
+        mTrainIdx = new int[n];
+        mImgIdx = new int[n];
+        mDistances = new float[n];
+    }
+
+    public void add(int queryIdx, int trainIdx, int imgIdx, float distance) {
+        ensureCapacity(mSize + 1);
+        set(mSize++, queryIdx, trainIdx, imgIdx, distance);
+    }
+
+    void set(int i, int queryIdx, int trainIdx, int imgIdx, float distance) {
+        mQueryIdx[i] = queryIdx;
+        mTrainIdx[i] = trainIdx;
+        mImgIdx[i] = imgIdx;
+        mDistances[i] = distance;
+    }
+
+    // the arrays below are replaced when the buffer grows; valid entries are the first size()
+
+    public int[] queryIdx() {
+        return mQueryIdx;
+    }
+
+    public int[] trainIdx() {
+        return mTrainIdx;
+    }
+
+    public int[] imgIdx() {
+        return mImgIdx;
+    }
+
+    public float[] distances() {
+        return mDistances;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity <= mQueryIdx.length)
+            return;
+        int n = grownCapacity(mQueryIdx.length, capacity);
+        mQueryIdx = Arrays.copyOf(mQueryIdx, n);
+        mTrainIdx = Arrays.copyOf(mTrainIdx, n);
+        mImgIdx = Arrays.copyOf(mImgIdx, n);
+        mDistances = Arrays.copyOf(mDistances, n);
+    }
+}
@@ -0,0 +1,93 @@
+package org.opencv.utils;
+
+import java.util.Arrays;
+
+/**
+ * Key points stored as one array per field of {@link org.opencv.core.KeyPoint}, in lists;
+ * see {@link VectorBuffer}.
+ */
+public final class KeyPointBuffer extends VectorBuffer {
+
+    private float[] mX;
+    private float[] mY;
+    private float[] mSizes;
+    private float[] mAngles;
+    private float[] mResponses;
+    private int[] mOctaves;
+    private int[] mClassIds;
+
+    public KeyPointBuffer() {
+        this(256);
+    }
+
+    public KeyPointBuffer(int capacity) {
+        int n = Math.max(capacity, 1);
+        mX = new float[n];
+        mY = new float[n];
+        mSizes = new float[n];
+        mAngles = new float[n];
+        mResponses = new float[n];
+        mOctaves = new int[n];
+        mClassIds = new int[n];
+    }
+
+    public void add(float x, float y, float size, float angle, float response, int octave, int classId) {
+        ensureCapacity(mSize + 1);
+        set(mSize++, x, y, size, angle, response, octave, classId);
+    }
+
+    void set(int i, float x, float y, float size, float angle, float response, int octave, int classId) {
+        mX[i] = x;
+        mY[i] = y;
+        mSizes[i] = size;
+        mAngles[i] = angle;
+        mResponses[i] = response;
+        mOctaves[i] = octave;
+        mClassIds[i] = classId;
+    }
+
+    // the arrays below are replaced when the buffer grows; valid entries are the first size()
+
+    public float[] xs() {
+        return mX;
+    }
+
+    public float[] ys() {
+        return mY;
+    }
+
+    /** Diameters of the neighborhoods, {@code KeyPoint.size} */
+    public float[] sizes() {
+        return mSizes;
+    }
+
+    public float[] angles() {
+        return mAngles;
+    }
+
+    public float[] responses() {
+        return mResponses;
+    }
+
+    public int[] octaves() {
+        return mOctaves;
+    }
+
+    public int[] classIds() {
+        return mClassIds;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity <= mX.length)
+            return;
+        int n = grownCapacity(mX.length, capacity);
+        mX = Arrays.copyOf(mX, n);
+        mY = Arrays.copyOf(mY, n);
+        mSizes = Arrays.copyOf(mSizes, n);
+        mAngles = Arrays.copyOf(mAngles, n);
+        mResponses = Arrays.copyOf(mResponses, n);
+        mOctaves = Arrays.copyOf(mOctaves, n);
+        mClassIds = Arrays.copyOf(mClassIds, n);
+    }
+}
@@ -0,0 +1,50 @@
+package org.opencv.utils;
+
+import java.util.Arrays;
+
+/**
+ * 2D points stored as consecutive (x, y) floats, in lists; see {@link VectorBuffer}.
+ * Integer coordinates up to 2^24 are stored exactly, but double coordinates read from a
+ * CV_64FC2 Mat are rounded to float, where {@code Mat_to_vector_Point} keeps them as doubles.
+ */
+public final class PointBuffer extends VectorBuffer {
+
+    private float[] mXY;
+
+    public PointBuffer() {
+        this(64);
+    }
+
+    public PointBuffer(int capacity) {
+        mXY = new float[Math.max(capacity, 1) * 2];
+    }
+
+    public float x(int i) {
+        return mXY[i * 2];
+    }
+
+    public float y(int i) {
+        return mXY[i * 2 + 1];
+    }
+
+    public void add(float x, float y) {
+        ensureCapacity(mSize + 1);
+        mXY[mSize * 2] = x;
+        mXY[mSize * 2 + 1] = y;
+        mSize++;
+    }
+
+    /**
+     * Returns the backing array; valid entries are the first {@code 2 * size()} floats.
+     * The array is replaced when the buffer grows.
+     */
+    public float[] array() {
+        return mXY;
+    }
+
+    @Override
+    public void ensureCapacity(int capacity) {
+        if (capacity * 2 > mXY.length)
+            mXY = Arrays.copyOf(mXY, grownCapacity(mXY.length / 2, capacity) * 2);
+    }
+}
@@ -0,0 +1,108 @@
+package org.opencv.utils;
+
+import java.util.Arrays;
+
+/**
+ * Base of the growable buffers filled by {@link Converters}, which hold vectors of points,
+ * key points or matches in primitive arrays instead of one object per element.
+ * <p>
+ * Elements are appended at the end and grouped in consecutive lists, which stand for the inner
+ * vectors of a {@code vector<vector<...>>}: list {@code l} holds the elements from
+ * {@link #listStart(int)} to {@link #listEnd(int)}, and {@link #endList()} closes the list
+ * being appended. Clearing keeps the arrays, so filling a buffer again with no more elements
+ * than before allocates no arrays. The conversions create no Java object per element, but the
+ * nested {@code vector_vector} forms still create a Mat per inner vector. Not thread safe.
+ */
+public abstract class VectorBuffer {
+
+    int mSize;
+    private int[] mListEnds = new int[4];
+    private int mListCount;
+    private int[] mInts = new int[0];
+    private float[] mFloats = new float[0];
+    private double[] mDoubles = new double[0];
+    private int[] mAddresses = new int[0];
+
+    VectorBuffer() {
+    }
+
+    /** Number of elements, in all lists */
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /** Number of closed lists */
+    public int listCount() {
+        return mListCount;
+    }
+
+    /** Index of the first element of list {@code l} */
+    public int listStart(int l) {
+        return l == 0 ? 0 : mListEnds[l - 1];
+    }
+
+    /** Index after the last element of list {@code l} */
+    public int listEnd(int l) {
+        return mListEnds[l];
+    }
+
+    public int listSize(int l) {
+        return listEnd(l) - listStart(l);
+    }
+
+    /**
+     * Closes the list holding the elements appended since the previous list was closed;
+     * it may be empty.
+     */
+    public void endList() {
+        if (mListCount == mListEnds.length)
+            mListEnds = Arrays.copyOf(mListEnds, mListCount * 2);
+        mListEnds[mListCount++] = mSize;
+    }
+
+    /** Removes every element and list, keeping the arrays */
+    public void clear() {
+        mSize = 0;
+        mListCount = 0;
+    }
+
+    /**
+     * Grows the arrays to hold at least {@code capacity} elements.
+     */
+    public abstract void ensureCapacity(int capacity);
+
+    static int grownCapacity(int length, int capacity) {
+        return Math.max(capacity, length * 2);
+    }
+
+    // scratch arrays for the conversions, reused across calls
+
+    int[] ints(int length) {
+        if (mInts.length < length)
+            mInts = new int[length];
+        return mInts;
+    }
+
+    float[] floats(int length) {
+        if (mFloats.length < length)
+            mFloats = new float[length];
+        return mFloats;
+    }
+
+    double[] doubles(int length) {
+        if (mDoubles.length < length)
+            mDoubles = new double[length];
+        return mDoubles;
+    }
+
+    // native addresses of the inner Mats of a vector_vector Mat, two ints each
+    int[] addresses(int length) {
+        if (mAddresses.length < length)
+            mAddresses = new int[length];
+        return mAddresses;
+    }
+}
@@ -0,0 +1,246 @@
+package org.opencv.videoio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming AVI (RIFF) muxer for a single Motion JPEG video stream.
+ * <p>
+ * The headers are written with placeholder sizes when the file is opened, every frame is
+ * appended to the {@code movi} list as a {@code 00dc} chunk, and its {@code idx1} entry is
+ * collected in memory (16 bytes per frame). {@link #close()} appends the index and patches
+ * the RIFF, list and frame count fields. Everything goes through one {@link FileChannel},
+ * with gathering writes so that frame data is never copied.
+ * <p>
+ * The format is AVI 1.0, so a file is limited to 4 GB; {@link #writeFrame} fails past that.
+ * Not thread safe.
+ */
+public final class AviWriter {
+
+    private static final int AVIF_HASINDEX = 0x10;
+    private static final int AVIF_ISINTERLEAVED = 0x100;
+    private static final int AVIIF_KEYFRAME = 0x10;
+    private static final long MAX_FILE_SIZE = 0xFFFFFFFFL;
+
+    // offsets of the fields patched on close
+    private static final int RIFF_SIZE_OFFSET = 4;
+    private static final int AVIH_MAX_BYTES_PER_SEC_OFFSET = 36;
+    private static final int AVIH_TOTAL_FRAMES_OFFSET = 48;
+    private static final int AVIH_SUGGESTED_BUFFER_OFFSET = 60;
+    private static final int STRH_LENGTH_OFFSET = 140;
+    private static final int STRH_SUGGESTED_BUFFER_OFFSET = 144;
+    private static final int MOVI_SIZE_OFFSET = 216;
+    private static final int HEADER_SIZE = 224;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mRate;
+    private final int mScale;
+    private final ByteBuffer mChunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer mPadding = ByteBuffer.allocate(1);
+    private final ByteBuffer[] mChunk = new ByteBuffer[3];
+    private ByteBuffer mIndex = ByteBuffer.allocate(16 * 256).order(ByteOrder.LITTLE_ENDIAN);
+    private long mPosition;
+    private int mFrameCount;
+    private int mMaxFrameSize;
+    private boolean mClosed;
+
+    /**
+     * Creates or truncates an AVI file.
+     * @param fps frame rate, stored as an exact fraction with a denominator of 1000
+     */
+    public AviWriter(File file, int width, int height, double fps) throws IOException {
+        if (width <= 0 || height <= 0 || width > 0xFFFF || height > 0xFFFF)
+            throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+        if (!(fps > 0) || fps > 1e6)
+            throw new IllegalArgumentException("Invalid frame rate " + fps);
+
+        int rate = (int) Math.round(fps * 1000);
+        int scale = 1000;
+        int gcd = gcd(rate, scale);
+        mRate = rate / gcd;
+        mScale = scale / gcd;
+
+        mFile = new RandomAccessFile(file, "rw");
+        boolean ok = false;
+        try {
+            mFile.setLength(0);
+            mChannel = mFile.getChannel();
+            writeFully(header(width, height));
+            mPosition = HEADER_SIZE;
+            ok = true;
+        } finally {
+            if (!ok)
+                mFile.close();
+        }
+    }
+
+    /** Number of frames written so far */
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /** Current size of the file, without the index written on close */
+    public long getSize() {
+        return mPosition;
+    }
+
+    /**
+     * Appends one JPEG encoded frame.
+     */
+    public void writeFrame(byte[] jpeg, int offset, int length) throws IOException {
+        writeFrame(ByteBuffer.wrap(jpeg, offset, length));
+    }
+
+    /**
+     * Appends one JPEG encoded frame, made of the remaining bytes of {@code jpeg}.
+     * The buffer position is advanced to its limit.
+     */
+    public void writeFrame(ByteBuffer jpeg) throws IOException {
+        if (mClosed)
+            throw new IOException("AVI file is closed");
+        int length = jpeg.remaining();
+        int padded = length + (length & 1);
+        long indexSize = 8 + (mFrameCount + 1) * 16L;
+        if (mPosition + 8 + padded + indexSize > MAX_FILE_SIZE)
+            throw new IOException("AVI file size limit reached");
+
+        mChunkHeader.clear();
+        mChunkHeader.put((byte) '0').put((byte) '0').put((byte) 'd').put((byte) 'c').putInt(length);
+        mChunkHeader.flip();
+        mChunk[0] = mChunkHeader;
+        mChunk[1] = jpeg;
+        int count = 2;
+        if (padded != length) {
+            mPadding.clear();
+            mChunk[2] = mPadding;
+            count = 3;
+        }
+        long remaining = 8 + padded;
+        while (remaining > 0)
+            remaining -= mChannel.write(mChunk, 0, count);
+        mChunk[1] = null;
+
+        if (mIndex.remaining() < 16) {
+            ByteBuffer grown = ByteBuffer.allocate(mIndex.capacity() * 2).order(ByteOrder.LITTLE_ENDIAN);
+            mIndex.flip();
+            grown.put(mIndex);
+            mIndex = grown;
+        }
+        // offsets are relative to the 'movi' fourcc
+        mIndex.put((byte) '0').put((byte) '0').put((byte) 'd').put((byte) 'c')
+              .putInt(AVIIF_KEYFRAME).putInt((int) (mPosition - (MOVI_SIZE_OFFSET + 4))).putInt(length);
+
+        mPosition += 8 + padded;
+        mFrameCount++;
+        mMaxFrameSize = Math.max(mMaxFrameSize, length);
+    }
+
+    /**
+     * Writes the index, patches the headers and closes the file.
+     */
+    public void close() throws IOException {
+        if (mClosed)
+            return;
+        mClosed = true;
+        try {
+            mIndex.flip();
+            ByteBuffer indexHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            indexHeader.put((byte) 'i').put((byte) 'd').put((byte) 'x').put((byte) '1').putInt(mIndex.remaining());
+            indexHeader.flip();
+            writeFully(indexHeader);
+            writeFully(mIndex);
+            long fileSize = mPosition + 8 + mFrameCount * 16L;
+
+            long bytesPerSec = mFrameCount > 0
+                    ? (long) Math.ceil((double) (mPosition - HEADER_SIZE) / mFrameCount * mRate / mScale) : 0;
+            patch(RIFF_SIZE_OFFSET, (int) (fileSize - 8));
+            patch(AVIH_MAX_BYTES_PER_SEC_OFFSET, (int) Math.min(bytesPerSec, Integer.MAX_VALUE));
+            patch(AVIH_TOTAL_FRAMES_OFFSET, mFrameCount);
+            patch(AVIH_SUGGESTED_BUFFER_OFFSET, mMaxFrameSize + 8);
+            patch(STRH_LENGTH_OFFSET, mFrameCount);
+            patch(STRH_SUGGESTED_BUFFER_OFFSET, mMaxFrameSize + 8);
+            patch(MOVI_SIZE_OFFSET, (int) (mPosition - MOVI_SIZE_OFFSET - 4));
+            mChannel.force(false);
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private ByteBuffer header(int width, int height) {
+        ByteBuffer b = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        fourcc(b, "RIFF").putInt(0); fourcc(b, "AVI ");
+        fourcc(b, "LIST").putInt(192); fourcc(b, "hdrl");
+
+        // main header
+        fourcc(b, "avih").putInt(56);
+        b.putInt((int) Math.round(1e6 * mScale / mRate));   // microseconds per frame
+        b.putInt(0);                                        // max bytes per second
+        b.putInt(0);                                        // padding granularity
+        b.putInt(AVIF_HASINDEX | AVIF_ISINTERLEAVED);
+        b.putInt(0);                                        // total frames
+        b.putInt(0);                                        // initial frames
+        b.putInt(1);                                        // streams
+        b.putInt(0);                                        // suggested buffer size
+        b.putInt(width).putInt(height);
+        b.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        // video stream
+        fourcc(b, "LIST").putInt(116); fourcc(b, "strl");
+        fourcc(b, "strh").putInt(56);
+        fourcc(b, "vids"); fourcc(b, "MJPG");
+        b.putInt(0);                                        // flags
+        b.putShort((short) 0).putShort((short) 0);          // priority, language
+        b.putInt(0);                                        // initial frames
+        b.putInt(mScale).putInt(mRate);
+        b.putInt(0);                                        // start
+        b.putInt(0);                                        // length in frames
+        b.putInt(0);                                        // suggested buffer size
+        b.putInt(-1);                                       // quality
+        b.putInt(0);                                        // sample size
+        b.putShort((short) 0).putShort((short) 0).putShort((short) width).putShort((short) height);
+
+        // BITMAPINFOHEADER
+        fourcc(b, "strf").putInt(40);
+        b.putInt(40).putInt(width).putInt(height);
+        b.putShort((short) 1).putShort((short) 24);
+        fourcc(b, "MJPG");
+        b.putInt(width * height * 3);
+        b.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        fourcc(b, "LIST").putInt(4); fourcc(b, "movi");
+        b.flip();
+        return b;
+    }
+
+    private void patch(long position, int value) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(value).flip();
+        while (b.hasRemaining())
+            mChannel.write(b, position + b.position());
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining())
+            mChannel.write(b);
+    }
+
+    private static ByteBuffer fourcc(ByteBuffer b, String code) {
+        for (int i = 0; i < 4; i++)
+            b.put((byte) code.charAt(i));
+        return b;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
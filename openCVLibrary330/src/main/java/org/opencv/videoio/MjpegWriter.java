@@ -0,0 +1,355 @@
+package org.opencv.videoio;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Motion JPEG AVI writer with JPEG encoding spread over a small pool of threads.
+ * <p>
+ * It takes the same options as {@link VideoWriter#open(String, int, double, Size, boolean)}
+ * for the {@code MJPG} codec. {@link #write(Mat)} copies the frame into one of a fixed set
+ * of slots and returns; a worker encodes it with {@link Imgcodecs#imencode}, and the finished
+ * frames are handed to an {@link AviWriter} strictly in the order they were written, by
+ * whichever worker completes the next expected frame. When every slot is busy,
+ * {@link #write(Mat)} waits for one, like a synchronous writer would.
+ * <p>
+ * Opened with a {@link PreRollBuffer} instead of a file name, the writer keeps compressing
+ * frames into that buffer until {@link #startFile(String)} creates the file, moves the
+ * buffered frames into it and continues there.
+ * <p>
+ * {@link #write(Mat)}, {@link #startFile(String)} and {@link #release()} must be called
+ * from one thread at a time.
+ */
+public class MjpegWriter {
+
+    public static final int DEFAULT_QUALITY = 95;
+
+    private final int mThreads;
+    private final int mQuality;
+    private Slot[] mSlots;
+    private Semaphore mFreeSlots;
+    private ExecutorService mExecutor;
+    private Size mFrameSize;
+    private double mFps;
+    private boolean mIsColor;
+    private long mSubmitted;
+
+    // guarded by mSlots
+    private AviWriter mAvi;
+    private PreRollBuffer mPreRoll;
+    private long mNextToWrite;
+    private IOException mError;
+
+    private volatile long mEncodedFrames;
+    private volatile long mTotalEncodeNanos;
+    private volatile long mMaxEncodeNanos;
+
+    /**
+     * @param threads number of encoding threads
+     * @param quality JPEG quality, 0 to 100
+     */
+    public MjpegWriter(int threads, int quality) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one encoding thread is needed");
+        if (quality < 0 || quality > 100)
+            throw new IllegalArgumentException("JPEG quality must be between 0 and 100");
+        mThreads = threads;
+        mQuality = quality;
+    }
+
+    public MjpegWriter() {
+        this(Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, 3)), DEFAULT_QUALITY);
+    }
+
+    /**
+     * Opens a file for writing, closing the previous one.
+     * @param fourcc must be {@code VideoWriter.fourcc('M', 'J', 'P', 'G')}
+     * @param isColor whether frames are BGR images or single channel gray images
+     * @return false if the codec is not MJPG, the options are invalid or the file cannot be created
+     */
+    public boolean open(String filename, int fourcc, double fps, Size frameSize, boolean isColor) {
+        closeQuietly();
+        if (fourcc != VideoWriter.fourcc('M', 'J', 'P', 'G'))
+            return false;
+        AviWriter avi = createFile(filename, fps, frameSize);
+        if (avi == null)
+            return false;
+        start(avi, null, fps, frameSize, isColor);
+        return true;
+    }
+
+    /**
+     * Starts compressing frames into {@code preRoll}, which is emptied first, without creating
+     * a file yet. The buffer keeps the most recent frames until {@link #startFile(String)}, and
+     * is held by this writer until then or until {@link #release()}.
+     * @return false if the options are invalid or another writer holds the buffer
+     */
+    public boolean open(PreRollBuffer preRoll, double fps, Size frameSize, boolean isColor) {
+        closeQuietly();
+        if (!(fps > 0) || frameSize.width <= 0 || frameSize.height <= 0)
+            return false;
+        if (!preRoll.acquire(this))
+            return false;
+        preRoll.clear();
+        start(null, preRoll, fps, frameSize, isColor);
+        return true;
+    }
+
+    /**
+     * Creates the file of a writer opened with a {@link PreRollBuffer}, writes the frames
+     * buffered so far into it and sends the next frames there.
+     * @return false if the file cannot be created or was already started
+     */
+    public boolean startFile(String filename) {
+        if (mSlots == null)
+            return false;
+        synchronized (mSlots) {
+            if (mPreRoll == null)
+                return false;
+            AviWriter avi = createFile(filename, mFps, mFrameSize);
+            if (avi == null)
+                return false;
+            try {
+                mPreRoll.drainTo(avi);
+            } catch (IOException e) {
+                if (mError == null)
+                    mError = e;
+            }
+            mAvi = avi;
+            mPreRoll.release(this);
+            mPreRoll = null;
+        }
+        return true;
+    }
+
+    private static AviWriter createFile(String filename, double fps, Size frameSize) {
+        try {
+            return new AviWriter(new File(filename), (int) frameSize.width, (int) frameSize.height, fps);
+        } catch (IOException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private void start(AviWriter avi, PreRollBuffer preRoll, double fps, Size frameSize, boolean isColor) {
+        mFps = fps;
+        mFrameSize = frameSize;
+        mIsColor = isColor;
+        mSlots = new Slot[2 * mThreads];
+        for (int i = 0; i < mSlots.length; i++)
+            mSlots[i] = new Slot();
+        mAvi = avi;
+        mPreRoll = preRoll;
+        mFreeSlots = new Semaphore(mSlots.length);
+        mSubmitted = 0;
+        mNextToWrite = 0;
+        mError = null;
+        mEncodedFrames = 0;
+        mTotalEncodeNanos = 0;
+        mMaxEncodeNanos = 0;
+        mExecutor = Executors.newFixedThreadPool(mThreads, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "MjpegWriter-" + mCount.incrementAndGet());
+            }
+        });
+    }
+
+    private void closeQuietly() {
+        try {
+            release();
+        } catch (IOException e) {
+            // the previous file is lost either way
+        }
+    }
+
+    public boolean isOpened() {
+        return mExecutor != null;
+    }
+
+    /**
+     * Queues a frame of the size given to {@link #open}: 8-bit BGR, or single channel
+     * when the writer was opened with {@code isColor == false}.
+     * @throws IOException if encoding or writing an earlier frame failed
+     */
+    public void write(Mat image) throws IOException {
+        if (mExecutor == null)
+            throw new IOException("Writer is not opened");
+        if (image.cols() != (int) mFrameSize.width || image.rows() != (int) mFrameSize.height)
+            throw new IllegalArgumentException("Frame size " + image.cols() + "x" + image.rows()
+                    + " differs from the video size " + mFrameSize);
+        if (image.channels() != (mIsColor ? 3 : 1))
+            throw new IllegalArgumentException(mIsColor ? "Color video needs BGR frames" : "Gray video needs single channel frames");
+        checkError();
+
+        mFreeSlots.acquireUninterruptibly();
+        long sequence = mSubmitted++;
+        Slot slot = mSlots[(int) (sequence % mSlots.length)];
+        image.copyTo(slot.mImage);
+        slot.mSequence = sequence;
+        slot.mTimestampNanos = System.nanoTime();
+        mExecutor.execute(slot);
+    }
+
+    /**
+     * Waits for the queued frames, finishes the file and stops the encoding threads.
+     * When no file was started, the frames in the pre-roll buffer are left as they are and the
+     * buffer is released, for another writer to open.
+     * @throws IOException if a frame or the index could not be written
+     */
+    public void release() throws IOException {
+        if (mExecutor == null)
+            return;
+        synchronized (mSlots) {
+            // frames still being encoded are not wanted in the buffer anymore,
+            // which another writer may take as soon as it is released
+            if (mPreRoll != null)
+                mPreRoll.release(this);
+            mPreRoll = null;
+        }
+        mExecutor.shutdown();
+        try {
+            while (!mExecutor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // encoding is still in progress
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        IOException error;
+        synchronized (mSlots) {
+            error = mError;
+            try {
+                if (mAvi != null)
+                    mAvi.close();
+            } catch (IOException e) {
+                if (error == null)
+                    error = e;
+            }
+            mAvi = null;
+        }
+        for (Slot slot : mSlots)
+            slot.release();
+        mExecutor = null;
+        if (error != null)
+            throw error;
+    }
+
+    /** Number of frames encoded since {@link #open} */
+    public long getEncodedFrameCount() {
+        return mEncodedFrames;
+    }
+
+    /** Average JPEG encoding time of a frame, in nanoseconds */
+    public long getAverageEncodeNanos() {
+        long encoded = mEncodedFrames;
+        return encoded > 0 ? mTotalEncodeNanos / encoded : 0;
+    }
+
+    /** Longest JPEG encoding time of a frame, in nanoseconds */
+    public long getMaxEncodeNanos() {
+        return mMaxEncodeNanos;
+    }
+
+    /** Number of frames passed to {@link #write} and not written to the file yet */
+    public int getPendingFrameCount() {
+        return mSlots == null ? 0 : mSlots.length - mFreeSlots.availablePermits();
+    }
+
+    private void checkError() throws IOException {
+        synchronized (mSlots) {
+            if (mError != null)
+                throw mError;
+        }
+    }
+
+    /**
+     * Called by a worker once a slot is encoded, or failed to be with {@code error}.
+     */
+    private void encoded(Slot slot, long nanos, IOException error) {
+        synchronized (mSlots) {
+            if (error != null && mError == null)
+                mError = error;
+            mEncodedFrames++;
+            mTotalEncodeNanos += nanos;
+            if (nanos > mMaxEncodeNanos)
+                mMaxEncodeNanos = nanos;
+
+            slot.mEncoded = true;
+            // write every frame that is ready, in order; slots are indexed by sequence number
+            for (;;) {
+                Slot next = mSlots[(int) (mNextToWrite % mSlots.length)];
+                if (!next.mEncoded || next.mSequence != mNextToWrite)
+                    break;
+                // a frame that failed to encode is skipped, the next write reports the error
+                if (next.mJpegLength > 0 && mPreRoll != null) {
+                    mPreRoll.add(next.mJpeg, 0, next.mJpegLength, next.mTimestampNanos);
+                } else if (next.mJpegLength > 0 && mAvi != null && mError == null) {
+                    try {
+                        mAvi.writeFrame(next.mJpeg, 0, next.mJpegLength);
+                    } catch (IOException e) {
+                        mError = e;
+                    }
+                }
+                next.mEncoded = false;
+                mNextToWrite++;
+                mFreeSlots.release();
+            }
+        }
+    }
+
+    private class Slot implements Runnable {
+        final Mat mImage = new Mat();
+        final MatOfByte mBuffer = new MatOfByte();
+        final MatOfInt mParams = new MatOfInt(Imgcodecs.IMWRITE_JPEG_QUALITY, mQuality);
+        byte[] mJpeg = new byte[0];
+        int mJpegLength;
+        long mSequence;
+        long mTimestampNanos;
+        boolean mEncoded;
+
+        @Override
+        public void run() {
+            long start = System.nanoTime();
+            mJpegLength = 0;
+            IOException error = null;
+            try {
+                if (Imgcodecs.imencode(".jpg", mImage, mBuffer, mParams) && mBuffer.total() > 0) {
+                    int length = (int) mBuffer.total();
+                    if (mJpeg.length < length)
+                        mJpeg = new byte[length + length / 4];
+                    mBuffer.get(0, 0, mJpeg);
+                    mJpegLength = length;
+                } else {
+                    error = new IOException("JPEG encoding of frame " + mSequence + " failed");
+                }
+            } catch (RuntimeException e) {
+                error = new IOException("JPEG encoding of frame " + mSequence + " failed", e);
+            } finally {
+                // the slot must be handed back even if encoding failed, or writes stall
+                encoded(this, System.nanoTime() - start, error);
+            }
+        }
+
+        void release() {
+            mImage.release();
+            mBuffer.release();
+            mParams.release();
+        }
+    }
+}
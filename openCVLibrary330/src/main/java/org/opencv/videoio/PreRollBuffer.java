@@ -0,0 +1,238 @@
+package org.opencv.videoio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the most recent compressed frames in a fixed block of native memory, so that a
+ * recording can start a few seconds before it was asked for.
+ * <p>
+ * Frames are stored back to back in one direct buffer allocated up front, used as a ring:
+ * adding a frame evicts the oldest ones when the buffer is full or when they are older than
+ * the time limit. Apart from the rare growth of the frame table, nothing is allocated after
+ * construction, and the same buffer can be reused across recordings.
+ * <p>
+ * {@link #drainTo(AviWriter)} writes the stored frames, oldest first, and empties the buffer.
+ * <p>
+ * A writer filling the buffer {@link #acquire acquires} it first and {@link #release releases}
+ * it once it adds no more frames, so that a writer still finishing its queued frames cannot
+ * mix them into the pre-roll of the next one. All methods are synchronized.
+ */
+public final class PreRollBuffer {
+
+    private final ByteBuffer mData;
+    private final ByteBuffer mView;
+    private final long mMaxDurationNanos;
+
+    // frame table, a ring of mCount entries starting at mHead
+    private int[] mOffsets = new int[64];
+    private int[] mLengths = new int[64];
+    private long[] mTimes = new long[64];
+    private int mHead;
+    private int mCount;
+
+    private int mWritePosition;
+    private long mUsedBytes;
+    private long mEvictedFrames;
+    private long mRejectedFrames;
+    private Object mOwner;
+
+    /**
+     * Allocates the buffer.
+     * @param capacityBytes native memory reserved for frames
+     * @param maxDurationNanos frames older than this compared to the newest one are evicted,
+     *                         0 to keep as many frames as fit in the buffer
+     */
+    public PreRollBuffer(int capacityBytes, long maxDurationNanos) {
+        if (capacityBytes <= 0)
+            throw new IllegalArgumentException("Capacity must be positive");
+        if (maxDurationNanos < 0)
+            throw new IllegalArgumentException("Duration cannot be negative");
+        mData = ByteBuffer.allocateDirect(capacityBytes);
+        mView = mData.duplicate();
+        mMaxDurationNanos = maxDurationNanos > 0 ? maxDurationNanos : Long.MAX_VALUE;
+    }
+
+    /**
+     * Reserves the buffer for {@code owner}.
+     * @return false if another owner holds the buffer
+     */
+    public synchronized boolean acquire(Object owner) {
+        if (mOwner != null && mOwner != owner)
+            return false;
+        mOwner = owner;
+        return true;
+    }
+
+    /**
+     * Gives the buffer up, if {@code owner} holds it.
+     */
+    public synchronized void release(Object owner) {
+        if (mOwner != owner)
+            return;
+        mOwner = null;
+        notifyAll();
+    }
+
+    /**
+     * Waits until no owner holds the buffer.
+     * @return false if the buffer is still held after {@code timeoutMillis}
+     */
+    public synchronized boolean awaitRelease(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (mOwner != null) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                return false;
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /** Whether a writer holds the buffer */
+    public synchronized boolean isAcquired() {
+        return mOwner != null;
+    }
+
+    /**
+     * Stores a frame, evicting old ones as needed.
+     * @param timestampNanos capture time of the frame, on the {@link System#nanoTime()} clock
+     * @return false if the frame is empty or larger than the whole buffer, and was not stored
+     */
+    public synchronized boolean add(byte[] frame, int offset, int length, long timestampNanos) {
+        int capacity = mData.capacity();
+        if (length <= 0 || length > capacity) {
+            mRejectedFrames++;
+            return false;
+        }
+
+        while (mCount > 0 && timestampNanos - mTimes[mHead] > mMaxDurationNanos)
+            evictOldest();
+
+        // the live frames run from the oldest one to mWritePosition, possibly wrapping
+        // around the end of the buffer; find room right after them or at the start
+        int position;
+        for (;;) {
+            if (mCount == 0) {
+                position = 0;
+                break;
+            }
+            int start = mOffsets[mHead];
+            if (mWritePosition > start) {
+                if (mWritePosition + length <= capacity) {
+                    position = mWritePosition;
+                    break;
+                }
+                if (length <= start) {
+                    position = 0;
+                    break;
+                }
+            } else if (mWritePosition + length <= start) {
+                position = mWritePosition;
+                break;
+            }
+            evictOldest();
+        }
+
+        if (mCount == mOffsets.length)
+            grow();
+        int index = (mHead + mCount) % mOffsets.length;
+        mOffsets[index] = position;
+        mLengths[index] = length;
+        mTimes[index] = timestampNanos;
+        mCount++;
+
+        mView.clear();
+        mView.position(position);
+        mView.put(frame, offset, length);
+        mWritePosition = position + length;
+        mUsedBytes += length;
+        return true;
+    }
+
+    /**
+     * Appends the stored frames to {@code writer}, oldest first, then empties the buffer.
+     * @return number of frames written
+     */
+    public synchronized int drainTo(AviWriter writer) throws IOException {
+        int written = 0;
+        try {
+            for (; written < mCount; written++) {
+                int index = (mHead + written) % mOffsets.length;
+                mView.clear();
+                mView.position(mOffsets[index]);
+                mView.limit(mOffsets[index] + mLengths[index]);
+                writer.writeFrame(mView);
+            }
+        } finally {
+            clear();
+        }
+        return written;
+    }
+
+    /** Drops every stored frame, keeping the memory for later use */
+    public synchronized void clear() {
+        mHead = 0;
+        mCount = 0;
+        mWritePosition = 0;
+        mUsedBytes = 0;
+    }
+
+    /** Native memory held by the buffer, in bytes */
+    public int getCapacityBytes() {
+        return mData.capacity();
+    }
+
+    /** Size of the stored frames, in bytes */
+    public synchronized long getUsedBytes() {
+        return mUsedBytes;
+    }
+
+    /** Number of stored frames */
+    public synchronized int getFrameCount() {
+        return mCount;
+    }
+
+    /** Time between the oldest and the newest stored frames, in nanoseconds */
+    public synchronized long getDurationNanos() {
+        return mCount > 0 ? mTimes[(mHead + mCount - 1) % mTimes.length] - mTimes[mHead] : 0;
+    }
+
+    /** Number of frames evicted to make room or because they were too old */
+    public synchronized long getEvictedFrameCount() {
+        return mEvictedFrames;
+    }
+
+    /** Number of frames refused by {@link #add} */
+    public synchronized long getRejectedFrameCount() {
+        return mRejectedFrames;
+    }
+
+    private void evictOldest() {
+        mUsedBytes -= mLengths[mHead];
+        mHead = (mHead + 1) % mOffsets.length;
+        mCount--;
+        mEvictedFrames++;
+        if (mCount == 0) {
+            mHead = 0;
+            mWritePosition = 0;
+        }
+    }
+
+    private void grow() {
+        int length = mOffsets.length;
+        int[] offsets = new int[length * 2];
+        int[] lengths = new int[length * 2];
+        long[] times = new long[length * 2];
+        for (int i = 0; i < mCount; i++) {
+            int index = (mHead + i) % length;
+            offsets[i] = mOffsets[index];
+            lengths[i] = mLengths[index];
+            times[i] = mTimes[index];
+        }
+        mOffsets = offsets;
+        mLengths = lengths;
+        mTimes = times;
+        mHead = 0;
+    }
+}
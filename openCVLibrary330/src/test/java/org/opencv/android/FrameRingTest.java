@@ -0,0 +1,111 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameRingTest {
+
+    private static FrameRing<int[]> ring(int capacity, int policy) {
+        List<int[]> slots = new ArrayList<int[]>();
+        for (int i = 0; i < capacity + 2; i++)
+            slots.add(new int[1]);
+        return new FrameRing<int[]>(capacity, policy, slots);
+    }
+
+    private static boolean offer(FrameRing<int[]> ring, int value) {
+        ring.writeSlot()[0] = value;
+        return ring.offer();
+    }
+
+    @Test
+    public void wrapsAroundInOrder() {
+        FrameRing<int[]> ring = ring(3, FrameRing.DROP_OLDEST);
+        int next = 0;
+        for (int round = 0; round < 100; round++) {
+            int count = 1 + round % 3;
+            for (int i = 0; i < count; i++)
+                assertTrue(offer(ring, next + i));
+            assertEquals(count, ring.size());
+            for (int i = 0; i < count; i++)
+                assertEquals(next + i, ring.take()[0]);
+            next += count;
+        }
+        assertEquals(0, ring.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldestKeepsTheNewestFrames() {
+        FrameRing<int[]> ring = ring(3, FrameRing.DROP_OLDEST);
+        for (int i = 0; i < 10; i++)
+            assertTrue(offer(ring, i));
+        assertEquals(7, ring.getDroppedCount());
+        assertEquals(3, ring.size());
+        assertEquals(7, ring.take()[0]);
+        // the slot being read is not reused by the producer
+        int[] reading = ring.take();
+        assertTrue(offer(ring, 10));
+        assertTrue(offer(ring, 11));
+        assertEquals(8, reading[0]);
+        assertEquals(9, ring.take()[0]);
+        assertEquals(10, ring.take()[0]);
+        assertEquals(11, ring.take()[0]);
+    }
+
+    @Test
+    public void dropNewestRejectsWhenFull() {
+        FrameRing<int[]> ring = ring(2, FrameRing.DROP_NEWEST);
+        assertTrue(offer(ring, 0));
+        assertTrue(offer(ring, 1));
+        assertFalse(offer(ring, 2));
+        assertEquals(1, ring.getDroppedCount());
+        assertEquals(0, ring.take()[0]);
+        assertTrue(offer(ring, 3));
+        assertEquals(1, ring.take()[0]);
+        assertEquals(3, ring.take()[0]);
+    }
+
+    @Test
+    public void blockingProducerLosesNothing() throws Exception {
+        final FrameRing<int[]> ring = ring(2, FrameRing.BLOCK);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10000; i++)
+                    offer(ring, i);
+                ring.close();
+            }
+        });
+        producer.start();
+        int expected = 0;
+        for (int[] slot; (slot = ring.take()) != null; expected++)
+            assertEquals(expected, slot[0]);
+        producer.join();
+        assertEquals(10000, expected);
+        assertEquals(0, ring.getDroppedCount());
+    }
+
+    @Test
+    public void closeDrainsThenReturnsNull() {
+        FrameRing<int[]> ring = ring(2, FrameRing.DROP_OLDEST);
+        assertTrue(offer(ring, 5));
+        ring.close();
+        assertEquals(5, ring.take()[0]);
+        assertNull(ring.take());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWrongSlotCount() {
+        List<int[]> slots = new ArrayList<int[]>();
+        slots.add(new int[1]);
+        new FrameRing<int[]>(1, FrameRing.DROP_OLDEST, slots);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPolicy() {
+        ring(1, 7);
+    }
+}
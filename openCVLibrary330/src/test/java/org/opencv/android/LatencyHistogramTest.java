@@ -0,0 +1,102 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void smallDurationsHaveABucketEach() {
+        for (int nanos = 0; nanos < 8; nanos++) {
+            assertEquals(nanos, LatencyHistogram.bucket(nanos));
+            assertEquals(nanos, LatencyHistogram.upperBound(nanos));
+        }
+    }
+
+    @Test
+    public void bucketsContainTheirDurationsWithinOneEighth() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long nanos = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            checkBucket(nanos);
+        }
+        for (int shift = 0; shift < 63; shift++) {
+            checkBucket(1L << shift);
+            checkBucket((1L << shift) - 1);
+            checkBucket((1L << shift) + 1);
+        }
+        checkBucket(Long.MAX_VALUE);
+    }
+
+    private static void checkBucket(long nanos) {
+        int bucket = LatencyHistogram.bucket(nanos);
+        long upper = LatencyHistogram.upperBound(bucket);
+        long lower = bucket == 0 ? 0 : LatencyHistogram.upperBound(bucket - 1) + 1;
+        assertTrue(nanos + " above bucket " + bucket, nanos <= upper);
+        assertTrue(nanos + " below bucket " + bucket, nanos >= lower);
+        assertTrue(nanos + " in a bucket too wide", upper - lower <= Math.max(lower / 8, 0));
+    }
+
+    @Test
+    public void percentilesAreUpperBoundsCappedByTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int nanos = 1; nanos <= 1000; nanos++)
+            histogram.record(nanos);
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getMeanNanos());
+        assertEquals(1000, histogram.getMaxNanos());
+
+        long median = histogram.getPercentileNanos(50);
+        assertTrue(median >= 500 && median <= 500 * 9 / 8);
+        long p99 = histogram.getPercentileNanos(99);
+        assertTrue(p99 >= 990 && p99 <= 1000);
+        assertEquals(1000, histogram.getPercentileNanos(100));
+        assertEquals(1, histogram.getPercentileNanos(0));
+    }
+
+    @Test
+    public void emptyAndResetHistogramsReportZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertEquals(0, histogram.getMeanNanos());
+        histogram.record(12345);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(99));
+    }
+
+    @Test
+    public void negativeDurationsCountAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++)
+                        histogram.record(i * 4 + offset);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        assertEquals(40000, histogram.getCount());
+        assertEquals(39999, histogram.getMaxNanos());
+        assertEquals(39999, histogram.getPercentileNanos(100));
+    }
+}
@@ -0,0 +1,63 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpriteCompositorTest {
+
+    private static byte[] bytes(int... values) {
+        byte[] b = new byte[values.length];
+        for (int i = 0; i < values.length; i++)
+            b[i] = (byte) values[i];
+        return b;
+    }
+
+    @Test
+    public void transparentPixelsKeepTheFrame() {
+        byte[] dst = bytes(10, 20, 30, 255);
+        SpriteCompositor.blend(bytes(0, 0, 0, 0), 0, dst, 0, 4);
+        assertArrayEquals(bytes(10, 20, 30, 255), dst);
+    }
+
+    @Test
+    public void opaquePixelsReplaceTheFrame() {
+        byte[] dst = bytes(10, 20, 30, 255);
+        SpriteCompositor.blend(bytes(200, 100, 50, 255), 0, dst, 0, 4);
+        assertArrayEquals(bytes(200, 100, 50, 255), dst);
+    }
+
+    @Test
+    public void translucentPixelsAreBlendedOnce() {
+        // white at half opacity over black gives mid gray, not the darker gray of a double premultiply
+        Sprite sprite = new Sprite(1, 1, bytes(255, 255, 255, 128));
+        byte[] dst = bytes(0, 0, 0, 255);
+        SpriteCompositor.blend(sprite.pixels(), 0, dst, 0, 4);
+        assertArrayEquals(bytes(128, 128, 128, 255), dst);
+    }
+
+    @Test
+    public void blendMatchesStraightAlphaFormula() {
+        int[] alphas = { 1, 64, 128, 200, 254 };
+        for (int a : alphas) {
+            for (int c = 0; c < 256; c += 15) {
+                for (int d = 0; d < 256; d += 17) {
+                    Sprite sprite = new Sprite(1, 1, bytes(c, c, c, a));
+                    byte[] dst = bytes(d, d, d, 255);
+                    SpriteCompositor.blend(sprite.pixels(), 0, dst, 0, 4);
+                    double expected = (c * a + d * (255 - a)) / 255.0;
+                    assertEquals("c=" + c + " a=" + a + " d=" + d, expected, dst[0] & 0xFF, 1);
+                    assertEquals(255, dst[3] & 0xFF);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void blendUsesOffsetsAndLength() {
+        byte[] src = bytes(9, 9, 9, 9, 200, 100, 50, 255, 1, 2, 3, 255);
+        byte[] dst = bytes(7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7);
+        SpriteCompositor.blend(src, 4, dst, 8, 4);
+        assertArrayEquals(bytes(7, 7, 7, 7, 7, 7, 7, 7, 200, 100, 50, 255), dst);
+    }
+}
@@ -0,0 +1,39 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpriteTest {
+
+    @Test
+    public void mulIsRoundedProductForEveryOperand() {
+        for (int c = 0; c < 256; c++)
+            for (int a = 0; a < 256; a++)
+                assertEquals(c + " * " + a, Math.round(c * a / 255.0), Sprite.mul(c, a));
+    }
+
+    @Test
+    public void straightAlphaIsPremultiplied() {
+        byte[] rgba = {
+                (byte) 200, 100, 50, (byte) 255,
+                (byte) 200, 100, 50, (byte) 128,
+                (byte) 200, 100, 50, 0,
+                (byte) 255, (byte) 255, (byte) 255, 64 };
+        Sprite sprite = new Sprite(2, 2, rgba);
+        assertEquals(2, sprite.getWidth());
+        assertEquals(2, sprite.getHeight());
+        assertEquals(16, sprite.getByteCount());
+        byte[] expected = {
+                (byte) 200, 100, 50, (byte) 255,
+                100, 50, 25, (byte) 128,
+                0, 0, 0, 0,
+                64, 64, 64, 64 };
+        assertArrayEquals(expected, sprite.pixels());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPixelCountOfAnotherSize() {
+        new Sprite(2, 2, new byte[12]);
+    }
+}
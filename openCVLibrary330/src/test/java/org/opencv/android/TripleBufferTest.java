@@ -0,0 +1,59 @@
+package org.opencv.android;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TripleBufferTest {
+
+    private static boolean publish(TripleBuffer<int[]> buffer, int value) {
+        buffer.back()[0] = value;
+        return buffer.publish();
+    }
+
+    @Test
+    public void latestPublishedSlotWins() {
+        TripleBuffer<int[]> buffer = new TripleBuffer<int[]>(new int[1], new int[1], new int[1]);
+        assertFalse(buffer.acquire());
+
+        assertFalse(publish(buffer, 1));
+        assertTrue(publish(buffer, 2));
+        assertTrue(publish(buffer, 3));
+        assertTrue(buffer.acquire());
+        assertEquals(3, buffer.front()[0]);
+        assertFalse(buffer.acquire());
+        assertEquals(3, buffer.front()[0]);
+
+        // the front slot is not handed back to the producer while the consumer holds it
+        int[] front = buffer.front();
+        for (int i = 4; i < 10; i++) {
+            assertNotSame(front, buffer.back());
+            publish(buffer, i);
+        }
+        assertEquals(3, front[0]);
+        assertTrue(buffer.acquire());
+        assertEquals(9, buffer.front()[0]);
+    }
+
+    @Test
+    public void consumerSeesIncreasingValues() throws Exception {
+        final TripleBuffer<int[]> buffer = new TripleBuffer<int[]>(new int[1], new int[1], new int[1]);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 1; i <= 100000; i++)
+                    publish(buffer, i);
+            }
+        });
+        producer.start();
+        int last = 0;
+        while (last < 100000) {
+            if (buffer.acquire()) {
+                int value = buffer.front()[0];
+                assertTrue(value > last);
+                last = value;
+            }
+        }
+        producer.join();
+    }
+}
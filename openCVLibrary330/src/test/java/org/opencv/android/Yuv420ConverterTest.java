@@ -0,0 +1,150 @@
+package org.opencv.android;
+
+import org.junit.Test;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class Yuv420ConverterTest {
+
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 48;
+
+    private static final int[] CODES = { Imgproc.COLOR_YUV2RGBA_NV21, Imgproc.COLOR_YUV2RGBA_NV12,
+            Imgproc.COLOR_YUV2RGBA_I420, Imgproc.COLOR_YUV2RGBA_YV12 };
+
+    private static byte[] frame(long seed) {
+        byte[] yuv = new byte[WIDTH * HEIGHT * 3 / 2];
+        new Random(seed).nextBytes(yuv);
+        return yuv;
+    }
+
+    private static int clip(int value) {
+        return Math.min(Math.max(value, 0), 255);
+    }
+
+    /** The BT.601 conversion of one pixel, reading the chroma planes of each layout directly */
+    private static int reference(byte[] yuv, int code, int x, int y) {
+        int frameSize = WIDTH * HEIGHT;
+        int interleaved = frameSize + (y / 2) * WIDTH + (x / 2) * 2;
+        int planar = frameSize + (y / 2) * (WIDTH / 2) + x / 2;
+        int u, v;
+        switch (code) {
+        case Imgproc.COLOR_YUV2RGBA_NV21:
+            v = yuv[interleaved];
+            u = yuv[interleaved + 1];
+            break;
+        case Imgproc.COLOR_YUV2RGBA_NV12:
+            u = yuv[interleaved];
+            v = yuv[interleaved + 1];
+            break;
+        case Imgproc.COLOR_YUV2RGBA_I420:
+            u = yuv[planar];
+            v = yuv[planar + frameSize / 4];
+            break;
+        default:
+            v = yuv[planar];
+            u = yuv[planar + frameSize / 4];
+            break;
+        }
+        long l = Math.max(0, (yuv[y * WIDTH + x] & 0xFF) - 16) * 1220542L;
+        int cu = (u & 0xFF) - 128;
+        int cv = (v & 0xFF) - 128;
+        long half = 1 << 19;
+        int r = clip((int) ((l + half + 1673527L * cv) >> 20));
+        int g = clip((int) ((l + half - 852492L * cv - 409993L * cu) >> 20));
+        int b = clip((int) ((l + half + 2116026L * cu) >> 20));
+        return 0xFF000000 | r << 16 | g << 8 | b;
+    }
+
+    @Test
+    public void everyLayoutMatchesTheReference() {
+        Yuv420Converter converter = new Yuv420Converter();
+        int[] argb = new int[WIDTH * HEIGHT];
+        for (int code : CODES) {
+            byte[] yuv = frame(code);
+            converter.convert(yuv, WIDTH, HEIGHT, code, argb);
+            for (int y = 0; y < HEIGHT; y++)
+                for (int x = 0; x < WIDTH; x++)
+                    assertEquals("code " + code + " at " + x + "," + y,
+                            Integer.toHexString(reference(yuv, code, x, y)), Integer.toHexString(argb[y * WIDTH + x]));
+        }
+    }
+
+    @Test
+    public void grayLevelsMapToBlackAndWhite() {
+        byte[] yuv = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(yuv, (byte) 128);
+        Arrays.fill(yuv, 0, WIDTH * HEIGHT / 2, (byte) 16);
+        Arrays.fill(yuv, WIDTH * HEIGHT / 2, WIDTH * HEIGHT, (byte) 235);
+        int[] argb = new int[WIDTH * HEIGHT];
+        new Yuv420Converter().convert(yuv, WIDTH, HEIGHT, Imgproc.COLOR_YUV2RGBA_NV21, argb);
+        assertEquals(0xFF000000, argb[0]);
+        assertEquals(0xFFFFFFFF, argb[WIDTH * HEIGHT - 1]);
+    }
+
+    @Test
+    public void bufferHoldsRgbaBytesOfTheSamePixels() {
+        Yuv420Converter converter = new Yuv420Converter();
+        int[] argb = new int[WIDTH * HEIGHT];
+        ByteBuffer rgba = ByteBuffer.allocateDirect(8 + WIDTH * HEIGHT * 4);
+        rgba.position(8);
+        for (int code : CODES) {
+            byte[] yuv = frame(code + 100);
+            converter.convert(yuv, WIDTH, HEIGHT, code, argb);
+            converter.convert(yuv, WIDTH, HEIGHT, code, rgba);
+            assertEquals(8, rgba.position());
+            for (int i = 0; i < argb.length; i++) {
+                int o = 8 + i * 4;
+                assertEquals(argb[i] >> 16 & 0xFF, rgba.get(o) & 0xFF);
+                assertEquals(argb[i] >> 8 & 0xFF, rgba.get(o + 1) & 0xFF);
+                assertEquals(argb[i] & 0xFF, rgba.get(o + 2) & 0xFF);
+                assertEquals(0xFF, rgba.get(o + 3) & 0xFF);
+            }
+        }
+    }
+
+    @Test
+    public void parallelConversionMatchesSequential() {
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            Yuv420Converter sequential = new Yuv420Converter();
+            Yuv420Converter parallel = new Yuv420Converter(pool, 2);
+            int[] expected = new int[WIDTH * HEIGHT];
+            int[] actual = new int[WIDTH * HEIGHT];
+            ByteBuffer rgba = ByteBuffer.allocate(WIDTH * HEIGHT * 4);
+            ByteBuffer rgbaParallel = ByteBuffer.allocate(WIDTH * HEIGHT * 4);
+            for (int code : CODES) {
+                byte[] yuv = frame(code + 200);
+                sequential.convert(yuv, WIDTH, HEIGHT, code, expected);
+                parallel.convert(yuv, WIDTH, HEIGHT, code, actual);
+                assertArrayEquals(expected, actual);
+                sequential.convert(yuv, WIDTH, HEIGHT, code, rgba);
+                parallel.convert(yuv, WIDTH, HEIGHT, code, rgbaParallel);
+                assertArrayEquals(rgba.array(), rgbaParallel.array());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddSize() {
+        new Yuv420Converter().convert(new byte[9 * 9 * 2], 9, 9, Imgproc.COLOR_YUV2RGBA_NV21, new int[81]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsupportedCode() {
+        new Yuv420Converter().convert(frame(0), WIDTH, HEIGHT, Imgproc.COLOR_RGBA2GRAY, new int[WIDTH * HEIGHT]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSmallDestination() {
+        new Yuv420Converter().convert(frame(0), WIDTH, HEIGHT, Imgproc.COLOR_YUV2RGBA_NV21, new int[WIDTH]);
+    }
+}
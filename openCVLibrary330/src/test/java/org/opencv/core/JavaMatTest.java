@@ -0,0 +1,112 @@
+package org.opencv.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class JavaMatTest {
+
+    @Test
+    public void createsContinuousArrayOfTheDepth() {
+        JavaMat m = new JavaMat(3, 4, CvType.CV_16UC2);
+        assertEquals(3, m.rows());
+        assertEquals(4, m.cols());
+        assertEquals(CvType.CV_16U, m.depth());
+        assertEquals(2, m.channels());
+        assertEquals(8, m.step1());
+        assertEquals(24, m.shorts().length);
+        assertTrue(m.isContinuous());
+        assertFalse(m.isSubmatrix());
+    }
+
+    @Test
+    public void submatSharesPixels() {
+        JavaMat m = new JavaMat(6, 8, CvType.CV_8UC3);
+        JavaMat roi = m.submat(new Rect(2, 1, 4, 3));
+        assertEquals(3, roi.rows());
+        assertEquals(4, roi.cols());
+        assertTrue(roi.isSubmatrix());
+        assertFalse(roi.isContinuous());
+        assertSame(m.bytes(), roi.bytes());
+        assertEquals(m.index(1, 2), roi.index(0, 0));
+
+        roi.put(2, 3, 1, 200);
+        assertEquals(200, m.get(3, 5, 1), 0);
+        assertEquals(200, m.bytes()[3 * 24 + 5 * 3 + 1] & 0xFF);
+    }
+
+    @Test
+    public void wrapUsesOffsetAndStride() {
+        short[] data = new short[40];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (short) i;
+        JavaMat m = JavaMat.wrap(data, 3, 10, 3, 4, CvType.CV_16SC1);
+        assertEquals(3, m.get(0, 0, 0), 0);
+        assertEquals(25, m.get(2, 2, 0), 0);
+        assertFalse(m.isContinuous());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrapRejectsPixelsPastTheArray() {
+        JavaMat.wrap(new byte[20], 2, 5, 4, 5, CvType.CV_8UC1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrapRejectsArrayOfAnotherDepth() {
+        JavaMat.wrap(new byte[16], 0, 4, 4, 4, CvType.CV_32FC1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void submatRejectsRegionOutside() {
+        new JavaMat(4, 4, CvType.CV_8UC1).submat(0, 5, 0, 4);
+    }
+
+    @Test
+    public void putRoundsAndSaturatesIntegerDepths() {
+        JavaMat m = new JavaMat(1, 4, CvType.CV_8UC1);
+        m.put(0, 0, 0, 300);
+        m.put(0, 1, 0, -5);
+        m.put(0, 2, 0, 12.4);
+        m.put(0, 3, 0, 12.6);
+        assertEquals(255, m.get(0, 0, 0), 0);
+        assertEquals(0, m.get(0, 1, 0), 0);
+        assertEquals(12, m.get(0, 2, 0), 0);
+        assertEquals(13, m.get(0, 3, 0), 0);
+
+        JavaMat s = new JavaMat(1, 1, CvType.CV_8SC1);
+        s.put(0, 0, 0, -200);
+        assertEquals(-128, s.get(0, 0, 0), 0);
+    }
+
+    @Test
+    public void bufferBackedImageReadsAndWritesInNativeOrder() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(4 * 3 * 2);
+        JavaMat m = JavaMat.wrap(buffer, 0, 3, 2, 3, CvType.CV_32FC1);
+        assertFalse(m.hasArray());
+        m.put(1, 2, 0, 1.5);
+        assertEquals(1.5, m.get(1, 2, 0), 0);
+        assertEquals(1.5f, buffer.order(ByteOrder.nativeOrder()).getFloat(5 * 4), 0);
+    }
+
+    @Test
+    public void copyAndCloneAreContinuous() {
+        JavaMat m = new JavaMat(5, 5, CvType.CV_32SC1);
+        for (int y = 0; y < 5; y++)
+            for (int x = 0; x < 5; x++)
+                m.put(y, x, 0, y * 10 + x);
+        JavaMat roi = m.submat(1, 4, 2, 5);
+        JavaMat copy = roi.clone();
+        assertTrue(copy.isContinuous());
+        assertNotSame(m.ints(), copy.ints());
+        for (int y = 0; y < 3; y++)
+            for (int x = 0; x < 3; x++)
+                assertEquals((y + 1) * 10 + x + 2, copy.get(y, x, 0), 0);
+
+        JavaMat buffered = JavaMat.wrap(ByteBuffer.allocateDirect(9 * 4), 0, 3, 3, 3, CvType.CV_32SC1);
+        roi.copyTo(buffered);
+        assertEquals(33, buffered.get(2, 1, 0), 0);
+    }
+}
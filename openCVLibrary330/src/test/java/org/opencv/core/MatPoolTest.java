@@ -0,0 +1,183 @@
+package org.opencv.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MatPoolTest {
+
+    /** Stands for a native Mat, so that the bookkeeping runs without the native library */
+    static final class FakeMat extends Mat {
+        private static long sNextAddress = 1;
+
+        int mRows;
+        int mCols;
+        int mType;
+        boolean mSubmatrix;
+        boolean mReleased;
+
+        FakeMat(int rows, int cols, int type) {
+            super(sNextAddress++);
+            mRows = rows;
+            mCols = cols;
+            mType = type;
+        }
+
+        @Override
+        public int rows() {
+            return mRows;
+        }
+
+        @Override
+        public int cols() {
+            return mCols;
+        }
+
+        @Override
+        public int type() {
+            return mType;
+        }
+
+        @Override
+        public int dims() {
+            return 2;
+        }
+
+        @Override
+        public boolean empty() {
+            return mRows == 0 || mCols == 0;
+        }
+
+        @Override
+        public boolean isSubmatrix() {
+            return mSubmatrix;
+        }
+
+        @Override
+        public void release() {
+            mReleased = true;
+        }
+
+        @Override
+        protected void finalize() {
+        }
+    }
+
+    static final class FakeMatPool extends MatPool {
+        final List<FakeMat> mCreated = new ArrayList<FakeMat>();
+
+        FakeMatPool(long maxIdleBytes) {
+            super(maxIdleBytes);
+        }
+
+        @Override
+        Mat create(int rows, int cols, int type) {
+            FakeMat mat = new FakeMat(rows, cols, type);
+            mCreated.add(mat);
+            return mat;
+        }
+    }
+
+    @Test
+    public void releasedMatsAreReusedByShapeAndType() {
+        FakeMatPool pool = new FakeMatPool(1 << 20);
+        Mat gray = pool.acquire(10, 20, CvType.CV_8UC1);
+        Mat rgba = pool.acquire(10, 20, CvType.CV_8UC4);
+        assertEquals(2, pool.getLiveCount());
+        pool.release(gray);
+        pool.release(rgba);
+        assertEquals(0, pool.getLiveCount());
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(10 * 20 + 10 * 20 * 4, pool.getIdleBytes());
+
+        assertSame(rgba, pool.acquire(10, 20, CvType.CV_8UC4));
+        assertSame(gray, pool.acquire(10, 20, CvType.CV_8UC1));
+        assertNotSame(gray, pool.acquire(20, 10, CvType.CV_8UC1));
+        assertEquals(3, pool.getCreatedCount());
+        assertEquals(2, pool.getReusedCount());
+        assertEquals(3, pool.getHighWaterMark());
+        assertEquals(0, pool.getIdleBytes());
+    }
+
+    @Test
+    public void matsBeyondTheIdleLimitAreReleased() {
+        FakeMatPool pool = new FakeMatPool(250);
+        Mat first = pool.acquire(10, 10, CvType.CV_8UC1);
+        Mat second = pool.acquire(10, 10, CvType.CV_8UC1);
+        Mat third = pool.acquire(10, 10, CvType.CV_8UC1);
+        pool.release(first);
+        pool.release(second);
+        pool.release(third);
+        assertEquals(2, pool.getIdleCount());
+        assertEquals(200, pool.getIdleBytes());
+        assertFalse(pool.mCreated.get(0).mReleased);
+        assertFalse(pool.mCreated.get(1).mReleased);
+        assertTrue(pool.mCreated.get(2).mReleased);
+    }
+
+    @Test
+    public void reshapedMatGoesToItsNewBucket() {
+        FakeMatPool pool = new FakeMatPool(1 << 20);
+        FakeMat mat = (FakeMat) pool.acquire(4, 4, CvType.CV_8UC1);
+        mat.mRows = 8;
+        mat.mType = CvType.CV_32FC1;
+        pool.release(mat);
+        assertEquals(8 * 4 * 4, pool.getIdleBytes());
+        assertNotSame(mat, pool.acquire(4, 4, CvType.CV_8UC1));
+        assertSame(mat, pool.acquire(8, 4, CvType.CV_32FC1));
+    }
+
+    @Test
+    public void emptyAndSubmatrixMatsAreNotKept() {
+        FakeMatPool pool = new FakeMatPool(1 << 20);
+        FakeMat empty = (FakeMat) pool.acquire(4, 4, CvType.CV_8UC1);
+        FakeMat view = (FakeMat) pool.acquire(4, 4, CvType.CV_8UC1);
+        empty.mRows = 0;
+        view.mSubmatrix = true;
+        pool.release(empty);
+        pool.release(view);
+        assertTrue(empty.mReleased);
+        assertTrue(view.mReleased);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(0, pool.getLiveCount());
+    }
+
+    @Test
+    public void scopeGivesBackItsMatsAndIsReused() {
+        FakeMatPool pool = new FakeMatPool(1 << 20);
+        MatPool.Scope scope = pool.scope();
+        Mat a = scope.acquire(4, 4, CvType.CV_8UC1);
+        scope.acquire(4, 4, CvType.CV_8UC3);
+        assertEquals(2, pool.getLiveCount());
+        scope.close();
+        scope.close();
+        assertEquals(0, pool.getLiveCount());
+        assertEquals(2, pool.getIdleCount());
+
+        MatPool.Scope next = pool.scope();
+        assertSame(scope, next);
+        assertSame(a, next.acquire(4, 4, CvType.CV_8UC1));
+        next.close();
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void closedScopeRefusesMats() {
+        MatPool.Scope scope = new FakeMatPool(0).scope();
+        scope.close();
+        scope.acquire(1, 1, CvType.CV_8UC1);
+    }
+
+    @Test
+    public void clearReleasesIdleMats() {
+        FakeMatPool pool = new FakeMatPool(1 << 20);
+        pool.release(pool.acquire(4, 4, CvType.CV_8UC1));
+        pool.clear();
+        assertTrue(pool.mCreated.get(0).mReleased);
+        assertEquals(0, pool.getIdleCount());
+        assertEquals(0, pool.getIdleBytes());
+    }
+}
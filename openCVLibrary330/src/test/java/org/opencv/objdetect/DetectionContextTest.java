@@ -0,0 +1,83 @@
+package org.opencv.objdetect;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DetectionContextTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static HaarCascade face;
+    private static byte[] gray;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        face = TestImages.cascade(TestImages.FACE_CASCADE);
+        gray = TestImages.texture(WIDTH, HEIGHT, 5);
+    }
+
+    private static RectBuffer detect(JavaCascadeClassifier classifier, double scaleFactor, int minNeighbors) {
+        RectBuffer objects = new RectBuffer();
+        classifier.detectMultiScale(gray, 0, WIDTH, WIDTH, HEIGHT, scaleFactor, minNeighbors, 0, 0, 0, 0, objects);
+        return objects;
+    }
+
+    @Test
+    public void contextOnWholeFrameDetectsTheSameAsFrame() {
+        JavaCascadeClassifier classifier = new JavaCascadeClassifier(face);
+        DetectionContext context = new DetectionContext();
+        for (double scaleFactor : new double[] { 1.1, 1.2, 2 }) {
+            for (int minNeighbors : new int[] { 0, 3 }) {
+                RectBuffer expected = detect(classifier, scaleFactor, minNeighbors);
+                RectBuffer actual = new RectBuffer();
+                context.setFrame(gray, 0, WIDTH, WIDTH, HEIGHT);
+                classifier.detectMultiScale(context, 0, 0, WIDTH, HEIGHT, 1, scaleFactor, minNeighbors,
+                        0, 0, 0, 0, actual);
+                assertEquals(TestImages.toString(expected), TestImages.toString(actual));
+            }
+        }
+    }
+
+    @Test
+    public void contextRegionAtScaleOneDetectsTheSameAsRegionPixels() {
+        JavaCascadeClassifier classifier = new JavaCascadeClassifier(face);
+        DetectionContext context = new DetectionContext();
+        int window = face.getWindowWidth();
+        int found = 0;
+        for (long seed = 0; seed < 20; seed++) {
+            byte[] image = TestImages.texture(WIDTH, HEIGHT, seed);
+            context.setFrame(image, 0, WIDTH, WIDTH, HEIGHT);
+            for (int x = 0; x + 60 <= WIDTH; x += 37) {
+                for (int y = 0; y + 60 <= HEIGHT; y += 29) {
+                    RectBuffer expected = new RectBuffer();
+                    classifier.detectMultiScale(image, y * WIDTH + x, WIDTH, 60, 60, 1.1, 0, 0, 0, window, window, expected);
+                    for (int i = 0; i < expected.size(); i++)
+                        expected.set(i, expected.x(i) + x, expected.y(i) + y, expected.width(i), expected.height(i));
+                    RectBuffer actual = new RectBuffer();
+                    classifier.detectMultiScale(context, x, y, 60, 60, 1, 1.1, 0, 0, 0, window, window, actual);
+                    assertEquals(TestImages.toString(expected), TestImages.toString(actual));
+                    found += expected.size();
+                }
+            }
+        }
+        assertTrue(found > 0);
+    }
+
+    @Test
+    public void contextReusesLayersAcrossRequests() {
+        JavaCascadeClassifier classifier = new JavaCascadeClassifier(face);
+        DetectionContext context = new DetectionContext();
+        context.setFrame(gray, 0, WIDTH, WIDTH, HEIGHT);
+        RectBuffer objects = new RectBuffer();
+        classifier.detectMultiScale(context, 0, 0, WIDTH, HEIGHT, 1, 1.2, 0, 0, 0, 0, 0, objects);
+        long builds = context.getLayerBuildCount();
+        int layers = context.getLayerCount();
+        classifier.detectMultiScale(context, 40, 40, 100, 100, 1, 1.2, 0, 0, 0, 0, 0, objects);
+        assertEquals(builds, context.getLayerBuildCount());
+        assertEquals(layers, context.getLayerCount());
+        assertTrue(context.getLayerHitCount() > 0);
+    }
+}
@@ -0,0 +1,142 @@
+package org.opencv.objdetect;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class DetectionTrackerTest {
+
+    private static final int WIDTH = 120;
+    private static final int HEIGHT = 80;
+    private static final int SIZE = 32;
+
+    /** Returns a fixed list of boxes per call */
+    private static final class ScriptedDetector implements DetectionTracker.Detector {
+        final int[][][] mFrames;
+        int mCalls;
+
+        ScriptedDetector(int[][]... frames) {
+            mFrames = frames;
+        }
+
+        @Override
+        public void detect(byte[] gray, int offset, int rowStride, int width, int height, RectBuffer objects) {
+            objects.clear();
+            for (int[] r : mFrames[Math.min(mCalls, mFrames.length - 1)])
+                objects.add(r[0], r[1], r[2], r[3]);
+            mCalls++;
+        }
+    }
+
+    /** Flat background with a textured square whose left edge is at {@code x}, possibly outside */
+    private static byte[] frame(int x, int y) {
+        byte[] patch = TestImages.texture(SIZE, SIZE, 3);
+        byte[] gray = new byte[WIDTH * HEIGHT];
+        Arrays.fill(gray, (byte) 128);
+        for (int j = 0; j < SIZE; j++) {
+            for (int i = 0; i < SIZE; i++) {
+                if (x + i >= 0 && x + i < WIDTH && y + j >= 0 && y + j < HEIGHT)
+                    gray[(y + j) * WIDTH + x + i] = patch[j * SIZE + i];
+            }
+        }
+        return gray;
+    }
+
+    private static int[] ids(DetectionTracker tracker) {
+        int[] ids = new int[tracker.getTrackCount()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = tracker.getTrackId(i);
+        return ids;
+    }
+
+    @Test
+    public void detectionsKeepTheIdOfTheTrackTheyOverlap() {
+        ScriptedDetector detector = new ScriptedDetector(
+                new int[][] { { 10, 10, 20, 20 }, { 60, 30, 20, 20 } },
+                new int[][] { { 62, 31, 20, 20 }, { 11, 9, 20, 20 }, { 90, 50, 20, 20 } });
+        DetectionTracker tracker = new DetectionTracker(detector);
+        tracker.setDetectionInterval(1);
+        RectBuffer objects = new RectBuffer();
+        byte[] gray = frame(0, 0);
+
+        assertTrue(tracker.update(gray, 0, WIDTH, WIDTH, HEIGHT, objects));
+        assertArrayEquals(new int[] { 1, 2 }, ids(tracker));
+        assertTrue(tracker.update(gray, 0, WIDTH, WIDTH, HEIGHT, objects));
+        assertArrayEquals(new int[] { 1, 2, 3 }, ids(tracker));
+    }
+
+    @Test
+    public void matchedTrackOutsideTheFrameIsDroppedWithoutDisturbingOthers() {
+        // the third box moves out of the frame while still overlapping its track, so its
+        // template cannot be captured; the detections after it must still find their tracks
+        ScriptedDetector detector = new ScriptedDetector(
+                new int[][] { { 20, 20, 20, 20 }, { 60, 30, 20, 20 }, { 110, 10, 20, 20 } },
+                new int[][] { { 120, 10, 20, 20 }, { 20, 20, 20, 20 }, { 60, 30, 20, 20 }, { 5, 55, 20, 20 } });
+        DetectionTracker tracker = new DetectionTracker(detector);
+        tracker.setDetectionInterval(1);
+        RectBuffer objects = new RectBuffer();
+        byte[] gray = frame(0, 0);
+
+        tracker.update(gray, 0, WIDTH, WIDTH, HEIGHT, objects);
+        assertArrayEquals(new int[] { 1, 2, 3 }, ids(tracker));
+        tracker.update(gray, 0, WIDTH, WIDTH, HEIGHT, objects);
+        assertArrayEquals(new int[] { 1, 2, 4 }, ids(tracker));
+        assertEquals("[20,20 20x20, 60,30 20x20, 5,55 20x20]", TestImages.toString(objects));
+    }
+
+    @Test
+    public void tracksMovingObjectBetweenDetections() {
+        ScriptedDetector detector = new ScriptedDetector(new int[][] { { 20, 24, SIZE, SIZE } });
+        DetectionTracker tracker = new DetectionTracker(detector);
+        tracker.setDetectionInterval(10);
+        tracker.setSmoothing(1);
+        RectBuffer objects = new RectBuffer();
+
+        assertTrue(tracker.update(frame(20, 24), 0, WIDTH, WIDTH, HEIGHT, objects));
+        for (int k = 1; k < 8; k++) {
+            int x = 20 + 3 * k, y = 24 - k;
+            assertFalse(tracker.update(frame(x, y), 0, WIDTH, WIDTH, HEIGHT, objects));
+            assertEquals(x, objects.x(0));
+            assertEquals(y, objects.y(0));
+            assertEquals(1, tracker.getTrackConfidence(0), 0.01);
+        }
+        assertEquals(1, detector.mCalls);
+        assertEquals(7, tracker.getTrackedFrameCount());
+    }
+
+    @Test
+    public void tracksObjectClippedAtTheLeftBorder() {
+        // the template starts 12 pixels inside the box, further than the search radius
+        ScriptedDetector detector = new ScriptedDetector(new int[][] { { -12, 24, SIZE, SIZE } });
+        DetectionTracker tracker = new DetectionTracker(detector);
+        tracker.setDetectionInterval(10);
+        tracker.setSearchMargin(0.1);
+        tracker.setSmoothing(1);
+        RectBuffer objects = new RectBuffer();
+
+        tracker.update(frame(-12, 24), 0, WIDTH, WIDTH, HEIGHT, objects);
+        for (int k = 1; k < 5; k++) {
+            int x = -12 + 2 * k;
+            assertFalse(tracker.update(frame(x, 24), 0, WIDTH, WIDTH, HEIGHT, objects));
+            assertEquals(x, objects.x(0));
+            assertEquals(24, objects.y(0));
+        }
+        assertEquals(0, tracker.getEarlyDetectionCount());
+    }
+
+    @Test
+    public void lostTrackTriggersEarlyDetection() {
+        ScriptedDetector detector = new ScriptedDetector(new int[][] { { 20, 24, SIZE, SIZE } });
+        DetectionTracker tracker = new DetectionTracker(detector);
+        tracker.setDetectionInterval(10);
+        RectBuffer objects = new RectBuffer();
+
+        tracker.update(frame(20, 24), 0, WIDTH, WIDTH, HEIGHT, objects);
+        byte[] empty = new byte[WIDTH * HEIGHT];
+        assertTrue(tracker.update(empty, 0, WIDTH, WIDTH, HEIGHT, objects));
+        assertEquals(1, tracker.getEarlyDetectionCount());
+        assertEquals(2, detector.mCalls);
+    }
+}
@@ -0,0 +1,172 @@
+package org.opencv.objdetect;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class HaarCascadeFileTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static HaarCascade face;
+    private static HaarCascade eyes;
+    private static byte[] gray;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void load() throws Exception {
+        face = TestImages.cascade(TestImages.FACE_CASCADE);
+        eyes = TestImages.cascade(TestImages.EYES_CASCADE);
+        gray = TestImages.texture(WIDTH, HEIGHT, 5);
+    }
+
+    private static RectBuffer detect(JavaCascadeClassifier classifier, double scaleFactor, int minNeighbors) {
+        RectBuffer objects = new RectBuffer();
+        classifier.detectMultiScale(gray, 0, WIDTH, WIDTH, HEIGHT, scaleFactor, minNeighbors, 0, 0, 0, 0, objects);
+        return objects;
+    }
+
+    private static void assertSameCascade(HaarCascade expected, HaarCascade actual) {
+        assertEquals(expected.windowWidth, actual.windowWidth);
+        assertEquals(expected.windowHeight, actual.windowHeight);
+        assertArrayEquals(expected.stageThreshold, actual.stageThreshold, 0);
+        assertArrayEquals(expected.stageFirstTree, actual.stageFirstTree);
+        assertArrayEquals(expected.stageTreeCount, actual.stageTreeCount);
+        assertArrayEquals(expected.treeFirstNode, actual.treeFirstNode);
+        assertArrayEquals(expected.treeFirstLeaf, actual.treeFirstLeaf);
+        assertArrayEquals(expected.nodeFeature, actual.nodeFeature);
+        assertArrayEquals(expected.nodeThreshold, actual.nodeThreshold, 0);
+        assertArrayEquals(expected.nodeLeft, actual.nodeLeft);
+        assertArrayEquals(expected.nodeRight, actual.nodeRight);
+        assertArrayEquals(expected.leafValues, actual.leafValues, 0);
+        assertArrayEquals(expected.featureRects, actual.featureRects);
+        assertArrayEquals(expected.featureWeights, actual.featureWeights, 0);
+        assertArrayEquals(expected.featureTilted, actual.featureTilted);
+    }
+
+    /** A source that fails the test if it is read */
+    private static InputStream unreadable() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new AssertionError("The XML was read");
+            }
+        };
+    }
+
+    @Test
+    public void writeThenMapRoundTrips() throws Exception {
+        File file = folder.newFile("face.bin");
+        HaarCascadeFile.write(face, 1234, file);
+        assertSameCascade(face, HaarCascadeFile.map(file));
+        assertSameCascade(face, HaarCascadeFile.map(file, 1234));
+        assertNull(HaarCascadeFile.map(file, 4321));
+    }
+
+    @Test
+    public void compiledCascadeDetectsTheSameAsXml() throws Exception {
+        File compiled = folder.newFile("face.bin");
+        HaarCascadeFile.write(face, 0, compiled);
+        HaarCascade mapped = HaarCascadeFile.map(compiled);
+
+        for (double scaleFactor : new double[] { 1.1, 1.2, 2 }) {
+            for (int minNeighbors : new int[] { 0, 3 }) {
+                RectBuffer expected = detect(new JavaCascadeClassifier(face), scaleFactor, minNeighbors);
+                RectBuffer actual = detect(new JavaCascadeClassifier(mapped), scaleFactor, minNeighbors);
+                assertEquals(TestImages.toString(expected), TestImages.toString(actual));
+            }
+        }
+    }
+
+    @Test
+    public void loadCompilesThenMapsWithoutParsing() throws Exception {
+        File file = new File(folder.getRoot(), "face.bin");
+        InputStream xml = TestImages.open(TestImages.FACE_CASCADE);
+        try {
+            assertSameCascade(face, HaarCascadeFile.load(xml, 42, file));
+        } finally {
+            xml.close();
+        }
+        assertTrue(file.isFile());
+        assertSameCascade(face, HaarCascadeFile.load(unreadable(), 42, file));
+    }
+
+    @Test
+    public void loadWithNewKeyChecksSourceAndKeepsTables() throws Exception {
+        File file = new File(folder.getRoot(), "face.bin");
+        InputStream xml = TestImages.open(TestImages.FACE_CASCADE);
+        try {
+            HaarCascadeFile.load(xml, 42, file);
+        } finally {
+            xml.close();
+        }
+        xml = TestImages.open(TestImages.FACE_CASCADE);
+        try {
+            assertSameCascade(face, HaarCascadeFile.load(xml, 43, file));
+        } finally {
+            xml.close();
+        }
+        // the new key was recorded
+        assertSameCascade(face, HaarCascadeFile.load(unreadable(), 43, file));
+    }
+
+    @Test
+    public void loadRebuildsFromAnotherSource() throws Exception {
+        File file = new File(folder.getRoot(), "cascade.bin");
+        InputStream xml = TestImages.open(TestImages.FACE_CASCADE);
+        try {
+            HaarCascadeFile.load(xml, file);
+        } finally {
+            xml.close();
+        }
+        xml = TestImages.open(TestImages.EYES_CASCADE);
+        try {
+            assertSameCascade(eyes, HaarCascadeFile.load(xml, file));
+        } finally {
+            xml.close();
+        }
+    }
+
+    @Test
+    public void loadRebuildsCorruptFile() throws Exception {
+        File file = new File(folder.getRoot(), "face.bin");
+        InputStream xml = TestImages.open(TestImages.FACE_CASCADE);
+        try {
+            HaarCascadeFile.load(xml, 42, file);
+        } finally {
+            xml.close();
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+        try {
+            HaarCascadeFile.map(file);
+            fail("Corrupt payload was mapped");
+        } catch (IOException e) {
+            // expected
+        }
+        xml = TestImages.open(TestImages.FACE_CASCADE);
+        try {
+            assertSameCascade(face, HaarCascadeFile.load(xml, 42, file));
+        } finally {
+            xml.close();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.opencv.objdetect;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JavaCascadeClassifierTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static HaarCascade face;
+    private static byte[] gray;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        face = TestImages.cascade(TestImages.FACE_CASCADE);
+        gray = TestImages.texture(WIDTH, HEIGHT, 5);
+    }
+
+    private static RectBuffer detect(JavaCascadeClassifier classifier, double scaleFactor, int minNeighbors) {
+        RectBuffer objects = new RectBuffer();
+        classifier.detectMultiScale(gray, 0, WIDTH, WIDTH, HEIGHT, scaleFactor, minNeighbors, 0, 0, 0, 0, objects);
+        return objects;
+    }
+
+    @Test
+    public void rawDetectionsOnTexture() {
+        // the texture must reach the last stage somewhere, or the other tests compare nothing
+        assertTrue(detect(new JavaCascadeClassifier(face), 1.1, 0).size() > 0);
+    }
+
+    @Test
+    public void offsetAndStrideDoNotChangeDetections() {
+        int left = 7, top = 5, rowStride = WIDTH + 13;
+        byte[] big = TestImages.embed(gray, WIDTH, HEIGHT, left, top, rowStride);
+        JavaCascadeClassifier classifier = new JavaCascadeClassifier(face);
+        RectBuffer expected = detect(classifier, 1.1, 0);
+        RectBuffer actual = new RectBuffer();
+        classifier.detectMultiScale(big, top * rowStride + left, rowStride, WIDTH, HEIGHT, 1.1, 0, 0, 0, 0, 0, actual);
+        assertEquals(TestImages.toString(expected), TestImages.toString(actual));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsScaleFactorOfOne() {
+        detect(new JavaCascadeClassifier(face), 1, 0);
+    }
+}
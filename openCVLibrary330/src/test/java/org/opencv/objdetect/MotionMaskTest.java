@@ -0,0 +1,136 @@
+package org.opencv.objdetect;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class MotionMaskTest {
+
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 70;
+
+    private static byte[] frame(int value) {
+        byte[] luma = new byte[WIDTH * HEIGHT];
+        Arrays.fill(luma, (byte) value);
+        return luma;
+    }
+
+    private static void fill(byte[] luma, int x, int y, int width, int height, int value) {
+        for (int row = y; row < y + height; row++)
+            for (int col = x; col < x + width; col++)
+                luma[row * WIDTH + col] = (byte) value;
+    }
+
+    private static int update(MotionMask mask, byte[] luma) {
+        return mask.update(luma, 0, WIDTH, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void firstFrameMarksEveryBlock() {
+        MotionMask mask = new MotionMask();
+        assertEquals(7 * 5, update(mask, frame(50)));
+        assertEquals(7, mask.getGridCols());
+        assertEquals(5, mask.getGridRows());
+        RectBuffer regions = new RectBuffer();
+        mask.getChangedRegions(0, regions);
+        assertEquals("[0,0 100x70]", TestImages.toString(regions));
+    }
+
+    @Test
+    public void stillFrameChangesNothing() {
+        MotionMask mask = new MotionMask();
+        update(mask, frame(50));
+        assertEquals(0, update(mask, frame(50)));
+        RectBuffer regions = new RectBuffer();
+        mask.getChangedRegions(8, regions);
+        assertEquals(0, regions.size());
+    }
+
+    @Test
+    public void movingBlockIsReportedWithItsMargin() {
+        MotionMask mask = new MotionMask();
+        update(mask, frame(50));
+        byte[] luma = frame(50);
+        fill(luma, 32, 16, 16, 16, 200);
+        assertEquals(1, update(mask, luma));
+        assertTrue(mask.isChanged(2, 1));
+        assertFalse(mask.isChanged(1, 1));
+        RectBuffer regions = new RectBuffer();
+        mask.getChangedRegions(4, regions);
+        assertEquals("[28,12 24x24]", TestImages.toString(regions));
+        // the reference was refreshed, the same frame again is still
+        assertEquals(0, update(mask, luma));
+    }
+
+    @Test
+    public void regionsAreClippedAndMerged() {
+        MotionMask mask = new MotionMask();
+        update(mask, frame(50));
+        byte[] luma = frame(50);
+        fill(luma, 0, 0, 16, 16, 200);
+        // a diagonal neighbour joins the same group
+        fill(luma, 16, 16, 16, 16, 200);
+        // apart from the first group, but overlapping it once grown
+        fill(luma, 48, 0, 16, 16, 200);
+        // far away in the corner, partial block
+        fill(luma, 96, 64, 4, 6, 200);
+        assertEquals(4, update(mask, luma));
+
+        RectBuffer regions = new RectBuffer();
+        mask.getChangedRegions(0, regions);
+        assertEquals("[0,0 32x32, 48,0 16x16, 96,64 4x6]", TestImages.toString(regions));
+        mask.getChangedRegions(16, regions);
+        assertEquals("[0,0 80x48, 80,48 20x22]", TestImages.toString(regions));
+    }
+
+    @Test
+    public void smallChangesAreIgnoredUntilTheyAddUp() {
+        MotionMask mask = new MotionMask();
+        mask.setThreshold(8);
+        update(mask, frame(50));
+        assertEquals(0, update(mask, frame(55)));
+        assertEquals(0, update(mask, frame(58)));
+        // drift is measured against the unchanged reference
+        assertEquals(7 * 5, update(mask, frame(59)));
+        assertEquals(0, update(mask, frame(59)));
+    }
+
+    @Test
+    public void offsetAndStrideAreHonoured() {
+        int left = 3, top = 2, stride = WIDTH + 9;
+        byte[] luma = frame(50);
+        fill(luma, 40, 40, 20, 20, 120);
+        byte[] big = TestImages.embed(luma, WIDTH, HEIGHT, left, top, stride);
+        byte[] still = TestImages.embed(frame(50), WIDTH, HEIGHT, left, top, stride);
+
+        MotionMask direct = new MotionMask();
+        update(direct, frame(50));
+        update(direct, luma);
+        MotionMask strided = new MotionMask();
+        strided.update(still, top * stride + left, stride, WIDTH, HEIGHT);
+        strided.update(big, top * stride + left, stride, WIDTH, HEIGHT);
+
+        RectBuffer expected = new RectBuffer();
+        RectBuffer actual = new RectBuffer();
+        direct.getChangedRegions(0, expected);
+        strided.getChangedRegions(0, actual);
+        assertEquals(TestImages.toString(expected), TestImages.toString(actual));
+        assertTrue(expected.size() > 0);
+    }
+
+    @Test
+    public void resetOrNewSizeMarksEveryBlockAgain() {
+        MotionMask mask = new MotionMask();
+        update(mask, frame(50));
+        mask.reset();
+        assertEquals(35, update(mask, frame(50)));
+        assertEquals(4, mask.update(new byte[32 * 32], 0, 32, 32, 32));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsBlockSizeNotMultipleOfStep() {
+        new MotionMask(10, 4);
+    }
+}
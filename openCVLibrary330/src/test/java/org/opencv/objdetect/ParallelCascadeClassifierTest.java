@@ -0,0 +1,85 @@
+package org.opencv.objdetect;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class ParallelCascadeClassifierTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private static HaarCascade face;
+    private static byte[] gray;
+
+    @BeforeClass
+    public static void load() throws Exception {
+        face = TestImages.cascade(TestImages.FACE_CASCADE);
+        gray = TestImages.texture(WIDTH, HEIGHT, 5);
+    }
+
+    @Test
+    public void parallelScanDetectsTheSameAsSequential() {
+        JavaCascadeClassifier sequential = new JavaCascadeClassifier(face);
+        for (int threads = 1; threads <= 4; threads++) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            try {
+                ParallelCascadeClassifier parallel = new ParallelCascadeClassifier(face, pool);
+                for (double scaleFactor : new double[] { 1.1, 1.2, 2 }) {
+                    for (int minNeighbors : new int[] { 0, 3 }) {
+                        RectBuffer expected = new RectBuffer();
+                        RectBuffer actual = new RectBuffer();
+                        sequential.detectMultiScale(gray, 0, WIDTH, WIDTH, HEIGHT, scaleFactor, minNeighbors,
+                                0, 0, 0, 0, expected);
+                        parallel.detectMultiScale(gray, 0, WIDTH, WIDTH, HEIGHT, scaleFactor, minNeighbors,
+                                0, 0, 0, 0, actual);
+                        assertEquals(threads + " threads", TestImages.toString(expected), TestImages.toString(actual));
+                    }
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void parallelContextScanDetectsTheSameAsSequential() {
+        JavaCascadeClassifier sequential = new JavaCascadeClassifier(face);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            ParallelCascadeClassifier parallel = new ParallelCascadeClassifier(face, pool);
+            DetectionContext context = new DetectionContext();
+            int[][] regions = { { 0, 0, WIDTH, HEIGHT }, { 13, 27, 150, 120 }, { 200, 100, 120, 140 } };
+            for (int[] r : regions) {
+                RectBuffer expected = new RectBuffer();
+                RectBuffer actual = new RectBuffer();
+                context.setFrame(gray, 0, WIDTH, WIDTH, HEIGHT);
+                sequential.detectMultiScale(context, r[0], r[1], r[2], r[3], 1, 1.1, 0, 0, 0, 0, 0, expected);
+                context.setFrame(gray, 0, WIDTH, WIDTH, HEIGHT);
+                parallel.detectMultiScale(context, r[0], r[1], r[2], r[3], 1, 1.1, 0, 0, 0, 0, 0, actual);
+                assertEquals(TestImages.toString(expected), TestImages.toString(actual));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void releasedClassifierCanStillDetect() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            ParallelCascadeClassifier parallel = new ParallelCascadeClassifier(face, pool);
+            RectBuffer before = new RectBuffer();
+            RectBuffer after = new RectBuffer();
+            parallel.detectMultiScale(gray, 0, WIDTH, WIDTH, HEIGHT, 1.1, 0, 0, 0, 0, 0, before);
+            parallel.release();
+            parallel.detectMultiScale(gray, 0, WIDTH, WIDTH, HEIGHT, 1.1, 0, 0, 0, 0, 0, after);
+            assertEquals(TestImages.toString(before), TestImages.toString(after));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.opencv.objdetect;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RectGroupingTest {
+
+    /** Clusters of jittered rectangles of several sizes, plus isolated ones */
+    private static RectBuffer candidates(long seed, int clusters) {
+        Random random = new Random(seed);
+        RectBuffer rects = new RectBuffer();
+        for (int c = 0; c < clusters; c++) {
+            int size = 20 + random.nextInt(120);
+            int x = random.nextInt(1280), y = random.nextInt(720);
+            int members = 1 + random.nextInt(8);
+            for (int m = 0; m < members; m++) {
+                int jitter = Math.max(size / 10, 1);
+                int s = size + random.nextInt(2 * jitter + 1) - jitter;
+                rects.add(x + random.nextInt(2 * jitter + 1) - jitter, y + random.nextInt(2 * jitter + 1) - jitter, s, s);
+            }
+        }
+        // shuffle, so that clusters are not contiguous
+        int[] r = rects.array();
+        for (int i = rects.size() - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            for (int k = 0; k < 4; k++) {
+                int t = r[i * 4 + k];
+                r[i * 4 + k] = r[j * 4 + k];
+                r[j * 4 + k] = t;
+            }
+        }
+        return rects;
+    }
+
+    private static RectBuffer copy(RectBuffer rects) {
+        RectBuffer copy = new RectBuffer();
+        for (int i = 0; i < rects.size(); i++)
+            copy.add(rects.x(i), rects.y(i), rects.width(i), rects.height(i));
+        return copy;
+    }
+
+    /** cv::groupRectangles() with the partition comparing every pair */
+    private static void groupExhaustively(RectBuffer rects, int groupThreshold, double eps) {
+        int n = rects.size();
+        if (groupThreshold <= 0 || n == 0)
+            return;
+        int[] r = rects.array();
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++)
+            parent[i] = i;
+        for (int i = 0; i < n; i++) {
+            for (int j = i + 1; j < n; j++) {
+                if (!RectGrouping.similar(r, i, j, eps))
+                    continue;
+                int a = root(parent, i), b = root(parent, j);
+                parent[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+        int[] label = new int[n];
+        int nclasses = 0;
+        for (int i = 0; i < n; i++) {
+            int root = root(parent, i);
+            label[i] = root == i ? nclasses++ : label[root];
+        }
+
+        int[] sums = new int[nclasses * 4];
+        int[] weights = new int[nclasses];
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < 4; k++)
+                sums[label[i] * 4 + k] += r[i * 4 + k];
+            weights[label[i]]++;
+        }
+        for (int c = 0; c < nclasses; c++) {
+            float s = 1.f / weights[c];
+            for (int k = 0; k < 4; k++)
+                sums[c * 4 + k] = (int) Math.rint(sums[c * 4 + k] * s);
+        }
+
+        RectBuffer out = new RectBuffer();
+        for (int i = 0; i < nclasses; i++) {
+            int n1 = weights[i];
+            if (n1 <= groupThreshold)
+                continue;
+            int x1 = sums[i * 4], y1 = sums[i * 4 + 1], w1 = sums[i * 4 + 2], h1 = sums[i * 4 + 3];
+            boolean nested = false;
+            for (int j = 0; j < nclasses && !nested; j++) {
+                int n2 = weights[j];
+                if (j == i || n2 <= groupThreshold)
+                    continue;
+                int x2 = sums[j * 4], y2 = sums[j * 4 + 1], w2 = sums[j * 4 + 2], h2 = sums[j * 4 + 3];
+                int dx = (int) Math.rint(w2 * eps);
+                int dy = (int) Math.rint(h2 * eps);
+                nested = x1 >= x2 - dx && y1 >= y2 - dy
+                        && x1 + w1 <= x2 + w2 + dx && y1 + h1 <= y2 + h2 + dy
+                        && (n2 > Math.max(3, n1) || n1 < 3);
+            }
+            if (!nested)
+                out.add(x1, y1, w1, h1);
+        }
+        rects.clear();
+        for (int i = 0; i < out.size(); i++)
+            rects.add(out.x(i), out.y(i), out.width(i), out.height(i));
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i)
+            i = parent[i];
+        return i;
+    }
+
+    /** Greedy suppression comparing every pair */
+    private static int suppressExhaustively(int[] boxes, float[] scores, int count, double iouThreshold, int[] keep) {
+        boolean[] done = new boolean[count];
+        int kept = 0;
+        for (;;) {
+            int best = -1;
+            for (int i = 0; i < count; i++)
+                if (!done[i] && (best < 0 || scores[i] > scores[best]))
+                    best = i;
+            if (best < 0)
+                return kept;
+            done[best] = true;
+            keep[kept++] = best;
+            for (int j = 0; j < count; j++)
+                if (!done[j] && RectGrouping.iou(boxes, best, j) > iouThreshold)
+                    done[j] = true;
+        }
+    }
+
+    @Test
+    public void gridGroupingMatchesExhaustivePartition() {
+        RectGrouping grouping = new RectGrouping();
+        for (long seed = 0; seed < 50; seed++) {
+            RectBuffer rects = candidates(seed, 5 + (int) seed * 4);
+            for (int threshold : new int[] { 1, 2, 3 }) {
+                for (double eps : new double[] { 0.1, RectGrouping.GROUP_EPS, 0.5 }) {
+                    RectBuffer expected = copy(rects);
+                    RectBuffer actual = copy(rects);
+                    groupExhaustively(expected, threshold, eps);
+                    grouping.groupRectangles(actual, threshold, eps);
+                    assertEquals("seed " + seed, TestImages.toString(expected), TestImages.toString(actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void groupingKeepsRectanglesWhenThresholdIsZero() {
+        RectBuffer rects = candidates(1, 10);
+        RectBuffer expected = copy(rects);
+        new RectGrouping().groupRectangles(rects, 0, RectGrouping.GROUP_EPS);
+        assertEquals(TestImages.toString(expected), TestImages.toString(rects));
+    }
+
+    @Test
+    public void suppressionMatchesExhaustiveGreedy() {
+        RectGrouping grouping = new RectGrouping();
+        Random random = new Random(7);
+        for (long seed = 0; seed < 50; seed++) {
+            RectBuffer rects = candidates(seed, 5 + (int) seed * 4);
+            int n = rects.size();
+            float[] scores = new float[n];
+            for (int i = 0; i < n; i++)
+                // a few equal scores, to check that ties go to the lowest index
+                scores[i] = random.nextInt(4) == 0 ? 0.5f : random.nextFloat() * 2 - 1;
+            for (double iou : new double[] { 0.1, 0.3, 0.5, 0.9 }) {
+                int[] expected = new int[n];
+                int[] actual = new int[n];
+                int expectedCount = suppressExhaustively(rects.array(), scores, n, iou, expected);
+                int actualCount = grouping.suppress(rects.array(), scores, n, iou, actual);
+                assertEquals(expectedCount, actualCount);
+                for (int i = 0; i < expectedCount; i++)
+                    assertEquals("seed " + seed + " iou " + iou, expected[i], actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void suppressionKeepsBoxesAndScoresByDecreasingScore() {
+        RectBuffer rects = new RectBuffer();
+        rects.add(0, 0, 10, 10);
+        rects.add(1, 1, 10, 10);
+        rects.add(100, 100, 10, 10);
+        float[] scores = { 0.5f, 0.9f, 0.7f };
+        new RectGrouping().suppress(rects, scores, 0.3);
+        assertEquals("[1,1 10x10, 100,100 10x10]", TestImages.toString(rects));
+        assertEquals(0.9f, scores[0], 0);
+        assertEquals(0.7f, scores[1], 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void suppressionRejectsZeroThreshold() {
+        new RectGrouping().suppress(new int[4], new float[1], 1, 0, new int[1]);
+    }
+}
@@ -0,0 +1,74 @@
+package org.opencv.objdetect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Cascades and synthetic images shared by the detection tests.
+ */
+final class TestImages {
+
+    static final String FACE_CASCADE = "/frontal_cascade_alt";
+    static final String EYES_CASCADE = "/eyes_cascade";
+
+    private TestImages() {
+    }
+
+    static HaarCascade cascade(String resource) throws IOException {
+        InputStream is = open(resource);
+        try {
+            return HaarCascade.load(is);
+        } finally {
+            is.close();
+        }
+    }
+
+    static InputStream open(String resource) throws IOException {
+        InputStream is = TestImages.class.getResourceAsStream(resource);
+        if (is == null)
+            throw new IOException("Missing test resource " + resource);
+        return is;
+    }
+
+    /** Smooth noise with some grain, which lets windows go deep into the cascades */
+    static byte[] texture(int width, int height, long seed) {
+        Random random = new Random(seed);
+        int cell = 8;
+        int gridWidth = width / cell + 2;
+        int[] grid = new int[gridWidth * (height / cell + 2)];
+        for (int i = 0; i < grid.length; i++)
+            grid[i] = random.nextInt(256);
+        byte[] gray = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int gx = x / cell, gy = y / cell;
+                int fx = x % cell, fy = y % cell;
+                int top = grid[gy * gridWidth + gx] * (cell - fx) + grid[gy * gridWidth + gx + 1] * fx;
+                int bottom = grid[(gy + 1) * gridWidth + gx] * (cell - fx) + grid[(gy + 1) * gridWidth + gx + 1] * fx;
+                int value = (top * (cell - fy) + bottom * fy) / (cell * cell) + random.nextInt(16);
+                gray[y * width + x] = (byte) Math.min(value, 255);
+            }
+        }
+        return gray;
+    }
+
+    /** Copies an image into a larger array, with a margin on the left and top */
+    static byte[] embed(byte[] gray, int width, int height, int left, int top, int rowStride) {
+        byte[] big = new byte[(top + height) * rowStride];
+        for (int y = 0; y < height; y++)
+            System.arraycopy(gray, y * width, big, (top + y) * rowStride + left, width);
+        return big;
+    }
+
+    static String toString(RectBuffer rects) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < rects.size(); i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(rects.x(i)).append(',').append(rects.y(i)).append(' ')
+                    .append(rects.width(i)).append('x').append(rects.height(i));
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,148 @@
+package org.opencv.videoio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class AviWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    static ByteBuffer readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        } finally {
+            raf.close();
+        }
+    }
+
+    static String fourcc(ByteBuffer b, int offset) {
+        return new String(new char[] { (char) b.get(offset), (char) b.get(offset + 1),
+                (char) b.get(offset + 2), (char) b.get(offset + 3) });
+    }
+
+    /** Payloads of the {@code 00dc} chunks of the movi list, in file order */
+    static byte[][] frames(ByteBuffer b) {
+        int moviEnd = 220 + b.getInt(216);
+        int count = 0;
+        for (int p = 224; p < moviEnd; p += 8 + (b.getInt(p + 4) + 1 & ~1))
+            count++;
+        byte[][] frames = new byte[count][];
+        int p = 224;
+        for (int i = 0; i < count; i++) {
+            assertEquals("00dc", fourcc(b, p));
+            frames[i] = new byte[b.getInt(p + 4)];
+            for (int k = 0; k < frames[i].length; k++)
+                frames[i][k] = b.get(p + 8 + k);
+            p += 8 + (frames[i].length + 1 & ~1);
+        }
+        return frames;
+    }
+
+    private static byte[] frame(int length, int value) {
+        byte[] frame = new byte[length];
+        for (int i = 0; i < length; i++)
+            frame[i] = (byte) (value + i);
+        return frame;
+    }
+
+    @Test
+    public void headersArePatchedOnClose() throws Exception {
+        File file = folder.newFile("video.avi");
+        AviWriter avi = new AviWriter(file, 640, 480, 15);
+        avi.writeFrame(frame(5, 1), 0, 5);
+        avi.writeFrame(ByteBuffer.wrap(frame(8, 2)));
+        avi.writeFrame(frame(10, 3), 2, 3);
+        assertEquals(3, avi.getFrameCount());
+        avi.close();
+
+        ByteBuffer b = readFile(file);
+        assertEquals("RIFF", fourcc(b, 0));
+        assertEquals(b.capacity() - 8, b.getInt(4));
+        assertEquals("AVI ", fourcc(b, 8));
+        assertEquals("avih", fourcc(b, 24));
+        assertEquals(66667, b.getInt(32));          // microseconds per frame
+        assertEquals(3, b.getInt(48));              // total frames
+        assertEquals(16, b.getInt(60));             // suggested buffer: largest chunk
+        assertEquals(640, b.getInt(64));
+        assertEquals(480, b.getInt(68));
+        assertEquals("strh", fourcc(b, 100));
+        assertEquals("vids", fourcc(b, 108));
+        assertEquals("MJPG", fourcc(b, 112));
+        assertEquals(1, b.getInt(128));             // scale
+        assertEquals(15, b.getInt(132));            // rate
+        assertEquals(3, b.getInt(140));             // length in frames
+        assertEquals(16, b.getInt(144));
+        assertEquals("LIST", fourcc(b, 212));
+        assertEquals("movi", fourcc(b, 220));
+
+        // chunks are padded to an even size
+        int moviSize = b.getInt(216);
+        assertEquals(4 + (8 + 6) + (8 + 8) + (8 + 4), moviSize);
+        byte[][] frames = frames(b);
+        assertEquals(3, frames.length);
+        assertArrayEquals(frame(5, 1), frames[0]);
+        assertArrayEquals(frame(8, 2), frames[1]);
+        assertArrayEquals(new byte[] { 5, 6, 7 }, frames[2]);
+
+        int index = 220 + moviSize;
+        assertEquals("idx1", fourcc(b, index));
+        assertEquals(3 * 16, b.getInt(index + 4));
+        int[] offsets = { 4, 4 + 14, 4 + 14 + 16 };
+        int[] lengths = { 5, 8, 3 };
+        for (int i = 0; i < 3; i++) {
+            int entry = index + 8 + i * 16;
+            assertEquals("00dc", fourcc(b, entry));
+            assertEquals(0x10, b.getInt(entry + 4));
+            assertEquals(offsets[i], b.getInt(entry + 8));
+            assertEquals(lengths[i], b.getInt(entry + 12));
+        }
+        assertEquals(index + 8 + 3 * 16, b.capacity());
+    }
+
+    @Test
+    public void fractionalFrameRateIsExact() throws Exception {
+        File file = folder.newFile("video.avi");
+        new AviWriter(file, 320, 240, 29.97).close();
+        ByteBuffer b = readFile(file);
+        assertEquals(100, b.getInt(128));
+        assertEquals(2997, b.getInt(132));
+        assertEquals(0, b.getInt(48));
+    }
+
+    @Test
+    public void indexGrowsPastItsInitialCapacity() throws Exception {
+        File file = folder.newFile("video.avi");
+        AviWriter avi = new AviWriter(file, 16, 16, 30);
+        for (int i = 0; i < 600; i++)
+            avi.writeFrame(frame(1 + i % 7, i), 0, 1 + i % 7);
+        avi.close();
+        byte[][] frames = frames(readFile(file));
+        assertEquals(600, frames.length);
+        assertArrayEquals(frame(1 + 599 % 7, 599), frames[599]);
+    }
+
+    @Test(expected = IOException.class)
+    public void writingAfterCloseFails() throws Exception {
+        AviWriter avi = new AviWriter(folder.newFile("video.avi"), 16, 16, 30);
+        avi.close();
+        avi.writeFrame(new byte[4], 0, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidFrameRate() throws Exception {
+        new AviWriter(folder.newFile("video.avi"), 16, 16, 0);
+    }
+}
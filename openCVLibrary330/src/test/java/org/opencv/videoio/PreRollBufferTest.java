@@ -0,0 +1,117 @@
+package org.opencv.videoio;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class PreRollBufferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] frame(int length, int value) {
+        byte[] frame = new byte[length];
+        for (int i = 0; i < length; i++)
+            frame[i] = (byte) value;
+        return frame;
+    }
+
+    private static void add(PreRollBuffer buffer, int length, int value, long time) {
+        assertTrue(buffer.add(frame(length, value), 0, length, time));
+    }
+
+    /** Drains the buffer into an AVI file and returns the first byte of every frame */
+    private int[] drain(PreRollBuffer buffer) throws Exception {
+        File file = folder.newFile();
+        AviWriter avi = new AviWriter(file, 16, 16, 30);
+        int written = buffer.drainTo(avi);
+        avi.close();
+        byte[][] frames = AviWriterTest.frames(AviWriterTest.readFile(file));
+        assertEquals(written, frames.length);
+        int[] values = new int[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            for (byte b : frames[i])
+                assertEquals(frames[i][0], b);
+            values[i] = frames[i][0];
+        }
+        return values;
+    }
+
+    @Test
+    public void fullBufferEvictsOldestAndWrapsAround() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(100, 0);
+        add(buffer, 30, 1, 0);
+        add(buffer, 30, 2, 1);
+        add(buffer, 30, 3, 2);
+        // does not fit after frame 3: frame 1 is evicted and frame 4 goes to the start
+        add(buffer, 30, 4, 3);
+        // frame 2 is evicted to make room right after frame 4
+        add(buffer, 30, 5, 4);
+        assertEquals(2, buffer.getEvictedFrameCount());
+        assertEquals(3, buffer.getFrameCount());
+        assertEquals(90, buffer.getUsedBytes());
+        assertEquals(2, buffer.getDurationNanos());
+        assertArrayEquals(new int[] { 3, 4, 5 }, drain(buffer));
+        assertEquals(0, buffer.getFrameCount());
+        assertEquals(0, buffer.getUsedBytes());
+    }
+
+    @Test
+    public void framesOlderThanTheDurationAreEvicted() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(1000, 100);
+        add(buffer, 10, 1, 0);
+        add(buffer, 10, 2, 50);
+        add(buffer, 10, 3, 120);
+        assertEquals(1, buffer.getEvictedFrameCount());
+        assertEquals(70, buffer.getDurationNanos());
+        assertArrayEquals(new int[] { 2, 3 }, drain(buffer));
+    }
+
+    @Test
+    public void frameTableGrows() throws Exception {
+        PreRollBuffer buffer = new PreRollBuffer(4096, 0);
+        for (int i = 0; i < 200; i++)
+            add(buffer, 3 + i % 5, i, i);
+        assertEquals(200, buffer.getFrameCount());
+        int[] values = drain(buffer);
+        for (int i = 0; i < 200; i++)
+            assertEquals((byte) i, values[i]);
+    }
+
+    @Test
+    public void rejectsEmptyAndOversizedFrames() {
+        PreRollBuffer buffer = new PreRollBuffer(16, 0);
+        assertFalse(buffer.add(new byte[0], 0, 0, 0));
+        assertFalse(buffer.add(new byte[17], 0, 17, 0));
+        assertEquals(2, buffer.getRejectedFrameCount());
+        assertEquals(0, buffer.getFrameCount());
+    }
+
+    @Test
+    public void onlyOneOwnerAtATime() throws Exception {
+        final PreRollBuffer buffer = new PreRollBuffer(16, 0);
+        final Object first = new Object();
+        Object second = new Object();
+        assertTrue(buffer.acquire(first));
+        assertTrue(buffer.acquire(first));
+        assertFalse(buffer.acquire(second));
+        buffer.release(second);
+        assertTrue(buffer.isAcquired());
+        assertFalse(buffer.awaitRelease(10));
+
+        Thread releaser = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                buffer.release(first);
+            }
+        });
+        releaser.start();
+        assertTrue(buffer.awaitRelease(10000));
+        releaser.join();
+        assertTrue(buffer.acquire(second));
+    }
+}